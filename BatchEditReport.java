@@ -0,0 +1,285 @@
+import java.io.PrintStream;
+import java.sql.*;
+import java.util.*;
+
+public class BatchEditReport implements ReportRegistry.Provider
+{
+    // the tables that can be edited: menu label, table, primary key, and the column rows are selected by
+    private static final String[][] UPDATE_TABLES = {
+        { "Water Treatment Facility", "Facility", "Facility_ID", "Facility_Name" },
+        { "Water Source", "Water_Source", "Water_Source_ID", "Location" },
+        { "Business", "Business", "Business_ID", "Business_Name" },
+        { "Regulation", "Regulation", "Regulation_ID", "Regulation_Name" } };
+
+    /**
+     * @brief A change to one column of one row, staged by the batch edit screen
+     */
+    private static class StagedChange
+    {
+        private final String table;
+        private final String key;
+        private final Object keyValue;
+        private final String row;
+        private final String column;
+        private final String value;
+
+        private StagedChange(String changeTable, String keyColumn, Object rowKey, String rowLabel,
+                             String targetColumn, String newValue)
+        {
+            table = changeTable;
+            key = keyColumn;
+            keyValue = rowKey;
+            row = rowLabel;
+            column = targetColumn;
+            value = newValue;
+        }
+
+        /**
+         * @brief Tells whether the change is to the row's primary key
+         * @return True if column is the key the row was staged by
+         */
+        private boolean changesKey()
+        {
+            return column.equalsIgnoreCase(key);
+        }
+
+        /**
+         * @brief Returns the statement that applies the change
+         * @return An UPDATE of column by primary key, shared by every change to the same column
+         */
+        private String getUpdate()
+        {
+            return "UPDATE " + table + " SET " + column + " = ? WHERE " + key + " = ?";
+        }
+    }
+
+    /**
+     * @brief Registers the Batch Edit screen
+     * @post SQL#15 will be registered as not runnable unattended
+     */
+    @Override
+    public void registerReports()
+    {
+        ReportRegistry.register("SQL#15", false, BatchEditReport::editRows);
+    }
+
+    /**
+     * @brief Provides a user interface for staging changes to many rows and columns of the
+     *        update tables, and applying them together
+     * @param context The report's context
+     * @param conn A database connection
+     * @post User will be prompted to choose a table, a row, and any number of columns of that
+     *       row with their new values, as often as needed; staged changes can be reviewed, and
+     *       are applied in a single transaction when user chooses to apply them, or discarded
+     *       when user goes back; a summary of the rows affected will be printed
+     */
+    private static void editRows(ReportContext context, Connection conn)
+    {
+        String review = "Review Staged Changes";
+        String apply = "Apply Staged Changes";
+        String backValue = "Back to Menu";
+        String discard = "Discard Staged Changes and Go Back";
+        List<StagedChange> staged = new ArrayList<StagedChange>();
+        try
+        {
+            while (true)
+            {
+                Map<String, String> options = new LinkedHashMap<String, String>();
+                for (int i = 0; i < UPDATE_TABLES.length; i++)
+                    options.put(String.valueOf(i + 1), UPDATE_TABLES[i][0]);
+                if (!staged.isEmpty())
+                {
+                    options.put("R", review);
+                    options.put("A", apply);
+                }
+                options.put("B", staged.isEmpty() ? backValue : discard);
+
+                context.getOutput().println(staged.size() + " change(s) staged");
+                String selection = context.getUserSelection(options, "action");
+                if (selection.equals(backValue) || selection.equals(discard))
+                    break;
+                else if (selection.equals(review))
+                    printStagedChanges(context, staged);
+                else if (selection.equals(apply))
+                {
+                    applyStagedChanges(context, conn, staged);
+                }
+                else
+                {
+                    for (String[] target : UPDATE_TABLES)
+                    {
+                        if (target[0].equals(selection))
+                            stageChanges(context, conn, target[1], target[2], target[3], staged);
+                    }
+                }
+            }
+            context.goBack();
+        }
+        catch (SQLException e)
+        {
+            context.printError(e);
+        }
+    }
+
+    /**
+     * @brief Prompts user to select a row of a table, and stages new values for its columns
+     * @param context The report's context
+     * @param conn A database connection
+     * @param table A database table
+     * @param key The table's primary key
+     * @param column The column to select the row by
+     * @param staged The changes staged so far
+     * @post The selected row's current values will be printed; each column user chooses, with
+     *       its new value, will be added to staged for every row matching the selection, until
+     *       user is done with the row
+     * @throws SQLException
+     */
+    private static void stageChanges(ReportContext context, Connection conn, String table, String key, String column,
+                                     List<StagedChange> staged) throws SQLException
+    {
+        String backValue = "Back";
+        String selection = context.getRowSelection(conn, table, key, column, null, "row", backValue, table);
+        if (selection.equals(backValue))
+            return;
+
+        try (ResultSet result = context.executeQuery(conn, SQLMethod.getDetailQuery(column, table), selection))
+        {
+            context.printFullResultSingleColumn(result);
+        }
+
+        // stage by primary key, so changes do not depend on the order they are applied in
+        List<Object> keys = new ArrayList<Object>();
+        try (ResultSet result = context.executeQuery(conn, "SELECT " + key + " FROM " + table + " WHERE " + column + " = ?", selection))
+        {
+            while (result != null && result.next())
+                keys.add(result.getObject(1));
+        }
+
+        String done = "Done with " + selection;
+        Map<String, String> columns = new LinkedHashMap<String, String>(context.getCachedColumnList(conn, table));
+        columns.put("B", done);
+        while (true)
+        {
+            String targetCol = context.getUserSelection(columns, "column");
+            if (targetCol.equals(done))
+                return;
+
+            String targetVal = Input.getString("Enter a new value for " + targetCol);
+            for (Object rowKey : keys)
+                staged.add(new StagedChange(table, key, rowKey, selection, targetCol, targetVal));
+            context.getOutput().println("Staged: " + targetCol + " of " + selection + " = " + targetVal + "\n");
+        }
+    }
+
+    /**
+     * @brief Prints the staged changes
+     * @param context The report's context
+     * @param staged The changes staged so far
+     * @post The table, row, column and new value of each change will be printed, in the order staged
+     */
+    private static void printStagedChanges(ReportContext context, List<StagedChange> staged)
+    {
+        List<String[]> table = new ArrayList<String[]>(staged.size() + 1);
+        table.add(new String[] { "Table", "Row", "Column", "New Value" });
+        for (StagedChange change : staged)
+            table.add(new String[] { change.table, change.row + " (" + change.keyValue + ")", change.column, change.value });
+        Menu.printBorder(context.getOutput(), '-', 0, 0);
+        context.printGrid(table, 15, 35, 25, 30);
+        Menu.printBorder(context.getOutput(), '-', 0, 1);
+    }
+
+    /**
+     * @brief Applies staged changes in a single transaction
+     * @param context The report's context
+     * @param conn A database connection
+     * @param staged The changes to apply
+     * @post The changes to each column will be sent as one JDBC batch, with changes to primary
+     *       keys sent last, as the other changes find their rows by the old key, and all batches
+     *       committed together; if any change fails, or finds no row to update, every change
+     *       will be rolled back and the error printed; staged will be emptied either way; the
+     *       rows affected by each column's changes will be printed, and the cached option
+     *       lists of every table changed invalidated
+     * @throws SQLException if the auto-commit mode of conn cannot be changed
+     */
+    private static void applyStagedChanges(ReportContext context, Connection conn, List<StagedChange> staged)
+            throws SQLException
+    {
+        PrintStream out = context.getOutput();
+
+        // one batch per statement, in the order each statement was first staged, except that key
+        // changes go last; changes to the same row and column keep their staged order, so the
+        // last value staged wins
+        Map<String, List<StagedChange>> batches = new LinkedHashMap<String, List<StagedChange>>();
+        for (boolean keys : new boolean[] { false, true })
+        {
+            for (StagedChange change : staged)
+            {
+                if (change.changesKey() == keys)
+                    batches.computeIfAbsent(change.getUpdate(), update -> new ArrayList<StagedChange>()).add(change);
+            }
+        }
+
+        List<String[]> summary = new ArrayList<String[]>(batches.size() + 1);
+        summary.add(new String[] { "Table", "Column", "Changes", "Rows Affected" });
+        int changeCount = staged.size();
+        int totalRows = 0;
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try
+        {
+            for (Map.Entry<String, List<StagedChange>> batch : batches.entrySet())
+            {
+                // prepared here rather than from StatementCache, which may close a statement it evicts
+                try (PreparedStatement stmt = conn.prepareStatement(batch.getKey()))
+                {
+                    for (StagedChange change : batch.getValue())
+                    {
+                        stmt.setObject(1, change.value);
+                        stmt.setObject(2, change.keyValue);
+                        stmt.addBatch();
+                    }
+                    int rows = 0;
+                    int[] counts = stmt.executeBatch();
+                    for (int i = 0; i < counts.length; i++)
+                    {
+                        // the row was deleted since it was staged, or its key already changed
+                        if (counts[i] == 0)
+                        {
+                            StagedChange change = batch.getValue().get(i);
+                            throw new SQLException("No row of " + change.table + " has " + change.key + " = " +
+                                                   change.keyValue + " to set " + change.column + " = " + change.value);
+                        }
+                        rows += counts[i] == Statement.SUCCESS_NO_INFO ? 1 : counts[i];
+                    }
+                    totalRows += rows;
+
+                    StagedChange first = batch.getValue().get(0);
+                    summary.add(new String[] { first.table, first.column, String.valueOf(batch.getValue().size()),
+                                               String.valueOf(rows) });
+                }
+            }
+            conn.commit();
+        }
+        catch (SQLException | RuntimeException e)
+        {
+            conn.rollback();
+            out.println("No changes were applied; the transaction was rolled back and the staged changes discarded.");
+            context.printError(e);
+            Menu.printBorder(out, '-', 0, 1);
+            return;
+        }
+        finally
+        {
+            conn.setAutoCommit(autoCommit);
+            for (List<StagedChange> batch : batches.values())
+                ReferenceCache.invalidate(batch.get(0).table);
+            staged.clear();
+        }
+
+        out.println();
+        out.println(changeCount + " change(s) applied in one transaction, affecting " + totalRows + " row(s).");
+        Menu.printBorder(out, '-', 0, 0);
+        context.printGrid(summary, 20, 30, 10, 15);
+        Menu.printBorder(out, '-', 0, 1);
+    }
+}
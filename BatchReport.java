@@ -0,0 +1,477 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BatchReport
+{
+    private static final int DEFAULT_THREADS = 4;
+    private static final long DEFAULT_TIMEOUT = 60;      // minutes
+
+    private final MySQLConnection mySQL;
+    private final Path outputDir;
+    private final int threads;
+    private final long timeoutMinutes;
+
+    /**
+     * @brief A single report to run, with the answers to its prompts
+     */
+    private static class Job
+    {
+        private final String report;
+        private final Map<String, String> arguments;
+        private String fileName;    // set by expand, unique within the batch
+
+        private Job(String reportId, Map<String, String> reportArguments)
+        {
+            report = reportId;
+            arguments = reportArguments;
+        }
+
+        /**
+         * @brief Returns a file name made from the report and its arguments, without extension
+         * @return A name such as SQL#2_source=Columbia_River, safe to use on any file system,
+         *         which other jobs may share, as unsafe characters are replaced
+         */
+        private String getBaseName()
+        {
+            StringBuilder name = new StringBuilder(report.toUpperCase());
+            for (Map.Entry<String, String> arg : arguments.entrySet())
+                name.append('_').append(arg.getKey()).append('=').append(arg.getValue());
+            return name.toString().replaceAll("[^A-Za-z0-9#=.-]", "_");
+        }
+
+        @Override
+        public String toString()
+        {
+            return report.toUpperCase() + (arguments.isEmpty() ? "" : " " + arguments);
+        }
+    }
+
+    /**
+     * @brief Runs reports without prompting, and writes each to a file
+     * @param args [-threads n] [-timeout minutes] [-snapshot file] outputDir job...
+     *             where each job is a report ID followed by its arguments, e.g.
+     *             "SQL#2:source=Columbia River" or "SQL#5:month=2020-01,to=2020-12",
+     *             or @file to read jobs from a file, one per line
+     * @pre Report arguments, as name=value, are:
+     *        SQL#1          facility
+     *        SQL#2, SQL#4   source
+     *        SQL#3          regulation
+     *        SQL#5, SQL#6   month, and optionally to
+     *        SQL#13         filter and order
+     *        SQL#16         table and format, and optionally compress and file
+     *        SQL#17         type, source and month, and optionally to
+     *        SQL#18         optionally file
+     *        SQL#19         by, measure and month, and optionally to
+     *        SQL#20         by and month, and optionally to
+     *        SQL#21         for, business or source, and months
+     *      facility, business, source, regulation and month may be * to run the report for
+     *      every value. The database user and password are read from DSS_USER and
+     *      DSS_PASSWORD, and are not needed with -snapshot, which runs the reports against a
+     *      file saved by SQL#18
+     * @post Each report will be written to its own file in outputDir; the process will exit
+     *       with status 1 if DSS_USER or DSS_PASSWORD is unset without -snapshot, any report
+     *       failed, or the reports did not finish within the timeout
+     */
+    public static void main(String[] args)
+    {
+        int threads = DEFAULT_THREADS;
+        long timeout = DEFAULT_TIMEOUT;
+        String snapshot = "";
+        int i = 0;
+        try
+        {
+            for (; i < args.length && args[i].startsWith("-"); i += 2)
+            {
+                if (args[i].equals("-threads"))
+                    threads = Integer.parseInt(args[i + 1]);
+                else if (args[i].equals("-timeout"))
+                    timeout = Long.parseLong(args[i + 1]);
+                else if (args[i].equals("-snapshot"))
+                    snapshot = args[i + 1];
+                else
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            System.out.println(e.getMessage());
+            i = args.length;
+        }
+        if (args.length - i < 2)
+        {
+            printUsage();
+            return;
+        }
+
+        // there is no one to answer a login prompt, so the credentials must be in the environment
+        String user = System.getenv("DSS_USER");
+        String pass = System.getenv("DSS_PASSWORD");
+        if (snapshot.isEmpty() && (user == null || user.isEmpty() || pass == null || pass.isEmpty()))
+        {
+            System.out.println("Set DSS_USER and DSS_PASSWORD, or use -snapshot");
+            printUsage();
+            System.exit(1);
+        }
+
+        List<Job> jobs = new ArrayList<Job>();
+        try
+        {
+            for (int j = i + 1; j < args.length; j++)
+            {
+                if (args[j].startsWith("@"))
+                {
+                    for (String line : Files.readAllLines(Paths.get(args[j].substring(1)), StandardCharsets.UTF_8))
+                    {
+                        if (!line.trim().isEmpty() && !line.trim().startsWith("#"))
+                            jobs.add(parseJob(line.trim()));
+                    }
+                }
+                else
+                    jobs.add(parseJob(args[j]));
+            }
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+
+        // adjust variable values as needed; the database is set in MySQLConnection
+        long slowQueryMillis = 1000;  // log slower queries, with their plans, to slow-queries.0.log; 0 logs none
+        boolean usageSnapshot = false; // answer SQL#5 - SQL#7 from an in-memory copy of Business_Used
+
+        SlowQueryLog.setThreshold(slowQueryMillis);
+        MySQLConnection mySQL;
+        if (!snapshot.isEmpty())
+        {
+            // the usage reports need UsageSnapshot, as a snapshot cannot run their GROUP BY queries
+            SQLMethod.setUseUsageSnapshot(true);
+            mySQL = new MySQLConnection(Paths.get(snapshot), threads);
+        }
+        else
+        {
+            SQLMethod.setUseUsageSnapshot(usageSnapshot);
+            mySQL = new MySQLConnection(MySQLConnection.HOST, MySQLConnection.PORT, MySQLConnection.SCHEMA,
+                                        MySQLConnection.PARAMETERS, user, pass, threads);
+        }
+        boolean success = false;
+        if (mySQL.isConnected() && (mySQL.isSnapshot() || new MigrationRunner().migrate(mySQL)))
+            success = new BatchReport(mySQL, Paths.get(args[i]), threads, timeout).run(jobs);
+        mySQL.closeDBConnection();
+        System.exit(success ? 0 : 1);
+    }
+
+    /**
+     * @brief Prints how to run BatchReport
+     * @post The command line syntax and an example will be printed
+     */
+    private static void printUsage()
+    {
+        System.out.println("Usage: java BatchReport [-threads n] [-timeout minutes] [-snapshot file] <outputDir> <job | @jobFile>...");
+        System.out.println("  e.g. java BatchReport reports SQL#7 SQL#12 \"SQL#2:source=*\" \"SQL#5:month=2020-01,to=2020-12\"");
+    }
+
+    /**
+     * @brief Creates a new BatchReport
+     * @param pool A pool of database connections, with at least one connection per thread
+     * @param directory The directory that report files are written to
+     * @param threadCount The number of reports to run at the same time
+     * @param timeout The number of minutes the whole batch may take
+     */
+    public BatchReport(MySQLConnection pool, Path directory, int threadCount, long timeout)
+    {
+        mySQL = pool;
+        outputDir = directory;
+        threads = threadCount;
+        timeoutMinutes = timeout;
+    }
+
+    /**
+     * @brief Parses a job of the form REPORT[:name=value,name=value...]
+     * @param spec The job specification
+     * @return The job
+     * @throws IllegalArgumentException if the report does not exist or cannot run unattended,
+     *         or an argument is not of the form name=value
+     */
+    private static Job parseJob(String spec)
+    {
+        int colon = spec.indexOf(':');
+        String report = (colon < 0 ? spec : spec.substring(0, colon)).trim().toLowerCase();
+        if (!ReportRegistry.canRunUnattended(report))
+            throw new IllegalArgumentException("Not a batch report: " + spec);
+
+        Map<String, String> arguments = new LinkedHashMap<String, String>();
+        if (colon >= 0)
+        {
+            for (String arg : spec.substring(colon + 1).split(","))
+            {
+                int eq = arg.indexOf('=');
+                if (eq < 0)
+                    throw new IllegalArgumentException("Expected name=value, found \"" + arg + "\" in " + spec);
+                arguments.put(arg.substring(0, eq).trim().toLowerCase(), arg.substring(eq + 1).trim());
+            }
+        }
+        return new Job(report, arguments);
+    }
+
+    /**
+     * @brief Runs every job, in parallel on separate connections
+     * @param jobs The jobs to run
+     * @return True if every report was written, or false otherwise
+     * @post Jobs with * arguments will be expanded into one job per value; each report will
+     *       be written to a temporary file and moved into place once complete, so the output
+     *       directory never holds a partial report; the outcome and time of each report will
+     *       be printed
+     */
+    private boolean run(List<Job> jobs)
+    {
+        long start = System.nanoTime();
+        List<Job> expanded;
+        try
+        {
+            Files.createDirectories(outputDir);
+            expanded = expand(jobs);
+        }
+        catch (IOException | SQLException | IllegalArgumentException e)
+        {
+            System.out.println("Batch not started: " + e.getMessage());
+            return false;
+        }
+
+        boolean success = true;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Map<Job, Future<Double>> results = new LinkedHashMap<Job, Future<Double>>();
+        for (Job job : expanded)
+            results.put(job, executor.submit(() -> runJob(job)));
+        executor.shutdown();
+
+        try
+        {
+            if (!executor.awaitTermination(timeoutMinutes, TimeUnit.MINUTES))
+                executor.shutdownNow();
+        }
+        catch (InterruptedException e)
+        {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        for (Map.Entry<Job, Future<Double>> result : results.entrySet())
+        {
+            String outcome;
+            if (!result.getValue().isDone() || result.getValue().isCancelled())
+                outcome = "TIMED OUT";
+            else
+            {
+                try
+                {
+                    outcome = String.format("written in %.2f s", result.getValue().get());
+                }
+                catch (ExecutionException | InterruptedException e)
+                {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    outcome = "FAILED, " + cause;
+                }
+            }
+            success &= outcome.startsWith("written");
+            System.out.printf("%-60s %s%n", result.getKey(), outcome);
+        }
+
+        System.out.printf("Batch of %d report(s) %s in %.1f s%n", expanded.size(), success ? "finished" : "FAILED",
+                          (System.nanoTime() - start) / 1e9);
+        return success;
+    }
+
+    /**
+     * @brief Runs one report and writes it to its file
+     * @param job The report to run
+     * @return The number of seconds the report took
+     * @post The file will only be written if the report ran without error
+     * @throws IOException if the file could not be written, or the report failed to write
+     *         a file of its own
+     * @throws SQLException if the report failed
+     * @throws IllegalArgumentException if the job's arguments do not fit the report
+     */
+    private double runJob(Job job) throws IOException, SQLException
+    {
+        long start = System.nanoTime();
+        Path file = outputDir.resolve(job.fileName);
+        Path temp = outputDir.resolve(job.fileName + ".part");
+        try
+        {
+            try (PrintStream out = new PrintStream(new BufferedOutputStream(Files.newOutputStream(temp)),
+                                                   false, StandardCharsets.UTF_8.name()))
+            {
+                out.println(job + " generated " + LocalDateTime.now().withNano(0));
+                Menu.printBorder(out, '=', 0, 1);
+                SQLMethod report = new SQLMethod(job.report, job.arguments, out);
+                report.executeSQL(mySQL);
+                if (report.getFailure() instanceof SQLException)
+                    throw (SQLException) report.getFailure();
+                if (report.getFailure() instanceof IOException)
+                    throw (IOException) report.getFailure();
+                if (out.checkError())
+                    throw new IOException("Could not write " + temp);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return (System.nanoTime() - start) / 1e9;
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @brief Replaces every job that has a * argument with one job per value of that argument
+     * @param jobs The jobs as given
+     * @return The jobs to run
+     * @post Each job will have a file name that no other job has, ignoring case; if SQL#7
+     *       is among the jobs, the monthly usage rollup will have been reconciled
+     *       so that the report reflects every usage record; likewise the treatment index
+     *       for SQL#4 and SQL#13; a snapshot is read as it was saved
+     * @throws SQLException
+     * @throws IllegalArgumentException if * is given for an argument that cannot be listed
+     */
+    private List<Job> expand(List<Job> jobs) throws SQLException
+    {
+        List<Job> expanded = new ArrayList<Job>();
+        Connection conn = mySQL.borrowConn();
+        try
+        {
+            for (Job job : jobs)
+            {
+                List<Job> pending = new ArrayList<Job>();
+                pending.add(job);
+                for (Map.Entry<String, String> arg : job.arguments.entrySet())
+                {
+                    if (!arg.getValue().equals("*"))
+                        continue;
+
+                    List<Job> next = new ArrayList<Job>();
+                    for (String value : getAllValues(conn, job.report, arg.getKey()))
+                    {
+                        for (Job partial : pending)
+                        {
+                            Map<String, String> arguments = new LinkedHashMap<String, String>(partial.arguments);
+                            arguments.put(arg.getKey(), value);
+                            next.add(new Job(job.report, arguments));
+                        }
+                    }
+                    pending = next;
+                }
+                expanded.addAll(pending);
+            }
+
+            // values such as "Source 1" and "Source_1" give the same name, and file systems may
+            // ignore case, so number the later jobs rather than have them overwrite each other
+            Set<String> names = new HashSet<String>();
+            for (Job job : expanded)
+            {
+                String base = job.getBaseName();
+                job.fileName = base + ".txt";
+                for (int n = 2; !names.add(job.fileName.toLowerCase()); n++)
+                    job.fileName = base + "_" + n + ".txt";
+            }
+
+            if (!mySQL.isSnapshot())
+            {
+                for (Job job : expanded)
+                {
+                    if (job.report.equals("sql#7"))
+                    {
+                        UsageRollup.reconcile(conn);
+                        break;
+                    }
+                }
+                for (Job job : expanded)
+                {
+                    if (job.report.equals("sql#4") || job.report.equals("sql#13"))
+                    {
+                        TreatmentIndex.reconcile(conn);
+                        break;
+                    }
+                }
+            }
+            return expanded;
+        }
+        finally
+        {
+            mySQL.returnConn(conn);
+        }
+    }
+
+    /**
+     * @brief Lists every value a report argument can take
+     * @param conn A database connection
+     * @param report The report ID
+     * @param argument The argument name
+     * @return The values, in the order the report lists them
+     * @throws SQLException
+     * @throws IllegalArgumentException if the argument cannot be listed
+     */
+    private List<String> getAllValues(Connection conn, String report, String argument) throws SQLException
+    {
+        String query;
+        switch (argument)
+        {
+            case "facility":   query = SQLMethod.FACILITY_LIST; break;
+            case "business":   query = SQLMethod.BUSINESS_LIST; break;
+            case "source":     query = report.equals("sql#4") ? SQLMethod.REGULATED_SOURCES : SQLMethod.WATER_SOURCE_LIST; break;
+            case "regulation": query = SQLMethod.REGULATION_LIST; break;
+            case "month":
+                if (!report.equals("sql#5") && !report.equals("sql#6"))
+                    throw new IllegalArgumentException(report.toUpperCase() + " has no month argument");
+                return getAllMonths(conn, report.equals("sql#5") ? "Industrial" : "Agricultural");
+            default:
+                throw new IllegalArgumentException("* is not supported for " + argument);
+        }
+
+        List<String> values = new ArrayList<String>();
+        try (PreparedStatement stmt = conn.prepareStatement(query);
+             ResultSet result = stmt.executeQuery())
+        {
+            while (result.next())
+                values.add(result.getString(1));
+        }
+        return values;
+    }
+
+    /**
+     * @brief Lists every month in which usage was reported for a business type
+     * @param conn A database connection
+     * @param businessType Industrial or Agricultural
+     * @return The months from the first to the last reported, in YYYY-MM format
+     * @throws SQLException
+     */
+    private List<String> getAllMonths(Connection conn, String businessType) throws SQLException
+    {
+        List<String> months = new ArrayList<String>();
+        if (mySQL.isSnapshot())
+        {
+            YearMonth[] range = UsageSnapshot.get(conn).getMonthRange(businessType);
+            for (YearMonth m = range == null ? null : range[0]; m != null && !m.isAfter(range[1]); m = m.plusMonths(1))
+                months.add(m.toString());
+            return months;
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(SQLMethod.USAGE_DATE_RANGE))
+        {
+            stmt.setString(1, businessType);
+            try (ResultSet result = stmt.executeQuery())
+            {
+                if (result.next() && result.getDate(1) != null)
+                {
+                    YearMonth last = YearMonth.from(result.getDate(2).toLocalDate());
+                    for (YearMonth m = YearMonth.from(result.getDate(1).toLocalDate()); !m.isAfter(last); m = m.plusMonths(1))
+                        months.add(m.toString());
+                }
+            }
+        }
+        return months;
+    }
+}
@@ -0,0 +1,488 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BulkLoader
+{
+    private static final int BATCH_SIZE = 5_000;
+
+    // Tables grouped by foreign key depth; the tables in a group are loaded in parallel, and a
+    // group starts only after every table it references has been loaded
+    private static final String[][] LOAD_ORDER = {
+        { "Facility", "Water_Source", "Business", "Treatment", "Regulation" },
+        { "Business_Used", "Treatments_Performed", "Water_Source_Has_Regulation",
+          "Treatment_Has_Regulation", "Investment" }
+    };
+
+    private final MySQLConnection mySQL;
+    private final Path dataDir;
+    private final char delimiter;
+    private final boolean useLoadData;
+
+    /**
+     * @brief Loads the water_treatment2 tables from delimited files
+     * @param args [0] a directory containing one file per table, named <Table>.csv;
+     *             [1] optional, "batch" (default) to use batched multi-row inserts, or
+     *             "infile" to use LOAD DATA LOCAL INFILE;
+     *             [2] optional, the field delimiter (default ",")
+     * @pre The first line of each file must be a header row naming columns of its table, which
+     *      are checked against the database before loading; fields may be
+     *      enclosed in double quotes; in batch mode, an empty unquoted field is loaded as NULL,
+     *      while in infile mode NULL must be written as \N
+     * @post Every table with a file in the directory will be loaded, and rows per second
+     *       will be reported for each table
+     */
+    public static void main(String[] args)
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: java BulkLoader <dataDir> [batch|infile] [delimiter]");
+            return;
+        }
+
+        // adjust variable values as needed; the database is set in MySQLConnection
+        String param  = MySQLConnection.PARAMETERS + "&rewriteBatchedStatements=true&allowLoadLocalInfile=true";
+        String user   = "";
+        String pass   = "";
+
+        user = !user.isEmpty() ? user : Input.getString("UserId  ");
+        pass = !pass.isEmpty() ? pass : Input.getString("Password");
+
+        boolean infile = args.length > 1 && args[1].equalsIgnoreCase("infile");
+        char delimiter = args.length > 2 && !args[2].isEmpty() ? args[2].charAt(0) : ',';
+
+        int poolSize = 0;
+        for (String[] group : LOAD_ORDER)
+            poolSize = Math.max(poolSize, group.length);
+
+        MySQLConnection mySQL = new MySQLConnection(MySQLConnection.HOST, MySQLConnection.PORT, MySQLConnection.SCHEMA,
+                                                    param, user, pass, poolSize);
+        if (mySQL.isConnected())
+        {
+            BulkLoader loader = new BulkLoader(mySQL, Paths.get(args[0]), delimiter, infile);
+            boolean success = loader.loadAll();
+            mySQL.closeDBConnection();
+            if (!success)
+                System.exit(1);
+        }
+    }
+
+    /**
+     * @brief Creates a new BulkLoader
+     * @param pool A pool of database connections, with at least one connection per table in a group
+     * @param directory The directory containing the table files
+     * @param fieldDelimiter The character separating fields in the files
+     * @param loadData Specifies whether to use LOAD DATA LOCAL INFILE instead of batched inserts
+     */
+    public BulkLoader(MySQLConnection pool, Path directory, char fieldDelimiter, boolean loadData)
+    {
+        mySQL = pool;
+        dataDir = directory;
+        delimiter = fieldDelimiter;
+        useLoadData = loadData;
+    }
+
+    /**
+     * @brief Loads every table that has a file in the data directory
+     * @return True if every table loaded successfully, or false otherwise
+     * @post Tables will be loaded group by group in LOAD_ORDER, with the tables in each
+     *       group loaded in parallel on separate connections; cached option lists of the
+     *       loaded tables will be invalidated; a table that fails to load is rolled back
+     *       whole, so the rollup and index are rebuilt whenever rows were committed: if
+     *       Business_Used was loaded, the monthly usage rollup will be rebuilt; if
+     *       Treatments_Performed was loaded, the treatment index will be rebuilt
+     */
+    public boolean loadAll()
+    {
+        boolean success = true;
+        boolean usageLoaded = false;
+        boolean treatmentsLoaded = false;
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(mySQL.getMaxPoolSize());
+        try
+        {
+            for (String[] group : LOAD_ORDER)
+            {
+                Map<String, Future<Long>> results = new LinkedHashMap<String, Future<Long>>();
+                for (String table : group)
+                {
+                    Path file = dataDir.resolve(table + ".csv");
+                    if (Files.isReadable(file))
+                        results.put(table, executor.submit(() -> loadTable(table, file)));
+                }
+
+                for (Map.Entry<String, Future<Long>> result : results.entrySet())
+                {
+                    try
+                    {
+                        result.getValue().get();
+                        ReferenceCache.invalidate(result.getKey());
+                        usageLoaded |= result.getKey().equals("Business_Used");
+                        treatmentsLoaded |= result.getKey().equals("Treatments_Performed");
+                    }
+                    catch (ExecutionException e)
+                    {
+                        System.out.println(result.getKey() + ": load failed, " + e.getCause());
+                        success = false;
+                    }
+                }
+                if (!success)
+                    break;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            success = false;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        if (usageLoaded)
+            success &= reconcileRollup();
+        if (treatmentsLoaded)
+            success &= reconcileTreatmentIndex();
+
+        System.out.printf("Bulk load %s in %.1f s%n", success ? "finished" : "FAILED",
+                          (System.nanoTime() - start) / 1e9);
+        return success;
+    }
+
+    /**
+     * @brief Loads a single table from its file on a connection of its own
+     * @param table The table name
+     * @param file The file containing the table's rows
+     * @return The number of rows loaded
+     * @post The rows will be committed in one transaction without firing the change triggers,
+     *       together with a single load record in Change_Log, and the rows per second printed;
+     *       if the load fails, no row of the table will have been committed
+     * @throws SQLException
+     * @throws IOException
+     */
+    private long loadTable(String table, Path file) throws SQLException, IOException
+    {
+        long start = System.nanoTime();
+        Connection conn = mySQL.borrowConn();
+        try
+        {
+            // skip per-row constraint work and change logging; the data is expected to be consistent
+            // as a whole, and the load is logged once for the whole table instead
+            try (Statement stmt = conn.createStatement())
+            {
+                stmt.execute("SET FOREIGN_KEY_CHECKS = 0");
+                stmt.execute("SET UNIQUE_CHECKS = 0");
+                stmt.execute("SET " + MigrationRunner.SKIP_CHANGE_LOG + " = 1");
+            }
+            conn.setAutoCommit(false);
+
+            long rows = useLoadData ? loadDataInfile(conn, table, file) : insertBatches(conn, table, file);
+            logLoad(conn, table);
+            conn.commit();
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-30s%,12d rows in %8.2f s (%,.0f rows/s)%n", table, rows, seconds,
+                              rows / Math.max(seconds, 1e-9));
+            return rows;
+        }
+        catch (SQLException | IOException | RuntimeException e)
+        {
+            conn.rollback();
+            throw e;
+        }
+        finally
+        {
+            try (Statement stmt = conn.createStatement())
+            {
+                stmt.execute("SET FOREIGN_KEY_CHECKS = 1");
+                stmt.execute("SET UNIQUE_CHECKS = 1");
+                stmt.execute("SET " + MigrationRunner.SKIP_CHANGE_LOG + " = NULL");
+            }
+            finally
+            {
+                mySQL.returnConn(conn);
+            }
+        }
+    }
+
+    /**
+     * @brief Loads a table with batched inserts, which Connector/J rewrites into multi-row
+     *        INSERT statements when rewriteBatchedStatements=true
+     * @param conn A database connection with auto-commit turned off
+     * @param table The table name
+     * @param file The file containing the table's rows
+     * @return The number of rows inserted, which are left for the caller to commit
+     * @throws SQLException
+     * @throws IOException
+     */
+    private long insertBatches(Connection conn, String table, Path file) throws SQLException, IOException
+    {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            String header = reader.readLine();
+            if (header == null)
+                return 0;
+            List<String> columns = getQuotedColumns(conn, table, parseHeader(header));
+
+            StringBuilder insert = new StringBuilder("INSERT INTO " + quote(conn, getTableName(conn, table)) + " (");
+            StringBuilder values = new StringBuilder(") VALUES (");
+            for (int i = 0; i < columns.size(); i++)
+            {
+                insert.append(i > 0 ? ", " : "").append(columns.get(i));
+                values.append(i > 0 ? ", ?" : "?");
+            }
+
+            long rows = 0;
+            try (PreparedStatement stmt = conn.prepareStatement(insert.toString() + values + ")"))
+            {
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    if (line.isEmpty())
+                        continue;
+
+                    List<String> fields = parseLine(line);
+                    for (int i = 0; i < columns.size(); i++)
+                        stmt.setString(i + 1, i < fields.size() ? fields.get(i) : null);
+                    stmt.addBatch();
+                    rows++;
+
+                    if (rows % BATCH_SIZE == 0)
+                        stmt.executeBatch();
+                }
+                stmt.executeBatch();
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * @brief Loads a table with LOAD DATA LOCAL INFILE
+     * @pre The connection parameters must include allowLoadLocalInfile=true, and the server
+     *      must have local_infile enabled
+     * @param conn A database connection with auto-commit turned off
+     * @param table The table name
+     * @param file The file containing the table's rows
+     * @return The number of rows loaded
+     * @throws SQLException
+     * @throws IOException
+     */
+    private long loadDataInfile(Connection conn, String table, Path file) throws SQLException, IOException
+    {
+        String header;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            header = reader.readLine();
+        }
+        if (header == null)
+            return 0;
+
+        String path = file.toAbsolutePath().toString().replace("\\", "\\\\").replace("'", "\\'");
+        String sep = delimiter == '\t' ? "\\t" : String.valueOf(delimiter).replace("'", "\\'");
+        List<String> columns = getQuotedColumns(conn, table, parseHeader(header));
+        String load = "LOAD DATA LOCAL INFILE '" + path + "' INTO TABLE " + quote(conn, getTableName(conn, table)) +
+                      " CHARACTER SET utf8mb4 FIELDS TERMINATED BY '" + sep + "' OPTIONALLY ENCLOSED BY '\"'" +
+                      " LINES TERMINATED BY '\\n' IGNORE 1 LINES (" + String.join(", ", columns) + ")";
+        try (Statement stmt = conn.createStatement())
+        {
+            return stmt.executeLargeUpdate(load);
+        }
+    }
+
+    /**
+     * @brief Records the load of a table in Change_Log, in place of the changes to its rows
+     * @param conn A database connection with auto-commit turned off
+     * @param table The table name
+     * @post An 'L' record for table will be logged, which makes ChangePoller rebuild every
+     *       cache of a running DSS
+     * @throws SQLException
+     */
+    private void logLoad(Connection conn, String table) throws SQLException
+    {
+        String log = "INSERT INTO Change_Log (Table_Name, Operation, Row_Key) VALUES (?, 'L', '')";
+        try (PreparedStatement stmt = conn.prepareStatement(log))
+        {
+            stmt.setString(1, getTableName(conn, table));
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * @brief Rebuilds the treatment index after Treatments_Performed has been loaded
+     * @return True if the index was rebuilt, or false otherwise
+     */
+    private boolean reconcileTreatmentIndex()
+    {
+        Connection conn = null;
+        try
+        {
+            conn = mySQL.borrowConn();
+            TreatmentIndex.reconcile(conn);
+            return true;
+        }
+        catch (SQLException e)
+        {
+            System.out.println("SQLException: " + e);
+            return false;
+        }
+        finally
+        {
+            mySQL.returnConn(conn);
+        }
+    }
+
+    /**
+     * @brief Rebuilds the monthly usage rollup after Business_Used has been loaded
+     * @return True if the rollup was rebuilt, or false otherwise
+     */
+    private boolean reconcileRollup()
+    {
+        Connection conn = null;
+        try
+        {
+            conn = mySQL.borrowConn();
+            UsageRollup.reconcile(conn);
+            return true;
+        }
+        catch (SQLException e)
+        {
+            System.out.println("SQLException: " + e);
+            return false;
+        }
+        finally
+        {
+            mySQL.returnConn(conn);
+        }
+    }
+
+    /**
+     * @brief Returns the name of a table as the database spells it
+     * @param conn A database connection
+     * @param table The table name, in any case
+     * @return The table name from the database's metadata
+     * @throws SQLException if the database has no such table
+     */
+    private String getTableName(Connection conn, String table) throws SQLException
+    {
+        try (ResultSet result = conn.getMetaData().getTables(conn.getCatalog(), null, "%", new String[] { "TABLE" }))
+        {
+            while (result.next())
+            {
+                if (result.getString("TABLE_NAME").equalsIgnoreCase(table))
+                    return result.getString("TABLE_NAME");
+            }
+        }
+        throw new SQLException("Unknown table: " + table);
+    }
+
+    /**
+     * @brief Checks the column names of a file's header row against the table, and quotes them
+     * @param conn A database connection
+     * @param table The table name
+     * @param header The column names from the file's header row
+     * @return The column names as the database spells them, quoted as identifiers, in the
+     *         order of the header
+     * @throws SQLException if the table has no column of a name, or a name appears twice
+     */
+    private List<String> getQuotedColumns(Connection conn, String table, List<String> header) throws SQLException
+    {
+        Map<String, String> names = new HashMap<String, String>();
+        String tableName = getTableName(conn, table);
+        try (ResultSet result = conn.getMetaData().getColumns(conn.getCatalog(), null, tableName, "%"))
+        {
+            while (result.next())
+                names.put(result.getString("COLUMN_NAME").toLowerCase(), result.getString("COLUMN_NAME"));
+        }
+
+        List<String> columns = new ArrayList<String>();
+        Set<String> seen = new HashSet<String>();
+        for (String column : header)
+        {
+            String name = names.get(column.toLowerCase());
+            if (name == null)
+                throw new SQLException("Unknown column in " + tableName + ": \"" + column + "\"");
+            if (!seen.add(name))
+                throw new SQLException("Column " + name + " appears twice in the header of " + tableName);
+            columns.add(quote(conn, name));
+        }
+        return columns;
+    }
+
+    /**
+     * @brief Quotes an identifier with the database's quote character
+     * @param conn A database connection
+     * @param name A table or column name
+     * @return The quoted name, with any quote characters in it doubled
+     * @throws SQLException
+     */
+    private String quote(Connection conn, String name) throws SQLException
+    {
+        String quote = conn.getMetaData().getIdentifierQuoteString().trim();
+        if (quote.isEmpty())
+            return name;
+        return quote + name.replace(quote, quote + quote) + quote;
+    }
+
+    /**
+     * @brief Reads the column names from the header row of a file
+     * @param header The first line of a file
+     * @return The column names, with surrounding whitespace removed
+     */
+    private List<String> parseHeader(String header)
+    {
+        List<String> columns = new ArrayList<String>();
+        for (String column : parseLine(header))
+            columns.add(column == null ? "" : column.trim());
+        return columns;
+    }
+
+    /**
+     * @brief Splits a line of the file into fields
+     * @param line A line of delimited text
+     * @return The fields of the line; quoted fields are unquoted (with "" read as "), and
+     *         empty unquoted fields are returned as null
+     */
+    private List<String> parseLine(String line)
+    {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+
+        for (int i = 0; i < line.length(); i++)
+        {
+            char c = line.charAt(i);
+            if (quoted)
+            {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"')
+                {
+                    field.append('"');
+                    i++;
+                }
+                else if (c == '"')
+                    quoted = false;
+                else
+                    field.append(c);
+            }
+            else if (c == '"')
+            {
+                quoted = true;
+                wasQuoted = true;
+            }
+            else if (c == delimiter)
+            {
+                fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+                field.setLength(0);
+                wasQuoted = false;
+            }
+            else
+                field.append(c);
+        }
+        fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,304 @@
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ChangePoller
+{
+    private static final int BATCH_SIZE = 1000;                 // change records read per query
+    private static final long GAP_WAIT = TimeUnit.SECONDS.toNanos(60);
+    private static final int MAX_GAP = 10_000;                  // larger jumps are not waited for
+    private static final int RETENTION_HOURS = 24;              // change records are pruned after this
+    private static final long PRUNE_INTERVAL = TimeUnit.HOURS.toNanos(1);
+
+    private static final String SELECT_CHANGES =
+            "SELECT Change_Seq, Table_Name, Operation, Row_Key FROM Change_Log " +
+            "WHERE Change_Seq > ? ORDER BY Change_Seq LIMIT " + BATCH_SIZE;
+
+    private static final String[] CACHED_TABLES =
+            { "Facility", "Water_Source", "Business", "Business_Used", "Treatments_Performed", "Regulation",
+              "Water_Source_Has_Regulation", "Treatment_Has_Regulation" };
+
+    private static ScheduledExecutorService poller;
+    private static long position = -1;    // highest Change_Seq applied; -1 until the first poll
+    // sequence numbers skipped over, which may belong to transactions that have not committed
+    // yet, and the time (System.nanoTime) after which they are assumed to have rolled back
+    private static final TreeMap<Long, Long> gaps = new TreeMap<Long, Long>();
+    private static long lastPoll;
+    private static long lastPrune;
+    private static long applied;
+
+    /**
+     * @brief The changes read in one poll, reduced to what needs refreshing
+     */
+    private static class Changes
+    {
+        private final Set<String> tables = new HashSet<String>();
+        private final Set<LocalDate> months = new HashSet<LocalDate>();
+        private final Map<Long, int[]> treatments = new HashMap<Long, int[]>();
+        private final List<String[]> usageInserts = new ArrayList<String[]>();
+        private boolean usageRevised;    // usage was updated or deleted, not just inserted
+        private boolean cascaded;        // a parent row was deleted or its key changed
+
+        /**
+         * @brief Adds one change record
+         * @param table The table that changed
+         * @param operation I, U or D, for an insert, update or delete, or L for a bulk load
+         * @param rowKey The primary key of the changed row, as logged by the change triggers
+         */
+        private void add(String table, String operation, String rowKey)
+        {
+            tables.add(table);
+            String[] key = rowKey.split("\\|");
+            if (operation.equals("L"))
+            {
+                // BulkLoader logs one record per table instead of one per row
+                cascaded = true;
+            }
+            else if (table.equalsIgnoreCase("Business_Used") && key.length == 3)
+            {
+                months.add(LocalDate.parse(key[2]).withDayOfMonth(1));
+                if (operation.equals("I"))
+                    usageInserts.add(key);
+                else
+                    usageRevised = true;
+            }
+            else if ((table.equalsIgnoreCase("Business") || table.equalsIgnoreCase("Water_Source") ||
+                      table.equalsIgnoreCase("Facility")) && operation.equals("D"))
+            {
+                // the triggers log a key change as a delete of the old key; either way foreign key
+                // cascades may have changed usage and treatment rows without firing their triggers
+                cascaded = true;
+            }
+            else if (table.equalsIgnoreCase("Regulation") && operation.equals("D"))
+            {
+                // a regulation's links cascade without firing their triggers, but only option lists read them
+                tables.add("Water_Source_Has_Regulation");
+                tables.add("Treatment_Has_Regulation");
+            }
+            else if (table.equalsIgnoreCase("Treatments_Performed") && key.length == 4)
+            {
+                int source = Integer.parseInt(key[1]);
+                int treatment = Integer.parseInt(key[2]);
+                treatments.put(((long) source << 32) | (treatment & 0xFFFFFFFFL), new int[] { source, treatment });
+            }
+        }
+
+        /**
+         * @brief Refreshes everything the changes affect
+         * @param conn A database connection
+         * @post Cached option lists of each changed table will be invalidated, the months of
+         *       the usage rollup and pairs of the treatment index that changed will be rebuilt,
+         *       the usage snapshot dropped if usage or businesses changed, and the treatment
+         *       records of StatisticsEngine dropped if treatments changed; inserted usage
+         *       will be added to the forecasts, which are rebuilt if usage was revised. If a
+         *       facility, water source or business was deleted or its key changed, the rows
+         *       its foreign keys cascaded to are unknown, as are the rows of a bulk load, so
+         *       every cache will be rebuilt instead;
+         *       if a regulation was, the option lists of its links will be invalidated too
+         * @throws SQLException
+         */
+        private void apply(Connection conn) throws SQLException
+        {
+            if (cascaded)
+            {
+                rebuildAll(conn);
+                return;
+            }
+            if (!months.isEmpty())
+                UsageRollup.reconcileMonths(conn, months);
+            if (!treatments.isEmpty())
+                TreatmentIndex.reconcileTreatments(conn, treatments.values());
+            for (String table : tables)
+                ReferenceCache.invalidate(table);
+            if (tables.contains("Business_Used") || tables.contains("Business"))
+                UsageSnapshot.invalidate();
+            if (tables.contains("Treatments_Performed"))
+                StatisticsEngine.invalidate();
+            if (usageRevised)
+                UsageForecast.invalidate();
+            else
+                UsageForecast.apply(conn, usageInserts);
+        }
+    }
+
+    /**
+     * @brief Applies the changes logged since the last poll
+     * @param conn A database connection
+     * @return The number of change records applied
+     * @post On the first call, every cache will be rebuilt and the current position in
+     *       Change_Log recorded, as the rollup and treatment index tables may have missed
+     *       changes made while no DSS was polling; after that, every change record since the
+     *       last poll will have been applied, except those of transactions still in progress,
+     *       which are picked up by a later poll. If polling stopped for longer than Change_Log
+     *       is kept, every cache will be rebuilt again. Old change records will be pruned hourly
+     * @throws SQLException
+     */
+    public static synchronized long poll(Connection conn) throws SQLException
+    {
+        long now = System.nanoTime();
+        if (position < 0 || now - lastPoll > TimeUnit.HOURS.toNanos(RETENTION_HOURS))
+        {
+            // read the position first, so changes made during the rebuild are applied by the next poll
+            long last = getLastSequence(conn);
+            rebuildAll(conn);
+            position = last;
+            gaps.clear();
+            lastPoll = now;
+            lastPrune = now;
+            return 0;
+        }
+
+        long count = 0;
+        long from = gaps.isEmpty() ? position : Math.min(position, gaps.firstKey() - 1);
+        while (true)
+        {
+            Changes changes = new Changes();
+            int read = 0;
+            try (PreparedStatement stmt = conn.prepareStatement(SELECT_CHANGES))
+            {
+                stmt.setLong(1, from);
+                try (ResultSet result = stmt.executeQuery())
+                {
+                    while (result.next())
+                    {
+                        long seq = result.getLong(1);
+                        from = seq;
+                        read++;
+                        if (seq <= position && gaps.remove(seq) == null)
+                            continue;    // applied by an earlier poll
+                        if (seq > position)
+                        {
+                            if (seq - position <= MAX_GAP)
+                            {
+                                for (long skipped = position + 1; skipped < seq; skipped++)
+                                    gaps.put(skipped, now + GAP_WAIT);
+                            }
+                            position = seq;
+                        }
+                        changes.add(result.getString(2), result.getString(3), result.getString(4));
+                        count++;
+                    }
+                }
+            }
+            changes.apply(conn);
+            if (read < BATCH_SIZE)
+                break;
+        }
+
+        // rolled back transactions leave gaps that are never filled
+        gaps.values().removeIf(deadline -> deadline - now < 0);
+        lastPoll = now;
+        applied += count;
+
+        if (now - lastPrune > PRUNE_INTERVAL)
+        {
+            prune(conn);
+            lastPrune = now;
+        }
+        return count;
+    }
+
+    /**
+     * @brief Returns the total number of change records applied since the DSS started
+     * @return The number of change records applied
+     */
+    public static synchronized long getApplied()
+    {
+        return applied;
+    }
+
+    /**
+     * @brief Starts a background job that periodically applies logged changes
+     * @param mySQL A pool of database connections
+     * @param periodSeconds The number of seconds between polls, or 0 to not poll
+     * @post Every periodSeconds, a connection will be borrowed from mySQL and used to poll
+     *       Change_Log; any previously started job will be stopped
+     */
+    public static synchronized void start(MySQLConnection mySQL, long periodSeconds)
+    {
+        stop();
+        if (periodSeconds <= 0)
+            return;
+        poller = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread t = new Thread(r, "change-poller");
+            t.setDaemon(true);
+            return t;
+        });
+        poller.scheduleWithFixedDelay(() ->
+        {
+            Connection conn = null;
+            try
+            {
+                conn = mySQL.borrowConn();
+                poll(conn);
+            }
+            catch (SQLException e)
+            {
+                System.out.println("SQLException: " + e);
+            }
+            finally
+            {
+                mySQL.returnConn(conn);
+            }
+        }, 0, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @brief Stops the background polling job, if one is running
+     */
+    public static synchronized void stop()
+    {
+        if (poller != null)
+        {
+            poller.shutdownNow();
+            poller = null;
+        }
+    }
+
+    /**
+     * @brief Returns the most recent sequence number in Change_Log
+     * @param conn A database connection
+     * @return The highest Change_Seq, or 0 if the log is empty
+     * @throws SQLException
+     */
+    private static long getLastSequence(Connection conn) throws SQLException
+    {
+        try (Statement stmt = conn.createStatement();
+             ResultSet result = stmt.executeQuery("SELECT MAX(Change_Seq) FROM Change_Log"))
+        {
+            return result.next() ? result.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * @brief Rebuilds every cache that change records would otherwise have refreshed
+     * @param conn A database connection
+     * @throws SQLException
+     */
+    private static void rebuildAll(Connection conn) throws SQLException
+    {
+        UsageRollup.reconcile(conn);
+        TreatmentIndex.reconcile(conn);
+        for (String table : CACHED_TABLES)
+            ReferenceCache.invalidate(table);
+        UsageSnapshot.invalidate();
+        StatisticsEngine.invalidate();
+        UsageForecast.invalidate();
+    }
+
+    /**
+     * @brief Deletes change records older than RETENTION_HOURS
+     * @param conn A database connection
+     * @throws SQLException
+     */
+    private static void prune(Connection conn) throws SQLException
+    {
+        try (Statement stmt = conn.createStatement())
+        {
+            stmt.executeUpdate("DELETE FROM Change_Log WHERE Changed_At < NOW() - INTERVAL '" +
+                               RETENTION_HOURS + "' HOUR");
+        }
+    }
+}
@@ -0,0 +1,221 @@
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.function.*;
+
+public class ComplianceEngine
+{
+    // "the last 6 months", as used by the Regulation Compliance reports
+    public static final int DEFAULT_WINDOW_DAYS = 183;
+
+    public static final Predicate<ComplianceRecord> ALL = r -> true;
+    public static final Predicate<ComplianceRecord> COMPLIANT = ComplianceRecord::isCompliant;
+    public static final Predicate<ComplianceRecord> NON_COMPLIANT = COMPLIANT.negate();
+
+    public static final Comparator<ComplianceRecord> BY_SOURCE_ID =
+            Comparator.comparingInt(ComplianceRecord::getSourceId);
+    public static final Comparator<ComplianceRecord> BY_LOCATION =
+            Comparator.comparing(ComplianceRecord::getLocation, String.CASE_INSENSITIVE_ORDER);
+    public static final Comparator<ComplianceRecord> BY_MISSING =
+            Comparator.comparingInt(ComplianceRecord::getMissingCount).reversed().thenComparing(BY_SOURCE_ID);
+
+    // Required treatments come from every regulation on the source; a required treatment counts
+    // as received if it was performed at least once in the window, however many times that was,
+    // which TreatmentIndex answers from the date it was last performed.
+    private static final String REQUIRED =
+            "SELECT DISTINCT w.Water_Source_ID, w.Location, tr.Treatment_Number " +
+            "FROM Water_Source AS w " +
+            "JOIN Water_Source_Has_Regulation AS wr ON wr.Water_Source_ID = w.Water_Source_ID " +
+            "LEFT JOIN Treatment_Has_Regulation AS tr ON tr.Regulation_ID = wr.Regulation_ID ";
+
+    private static final String ORDER = "ORDER BY w.Water_Source_ID, tr.Treatment_Number";
+
+    // REQUIRED for a single source; the parameter is the Location
+    private static final String REQUIRED_SOURCE = REQUIRED + "WHERE w.Location = ? " + ORDER;
+
+    /**
+     * @brief The compliance status of a single regulated water source
+     */
+    public static class ComplianceRecord
+    {
+        private final int sourceId;
+        private final String location;
+        private final int required;
+        private final int received;
+        private final List<Integer> requiredTreatments;
+        private final List<Integer> missing;
+
+        private ComplianceRecord(int id, String loc, List<Integer> requiredList, List<Integer> missingTreatments)
+        {
+            sourceId = id;
+            location = loc;
+            required = requiredList.size();
+            received = required - missingTreatments.size();
+            requiredTreatments = requiredList;
+            missing = missingTreatments;
+        }
+
+        /**
+         * @brief Returns the ID of the water source
+         * @return The Water_Source_ID
+         */
+        public int getSourceId()
+        {
+            return sourceId;
+        }
+
+        /**
+         * @brief Returns the name of the water source
+         * @return The Location
+         */
+        public String getLocation()
+        {
+            return location;
+        }
+
+        /**
+         * @brief Returns the number of distinct treatments the source's regulations require
+         * @return The required treatment count
+         */
+        public int getRequired()
+        {
+            return required;
+        }
+
+        /**
+         * @brief Returns the number of distinct required treatments performed within the window
+         * @return The received treatment count
+         */
+        public int getReceived()
+        {
+            return received;
+        }
+
+        /**
+         * @brief Returns the treatments that the source's regulations require
+         * @return A list of Treatment_Numbers, in ascending order
+         */
+        public List<Integer> getRequiredTreatments()
+        {
+            return requiredTreatments;
+        }
+
+        /**
+         * @brief Returns the treatments that are required but were not performed within the window
+         * @return A list of Treatment_Numbers, in ascending order
+         */
+        public List<Integer> getMissing()
+        {
+            return missing;
+        }
+
+        /**
+         * @brief Returns the number of required treatments not performed within the window
+         * @return The missing treatment count
+         */
+        public int getMissingCount()
+        {
+            return required - received;
+        }
+
+        /**
+         * @brief Returns if the water source meets its regulations
+         * @return True if every required treatment was performed within the window
+         */
+        public boolean isCompliant()
+        {
+            return received >= required;
+        }
+    }
+
+    /**
+     * @brief Evaluates regulation compliance for every regulated water source
+     * @param conn A database connection
+     * @param windowDays The number of days back that a treatment counts as received
+     * @param filter Selects which records to return, e.g. ALL, COMPLIANT or NON_COMPLIANT
+     * @param order The order of the returned records, e.g. BY_SOURCE_ID, BY_LOCATION or BY_MISSING
+     * @return A list with one ComplianceRecord per regulated water source that passes filter
+     * @post The required treatments will have been read in one query, and each one checked
+     *       against TreatmentIndex
+     * @throws SQLException
+     */
+    public static List<ComplianceRecord> evaluate(Connection conn, int windowDays,
+                                                  Predicate<ComplianceRecord> filter,
+                                                  Comparator<ComplianceRecord> order) throws SQLException
+    {
+        List<ComplianceRecord> records;
+        try (Statement stmt = conn.createStatement();
+             ResultSet result = stmt.executeQuery(REQUIRED + ORDER))
+        {
+            records = toRecords(conn, result, windowDays);
+        }
+        records.removeIf(filter.negate());
+        records.sort(order);
+        return records;
+    }
+
+    /**
+     * @brief Evaluates regulation compliance for a single water source
+     * @param conn A database connection
+     * @param location The Location of the water source
+     * @param windowDays The number of days back that a treatment counts as received
+     * @return The ComplianceRecord of the source, or null if the source has no regulations
+     * @throws SQLException
+     */
+    public static ComplianceRecord evaluateSource(Connection conn, String location, int windowDays)
+            throws SQLException
+    {
+        try (PreparedStatement stmt = conn.prepareStatement(REQUIRED_SOURCE))
+        {
+            stmt.setString(1, location);
+            try (ResultSet result = stmt.executeQuery())
+            {
+                List<ComplianceRecord> records = toRecords(conn, result, windowDays);
+                return records.isEmpty() ? null : records.get(0);
+            }
+        }
+    }
+
+    /**
+     * @brief Creates a ComplianceRecord for each water source in a REQUIRED result
+     * @param conn A database connection, used to look up TreatmentIndex
+     * @param result A REQUIRED result, ordered by Water_Source_ID
+     * @param windowDays The number of days back that a treatment counts as received
+     * @return The ComplianceRecords, in Water_Source_ID order
+     * @throws SQLException
+     */
+    private static List<ComplianceRecord> toRecords(Connection conn, ResultSet result, int windowDays)
+            throws SQLException
+    {
+        List<int[]> rows = new ArrayList<int[]>();
+        Map<Integer, String> locations = new LinkedHashMap<Integer, String>();
+        while (result.next())
+        {
+            int sourceId = result.getInt(1);
+            locations.putIfAbsent(sourceId, result.getString(2));
+            int treatment = result.getInt(3);
+            if (!result.wasNull())
+                rows.add(new int[] { sourceId, treatment });
+        }
+
+        LocalDate windowStart = LocalDate.now().minusDays(windowDays);
+        Map<Integer, List<Integer>> required = new HashMap<Integer, List<Integer>>();
+        Map<Integer, List<Integer>> missing = new HashMap<Integer, List<Integer>>();
+        for (int[] row : rows)
+        {
+            required.computeIfAbsent(row[0], k -> new ArrayList<Integer>()).add(row[1]);
+            if (!TreatmentIndex.wasTreatedSince(conn, row[0], row[1], windowStart))
+                missing.computeIfAbsent(row[0], k -> new ArrayList<Integer>()).add(row[1]);
+        }
+
+        List<ComplianceRecord> records = new ArrayList<ComplianceRecord>();
+        for (Map.Entry<Integer, String> source : locations.entrySet())
+        {
+            int id = source.getKey();
+            records.add(new ComplianceRecord(id, source.getValue(),
+                    Collections.unmodifiableList(required.getOrDefault(id, new ArrayList<Integer>())),
+                    Collections.unmodifiableList(missing.getOrDefault(id, new ArrayList<Integer>()))));
+        }
+        return records;
+    }
+}
@@ -0,0 +1,48 @@
+import java.sql.*;
+
+public class CoreReports implements ReportRegistry.Provider
+{
+    /**
+     * @brief A report implemented by SQLMethod, which runs queries concurrently on its own pool
+     */
+    private interface CoreReport
+    {
+        void execute(SQLMethod method, Connection conn) throws SQLException;
+    }
+
+    /**
+     * @brief Registers the reports and update screens implemented by SQLMethod
+     * @post SQL#1 to SQL#13 will be registered; the update screens (SQL#8 to SQL#11) are
+     *       registered as not runnable unattended
+     */
+    @Override
+    public void registerReports()
+    {
+        register("SQL#1", true, SQLMethod::executeSQL1);
+        register("SQL#2", true, SQLMethod::executeSQL2);
+        register("SQL#3", true, SQLMethod::executeSQL3);
+        register("SQL#4", true, SQLMethod::executeSQL4);
+        register("SQL#5", true, SQLMethod::executeSQL5);
+        register("SQL#6", true, SQLMethod::executeSQL6);
+        register("SQL#7", true, SQLMethod::executeSQL7);
+        register("SQL#8", false, SQLMethod::executeSQL8);
+        register("SQL#9", false, SQLMethod::executeSQL9);
+        register("SQL#10", false, SQLMethod::executeSQL10);
+        register("SQL#11", false, SQLMethod::executeSQL11);
+        register("SQL#12", true, SQLMethod::executeSQL12);
+        register("SQL#13", true, SQLMethod::executeSQL13);
+    }
+
+    /**
+     * @brief Registers a report implemented by SQLMethod
+     * @param name The name the menu file uses for the report
+     * @param unattended Specifies whether the report only reads from the database
+     * @param report The report
+     * @post report will be run by ReportRegistry with the SQLMethod that is running it, which
+     *       is the ReportContext SQLMethod passes to every report
+     */
+    private static void register(String name, boolean unattended, CoreReport report)
+    {
+        ReportRegistry.register(name, unattended, (context, conn) -> report.execute((SQLMethod) context, conn));
+    }
+}
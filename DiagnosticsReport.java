@@ -0,0 +1,77 @@
+import java.io.PrintStream;
+import java.sql.*;
+import java.util.*;
+
+public class DiagnosticsReport implements ReportRegistry.Provider
+{
+    /**
+     * @brief Registers the Diagnostics screen
+     * @post SQL#14 will be registered as not runnable unattended
+     */
+    @Override
+    public void registerReports()
+    {
+        ReportRegistry.register("SQL#14", false, DiagnosticsReport::printMetrics);
+    }
+
+    /**
+     * @brief Displays the metrics recorded by QueryMetrics since the DSS was started
+     * @param context The report's context
+     * @param conn A database connection (unused)
+     * @post The latency percentiles, rows, errors and rendering or first row times of each
+     *       report and query template that has run will be printed to the screen, slowest
+     *       first, followed by the hit rate of the reference data cache
+     */
+    private static void printMetrics(ReportContext context, Connection conn)
+    {
+        PrintStream out = context.getOutput();
+        out.println("QUERY AND REPORT METRICS SINCE STARTUP");
+        out.println("Note 1: Times are in milliseconds; p50, p95 and p99 are the median, 95th and 99th percentiles");
+        out.println("Note 2: The same metrics are published over JMX as dss.metrics, and recorded by JFR as " +
+                "dss.Report and dss.ReportQuery events");
+        Menu.printBorder(out, '-', 0, 0);
+
+        List<String[]> table = new ArrayList<String[]>();
+        table.add(new String[] { "Report", "Runs", "Errors", "Rows", "p50", "p95", "p99", "Render p95" });
+        for (QueryMetrics.Stats stats : QueryMetrics.getReportStats())
+        {
+            if (stats.getCount() > 0)
+                table.add(getMetricsRow(stats.getName(), stats, stats.getRenderP95Millis()));
+        }
+        context.printGrid(table, 42, 8, 8, 10, 10, 10, 10, 10);
+        Menu.printBorder(out, '-', 0, 0);
+
+        table = new ArrayList<String[]>();
+        table.add(new String[] { "Query", "Runs", "Errors", "Rows", "p50", "p95", "p99", "1st Row p95" });
+        for (QueryMetrics.Stats stats : QueryMetrics.getQueryStats())
+        {
+            // collapse the query onto one line, and cut it to the column width
+            String sql = stats.getName().replaceAll("\\s+", " ").trim();
+            if (sql.length() > 40)
+                sql = sql.substring(0, 37) + "...";
+            table.add(getMetricsRow(sql, stats, stats.getFirstRowP95Millis()));
+        }
+        context.printGrid(table, 42, 8, 8, 10, 10, 10, 10, 10);
+        Menu.printBorder(out, '-', 0, 0);
+
+        out.printf("Reference data cache: %d hits, %d misses, %d invalidations%n",
+                ReferenceCache.getHits(), ReferenceCache.getMisses(), ReferenceCache.getInvalidations());
+        out.printf("Change records applied: %d%n", ChangePoller.getApplied());
+        Menu.printBorder(out, '-', 0, 1);
+    }
+
+    /**
+     * @brief Formats one row of the Diagnostics screen
+     * @param label The report name or query
+     * @param stats The metrics of the report or query
+     * @param extra The value of the last column, in milliseconds
+     * @return The row, as printed by printGrid
+     */
+    private static String[] getMetricsRow(String label, QueryMetrics.Stats stats, double extra)
+    {
+        return new String[] { label, String.valueOf(stats.getCount()), String.valueOf(stats.getErrorCount()),
+                String.valueOf(stats.getRowCount()), String.format("%.2f", stats.getLatencyP50Millis()),
+                String.format("%.2f", stats.getLatencyP95Millis()), String.format("%.2f", stats.getLatencyP99Millis()),
+                String.format("%.2f", extra) };
+    }
+}
@@ -0,0 +1,102 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+
+public class ExportReports implements ReportRegistry.Provider
+{
+    /**
+     * @brief Registers Export Data and Save Snapshot
+     * @post SQL#16 and SQL#18 will be registered as runnable unattended
+     */
+    @Override
+    public void registerReports()
+    {
+        ReportRegistry.register("SQL#16", true, ExportReports::exportTable);
+        ReportRegistry.register("SQL#18", true, ExportReports::saveSnapshot);
+    }
+
+    /**
+     * @brief Exports a whole table to a CSV or columnar file
+     * @param context The report's context
+     * @param conn A database connection
+     * @post User will be prompted to select a table, a format, whether to compress the file,
+     *       and a file name; the table's rows will be streamed from the server straight into
+     *       the file by ResultExporter, and the number of rows and bytes written printed
+     */
+    private static void exportTable(ReportContext context, Connection conn)
+    {
+        PrintStream out = context.getOutput();
+        String backValue = "Back to Menu";
+        try
+        {
+            Map<String, String> tables = new LinkedHashMap<String, String>(context.getCachedTableList(conn));
+            if (!context.isUnattended())
+                tables.put("B", backValue);
+            String table = context.getUserSelection(tables, "table");
+            if (table.equals(backValue))
+            {
+                context.goBack();
+                return;
+            }
+
+            Map<String, String> formats = new LinkedHashMap<String, String>();
+            formats.put("1", "CSV");
+            formats.put("2", "Columnar");
+            ResultExporter.Format format = context.getUserSelection(formats, "format").equals("CSV") ?
+                                           ResultExporter.Format.CSV : ResultExporter.Format.COLUMNAR;
+
+            // compress and file are optional when running without prompts
+            Map<String, String> yesNo = new LinkedHashMap<String, String>();
+            yesNo.put("1", "No");
+            yesNo.put("2", "Yes");
+            boolean compress = (!context.isUnattended() || context.hasArgument("compress")) &&
+                               context.getUserSelection(yesNo, "compress").equals("Yes");
+            String file = context.getFileSelection(table + format.getExtension(compress), "file");
+
+            long start = System.nanoTime();
+            long rows;
+            try (ResultSet result = context.executeQuery(conn, "SELECT * FROM " + table))
+            {
+                if (result == null)
+                    return;
+                rows = ResultExporter.export(result, Paths.get(file), format, compress);
+            }
+            out.printf("Exported %,d rows of %s to %s (%,d bytes) in %.1f s%n", rows, table, file,
+                       Files.size(Paths.get(file)), (System.nanoTime() - start) / 1e9);
+            Menu.printBorder(out, '-', 0, 1);
+        }
+        catch (SQLException | IOException e)
+        {
+            context.printError(e);
+        }
+    }
+
+    /**
+     * @brief Saves every table of the database to a snapshot file, for use without a server
+     * @param context The report's context
+     * @param conn A database connection
+     * @post User will be prompted for a file name; the tables will be copied by
+     *       SnapshotFile.write in one consistent transaction, and the number of rows and
+     *       bytes written printed
+     */
+    private static void saveSnapshot(ReportContext context, Connection conn)
+    {
+        PrintStream out = context.getOutput();
+        try
+        {
+            String file = context.getFileSelection(conn.getCatalog() + SnapshotFile.EXTENSION, "file");
+
+            long start = System.nanoTime();
+            long rows = SnapshotFile.write(conn, Paths.get(file));
+            out.printf("Saved %,d rows to %s (%,d bytes) in %.1f s%n", rows, file,
+                       Files.size(Paths.get(file)), (System.nanoTime() - start) / 1e9);
+            Menu.printBorder(out, '-', 0, 1);
+        }
+        catch (SQLException | IOException e)
+        {
+            context.printError(e);
+        }
+    }
+}
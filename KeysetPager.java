@@ -0,0 +1,287 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class KeysetPager implements AutoCloseable
+{
+    private static final ExecutorService prefetchExecutor = Executors.newCachedThreadPool(task ->
+    {
+        Thread thread = new Thread(task, "page-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Connection conn;
+    private final String keyColumn;
+    private final String nextQuery;
+    private final String previousQuery;
+    private final String jumpQuery;
+    private final int pageSize;
+    private Future<Page> prefetch;
+    private long prefetchAfter;
+
+    /**
+     * @brief One page of rows, in key order
+     */
+    public static class Page
+    {
+        private final List<Long> keys;
+        private final List<String> values;
+        private final boolean hasPrevious;
+        private final boolean hasNext;
+
+        private Page(List<Long> rowKeys, List<String> rowValues, boolean previous, boolean next)
+        {
+            keys = rowKeys;
+            values = rowValues;
+            hasPrevious = previous;
+            hasNext = next;
+        }
+
+        /**
+         * @brief Returns the primary keys of the rows on this page
+         * @return The keys, in ascending order
+         */
+        public List<Long> getKeys()
+        {
+            return keys;
+        }
+
+        /**
+         * @brief Returns the displayed column of the rows on this page
+         * @return The values, in key order
+         */
+        public List<String> getValues()
+        {
+            return values;
+        }
+
+        /**
+         * @brief Checks whether rows come before this page
+         * @return True if there is a previous page
+         */
+        public boolean hasPrevious()
+        {
+            return hasPrevious;
+        }
+
+        /**
+         * @brief Checks whether rows come after this page
+         * @return True if there is a next page
+         */
+        public boolean hasNext()
+        {
+            return hasNext;
+        }
+    }
+
+    /**
+     * @brief Creates a pager over one column of a table, ordered by the table's primary key
+     * @param connection A database connection; it must not be used by anyone else until the
+     *        pager is closed, as the next page is prefetched on it in the background
+     * @param table A database table
+     * @param key The table's single-column, numeric primary key
+     * @param column The column to display
+     * @param filter A condition rows must meet, or null for every row
+     * @param size The number of rows per page
+     */
+    public KeysetPager(Connection connection, String table, String key, String column, String filter, int size)
+    {
+        conn = connection;
+        keyColumn = key;
+        pageSize = Math.max(1, size);
+
+        // each page reads one extra row to learn whether another page follows
+        String select = "SELECT " + key + ", " + column + " FROM " + table + " WHERE " +
+                        (filter != null ? "(" + filter + ") AND " : "");
+        nextQuery = select + key + " > ? ORDER BY " + key + " LIMIT " + (pageSize + 1);
+        previousQuery = select + key + " < ? ORDER BY " + key + " DESC LIMIT " + (pageSize + 1);
+        jumpQuery = select + key + " >= ? ORDER BY " + key + " LIMIT " + (pageSize + 1);
+    }
+
+    /**
+     * @brief Returns the query that lists every row a pager would page through
+     * @param table A database table
+     * @param key The table's primary key
+     * @param column The column to display
+     * @param filter A condition rows must meet, or null for every row
+     * @return A query selecting column from every matching row, in key order
+     */
+    public static String getListQuery(String table, String key, String column, String filter)
+    {
+        return "SELECT " + column + " FROM " + table + (filter != null ? " WHERE " + filter : "") + " ORDER BY " + key;
+    }
+
+    /**
+     * @brief Returns the first page
+     * @return The page of rows with the lowest keys
+     * @throws SQLException
+     */
+    public Page first() throws SQLException
+    {
+        awaitPrefetch();
+        return prefetchAfter(fetch(nextQuery, Long.MIN_VALUE, false, false));
+    }
+
+    /**
+     * @brief Returns the page following the given one
+     * @param page The current page
+     * @return The next page, or page itself if it is the last
+     * @post The page after the returned one will be prefetched in the background
+     * @throws SQLException
+     */
+    public Page next(Page page) throws SQLException
+    {
+        if (!page.hasNext)
+            return page;
+
+        long after = page.keys.get(page.keys.size() - 1);
+        Page next = null;
+        if (prefetch != null && prefetchAfter == after)
+            next = awaitPrefetch();
+        else
+            awaitPrefetch();
+        if (next == null)
+            next = fetch(nextQuery, after, false, true);
+        return prefetchAfter(next);
+    }
+
+    /**
+     * @brief Returns the page preceding the given one
+     * @param page The current page
+     * @return The previous page, or the first page if fewer than a page of rows come before
+     * @throws SQLException
+     */
+    public Page previous(Page page) throws SQLException
+    {
+        if (!page.hasPrevious || page.keys.isEmpty())
+            return page;
+
+        awaitPrefetch();
+        Page previous = fetch(previousQuery, page.keys.get(0), true, true);
+        if (previous.keys.size() < pageSize)
+            return first();
+        return prefetchAfter(previous);
+    }
+
+    /**
+     * @brief Returns the page starting at the given key
+     * @param key A primary key value
+     * @return The page of rows with keys from key upwards
+     * @throws SQLException
+     */
+    public Page jump(long key) throws SQLException
+    {
+        awaitPrefetch();
+        Page page = fetch(jumpQuery, key, false, false);
+        if (page.keys.isEmpty())
+            return first();
+
+        // key need not exist, so look for rows before the page rather than assume them
+        boolean hasPrevious = !fetch(previousQuery, page.keys.get(0), true, true).keys.isEmpty();
+        return prefetchAfter(new Page(page.keys, page.values, hasPrevious, page.hasNext));
+    }
+
+    /**
+     * @brief Returns the name of the primary key column
+     * @return The key column
+     */
+    public String getKeyColumn()
+    {
+        return keyColumn;
+    }
+
+    /**
+     * @brief Waits for any background prefetch to finish, so the connection may be used again
+     * @post No query of this pager will be running on the connection
+     */
+    @Override
+    public void close()
+    {
+        awaitPrefetch();
+    }
+
+    /**
+     * @brief Starts fetching the page after the given one in the background
+     * @param page The page being shown
+     * @return page
+     */
+    private Page prefetchAfter(Page page)
+    {
+        if (page.hasNext && prefetch == null)
+        {
+            long after = page.keys.get(page.keys.size() - 1);
+            prefetchAfter = after;
+            prefetch = prefetchExecutor.submit(() -> fetch(nextQuery, after, false, true));
+        }
+        return page;
+    }
+
+    /**
+     * @brief Waits for the background prefetch, if any
+     * @return The prefetched page, or null if there was none or it failed
+     */
+    private Page awaitPrefetch()
+    {
+        if (prefetch == null)
+            return null;
+        try
+        {
+            return prefetch.get();
+        }
+        catch (ExecutionException e)
+        {
+            // the page is fetched again in the foreground, which reports the error
+            return null;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        finally
+        {
+            prefetch = null;
+        }
+    }
+
+    /**
+     * @brief Reads one page
+     * @param query nextQuery, previousQuery or jumpQuery
+     * @param key The key the page starts from
+     * @param descending Specifies whether query returns rows in descending key order
+     * @param hasEarlier Specifies whether rows are known to come before the rows of an ascending query
+     * @return The page, in ascending key order
+     * @throws SQLException
+     */
+    private Page fetch(String query, long key, boolean descending, boolean hasEarlier) throws SQLException
+    {
+        List<Long> keys = new ArrayList<Long>(pageSize + 1);
+        List<String> values = new ArrayList<String>(pageSize + 1);
+        PreparedStatement stmt = StatementCache.forConnection(conn).prepare(query, ResultSet.TYPE_FORWARD_ONLY).getStatement();
+        stmt.setFetchSize(0);
+        stmt.setLong(1, key);
+        try (ResultSet result = stmt.executeQuery())
+        {
+            while (result.next())
+            {
+                keys.add(result.getLong(1));
+                values.add(String.valueOf(result.getObject(2)));
+            }
+        }
+
+        boolean more = keys.size() > pageSize;
+        if (more)
+        {
+            keys.remove(pageSize);
+            values.remove(pageSize);
+        }
+        if (descending)
+        {
+            Collections.reverse(keys);
+            Collections.reverse(values);
+            return new Page(keys, values, more, true);
+        }
+        return new Page(keys, values, hasEarlier, more);
+    }
+}
@@ -1,24 +1,72 @@
+import java.nio.file.Paths;
+
 public class Main
 {
     public static void main(String[] args)
     {
-        // adjust variabels values as needed
+        // adjust variable values as needed; the database is set in MySQLConnection
         String menus  = "Menus.txt";
-        String host   = "localhost";
-        String port   = "3306";
-        String schema = "water_treatment2";
-        String param  = "?serverTimezone=UTC&useSSL=TRUE";
         String user   = "";
         String pass   = "";
+        long reconcileMinutes = 60;   // how often the monthly usage rollup and treatment index are rebuilt
+        long changePollSeconds = 5;   // how often changes logged by any client are applied; 0 never polls
+        int fetchSize = SQLMethod.STREAM_ROW_BY_ROW;   // positive sizes need useCursorFetch=true in PARAMETERS
+        long referenceTtlMinutes = 0; // reload cached option lists this often; 0 only reloads after updates
+        int queryTimeoutSeconds = 0;  // cancel report queries that run longer; 0 never cancels
+        int pageSize = 20;            // rows per page when selecting from a table; 0 lists every row
+        long slowQueryMillis = 1000;  // log slower queries, with their plans, to slow-queries.0.log; 0 logs none
+        boolean usageSnapshot = false; // answer SQL#5 - SQL#7 from an in-memory copy of Business_Used
+        String snapshot = "";         // a file saved by SQL#18 to read instead of the database; "" uses the database
+
+        // check the menu file before asking for credentials, so a broken file fails at once
+        MenuList menuList;
+        try
+        {
+            menuList = Menu.getMenusFromFile(menus);
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.println(e.getMessage());
+            return;
+        }
+
+        SQLMethod.setFetchSize(fetchSize);
+        ReferenceCache.setTimeToLive(referenceTtlMinutes * 60_000);
+        SQLMethod.setQueryTimeout(queryTimeoutSeconds);
+        SQLMethod.setPageSize(pageSize);
+        SlowQueryLog.setThreshold(slowQueryMillis);
+        if (!snapshot.isEmpty())
+        {
+            // a snapshot needs no credentials or migrations and never changes, so there is
+            // nothing to reconcile or poll; the usage reports need UsageSnapshot, as a
+            // snapshot cannot run their GROUP BY queries
+            SQLMethod.setUseUsageSnapshot(true);
+            MySQLConnection offline = new MySQLConnection(Paths.get(snapshot));
+            if (offline.isConnected())
+                new Navigation(offline, menuList).navigate();
+            else
+                offline.closeDBConnection();
+            return;
+        }
 
-        user = user != "" ? user : Input.getString("UserId  ");
-        pass = pass != "" ? pass : Input.getString("Password");
+        user = !user.isEmpty() ? user : Input.getString("UserId  ");
+        pass = !pass.isEmpty() ? pass : Input.getString("Password");
 
-        MySQLConnection mySQL = new MySQLConnection(host, port, schema, param, user, pass);
-        if (mySQL.isConnected())
+        SQLMethod.setUseUsageSnapshot(usageSnapshot);
+        MySQLConnection mySQL = new MySQLConnection(MySQLConnection.HOST, MySQLConnection.PORT, MySQLConnection.SCHEMA,
+                                                    MySQLConnection.PARAMETERS, user, pass);
+        if (mySQL.isConnected() && new MigrationRunner().migrate(mySQL))
         {
-            Navigation nav = new Navigation(mySQL, menus);
+            UsageRollup.startReconciliation(mySQL, reconcileMinutes);
+            TreatmentIndex.startReconciliation(mySQL, reconcileMinutes);
+            ChangePoller.start(mySQL, changePollSeconds);
+            Navigation nav = new Navigation(mySQL, menuList);
             nav.navigate();
+            UsageRollup.stopReconciliation();
+            TreatmentIndex.stopReconciliation();
+            ChangePoller.stop();
         }
+        else
+            mySQL.closeDBConnection();
     }
 }
\ No newline at end of file
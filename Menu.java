@@ -1,4 +1,6 @@
 import java.util.*;
+import java.io.PrintStream;
+import java.sql.SQLException;
 
 public class Menu
 {
@@ -33,10 +35,13 @@ public class Menu
      * @return A MenuList containing the menus in fileName, along with their 
      *         sub menu relationships
      * @post A MenuList will be created from fileName
+     * @throws IllegalArgumentException if fileName has no menus, repeats a menu name, names 
+     *         a SQL# report that is not registered, or has menus that cannot be reached from 
+     *         the main menu
      */
     public static MenuList getMenusFromFile(String fileName)
     {
-        MenuList menus = new MenuList();
+        List<Menu> menus = new ArrayList<Menu>();
         Scanner scan = Input.getFileScanner(fileName);
         boolean isMain = true;
 
@@ -53,7 +58,14 @@ public class Menu
             menus.add(new Menu(isMain, name, subMenus));
             isMain = false;
         }
-        return menus;
+        try
+        {
+            return new MenuList(menus);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IllegalArgumentException("Invalid menu file \"" + fileName + "\":" + e.getMessage());
+        }
     }
 
     /**
@@ -103,7 +115,7 @@ public class Menu
             String name = menuOptions.get(i);
             subMenus.put(number, name);
 
-            if (name.substring(0, 4).equalsIgnoreCase("sql#"))
+            if (name.regionMatches(true, 0, "sql#", 0, 4))
             {
                 sql = new SQLMethod(name);
                 subMenus.remove(number);
@@ -126,6 +138,7 @@ public class Menu
             
         if (!hasQuit)
             subMenus.put("Q", "Quit");
+        subMenus = Collections.unmodifiableMap(subMenus);
     }
 
     /**
@@ -178,6 +191,15 @@ public class Menu
         return title;
     }
 
+    /**
+     * @brief Returns the name of the report the Menu runs
+     * @return The report name, e.g. "SQL#1", or null if the Menu runs no report
+     */
+    public String getReportName()
+    {
+        return sql != null ? sql.getMethodName() : null;
+    }
+
     /**
      * @brief Returns a map containing the names of the Menu's sub menus 
      * @return A Map containing, as string, the names of the Menu's 
@@ -198,19 +220,34 @@ public class Menu
      *       and/or below as specified 
      */
     public static void printBorder(char c, int above, int below)
+    {
+        printBorder(System.out, c, above, below);
+    }
+
+    /**
+     * @brief Prints a border to the given stream
+     * @param out The stream to print to
+     * @param c The character to create the border with
+     * @param above The amount of space above the border
+     * @param below The amount of space below the border
+     * @post Prints a border across the SCREEN_WIDTH using 
+     *       the given character c, with blank pace above 
+     *       and/or below as specified 
+     */
+    public static void printBorder(PrintStream out, char c, int above, int below)
     {
         // space above border
         for (int i = 0; i < above; i++)
-            System.out.println();
+            out.println();
 
         // border
         for (int i = 0; i < SCREEN_WIDTH; i++)
-            System.out.print(c);
-        System.out.println();
+            out.print(c);
+        out.println();
 
         // space below border
         for (int i = 0; i < below; i++)
-            System.out.println();
+            out.println();
     }
 
     /**
@@ -334,9 +371,74 @@ public class Menu
         }
     }
 
+    /**
+     * @brief Prompts user to select a row from a pager, one page at a time
+     * @param pager The pager over the rows to choose from
+     * @param backValue The value returned if user chooses to go back, or null to offer no back option
+     * @return The displayed value of the selected row, or backValue
+     * @post Each page will be printed as a list of options, together with options to move to the 
+     *       next or previous page, or to jump to the page starting at a given ID; user will be 
+     *       prompted until a row (or back) is selected
+     * @throws SQLException
+     */
+    public static String selectFromPages(KeysetPager pager, String backValue) throws SQLException
+    {
+        KeysetPager.Page page = pager.first();
+        while (true)
+        {
+            Map<String, String> options = new LinkedHashMap<String, String>();
+            List<String> values = page.getValues();
+            for (int i = 0; i < values.size(); i++)
+                options.put(String.valueOf(i + 1), values.get(i));
+            if (page.hasNext())
+                options.put("N", "Next Page");
+            if (page.hasPrevious())
+                options.put("P", "Previous Page");
+            if (page.hasNext() || page.hasPrevious())
+                options.put("J", "Jump to " + pager.getKeyColumn());
+            if (backValue != null)
+                options.put("B", backValue);
+
+            if (!page.getKeys().isEmpty())
+                printCentered(pager.getKeyColumn() + " " + page.getKeys().get(0) + " - " + 
+                              page.getKeys().get(page.getKeys().size() - 1), true);
+            printOptions(options);
+            System.out.println();
+
+            String selection = Input.getString("Select an option", options.keySet());
+            switch (selection.toUpperCase())
+            {
+                case "N":
+                    page = pager.next(page);
+                    break;
+
+                case "P":
+                    page = pager.previous(page);
+                    break;
+
+                case "J":
+                    String key = Input.getString("Enter a " + pager.getKeyColumn()).trim();
+                    try
+                    {
+                        page = pager.jump(Long.parseLong(key));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        System.out.println("Invalid " + pager.getKeyColumn() + ": \"" + key + "\"\n");
+                    }
+                    break;
+
+                default:
+                    selection = options.get(selection.toUpperCase());
+                    System.out.println("You selected: " + selection + "\n");
+                    return selection;
+            }
+        }
+    }
+
     /**
      * @brief Displays the contents of the current Menu
-     * @param conn A database connection
+     * @param mySQL A pool of database connections
      * @return A string containing the name of the next Menu to be displayed
      * @post The title and subMenus of the Menu will be printed to the screen; 
      *       user will be prompted to select from one of the displayed options; 
@@ -360,7 +462,7 @@ public class Menu
         // run applicable sql method
         if (sql != null)
         {
-            boolean escape = sql.executeSQL(mySQL.getConn());
+            boolean escape = sql.executeSQL(mySQL);
             if (escape)
                 return "back";
         }
@@ -1,43 +1,94 @@
 import java.util.*;
 
-public class MenuList extends ArrayList<Menu>
+public class MenuList
 {
-    /**
-     * @brief Creates a new MenuList
-     */
-    public MenuList()
-    {
-        super();
-    }
+    private final List<Menu> menus;
+    private final Map<String, Menu> index;
 
     /**
-     * @brief Returns the index location of the named Menu (if available)
-     * @param title The title of the Menu to search for
-     * @return The index location of the named Menu, or -1 if not found
+     * @brief Creates a MenuList from the given menus, indexed by title
+     * @param menuList The menus, main menu first
+     * @post The MenuList will hold an unmodifiable copy of menuList, and each Menu will be
+     *       found by title (in any case) in constant time
+     * @throws IllegalArgumentException listing every problem found, one per line, if menuList
+     *         is empty, two menus share a title, a menu runs a SQL# report that is not
+     *         registered with ReportRegistry, or a menu cannot be reached from the main menu
      */
-    public int getIndexOf(String title)
+    public MenuList(List<Menu> menuList)
     {
-        int index = -1;
-        int size = size();
-        for (int i = 0; i < size; i++)
+        menus = Collections.unmodifiableList(new ArrayList<Menu>(menuList));
+        Map<String, Menu> titles = new LinkedHashMap<String, Menu>();
+        List<String> problems = new ArrayList<String>();
+
+        for (Menu menu : menus)
         {
-            if (get(i).getTitle().equalsIgnoreCase(title))
+            if (titles.putIfAbsent(menu.getTitle().toLowerCase(), menu) != null)
+                problems.add("Duplicate menu: \"" + menu.getTitle() + "\"");
+
+            String report = menu.getReportName();
+            if (report != null && !ReportRegistry.contains(report))
+                problems.add("Unknown report " + report + " in menu \"" + menu.getTitle() + "\"");
+        }
+        index = Collections.unmodifiableMap(titles);
+
+        if (menus.isEmpty())
+            problems.add("No menus");
+        else
+        {
+            // walk the graph from the main menu; sub menus without a menu of their own are "coming soon"
+            Set<Menu> reached = new HashSet<Menu>();
+            Deque<Menu> pending = new ArrayDeque<Menu>();
+            pending.push(menus.get(0));
+            while (!pending.isEmpty())
+            {
+                Menu menu = pending.pop();
+                if (!reached.add(menu))
+                    continue;
+                for (String subMenu : menu.getSubMenus().values())
+                {
+                    Menu next = index.get(subMenu.toLowerCase());
+                    if (next != null)
+                        pending.push(next);
+                }
+            }
+            for (Menu menu : titles.values())
             {
-                index = i;
-                break;
+                if (!reached.contains(menu))
+                    problems.add("Unreachable menu: \"" + menu.getTitle() + "\"");
             }
         }
-        return index;
+
+        if (!problems.isEmpty())
+            throw new IllegalArgumentException("\n    " + String.join("\n    ", problems));
+    }
+
+    /**
+     * @brief Returns the Menu at the given position
+     * @param index A position in the list; 0 is the main menu
+     * @return The Menu at index
+     */
+    public Menu get(int index)
+    {
+        return menus.get(index);
+    }
+
+    /**
+     * @brief Returns the number of menus in the list
+     * @return The number of menus
+     */
+    public int size()
+    {
+        return menus.size();
     }
 
     /**
-     * @brief Checks if the MenuList conatins a Menu with the given title
+     * @brief Checks if the MenuList contains a Menu with the given title
      * @param title The title of a Menu
-     * @return True if a Mennu with the given title is stored, or false otherwise
+     * @return True if a Menu with the given title is stored, or false otherwise
      */
     public boolean contains(String title)
     {
-        return getIndexOf(title) >= 0;
+        return index.containsKey(title.toLowerCase());
     }
 
     /**
@@ -47,7 +98,6 @@ public class MenuList extends ArrayList<Menu>
      */
     public Menu getMenu(String title)
     {
-        int index = getIndexOf(title);
-        return index >= 0 ? get(index) : null;
+        return index.get(title.toLowerCase());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,82 @@
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.*;
+
+public class Migration
+{
+    private final int version;
+    private final String description;
+    private final List<String> statements;
+
+    /**
+     * @brief Creates a new Migration
+     * @pre Each statement must be safe to run again if the migration is interrupted part way
+     *      (e.g. CREATE TABLE IF NOT EXISTS, INSERT IGNORE); CREATE INDEX statements are made
+     *      idempotent by MigrationRunner, which skips indexes that already exist
+     * @param migrationVersion The version number of the migration; migrations are applied in
+     *        ascending version order
+     * @param migrationDescription A short summary of the schema change
+     * @param sql The statements to run, in order
+     */
+    public Migration(int migrationVersion, String migrationDescription, String... sql)
+    {
+        version = migrationVersion;
+        description = migrationDescription;
+        statements = Collections.unmodifiableList(Arrays.asList(sql));
+    }
+
+    /**
+     * @brief Returns the version number of the Migration
+     * @return The version number
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @brief Returns the description of the Migration
+     * @return The description
+     */
+    public String getDescription()
+    {
+        return description;
+    }
+
+    /**
+     * @brief Returns the statements of the Migration
+     * @return An unmodifiable list of SQL statements
+     */
+    public List<String> getStatements()
+    {
+        return statements;
+    }
+
+    /**
+     * @brief Computes a checksum over the statements of the Migration
+     * @return A SHA-256 hex digest of the statements; any edit to an already applied
+     *         migration changes the checksum
+     */
+    public String getChecksum()
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String sql : statements)
+            {
+                digest.update(sql.trim().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest())
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
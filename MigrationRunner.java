@@ -0,0 +1,416 @@
+import java.sql.*;
+import java.util.*;
+import java.util.regex.*;
+
+public class MigrationRunner
+{
+    private static final String LOCK_NAME = "water_treatment2.schema_migration";
+    private static final int LOCK_TIMEOUT = 30;     // seconds
+    private static final Pattern CREATE_INDEX =
+            Pattern.compile("^\\s*CREATE\\s+(?:UNIQUE\\s+)?INDEX\\s+(\\w+)\\s+ON\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CREATE_TRIGGER =
+            Pattern.compile("^\\s*CREATE\\s+TRIGGER\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
+    // the session variable that stops the change triggers from logging, e.g. during a bulk load;
+    // released migrations embed its name, so it must not change
+    static final String SKIP_CHANGE_LOG = "@dss_skip_change_log";
+    private static final String[][] LOGGED_TABLES = {
+        { "Facility", "Facility_ID" },
+        { "Water_Source", "Water_Source_ID" },
+        { "Business", "Business_ID" },
+        { "Business_Used", "Business_ID", "Water_Source_ID", "Usage_Record_Date" },
+        { "Treatments_Performed", "Facility_ID", "Water_Source_ID", "Treatment_Number", "Date_Treated" },
+        { "Regulation", "Regulation_ID" },
+        { "Water_Source_Has_Regulation", "Water_Source_ID", "Regulation_ID" },
+        { "Treatment_Has_Regulation", "Treatment_Number", "Regulation_ID" } };
+
+    private final List<Migration> migrations;
+
+    /**
+     * @brief Creates a MigrationRunner for the schema changes shipped with the DSS
+     */
+    public MigrationRunner()
+    {
+        this(getDefaultMigrations());
+    }
+
+    /**
+     * @brief Creates a MigrationRunner for the given migrations
+     * @param list The migrations to manage; version numbers must be unique
+     * @post The migrations will be stored in ascending version order
+     */
+    public MigrationRunner(List<Migration> list)
+    {
+        migrations = new ArrayList<Migration>(list);
+        migrations.sort(Comparator.comparingInt(Migration::getVersion));
+    }
+
+    /**
+     * @brief Returns the schema changes shipped with the DSS
+     * @return The list of migrations, in version order
+     * @post New schema changes must be added as a new version at the end of the list;
+     *       migrations that have been released must never be edited
+     */
+    public static List<Migration> getDefaultMigrations()
+    {
+        List<Migration> list = new ArrayList<Migration>();
+
+        list.add(new Migration(1, "Monthly water usage rollup",
+                "CREATE TABLE IF NOT EXISTS Business_Usage_Monthly (" +
+                "Usage_Month date not null primary key, " +
+                "Record_Count int not null, " +
+                "Total_Consumed double not null, " +
+                "Total_Wasted double not null, " +
+                "Total_Needing_Treatment double not null)",
+                "INSERT IGNORE INTO Business_Usage_Monthly " +
+                "SELECT DATE_FORMAT(Usage_Record_Date, '%Y-%m-01'), COUNT(*), SUM(Amount_Water_Consumed), " +
+                "SUM(Amount_Water_Wasted), SUM(Amount_Water_Consumed + Amount_Water_Wasted) " +
+                "FROM Business_Used GROUP BY DATE_FORMAT(Usage_Record_Date, '%Y-%m-01')"));
+
+        list.add(new Migration(2, "Indexes for report lookups and date ranges",
+                // option lists and detail lookups by name
+                "CREATE INDEX idx_facility_name ON Facility (Facility_Name)",
+                "CREATE INDEX idx_water_source_location ON Water_Source (Location)",
+                "CREATE INDEX idx_business_name ON Business (Business_Name)",
+                "CREATE INDEX idx_regulation_name ON Regulation (Regulation_Name)",
+                // SQL#12: businesses by type and start date
+                "CREATE INDEX idx_business_type_start ON Business (Business_Type, Start_Date)",
+                // SQL#5/SQL#6 and rollup rebuilds: covering indexes over the usage date range
+                "CREATE INDEX idx_business_used_business_date ON Business_Used " +
+                "(Business_ID, Usage_Record_Date, Amount_Water_Consumed, Amount_Water_Wasted)",
+                "CREATE INDEX idx_business_used_date ON Business_Used " +
+                "(Usage_Record_Date, Amount_Water_Consumed, Amount_Water_Wasted)",
+                // SQL#2/SQL#4: treatments by source, most recent first; the primary key leads with Facility_ID
+                "CREATE INDEX idx_treatments_source_date ON Treatments_Performed " +
+                "(Water_Source_ID, Date_Treated, Treatment_Number)",
+                "CREATE INDEX idx_treatment_regulation ON Treatment_Has_Regulation (Regulation_ID, Treatment_Number)"));
+
+        list.add(new Migration(3, "Last treatment performed per water source and treatment",
+                "CREATE TABLE IF NOT EXISTS Treatment_Last_Performed (" +
+                "Water_Source_ID int not null, " +
+                "Treatment_Number int not null, " +
+                "Last_Treated date not null, " +
+                "Treatment_Count int not null, " +
+                "primary key (Water_Source_ID, Treatment_Number))",
+                "INSERT IGNORE INTO Treatment_Last_Performed " +
+                "SELECT Water_Source_ID, Treatment_Number, MAX(Date_Treated), COUNT(*) " +
+                "FROM Treatments_Performed GROUP BY Water_Source_ID, Treatment_Number"));
+
+        List<String> changeLog = new ArrayList<String>();
+        changeLog.add("CREATE TABLE IF NOT EXISTS Change_Log (" +
+                      "Change_Seq bigint not null auto_increment primary key, " +
+                      "Table_Name varchar(64) not null, " +
+                      "Operation char(1) not null, " +
+                      "Row_Key varchar(255) not null, " +
+                      "Changed_At timestamp not null default current_timestamp, " +
+                      "index idx_change_log_time (Changed_At))");
+        changeLog.addAll(getChangeTriggers("Facility", "Facility_ID"));
+        changeLog.addAll(getChangeTriggers("Water_Source", "Water_Source_ID"));
+        changeLog.addAll(getChangeTriggers("Business", "Business_ID"));
+        changeLog.addAll(getChangeTriggers("Business_Used", "Business_ID", "Water_Source_ID", "Usage_Record_Date"));
+        changeLog.addAll(getChangeTriggers("Treatments_Performed",
+                                           "Facility_ID", "Water_Source_ID", "Treatment_Number", "Date_Treated"));
+        changeLog.addAll(getChangeTriggers("Regulation", "Regulation_ID"));
+        list.add(new Migration(4, "Change log of report tables", changeLog.toArray(new String[0])));
+
+        // SQL#4 lists regulated water sources from the links between sources and regulations, which
+        // are logged from now on; the triggers of migration 4 are replaced by ones a bulk load can skip
+        List<String> skippableLog = new ArrayList<String>();
+        for (String[] table : LOGGED_TABLES)
+        {
+            for (String operation : new String[] { "insert", "update", "delete" })
+                skippableLog.add("DROP TRIGGER IF EXISTS trg_" + table[0].toLowerCase() + "_" + operation);
+            skippableLog.addAll(getChangeTriggers(SKIP_CHANGE_LOG + " IS NULL", table[0],
+                                                  Arrays.copyOfRange(table, 1, table.length)));
+        }
+        list.add(new Migration(5, "Change log of regulation links, skipped by bulk loads",
+                               skippableLog.toArray(new String[0])));
+
+        return list;
+    }
+
+    /**
+     * @brief Returns the triggers that record every change to a table in Change_Log
+     * @param table The table to capture changes of
+     * @param keyColumns The table's primary key columns
+     * @return The CREATE TRIGGER statements for inserts, updates and deletes
+     * @post Each change will be logged with the values of keyColumns joined by '|'; an update
+     *       that changes the primary key will be logged as a delete of the old key followed
+     *       by an update of the new one. Released migrations embed these statements, so they
+     *       must not change
+     */
+    private static List<String> getChangeTriggers(String table, String... keyColumns)
+    {
+        return getChangeTriggers(null, table, keyColumns);
+    }
+
+    /**
+     * @brief Returns the triggers that record changes to a table in Change_Log while a condition holds
+     * @param condition A condition checked by each trigger before it logs a change, or null to always log
+     * @param table The table to capture changes of
+     * @param keyColumns The table's primary key columns
+     * @return The CREATE TRIGGER statements for inserts, updates and deletes
+     * @post See getChangeTriggers(String, String...); with a null condition, the statements are
+     *       those of migration 4
+     */
+    private static List<String> getChangeTriggers(String condition, String table, String[] keyColumns)
+    {
+        String[] oldKey = new String[keyColumns.length];
+        String[] newKey = new String[keyColumns.length];
+        String[] sameKey = new String[keyColumns.length];
+        for (int i = 0; i < keyColumns.length; i++)
+        {
+            oldKey[i] = "OLD." + keyColumns[i];
+            newKey[i] = "NEW." + keyColumns[i];
+            sameKey[i] = oldKey[i] + " <=> " + newKey[i];
+        }
+        String trigger = "CREATE TRIGGER trg_" + table.toLowerCase() + "_%s AFTER %s ON " + table + " FOR EACH ROW ";
+        String insert = "INSERT INTO Change_Log (Table_Name, Operation, Row_Key) ";
+        String row = "'" + table + "', '%s', CONCAT_WS('|', %s)";
+
+        List<String> triggers = new ArrayList<String>();
+        if (condition == null)
+        {
+            triggers.add(String.format(trigger, "insert", "INSERT") +
+                         insert + "VALUES (" + String.format(row, "I", String.join(", ", newKey)) + ")");
+            triggers.add(String.format(trigger, "update", "UPDATE") +
+                         insert + "SELECT " + String.format(row, "D", String.join(", ", oldKey)) + " FROM DUAL " +
+                         "WHERE NOT (" + String.join(" AND ", sameKey) + ") " +
+                         "UNION ALL SELECT " + String.format(row, "U", String.join(", ", newKey)));
+            triggers.add(String.format(trigger, "delete", "DELETE") +
+                         insert + "VALUES (" + String.format(row, "D", String.join(", ", oldKey)) + ")");
+        }
+        else
+        {
+            String when = " FROM DUAL WHERE " + condition;
+            triggers.add(String.format(trigger, "insert", "INSERT") +
+                         insert + "SELECT " + String.format(row, "I", String.join(", ", newKey)) + when);
+            triggers.add(String.format(trigger, "update", "UPDATE") +
+                         insert + "SELECT " + String.format(row, "D", String.join(", ", oldKey)) + when +
+                         " AND NOT (" + String.join(" AND ", sameKey) + ") " +
+                         "UNION ALL SELECT " + String.format(row, "U", String.join(", ", newKey)) + when);
+            triggers.add(String.format(trigger, "delete", "DELETE") +
+                         insert + "SELECT " + String.format(row, "D", String.join(", ", oldKey)) + when);
+        }
+        return triggers;
+    }
+
+    /**
+     * @brief Brings the database schema up to date
+     * @param mySQL A pool of database connections
+     * @return True if the schema is up to date, or false if a migration failed or an
+     *         applied migration no longer matches its definition
+     * @post A connection will be borrowed from mySQL, all pending migrations applied, and
+     *       the connection returned to the pool
+     */
+    public boolean migrate(MySQLConnection mySQL)
+    {
+        Connection conn = null;
+        try
+        {
+            conn = mySQL.borrowConn();
+            return migrate(conn);
+        }
+        catch (SQLException e)
+        {
+            System.out.println("SQLException: " + e);
+            return false;
+        }
+        finally
+        {
+            mySQL.returnConn(conn);
+        }
+    }
+
+    /**
+     * @brief Brings the database schema up to date
+     * @param conn A database connection
+     * @return True if the schema is up to date, or false if a migration failed or an
+     *         applied migration no longer matches its definition
+     * @post The migration history table will exist; the checksum of every applied migration
+     *       will have been verified; each pending migration will have been applied in version
+     *       order and recorded in the history table; a named lock keeps two instances of the
+     *       DSS from migrating at the same time
+     * @throws SQLException
+     */
+    public boolean migrate(Connection conn) throws SQLException
+    {
+        if (!acquireLock(conn))
+        {
+            System.out.println("Could not acquire the schema migration lock.");
+            return false;
+        }
+        try
+        {
+            createHistoryTable(conn);
+            Map<Integer, String> applied = getAppliedChecksums(conn);
+
+            for (Migration m : migrations)
+            {
+                String checksum = applied.get(m.getVersion());
+                if (checksum == null)
+                {
+                    apply(conn, m);
+                    System.out.println("Applied schema migration " + m.getVersion() + ": " + m.getDescription());
+                }
+                else if (!checksum.equals(m.getChecksum()))
+                {
+                    System.out.println("Schema migration " + m.getVersion() + " (" + m.getDescription() +
+                                       ") has changed since it was applied.");
+                    return false;
+                }
+            }
+            return true;
+        }
+        finally
+        {
+            releaseLock(conn);
+        }
+    }
+
+    /**
+     * @brief Creates the migration history table if it does not exist
+     * @param conn A database connection
+     * @throws SQLException
+     */
+    private void createHistoryTable(Connection conn) throws SQLException
+    {
+        try (Statement stmt = conn.createStatement())
+        {
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS Schema_Migration_History (" +
+                               "Version int not null primary key, " +
+                               "Description varchar(200) not null, " +
+                               "Checksum char(64) not null, " +
+                               "Applied_At datetime not null)");
+        }
+    }
+
+    /**
+     * @brief Reads the migrations already applied to the database
+     * @param conn A database connection
+     * @return A map of applied version numbers to their recorded checksums
+     * @throws SQLException
+     */
+    private Map<Integer, String> getAppliedChecksums(Connection conn) throws SQLException
+    {
+        Map<Integer, String> applied = new HashMap<Integer, String>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet result = stmt.executeQuery("SELECT Version, Checksum FROM Schema_Migration_History"))
+        {
+            while (result.next())
+                applied.put(result.getInt(1), result.getString(2));
+        }
+        return applied;
+    }
+
+    /**
+     * @brief Runs the statements of a migration and records it in the history table
+     * @param conn A database connection
+     * @param m The migration to apply
+     * @post Each statement of m will have been run, skipping CREATE INDEX statements for
+     *       indexes that already exist; m will be recorded in Schema_Migration_History
+     * @throws SQLException
+     */
+    private void apply(Connection conn, Migration m) throws SQLException
+    {
+        try (Statement stmt = conn.createStatement())
+        {
+            for (String sql : m.getStatements())
+            {
+                Matcher index = CREATE_INDEX.matcher(sql);
+                if (index.find() && indexExists(conn, index.group(2), index.group(1)))
+                    continue;
+                Matcher trigger = CREATE_TRIGGER.matcher(sql);
+                if (trigger.find() && triggerExists(conn, trigger.group(1)))
+                    continue;
+                stmt.execute(sql);
+            }
+        }
+
+        String record = "INSERT INTO Schema_Migration_History VALUES (?, ?, ?, NOW())";
+        try (PreparedStatement stmt = conn.prepareStatement(record))
+        {
+            stmt.setInt(1, m.getVersion());
+            stmt.setString(2, m.getDescription());
+            stmt.setString(3, m.getChecksum());
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * @brief Checks whether the current schema has an index with the given name on a table
+     * @param conn A database connection
+     * @param table A table name
+     * @param index An index name
+     * @return True if the index exists, or false otherwise
+     * @throws SQLException
+     */
+    private boolean indexExists(Connection conn, String table, String index) throws SQLException
+    {
+        String query = "SELECT 1 FROM information_schema.statistics " +
+                       "WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ? LIMIT 1";
+        try (PreparedStatement stmt = conn.prepareStatement(query))
+        {
+            stmt.setString(1, table);
+            stmt.setString(2, index);
+            try (ResultSet result = stmt.executeQuery())
+            {
+                return result.next();
+            }
+        }
+    }
+
+    /**
+     * @brief Checks whether the current schema has a trigger with the given name
+     * @param conn A database connection
+     * @param trigger A trigger name
+     * @return True if the trigger exists, or false otherwise
+     * @throws SQLException
+     */
+    private boolean triggerExists(Connection conn, String trigger) throws SQLException
+    {
+        String query = "SELECT 1 FROM information_schema.triggers " +
+                       "WHERE trigger_schema = DATABASE() AND trigger_name = ? LIMIT 1";
+        try (PreparedStatement stmt = conn.prepareStatement(query))
+        {
+            stmt.setString(1, trigger);
+            try (ResultSet result = stmt.executeQuery())
+            {
+                return result.next();
+            }
+        }
+    }
+
+    /**
+     * @brief Takes the server-wide named lock that serializes migrations
+     * @param conn A database connection
+     * @return True if the lock was acquired within LOCK_TIMEOUT seconds
+     * @throws SQLException
+     */
+    private boolean acquireLock(Connection conn) throws SQLException
+    {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT GET_LOCK(?, ?)"))
+        {
+            stmt.setString(1, LOCK_NAME);
+            stmt.setInt(2, LOCK_TIMEOUT);
+            try (ResultSet result = stmt.executeQuery())
+            {
+                return result.next() && result.getInt(1) == 1;
+            }
+        }
+    }
+
+    /**
+     * @brief Releases the named migration lock
+     * @param conn A database connection
+     * @throws SQLException
+     */
+    private void releaseLock(Connection conn) throws SQLException
+    {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT RELEASE_LOCK(?)"))
+        {
+            stmt.setString(1, LOCK_NAME);
+            stmt.executeQuery().close();
+        }
+    }
+}
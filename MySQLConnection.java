@@ -1,15 +1,67 @@
+import java.nio.file.Path;
 import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 public class MySQLConnection
 {
+    // the database that Main, BatchReport and BulkLoader connect to; adjust values as needed
+    public static final String HOST = "localhost";
+    public static final String PORT = "3306";
+    public static final String SCHEMA = "water_treatment2";
+    public static final String PARAMETERS = "?serverTimezone=UTC&useSSL=TRUE";
+
+    private static final int DEFAULT_POOL_SIZE = 4;
+    private static final long DEFAULT_MAX_LIFETIME = 30 * 60 * 1000;    // milliseconds
+    private static final long DEFAULT_IDLE_VALIDATION = 30 * 1000;      // milliseconds
+    private static final long DEFAULT_BORROW_TIMEOUT = 30 * 1000;       // milliseconds
+    private static final int VALIDATION_TIMEOUT = 2;                    // seconds
+
     private String host;
     private String port;
     private String schema;
     private String param;
     private String user;
     private String pass;
+    private String url;
     private boolean connSuccess;
-    private Connection conn;
+    private volatile boolean closed;
+
+    // pool state
+    private int maxPoolSize;
+    private long maxLifetime;
+    private long idleValidation;
+    private long borrowTimeout;
+    private Semaphore permits;
+    private BlockingQueue<PooledConnection> idle;
+    private Map<Connection, PooledConnection> leased;
+
+    // pool metrics
+    private AtomicLong borrowCount;
+    private AtomicLong waitNanos;
+    private AtomicLong maxWaitNanos;
+    private AtomicLong timeoutCount;
+    private AtomicLong createdCount;
+    private AtomicLong recycledCount;
+    private AtomicLong invalidCount;
+
+    /**
+     * @brief A physical connection held by the pool, along with its age and last use
+     */
+    private static class PooledConnection
+    {
+        private final Connection conn;
+        private final long createdAt;
+        private long lastUsed;
+
+        private PooledConnection(Connection connection)
+        {
+            conn = connection;
+            createdAt = System.currentTimeMillis();
+            lastUsed = createdAt;
+        }
+    }
 
     /**
      * @brief Constructs a new MySQLConnection object
@@ -19,34 +71,111 @@ public class MySQLConnection
      * @param parameters
      * @param username
      * @param password
-     * @post A new MySQLConnection will be created, with a database connection 
-     *       stored in conn
+     * @post A new MySQLConnection will be created, with a pool of up to
+     *       DEFAULT_POOL_SIZE database connections
      */
     public MySQLConnection(String hostName, String portNumber, String schemaName,
                             String parameters, String username, String password)
     {
+        this(hostName, portNumber, schemaName, parameters, username, password, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @brief Constructs a new MySQLConnection object with a connection pool of the given size
+     * @param hostName
+     * @param portNumber
+     * @param schemaName
+     * @param parameters
+     * @param username
+     * @param password
+     * @param poolSize The maximum number of connections that may be open at once
+     * @post A new MySQLConnection will be created, with a pool of up to poolSize
+     *       database connections; one connection will be opened to verify the
+     *       connection settings
+     */
+    public MySQLConnection(String hostName, String portNumber, String schemaName,
+                            String parameters, String username, String password, int poolSize)
+    {
+        this("jdbc:mysql://" + hostName + ":" + portNumber + "/" + schemaName + parameters,
+             username, password, poolSize);
         host = hostName;
         port = portNumber;
         schema = schemaName;
         param = parameters;
+    }
+
+    /**
+     * @brief Constructs a MySQLConnection that reads a snapshot file instead of a database
+     * @param snapshot A file written by SnapshotFile.write
+     * @post A new MySQLConnection will be created, with a pool of up to
+     *       DEFAULT_POOL_SIZE read-only connections to the snapshot
+     */
+    public MySQLConnection(Path snapshot)
+    {
+        this(snapshot, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @brief Constructs a MySQLConnection that reads a snapshot file instead of a database
+     * @param snapshot A file written by SnapshotFile.write
+     * @param poolSize The maximum number of connections that may be open at once
+     * @post A new MySQLConnection will be created whose connections are opened by
+     *       SnapshotDriver; they are read-only, and need no server or credentials
+     */
+    public MySQLConnection(Path snapshot, int poolSize)
+    {
+        this(SnapshotDriver.URL_PREFIX + snapshot, "", "", poolSize);
+    }
+
+    /**
+     * @brief Constructs a MySQLConnection for a JDBC URL, and opens the first connection
+     * @param jdbcUrl The URL of the database
+     * @param username
+     * @param password
+     * @param poolSize The maximum number of connections that may be open at once
+     */
+    private MySQLConnection(String jdbcUrl, String username, String password, int poolSize)
+    {
         user = username;
         pass = password;
+        url = jdbcUrl;
+        closed = false;
+
+        maxPoolSize = Math.max(1, poolSize);
+        maxLifetime = DEFAULT_MAX_LIFETIME;
+        idleValidation = DEFAULT_IDLE_VALIDATION;
+        borrowTimeout = DEFAULT_BORROW_TIMEOUT;
+        permits = new Semaphore(maxPoolSize, true);
+        idle = new LinkedBlockingQueue<PooledConnection>();
+        leased = new ConcurrentHashMap<Connection, PooledConnection>();
+
+        borrowCount = new AtomicLong();
+        waitNanos = new AtomicLong();
+        maxWaitNanos = new AtomicLong();
+        timeoutCount = new AtomicLong();
+        createdCount = new AtomicLong();
+        recycledCount = new AtomicLong();
+        invalidCount = new AtomicLong();
+
         connSuccess = connectToDB();
     }
 
     /**
-     * @brief Creates a connection to a database
+     * @brief Loads the driver and opens the first pooled connection to the database
      * @return True if the connection is successful, or false otherwise
-     * @post A database connections will be established and stored in conn
+     * @post A database connection will be established and placed in the idle pool
      * @throws SQLException
      */
     private boolean connectToDB()
     {
         try
         {
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            String url = "jdbc:mysql://" + host + ":" + port + "/" + schema + param;
-            conn = DriverManager.getConnection(url, user, pass);
+            if (isSnapshot())
+                SnapshotDriver.register();
+            else
+                Class.forName("com.mysql.cj.jdbc.Driver");
+            returnConn(borrowConn());
+            return true;
         }
         catch (ClassNotFoundException e)
         {
@@ -56,37 +185,343 @@ public class MySQLConnection
         {
             System.out.println("\nSQLException: " + e + "\n");
         }
-        return conn != null;
+        return false;
     }
 
     /**
-     * @brief Closes the connection to the database
-     * @post The connection conn will be closed
-     * @throws SQLException
+     * @brief Borrows a connection from the pool
+     * @return An open, validated database connection
+     * @post The connection will be leased to the caller until it is handed back with
+     *       returnConn; an idle connection is reused if one is available, otherwise a
+     *       new connection is opened, provided the pool is not at maxPoolSize; idle
+     *       connections past their max lifetime, or that fail validation, are discarded
+     * @throws SQLException if the pool is closed, no connection becomes available within
+     *         the borrow timeout, or a new connection cannot be opened
      */
-    public void closeDBConnection()
+    public Connection borrowConn() throws SQLException
     {
-        if (conn != null)
+        if (closed)
+            throw new SQLException("Connection pool is closed");
+
+        long start = System.nanoTime();
+        try
         {
-            try
+            if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS))
             {
-                conn.close();
-                System.out.println("Connection closed.");
+                timeoutCount.incrementAndGet();
+                throw new SQLException("Timed out after " + borrowTimeout + " ms waiting for a pooled connection");
             }
-            catch (SQLException e)
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a pooled connection", e);
+        }
+        recordWait(System.nanoTime() - start);
+        return lease();
+    }
+
+    /**
+     * @brief Borrows a connection from the pool only if one can be leased without waiting
+     * @return An open, validated database connection, or null if every connection in the
+     *         pool is leased
+     * @post As for borrowConn; a null result does not count as a borrow timeout
+     * @throws SQLException if the pool is closed, or a new connection cannot be opened
+     */
+    public Connection tryBorrowConn() throws SQLException
+    {
+        if (closed)
+            throw new SQLException("Connection pool is closed");
+        if (!permits.tryAcquire())
+            return null;
+
+        recordWait(0);
+        return lease();
+    }
+
+    /**
+     * @brief Leases an idle or new connection to a caller that holds a permit
+     * @return An open, validated database connection
+     * @post The permit will have been released if no connection could be leased
+     * @throws SQLException if a new connection cannot be opened
+     */
+    private Connection lease() throws SQLException
+    {
+        try
+        {
+            // reuse an idle connection if a usable one exists
+            PooledConnection pooled;
+            while ((pooled = idle.poll()) != null)
+            {
+                if (isUsable(pooled))
+                {
+                    leased.put(pooled.conn, pooled);
+                    return pooled.conn;
+                }
+                discard(pooled);
+            }
+
+            // otherwise open a new one; the permit guarantees we are below maxPoolSize
+            pooled = new PooledConnection(DriverManager.getConnection(url, user, pass));
+            createdCount.incrementAndGet();
+            leased.put(pooled.conn, pooled);
+            return pooled.conn;
+        }
+        catch (SQLException | RuntimeException e)
+        {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @brief Returns a borrowed connection to the pool
+     * @param conn A connection previously obtained from borrowConn; null is ignored
+     * @post conn will be made available to other callers, or closed if the pool has
+     *       been closed, the connection is broken, or it has exceeded its max lifetime;
+     *       any uncommitted transaction left on conn will be rolled back
+     */
+    public void returnConn(Connection conn)
+    {
+        if (conn == null)
+            return;
+
+        PooledConnection pooled = leased.remove(conn);
+        if (pooled == null)
+            return;
+
+        try
+        {
+            if (closed || conn.isClosed() || isExpired(pooled))
+                discard(pooled);
+            else
             {
-                System.out.println("SQLException: " + e);
+                // leave the connection the way the next borrower expects to find it
+                if (!conn.getAutoCommit())
+                {
+                    conn.rollback();
+                    conn.setAutoCommit(true);
+                }
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.offer(pooled);
             }
         }
+        catch (SQLException e)
+        {
+            discard(pooled);
+        }
+        finally
+        {
+            permits.release();
+        }
+    }
+
+    /**
+     * @brief Checks whether an idle connection may be handed out again
+     * @param pooled An idle pooled connection
+     * @return True if the connection is within its max lifetime and, when it has been
+     *         idle longer than the validation interval, still responds to the server
+     */
+    private boolean isUsable(PooledConnection pooled)
+    {
+        if (isExpired(pooled))
+            return false;
+
+        if (System.currentTimeMillis() - pooled.lastUsed < idleValidation)
+            return true;
+
+        try
+        {
+            if (pooled.conn.isValid(VALIDATION_TIMEOUT))
+                return true;
+        }
+        catch (SQLException e)
+        {
+            // treated the same as a failed validation
+        }
+        invalidCount.incrementAndGet();
+        return false;
     }
 
     /**
-     * Qbrief Reuturns the connection of the MySQLConnection object
-     * @return The connection of the MySQLConnection object
+     * @brief Checks whether a pooled connection has exceeded its max lifetime
+     * @param pooled A pooled connection
+     * @return True if the connection should be recycled, or false otherwise
      */
-    public Connection getConn()
+    private boolean isExpired(PooledConnection pooled)
     {
-        return conn;
+        if (System.currentTimeMillis() - pooled.createdAt < maxLifetime)
+            return false;
+
+        recycledCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @brief Closes a pooled connection that will not be reused
+     * @param pooled The pooled connection to close
+     * @post The connection's cached statements and the physical connection will be closed
+     */
+    private void discard(PooledConnection pooled)
+    {
+        StatementCache.release(pooled.conn);
+        try
+        {
+            pooled.conn.close();
+        }
+        catch (SQLException e)
+        {
+            // connection is already unusable
+        }
+    }
+
+    /**
+     * @brief Adds a completed wait to the pool wait metrics
+     * @param nanos The time spent waiting for a permit, in nanoseconds
+     */
+    private void recordWait(long nanos)
+    {
+        borrowCount.incrementAndGet();
+        waitNanos.addAndGet(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * @brief Closes every connection in the pool
+     * @post All idle connections will be closed, and connections still on lease
+     *       will be closed as they are returned; further calls to borrowConn will fail
+     * @throws SQLException
+     */
+    public void closeDBConnection()
+    {
+        if (closed)
+            return;
+        closed = true;
+
+        PooledConnection pooled;
+        while ((pooled = idle.poll()) != null)
+            discard(pooled);
+
+        if (connSuccess)
+            System.out.println("Connection closed.");
+    }
+
+    /**
+     * @brief Sets the age after which a pooled connection is closed and replaced
+     * @param millis The max lifetime of a connection, in milliseconds
+     */
+    public void setMaxLifetime(long millis)
+    {
+        maxLifetime = millis;
+    }
+
+    /**
+     * @brief Sets how long a connection may sit idle before it is validated on borrow
+     * @param millis The idle validation interval, in milliseconds
+     */
+    public void setIdleValidation(long millis)
+    {
+        idleValidation = millis;
+    }
+
+    /**
+     * @brief Sets how long borrowConn waits for a free connection before failing
+     * @param millis The borrow timeout, in milliseconds
+     */
+    public void setBorrowTimeout(long millis)
+    {
+        borrowTimeout = millis;
+    }
+
+    /**
+     * @brief Returns the maximum number of connections the pool will open
+     * @return The pool size
+     */
+    public int getMaxPoolSize()
+    {
+        return maxPoolSize;
+    }
+
+    /**
+     * @brief Returns the number of connections currently on lease
+     * @return The number of borrowed connections
+     */
+    public int getActiveCount()
+    {
+        return leased.size();
+    }
+
+    /**
+     * @brief Returns the number of open connections waiting in the pool
+     * @return The number of idle connections
+     */
+    public int getIdleCount()
+    {
+        return idle.size();
+    }
+
+    /**
+     * @brief Returns the number of successful borrows
+     * @return The borrow count
+     */
+    public long getBorrowCount()
+    {
+        return borrowCount.get();
+    }
+
+    /**
+     * @brief Returns the average time a borrower waited for a connection
+     * @return The average pool wait, in milliseconds
+     */
+    public double getAverageWaitMillis()
+    {
+        long count = borrowCount.get();
+        return count == 0 ? 0 : waitNanos.get() / 1_000_000.0 / count;
+    }
+
+    /**
+     * @brief Returns the longest time a borrower waited for a connection
+     * @return The max pool wait, in milliseconds
+     */
+    public double getMaxWaitMillis()
+    {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * @brief Returns the number of borrows that timed out
+     * @return The timeout count
+     */
+    public long getTimeoutCount()
+    {
+        return timeoutCount.get();
+    }
+
+    /**
+     * @brief Returns the number of physical connections opened by the pool
+     * @return The number of connections created
+     */
+    public long getCreatedCount()
+    {
+        return createdCount.get();
+    }
+
+    /**
+     * @brief Returns the number of connections closed for exceeding their max lifetime
+     * @return The number of connections recycled
+     */
+    public long getRecycledCount()
+    {
+        return recycledCount.get();
+    }
+
+    /**
+     * @brief Returns the number of idle connections that failed validation
+     * @return The number of invalid connections discarded
+     */
+    public long getInvalidCount()
+    {
+        return invalidCount.get();
     }
 
     /**
@@ -98,11 +533,20 @@ public class MySQLConnection
         return connSuccess;
     }
 
+    /**
+     * @brief Checks whether the pool reads a snapshot file rather than a database
+     * @return True if the connections are read-only connections to a snapshot
+     */
+    public boolean isSnapshot()
+    {
+        return url.startsWith(SnapshotDriver.URL_PREFIX);
+    }
+
     /**
      * @brief Prompts the user to enter a valid username and password
      * @return True if both username and password match the user and pass stored in the MySQLConnection
-     * @post User will be prompted to enter a valid username and password, or to hit enter twice to return 
-     *       to the previous screen; if user provides an invalid username or password, user will be prompted 
+     * @post User will be prompted to enter a valid username and password, or to hit enter twice to return
+     *       to the previous screen; if user provides an invalid username or password, user will be prompted
      *       again
      */
     public boolean validateCredentials()
@@ -124,4 +568,4 @@ public class MySQLConnection
         }
         return true;
     }
-}
\ No newline at end of file
+}
@@ -9,13 +9,13 @@ public class Navigation
     /**
      * @brief Creates a new Navigation object
      * @param sqlConn A MySQLConnection
-     * @param fileName The name of a file containing a menu hierarchy
+     * @param menuList The menu hierarchy, as loaded by Menu.getMenusFromFile
      * @post A new Navigation object will be created from the given parameters
      */
-    public Navigation(MySQLConnection sqlConn, String fileName)
+    public Navigation(MySQLConnection sqlConn, MenuList menuList)
     {
         mySQL = sqlConn;
-        menus = Menu.getMenusFromFile(fileName);
+        menus = menuList;
         nav = new Stack<Menu>();
         nav.push(menus.get(0));
     }
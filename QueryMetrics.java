@@ -0,0 +1,469 @@
+import java.lang.management.ManagementFactory;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+public class QueryMetrics
+{
+    private static final String DOMAIN = "dss.metrics";
+    private static final Map<String, Stats> queries = new ConcurrentHashMap<String, Stats>();
+    private static final Map<String, Stats> reports = new ConcurrentHashMap<String, Stats>();
+
+    /**
+     * @brief The management interface of one query template or report, as seen over JMX
+     */
+    public interface StatsMXBean
+    {
+        String getName();
+        long getCount();
+        long getErrorCount();
+        long getRowCount();
+        double getLatencyP50Millis();
+        double getLatencyP95Millis();
+        double getLatencyP99Millis();
+        double getLatencyMaxMillis();
+        double getFirstRowP50Millis();
+        double getFirstRowP95Millis();
+        double getFirstRowP99Millis();
+        double getRenderP50Millis();
+        double getRenderP95Millis();
+        double getRenderP99Millis();
+        void reset();
+    }
+
+    /**
+     * @brief The metrics of one query template or report
+     */
+    public static class Stats implements StatsMXBean
+    {
+        private final String name;
+        private final Histogram latency = new Histogram();
+        private final Histogram firstRow = new Histogram();
+        private final Histogram render = new Histogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+
+        private Stats(String statsName)
+        {
+            name = statsName;
+        }
+
+        public String getName()               { return name; }
+        public long getCount()                { return latency.getCount(); }
+        public long getErrorCount()           { return errors.sum(); }
+        public long getRowCount()             { return rows.sum(); }
+        public double getLatencyP50Millis()   { return latency.getPercentile(0.50) / 1e6; }
+        public double getLatencyP95Millis()   { return latency.getPercentile(0.95) / 1e6; }
+        public double getLatencyP99Millis()   { return latency.getPercentile(0.99) / 1e6; }
+        public double getLatencyMaxMillis()   { return latency.getMax() / 1e6; }
+        public double getFirstRowP50Millis()  { return firstRow.getPercentile(0.50) / 1e6; }
+        public double getFirstRowP95Millis()  { return firstRow.getPercentile(0.95) / 1e6; }
+        public double getFirstRowP99Millis()  { return firstRow.getPercentile(0.99) / 1e6; }
+        public double getRenderP50Millis()    { return render.getPercentile(0.50) / 1e6; }
+        public double getRenderP95Millis()    { return render.getPercentile(0.95) / 1e6; }
+        public double getRenderP99Millis()    { return render.getPercentile(0.99) / 1e6; }
+
+        /**
+         * @brief Discards every value recorded so far
+         */
+        public void reset()
+        {
+            latency.reset();
+            firstRow.reset();
+            render.reset();
+            errors.reset();
+            rows.reset();
+        }
+    }
+
+    /**
+     * @brief A lock-free latency histogram with 16 buckets per power of two, so each
+     *        percentile is within 1/16 of the true value
+     */
+    static class Histogram
+    {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS) * SUB_COUNT);
+        private final LongAdder count = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        /**
+         * @brief Records one value
+         * @param nanos A duration in nanoseconds
+         */
+        void record(long nanos)
+        {
+            long value = Math.max(0, nanos);
+            counts.incrementAndGet(getIndex(value));
+            count.increment();
+            max.accumulate(value);
+        }
+
+        /**
+         * @brief Returns the value below which the given fraction of the recorded values fall
+         * @param fraction A fraction between 0 and 1, e.g. 0.95 for the 95th percentile
+         * @return The midpoint of the bucket holding the percentile, in nanoseconds, or 0 if
+         *         nothing has been recorded
+         */
+        long getPercentile(double fraction)
+        {
+            long total = count.sum();
+            if (total == 0)
+                return 0;
+            long target = Math.max(1, (long) Math.ceil(fraction * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++)
+            {
+                seen += counts.get(i);
+                if (seen >= target)
+                    return Math.min(getMidpoint(i), getMax());
+            }
+            return getMax();
+        }
+
+        long getCount()
+        {
+            return count.sum();
+        }
+
+        long getMax()
+        {
+            return max.get();
+        }
+
+        void reset()
+        {
+            for (int i = 0; i < counts.length(); i++)
+                counts.set(i, 0);
+            count.reset();
+            max.reset();
+        }
+
+        /**
+         * @brief Returns the bucket of a value: values below SUB_COUNT have a bucket each, and
+         *        every higher power of two is split into SUB_COUNT equal buckets
+         */
+        private static int getIndex(long value)
+        {
+            if (value < SUB_COUNT)
+                return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+            return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+        }
+
+        private static long getMidpoint(int index)
+        {
+            if (index < SUB_COUNT)
+                return index;
+            int exponent = index / SUB_COUNT + SUB_BITS - 1;
+            long width = 1L << (exponent - SUB_BITS);
+            return (SUB_COUNT + index % SUB_COUNT) * width + width / 2;
+        }
+    }
+
+    @Name("dss.ReportQuery")
+    @Label("Report Query")
+    @Category("Water Treatment DSS")
+    static class QueryEvent extends Event
+    {
+        @Label("Report")
+        String report;
+
+        @Label("SQL")
+        String sql;
+
+        @Label("Rows")
+        long rows;
+
+        @Label("Time to First Row")
+        @Timespan
+        long firstRow;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("dss.Report")
+    @Label("Report")
+    @Category("Water Treatment DSS")
+    static class ReportEvent extends Event
+    {
+        @Label("Report")
+        String report;
+
+        @Label("Rows")
+        long rows;
+
+        @Label("Rendering Time")
+        @Timespan
+        long render;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    /**
+     * @brief One run of a query template, from execution until its result is closed
+     */
+    static class Execution
+    {
+        private final Stats query;
+        private final Stats report;
+        private final Connection conn;
+        private final Object[] params;
+        private final QueryEvent event;
+        private final long start;
+        private long firstRow = -1;
+        private long rows;
+        private boolean finished;
+
+        private Execution(Stats queryStats, Stats reportStats, Connection connection, String sql, Object[] values)
+        {
+            query = queryStats;
+            report = reportStats;
+            conn = connection;
+            params = values;
+            event = new QueryEvent();
+            event.report = reportStats != null ? reportStats.name : null;
+            event.sql = sql;
+            event.begin();
+            start = System.nanoTime();
+        }
+
+        /**
+         * @brief Marks the time the first row could be read
+         * @post Only the first call, by this or addRows, has any effect
+         */
+        void markFirstRow()
+        {
+            if (firstRow < 0)
+                firstRow = System.nanoTime() - start;
+        }
+
+        /**
+         * @brief Counts rows read from the result
+         * @param count The number of rows read
+         * @post The time to the first row will be taken on the first call with rows
+         */
+        void addRows(long count)
+        {
+            if (count > 0)
+                markFirstRow();
+            rows += count;
+        }
+
+        /**
+         * @brief Records the run
+         * @param failed Specifies whether the query or the reading of its result failed
+         * @post The latency, time to first row and rows will be added to the query's metrics,
+         *       the rows and any error to the report's, and a JFR event committed; if the query
+         *       was slow, it will be written to SlowQueryLog; only the first call has any effect
+         */
+        void finish(boolean failed)
+        {
+            if (finished)
+                return;
+            finished = true;
+
+            long elapsed = System.nanoTime() - start;
+            query.latency.record(elapsed);
+            query.rows.add(rows);
+            if (firstRow >= 0)
+                query.firstRow.record(firstRow);
+            if (failed)
+                query.errors.increment();
+            if (report != null)
+            {
+                report.rows.add(rows);
+                if (failed)
+                    report.errors.increment();
+            }
+
+            if (SlowQueryLog.isSlow(elapsed))
+                SlowQueryLog.record(conn, query.name, params, report != null ? report.name : null, elapsed, failed);
+
+            event.end();
+            if (event.shouldCommit())
+            {
+                event.rows = rows;
+                event.firstRow = Math.max(0, firstRow);
+                event.failed = failed;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * @brief One run of a report
+     */
+    static class ReportRun
+    {
+        private final Stats report;
+        private final ReportEvent event;
+        private final long start;
+        private final long startRows;
+        private final long startErrors;
+        private long render;
+
+        private ReportRun(Stats reportStats)
+        {
+            report = reportStats;
+            event = new ReportEvent();
+            event.report = reportStats.name;
+            event.begin();
+            start = System.nanoTime();
+            startRows = reportStats.rows.sum();
+            startErrors = reportStats.errors.sum();
+        }
+
+        /**
+         * @brief Records the time spent printing one table of the report
+         * @param nanos The rendering time in nanoseconds
+         */
+        void addRender(long nanos)
+        {
+            render += nanos;
+        }
+
+        /**
+         * @brief Records the run
+         * @param failed Specifies whether the report ended with an error
+         * @post The latency, total rendering time and any error will be added to the
+         *       report's metrics, and a JFR event committed
+         */
+        void finish(boolean failed)
+        {
+            report.latency.record(System.nanoTime() - start);
+            report.render.record(render);
+            if (failed)
+                report.errors.increment();
+
+            event.end();
+            if (event.shouldCommit())
+            {
+                // other runs of the same report may overlap, so these are approximate under load
+                event.rows = report.rows.sum() - startRows;
+                event.render = render;
+                event.failed = failed || report.errors.sum() > startErrors;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * @brief Starts timing a query
+     * @param conn The connection the query runs on
+     * @param sql The query template, with ? for its parameters
+     * @param params The values bound to the query's parameters
+     * @param report The name of the report running the query, or null
+     * @return The run, which must be finished once the query's result has been read, and
+     *         before any other statement is run on conn
+     */
+    static Execution startQuery(Connection conn, String sql, Object[] params, String report)
+    {
+        return new Execution(getStats(queries, "Query", sql), report != null ? getReportStats(report) : null,
+                             conn, sql, params);
+    }
+
+    /**
+     * @brief Starts timing a report
+     * @param report The name of the report, e.g. "SQL#1"
+     * @return The run, which must be finished when the report ends
+     */
+    static ReportRun startReport(String report)
+    {
+        return new ReportRun(getReportStats(report));
+    }
+
+    /**
+     * @brief Wraps a streamed result so that reading it is timed
+     * @param result The result of the query, or null if it could not be run
+     * @param execution The run of the query
+     * @return A result set that counts the rows read, and finishes execution when closed or
+     *         when moving to the next row fails; null if result is null
+     */
+    static ResultSet track(ResultSet result, Execution execution)
+    {
+        return result == null ? null : new TrackedResultSet(result, execution);
+    }
+
+    /**
+     * @brief Returns the metrics of every query template run so far
+     * @return The metrics, slowest 95th percentile first
+     */
+    public static List<Stats> getQueryStats()
+    {
+        return sortByP95(queries.values());
+    }
+
+    /**
+     * @brief Returns the metrics of every report run so far
+     * @return The metrics, slowest 95th percentile first
+     */
+    public static List<Stats> getReportStats()
+    {
+        return sortByP95(reports.values());
+    }
+
+    /**
+     * @brief Discards the metrics of every query and report
+     */
+    public static void reset()
+    {
+        for (Stats stats : queries.values())
+            stats.reset();
+        for (Stats stats : reports.values())
+            stats.reset();
+    }
+
+    private static Stats getReportStats(String report)
+    {
+        return getStats(reports, "Report", report.toUpperCase());
+    }
+
+    private static List<Stats> sortByP95(Collection<Stats> values)
+    {
+        List<Stats> sorted = new ArrayList<Stats>(values);
+        sorted.sort(Comparator.comparingDouble(Stats::getLatencyP95Millis).reversed().thenComparing(Stats::getName));
+        return sorted;
+    }
+
+    /**
+     * @brief Returns the metrics stored under the given name, creating them on first use
+     * @param map The query or report metrics
+     * @param type The JMX type, Query or Report
+     * @param name The query template or report name
+     * @return The metrics
+     * @post New metrics will be registered with the platform MBean server as
+     *       dss.metrics:type=<type>,name=<name>
+     */
+    private static Stats getStats(Map<String, Stats> map, String type, String name)
+    {
+        Stats stats = map.get(name);
+        if (stats != null)
+            return stats;
+        return map.computeIfAbsent(name, n ->
+        {
+            Stats created = new Stats(n);
+            try
+            {
+                ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(n));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(created, objectName);
+            }
+            catch (JMException e)
+            {
+                // the metrics are still kept, and shown on the Diagnostics screen
+            }
+            return created;
+        });
+    }
+}
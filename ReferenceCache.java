@@ -0,0 +1,155 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class ReferenceCache
+{
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private static final Map<String, AtomicLong> tableVersions = new ConcurrentHashMap<String, AtomicLong>();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong invalidations = new AtomicLong();
+    private static volatile long timeToLive = 0;      // ms; 0 keeps entries until invalidated
+
+    /**
+     * @brief Loads the options of a reference list from the database
+     */
+    public interface Loader
+    {
+        Map<String, String> load() throws SQLException;
+    }
+
+    /**
+     * @brief A cached option list, with the version of each table it was read from
+     */
+    private static class Entry
+    {
+        private final Map<String, String> options;
+        private final String[] tables;
+        private final long[] versions;
+        private final long loadedAt;
+
+        private Entry(Map<String, String> optionList, String[] sourceTables, long[] sourceVersions)
+        {
+            options = Collections.unmodifiableMap(optionList);
+            tables = sourceTables;
+            versions = sourceVersions;
+            loadedAt = System.currentTimeMillis();
+        }
+
+        /**
+         * @brief Checks that no source table has changed, and the entry has not outlived the TTL
+         * @return True if the entry may be used, or false if it must be reloaded
+         */
+        private boolean isCurrent()
+        {
+            if (timeToLive > 0 && System.currentTimeMillis() - loadedAt >= timeToLive)
+                return false;
+            for (int i = 0; i < tables.length; i++)
+            {
+                if (versions[i] != version(tables[i]).get())
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @brief Returns the cached option list for the given key, loading it on a miss
+     * @param key A key identifying the list, e.g. the query that produces it
+     * @param loader Reads the list from the database
+     * @param tables The tables the list is read from; a change to any of them invalidates the list
+     * @return An unmodifiable map of the options, in the order they were loaded
+     * @post On a miss, or if the cached list is stale, the list will be loaded and cached
+     *       together with the current version of each of its tables
+     * @throws SQLException
+     */
+    public static Map<String, String> getOptions(String key, Loader loader, String... tables) throws SQLException
+    {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.isCurrent())
+        {
+            hits.incrementAndGet();
+            return entry.options;
+        }
+
+        misses.incrementAndGet();
+
+        // read the versions before loading, so a change made while loading leaves the entry stale
+        long[] versions = new long[tables.length];
+        for (int i = 0; i < tables.length; i++)
+            versions[i] = version(tables[i]).get();
+
+        entry = new Entry(new LinkedHashMap<String, String>(loader.load()), tables.clone(), versions);
+        entries.put(key, entry);
+        return entry.options;
+    }
+
+    /**
+     * @brief Marks every cached list read from the given table as stale
+     * @param table A database table that has been inserted into, updated, or deleted from
+     * @post The next lookup of each list read from table will reload it
+     */
+    public static void invalidate(String table)
+    {
+        version(table).incrementAndGet();
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * @brief Discards every cached list
+     * @post Every list will be reloaded on its next lookup
+     */
+    public static void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * @brief Sets how long a list may be used before it is reloaded, to pick up changes
+     *        made to the database outside of this application
+     * @param millis The time to live in milliseconds, or 0 to keep lists until they are invalidated
+     */
+    public static void setTimeToLive(long millis)
+    {
+        timeToLive = Math.max(0, millis);
+    }
+
+    /**
+     * @brief Returns the version counter of the given table
+     * @param table A database table name, in any case
+     * @return The table's version counter, created on first use
+     */
+    private static AtomicLong version(String table)
+    {
+        return tableVersions.computeIfAbsent(table.toLowerCase(), t -> new AtomicLong());
+    }
+
+    /**
+     * @brief Returns the number of lookups answered from the cache
+     * @return The hit count
+     */
+    public static long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @brief Returns the number of lookups that had to load the list from the database
+     * @return The miss count
+     */
+    public static long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @brief Returns the number of table invalidations
+     * @return The invalidation count
+     */
+    public static long getInvalidations()
+    {
+        return invalidations.get();
+    }
+}
@@ -0,0 +1,139 @@
+import java.io.PrintStream;
+import java.sql.*;
+import java.time.YearMonth;
+import java.util.*;
+
+/**
+ * @brief The prompts, queries and output of a report registered with ReportRegistry
+ */
+public interface ReportContext
+{
+    /**
+     * @brief Returns the name of the report being run
+     * @return The report name, e.g. "SQL#1"
+     */
+    String getMethodName();
+
+    /**
+     * @brief Returns the stream the report's results are printed to
+     * @return The output stream
+     */
+    PrintStream getOutput();
+
+    /**
+     * @brief Checks if the report is running without prompts, e.g. in a batch
+     * @return True if prompts are answered by the report's arguments, or false if the user is prompted
+     */
+    boolean isUnattended();
+
+    /**
+     * @brief Checks if an argument was given to a report running without prompts
+     * @param argument The argument name
+     * @return True if running without prompts and the argument was given, or false otherwise
+     */
+    boolean hasArgument(String argument);
+
+    /**
+     * @brief Prompts user to select from a list of options
+     * @param options The map from which options will be chosen
+     * @param argument The name of the argument that answers this prompt when running without prompts
+     * @return The value of the selected option
+     * @throws IllegalArgumentException when running without prompts, if the argument is
+     *         missing or matches neither a value nor a key of options
+     */
+    String getUserSelection(Map<String, String> options, String argument);
+
+    /**
+     * @brief Prompts user to select a row of a table by one of its columns
+     * @param conn A database connection
+     * @param table A database table
+     * @param key The table's primary key
+     * @param column The column to select by
+     * @param filter A condition rows must meet, or null for every row
+     * @param argument The name of the argument that answers this prompt when running without prompts
+     * @param backValue The option that goes back, or null to offer none
+     * @param tables The tables the rows are read from, table first
+     * @return The column value of the selected row, or backValue
+     * @throws SQLException
+     */
+    String getRowSelection(Connection conn, String table, String key, String column, String filter,
+                           String argument, String backValue, String... tables) throws SQLException;
+
+    /**
+     * @brief Prompts user to enter a month within the given range
+     * @param prompt A message displayed to the user
+     * @param first The earliest month the user may enter
+     * @param last The latest month the user may enter
+     * @param optional Specifies whether the user may hit ENTER to skip
+     * @param argument The name of the argument that answers this prompt when running without prompts
+     * @return The month entered by the user, or null if optional and the user skipped
+     * @throws IllegalArgumentException when running without prompts, if a required argument is
+     *         missing, or the argument is not a month between first and last
+     */
+    YearMonth getMonthSelection(String prompt, YearMonth first, YearMonth last, boolean optional, String argument);
+
+    /**
+     * @brief Prompts user for the name of a file to write
+     * @param defaultFile The file name used if user hits ENTER
+     * @param argument The name of the argument that answers this prompt when running without
+     *        prompts; it is optional, and defaultFile is used when it is not given
+     * @return The file name
+     */
+    String getFileSelection(String defaultFile, String argument);
+
+    /**
+     * @brief Returns the names of the tables in the database, read once and then kept in ReferenceCache
+     * @param conn A database connection
+     * @return An unmodifiable map from option number to table name
+     * @throws SQLException if the tables could not be read
+     */
+    Map<String, String> getCachedTableList(Connection conn) throws SQLException;
+
+    /**
+     * @brief Returns the column names of the given table, read once and then kept in ReferenceCache
+     * @param conn A database connection
+     * @param table A database table name
+     * @return An unmodifiable map from option number to column name
+     * @throws SQLException if the columns could not be read
+     */
+    Map<String, String> getCachedColumnList(Connection conn, String table) throws SQLException;
+
+    /**
+     * @brief Executes the given query, streaming its result on a forward-only cursor
+     * @param conn A database connection
+     * @param query A query to execute
+     * @param params Values bound to the query's parameters (?) in order; parameters
+     *        without a value are bound to null
+     * @return A result set from the query, which the caller must close, or null if the
+     *         query failed, in which case the error has been printed
+     * @post The query's run will be recorded in QueryMetrics when the result set is closed
+     */
+    ResultSet executeQuery(Connection conn, String query, Object... params);
+
+    /**
+     * @brief Prints the full contents of the given result set in a single column
+     * @param result The result set to print, or null if its query failed, to print nothing
+     */
+    void printFullResultSingleColumn(ResultSet result);
+
+    /**
+     * @brief Prints rows of text as left-aligned columns
+     * @param rows The rows to print, e.g. a header row followed by data rows
+     * @param widths The minimum width of each column
+     * @post The time taken will be recorded in QueryMetrics as the report's rendering time
+     */
+    void printGrid(List<String[]> rows, int... widths);
+
+    /**
+     * @brief Prints an error that stops the report, and records it as the run's failure
+     * @param e The error
+     * @post The run will be recorded as failed, and a batch running the report will fail
+     */
+    void printError(Exception e);
+
+    /**
+     * @brief Makes the menu that ran the report go back once the report returns
+     * @post The menu will return to its parent menu instead of listing its own options
+     */
+    void goBack();
+}
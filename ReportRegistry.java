@@ -0,0 +1,110 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ReportRegistry
+{
+    private static final Map<String, Registration> reports = new ConcurrentHashMap<String, Registration>();
+
+    // the providers of the DSS's own reports; providers in other jars are found by ServiceLoader
+    private static final Provider[] BUILT_IN_PROVIDERS = {
+        new CoreReports(), new DiagnosticsReport(), new BatchEditReport(), new ExportReports(),
+        new UsageReports(), new StatisticsReports() };
+
+    static
+    {
+        for (Provider provider : BUILT_IN_PROVIDERS)
+            provider.registerReports();
+        for (Provider provider : ServiceLoader.load(Provider.class))
+            provider.registerReports();
+    }
+
+    /**
+     * @brief A report that can be named by a SQL# entry in the menu file
+     */
+    public interface Report
+    {
+        /**
+         * @brief Runs the report
+         * @param context The prompts, queries and output the report runs with
+         * @param conn A database connection
+         * @throws SQLException
+         */
+        void execute(ReportContext context, Connection conn) throws SQLException;
+    }
+
+    /**
+     * @brief A set of reports, registered when ReportRegistry is first used; providers outside
+     *        the DSS are listed in META-INF/services/ReportRegistry$Provider of their jar
+     */
+    public interface Provider
+    {
+        /**
+         * @brief Registers the provider's reports
+         * @post Each report will have been registered with ReportRegistry.register
+         */
+        void registerReports();
+    }
+
+    /**
+     * @brief A registered report, and whether it may run unattended
+     */
+    private static class Registration
+    {
+        private final Report report;
+        private final boolean unattended;
+
+        private Registration(Report registeredReport, boolean readOnly)
+        {
+            report = registeredReport;
+            unattended = readOnly;
+        }
+    }
+
+    /**
+     * @brief Registers a report under the given name
+     * @param name The name the menu file uses for the report, e.g. "SQL#14"
+     * @param unattended Specifies whether the report only reads from the database, and so
+     *        may be run by BatchReport
+     * @param report The report; it prompts, queries and prints through the ReportContext it is
+     *        given, which takes the answers to its prompts from arguments when run unattended
+     * @post report will be run for every menu entry named name, in any case; a report
+     *       already registered under name will be replaced
+     */
+    public static void register(String name, boolean unattended, Report report)
+    {
+        reports.put(name.toLowerCase(), new Registration(report, unattended));
+    }
+
+    /**
+     * @brief Returns the report registered under the given name
+     * @param name A report name, in any case
+     * @return The report, or null if none is registered under name
+     */
+    public static Report get(String name)
+    {
+        Registration registration = reports.get(name.toLowerCase());
+        return registration != null ? registration.report : null;
+    }
+
+    /**
+     * @brief Checks if a report is registered under the given name
+     * @param name A report name, in any case
+     * @return True if the report exists, or false otherwise
+     */
+    public static boolean contains(String name)
+    {
+        return reports.containsKey(name.toLowerCase());
+    }
+
+    /**
+     * @brief Checks if the named report may be run unattended
+     * @param name A report name, in any case
+     * @return True if the report exists and only reads from the database, or false otherwise
+     */
+    public static boolean canRunUnattended(String name)
+    {
+        Registration registration = reports.get(name.toLowerCase());
+        return registration != null && registration.unattended;
+    }
+}
@@ -0,0 +1,496 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @brief Streams a result set to a CSV or columnar (DSSC) file as it is read from the cursor
+ */
+public class ResultExporter
+{
+    public static final byte INT64 = 1;
+    public static final byte FLOAT64 = 2;
+    public static final byte DATE = 3;
+    public static final byte TIMESTAMP = 4;
+    public static final byte STRING = 5;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int ROW_GROUP_SIZE = 1 << 16;
+    private static final int VERSION = 1;
+
+    /**
+     * @brief The export formats
+     */
+    public enum Format
+    {
+        CSV(".csv"), COLUMNAR(".dssc");
+
+        private final String extension;
+
+        Format(String fileExtension)
+        {
+            extension = fileExtension;
+        }
+
+        /**
+         * @brief Returns the file name extension of the format
+         * @param compressed Specifies whether the file is gzip compressed
+         * @return e.g. ".csv" or ".csv.gz"
+         */
+        public String getExtension(boolean compressed)
+        {
+            return compressed ? extension + ".gz" : extension;
+        }
+    }
+
+    /**
+     * @brief Writes bytes to a channel through a single direct buffer
+     */
+    private static class ChannelWriter implements Closeable
+    {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private long written;
+
+        private ChannelWriter(WritableByteChannel target)
+        {
+            channel = target;
+        }
+
+        /**
+         * @brief Makes room for the given number of bytes
+         * @param bytes The number of bytes about to be put; at most BUFFER_SIZE
+         * @throws IOException
+         */
+        private void reserve(int bytes) throws IOException
+        {
+            if (buffer.remaining() < bytes)
+                drain();
+        }
+
+        private void putInt(int value) throws IOException
+        {
+            reserve(4);
+            buffer.putInt(value);
+        }
+
+        private void putLong(long value) throws IOException
+        {
+            reserve(8);
+            buffer.putLong(value);
+        }
+
+        private void put(byte value) throws IOException
+        {
+            reserve(1);
+            buffer.put(value);
+        }
+
+        /**
+         * @brief Puts the readable bytes of a buffer
+         * @param src A buffer, flipped for reading
+         * @throws IOException
+         */
+        private void put(ByteBuffer src) throws IOException
+        {
+            while (src.hasRemaining())
+            {
+                if (!buffer.hasRemaining())
+                    drain();
+                int count = Math.min(src.remaining(), buffer.remaining());
+                ByteBuffer slice = src.slice();
+                slice.limit(count);
+                buffer.put(slice);
+                src.position(src.position() + count);
+            }
+        }
+
+        /**
+         * @brief Encodes text as UTF-8 straight into the buffer
+         * @param text The text to write
+         * @throws IOException
+         */
+        private void putText(CharSequence text) throws IOException
+        {
+            CharBuffer chars = CharBuffer.wrap(text);
+            encoder.reset();
+            while (true)
+            {
+                CoderResult result = encoder.encode(chars, buffer, true);
+                if (result.isOverflow())
+                    drain();
+                else if (result.isUnderflow())
+                    break;
+                else
+                    result.throwException();
+            }
+            while (encoder.flush(buffer).isOverflow())
+                drain();
+        }
+
+        /**
+         * @brief Writes the buffer to the channel
+         * @throws IOException
+         */
+        private void drain() throws IOException
+        {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                written += channel.write(buffer);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                drain();
+            }
+            finally
+            {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * @brief Writes the given result set to a file
+     * @param result The result to export, positioned before its first row
+     * @param file The file to write; it is replaced if it exists
+     * @param format The format to write
+     * @param compress Specifies whether to gzip compress the file
+     * @return The number of rows exported
+     * @post Rows will be read one at a time from result and written through a 1 MB direct
+     *       buffer, so memory use does not grow with the size of the result; a partially
+     *       written file is deleted if the export fails
+     * @throws SQLException if the result cannot be read
+     * @throws IOException if the file cannot be written
+     */
+    public static long export(ResultSet result, Path file, Format format, boolean compress) throws SQLException, IOException
+    {
+        boolean exported = false;
+        try (ChannelWriter writer = new ChannelWriter(openChannel(file, compress)))
+        {
+            long rows = format == Format.CSV ? writeCsv(result, writer) : writeColumnar(result, writer);
+            exported = true;
+            return rows;
+        }
+        finally
+        {
+            if (!exported)
+                Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * @brief Opens a file for writing
+     * @param file The file to write
+     * @param compress Specifies whether to gzip compress what is written
+     * @return The file's channel, or a channel that compresses into it
+     * @throws IOException
+     */
+    private static WritableByteChannel openChannel(Path file, boolean compress) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                               StandardOpenOption.TRUNCATE_EXISTING);
+        if (!compress)
+            return channel;
+        try
+        {
+            return Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @brief Writes a result as CSV
+     * @param result The result to write
+     * @param writer The destination
+     * @return The number of rows written
+     * @post The file will be RFC 4180, in UTF-8 with CRLF line ends, starting with a header
+     *       row of column labels; fields holding a comma, quote or line break are quoted,
+     *       and NULL is written as an empty field
+     * @throws SQLException
+     * @throws IOException
+     */
+    private static long writeCsv(ResultSet result, ChannelWriter writer) throws SQLException, IOException
+    {
+        ResultSetMetaData rMeta = result.getMetaData();
+        int numCols = rMeta.getColumnCount();
+        StringBuilder line = new StringBuilder(256);
+
+        for (int col = 1; col <= numCols; col++)
+            appendCsvField(line, col, rMeta.getColumnLabel(col));
+        line.append("\r\n");
+        writer.putText(line);
+
+        long rows = 0;
+        while (result.next())
+        {
+            line.setLength(0);
+            for (int col = 1; col <= numCols; col++)
+                appendCsvField(line, col, result.getString(col));
+            line.append("\r\n");
+            writer.putText(line);
+            rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * @brief Appends one CSV field, quoted if necessary
+     * @param line The line being built
+     * @param col The field's column number; fields after the first are preceded by a comma
+     * @param value The field value, or null
+     */
+    private static void appendCsvField(StringBuilder line, int col, String value)
+    {
+        if (col > 1)
+            line.append(',');
+        if (value == null)
+            return;
+
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++)
+        {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote)
+        {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '"')
+                line.append('"');
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    /**
+     * @brief Writes a result in the columnar format
+     * @param result The result to write
+     * @param writer The destination
+     * @return The number of rows written
+     * @post The file will hold up to ROW_GROUP_SIZE rows per group, each column of a group
+     *       stored contiguously, so memory use is bounded by one group; the layout is
+     *       described in the README
+     * @throws SQLException
+     * @throws IOException
+     */
+    private static long writeColumnar(ResultSet result, ChannelWriter writer) throws SQLException, IOException
+    {
+        ResultSetMetaData rMeta = result.getMetaData();
+        int numCols = rMeta.getColumnCount();
+        byte[] types = new byte[numCols + 1];
+        ColumnChunk[] chunks = new ColumnChunk[numCols + 1];
+
+        writer.putText("DSSC");
+        writer.putInt(VERSION);
+        writer.putInt(numCols);
+        for (int col = 1; col <= numCols; col++)
+        {
+            types[col] = getType(rMeta.getColumnType(col));
+            chunks[col] = new ColumnChunk();
+            byte[] name = rMeta.getColumnLabel(col).getBytes(StandardCharsets.UTF_8);
+            writer.put(types[col]);
+            writer.putInt(name.length);
+            writer.put(ByteBuffer.wrap(name));
+        }
+
+        long total = 0;
+        int groupRows = 0;
+        while (result.next())
+        {
+            for (int col = 1; col <= numCols; col++)
+                chunks[col].add(result, col, types[col], groupRows);
+            groupRows++;
+            if (groupRows == ROW_GROUP_SIZE)
+            {
+                writeGroup(writer, chunks, groupRows);
+                total += groupRows;
+                groupRows = 0;
+            }
+        }
+        if (groupRows > 0)
+        {
+            writeGroup(writer, chunks, groupRows);
+            total += groupRows;
+        }
+        writer.putInt(0);
+        writer.putLong(total);
+        return total;
+    }
+
+    /**
+     * @brief Writes one row group, and empties the chunks for the next
+     * @param writer The destination
+     * @param chunks The buffered columns, indexed by column number
+     * @param rows The number of rows in the group
+     * @throws IOException
+     */
+    private static void writeGroup(ChannelWriter writer, ColumnChunk[] chunks, int rows) throws IOException
+    {
+        writer.putInt(rows);
+        int bitmapLength = (rows + 7) / 8;
+        for (int col = 1; col < chunks.length; col++)
+        {
+            ColumnChunk chunk = chunks[col];
+            writer.putInt(bitmapLength + chunk.values.position());
+            writer.put(ByteBuffer.wrap(chunk.nulls, 0, bitmapLength));
+            chunk.values.flip();
+            writer.put(chunk.values);
+            chunk.clear(bitmapLength);
+        }
+    }
+
+    /**
+     * @brief Returns the columnar type of a JDBC column type
+     * @param sqlType A java.sql.Types value
+     * @return The type the column is stored as
+     */
+    private static byte getType(int sqlType)
+    {
+        switch (sqlType)
+        {
+            case Types.BIT:
+            case Types.BOOLEAN:
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return INT64;
+
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return FLOAT64;
+
+            case Types.DATE:
+                return DATE;
+
+            case Types.TIMESTAMP:
+                return TIMESTAMP;
+
+            default:    // text, and DECIMAL, which a double cannot hold exactly
+                return STRING;
+        }
+    }
+
+    /**
+     * @brief The values of one column of the row group being built
+     */
+    private static class ColumnChunk
+    {
+        private byte[] nulls = new byte[ROW_GROUP_SIZE / 8];
+        private ByteBuffer values = ByteBuffer.allocate(ROW_GROUP_SIZE * 8);
+
+        /**
+         * @brief Adds the column's value in the current row
+         * @param result The result, positioned on a row
+         * @param col The column number
+         * @param type The column's columnar type
+         * @param row The row's position in the group
+         * @throws SQLException
+         */
+        private void add(ResultSet result, int col, byte type, int row) throws SQLException
+        {
+            switch (type)
+            {
+                case INT64:
+                {
+                    long value = result.getLong(col);
+                    if (!markNull(result.wasNull(), row))
+                        reserve(8).putLong(value);
+                    break;
+                }
+                case FLOAT64:
+                {
+                    double value = result.getDouble(col);
+                    if (!markNull(result.wasNull(), row))
+                        reserve(8).putDouble(value);
+                    break;
+                }
+                case DATE:
+                {
+                    java.sql.Date value = result.getDate(col);
+                    if (!markNull(value == null, row))
+                        reserve(4).putInt((int) value.toLocalDate().toEpochDay());
+                    break;
+                }
+                case TIMESTAMP:
+                {
+                    Timestamp value = result.getTimestamp(col);
+                    if (!markNull(value == null, row))
+                        reserve(8).putLong(value.toLocalDateTime().toInstant(ZoneOffset.UTC).toEpochMilli());
+                    break;
+                }
+                default:
+                {
+                    String value = result.getString(col);
+                    if (!markNull(value == null, row))
+                    {
+                        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                        reserve(4 + bytes.length).putInt(bytes.length).put(bytes);
+                    }
+                    break;
+                }
+            }
+        }
+
+        /**
+         * @brief Sets the null bit of a row
+         * @param isNull Specifies whether the row's value is NULL
+         * @param row The row's position in the group
+         * @return isNull
+         */
+        private boolean markNull(boolean isNull, int row)
+        {
+            if (isNull)
+                nulls[row >>> 3] |= (byte) (1 << (row & 7));
+            return isNull;
+        }
+
+        /**
+         * @brief Makes room for the given number of bytes, growing the buffer if needed
+         * @param bytes The number of bytes about to be put
+         * @return The values buffer
+         */
+        private ByteBuffer reserve(int bytes)
+        {
+            if (values.remaining() < bytes)
+            {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(values.capacity() * 2, values.position() + bytes));
+                values.flip();
+                larger.put(values);
+                values = larger;
+            }
+            return values;
+        }
+
+        /**
+         * @brief Empties the chunk for the next row group
+         * @param bitmapLength The number of bitmap bytes used by the last group
+         */
+        private void clear(int bitmapLength)
+        {
+            java.util.Arrays.fill(nulls, 0, bitmapLength, (byte) 0);
+            values.clear();
+        }
+    }
+}
@@ -1,45 +1,157 @@
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.time.*;
+import java.time.format.DateTimeParseException;
 import java.sql.*;
 import java.text.DecimalFormat;
+import javax.sql.rowset.*;
 
-public class SQLMethod
+public class SQLMethod implements ReportContext
 {
+    // fetch size that makes Connector/J stream a result set one row at a time
+    public static final int STREAM_ROW_BY_ROW = Integer.MIN_VALUE;
+
+    // Report queries; package-private so the benchmark module runs exactly the same SQL
+    static final String REGULATED_FILTER = "Water_Source_ID IN (SELECT Water_Source_ID FROM Water_Source_Has_Regulation)";
+    static final String FACILITY_LIST = KeysetPager.getListQuery("Facility", "Facility_ID", "Facility_Name", null);
+    static final String FACILITY_DETAIL = "select * from facility where facility_name = ?";
+    static final String WATER_SOURCE_LIST = KeysetPager.getListQuery("Water_Source", "Water_Source_ID", "Location", null);
+    static final String REGULATED_SOURCES = KeysetPager.getListQuery("Water_Source", "Water_Source_ID", "Location", REGULATED_FILTER);
+    static final String REGULATION_LIST = KeysetPager.getListQuery("Regulation", "Regulation_ID", "Regulation_Name", null);
+    static final String TREATMENTS_RECEIVED =
+            "SELECT DISTINCT t.Treatment_Number, t.Treatment_Description " +
+            "FROM Water_Source AS w " +
+            "JOIN Treatments_Performed AS tp ON w.Water_Source_ID = tp.Water_Source_ID " +
+            "JOIN Treatment AS t ON tp.Treatment_Number = t.Treatment_Number "+
+            "WHERE w.Location = ? " +
+            "ORDER BY t.Treatment_Number ASC";
+    static final String TREATMENTS_MANDATED =
+            "SELECT DISTINCT t.Treatment_Number, t.Treatment_Description " +
+            "FROM Water_Source AS w " +
+            "JOIN Water_Source_Has_Regulation AS wr ON w.Water_Source_ID = wr.Water_Source_ID " +
+            "JOIN Regulation AS r ON wr.Regulation_ID = r.Regulation_ID "+
+            "JOIN Treatment_Has_Regulation AS tr ON r.Regulation_ID = tr.Regulation_ID " +
+            "JOIN Treatment As t ON tr.Treatment_Number = t.Treatment_Number " +
+            "WHERE w.Location = ? " +
+            "ORDER BY t.Treatment_Number ASC";
+    static final String USAGE_DATE_RANGE =
+            "SELECT MIN(u.Usage_Record_Date), MAX(u.Usage_Record_Date) " +
+            "FROM Business AS b JOIN Business_Used AS u ON b.Business_ID = u.Business_ID " + 
+            "WHERE b.Business_Type = ?";
+    // half-open date range [first day of first month, first day after last month) so the
+    // Usage_Record_Date index can be used
+    static final String MONTHLY_USAGE_BY_TYPE =
+            "SELECT YEAR(u.Usage_Record_Date), MONTH(u.Usage_Record_Date), " +
+            "SUM(u.Amount_Water_Consumed), SUM(u.Amount_Water_Wasted) " +
+            "FROM Business AS b JOIN Business_Used AS u ON b.Business_ID = u.Business_ID " + 
+            "WHERE b.Business_Type = ? AND u.Usage_Record_Date >= ? AND u.Usage_Record_Date < ? " +
+            "GROUP BY YEAR(u.Usage_Record_Date), MONTH(u.Usage_Record_Date) " +
+            "ORDER BY 1, 2";
+    // monthly totals are kept current in Business_Usage_Monthly by UsageRollup, so
+    // this reads one row per month instead of every Business_Used record
+    static final String MONTHLY_USAGE_ROLLUP =
+            "select Usage_Month, Record_Count, Total_Consumed, Total_Wasted, Total_Needing_Treatment " +
+            "from Business_Usage_Monthly " +
+            "where Usage_Month >= ? " +
+            "order by Usage_Month";
+    static final String BUSINESS_LIST = KeysetPager.getListQuery("Business", "Business_ID", "Business_Name", null);
+    static final String BUSINESSES_OPENED =
+            "select Business_Type, Start_Date " +
+            "from Business " +
+            "where Start_Date >= ? " +
+            "order by Start_Date asc";
+
+    private static volatile int fetchSize = STREAM_ROW_BY_ROW;
+    private static volatile int queryTimeout = 0;   // seconds; 0 waits indefinitely
+    private static volatile int pageSize = 0;       // rows per page of a selection list; 0 lists every row
+    private static volatile boolean useUsageSnapshot = false;
+    private static final ExecutorService queryExecutor = Executors.newCachedThreadPool(task ->
+    {
+        Thread thread = new Thread(task, "report-query");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static RowSetFactory rowSetFactory;
     private String method;
     private boolean escape;
+    private Map<String, String> arguments;
+    private PrintStream out;
+    private Exception failure;      // the first error printed by the current run, if any
+    private MySQLConnection pool;
+    private TableRenderer renderer;
+    private QueryMetrics.ReportRun reportRun;
+
+    /**
+     * @brief A query and its parameter values, for executeConcurrentQueries
+     */
+    private static class Query
+    {
+        private final String sql;
+        private final Object[] params;
+
+        private Query(String query, Object... values)
+        {
+            sql = query;
+            params = values;
+        }
+    }
 
     /**
      * @brief Creates a new SQLMethod object with the given method name
      * @param methodName The name of the method to be stored
      */
     public SQLMethod(String methodName)
+    {
+        this(methodName, null, System.out);
+    }
+
+    /**
+     * @brief Creates a new SQLMethod object that runs without prompting the user
+     * @param methodName The name of the method to be stored
+     * @param reportArguments The answers to the method's prompts, keyed by argument name 
+     *        (see getUserSelection and getMonthSelection); null to prompt the user instead
+     * @param output The stream the method's results are printed to
+     */
+    public SQLMethod(String methodName, Map<String, String> reportArguments, PrintStream output)
     {
         method = methodName;
         escape = false;
+        arguments = reportArguments;
+        out = output;
     }
 
     /**
      * @brief Executes the method stored in method
-     * @param conn A database connection
-     * @post The appropriate method will be executed
-     */
-    public boolean executeSQL(Connection conn)
-    {
-        switch(method.toLowerCase())
-        {
-            case "sql#1": executeSQL1(conn); break;
-            case "sql#2": executeSQL2(conn); break;
-            case "sql#3": executeSQL3(conn); break;
-            case "sql#4": executeSQL4(conn); break;
-            case "sql#5": executeSQL5(conn); break;
-            case "sql#6": executeSQL6(conn); break;
-            case "sql#7": executeSQL7(conn); break;
-            case "sql#8": executeSQL8(conn); break;
-            case "sql#9": executeSQL9(conn); break;
-            case "sql#10": executeSQL10(conn); break;
-            case "sql#11": executeSQL11(conn); break;
-            case "sql#12": executeSQL12(conn); break;
-            default: break;            
+     * @param mySQL A pool of database connections
+     * @post A connection will be borrowed from mySQL, the appropriate method will be
+     *       executed on it, and the connection will be returned to the pool; independent 
+     *       queries of the method may run on further connections borrowed from mySQL; the
+     *       run will be recorded in QueryMetrics, as failed if the method printed an error,
+     *       which getFailure returns
+     */
+    public boolean executeSQL(MySQLConnection mySQL)
+    {
+        Connection conn = null;
+        pool = mySQL;
+        reportRun = QueryMetrics.startReport(method);
+        failure = null;
+        try
+        {
+            conn = mySQL.borrowConn();
+            executeSQL(conn);
+        }
+        catch (SQLException e)
+        {
+            printError(e);
+        }
+        finally
+        {
+            mySQL.returnConn(conn);
+            reportRun.finish(failure != null);
+            reportRun = null;
         }
         if (escape)
         {
@@ -51,169 +163,560 @@ public class SQLMethod
     }
 
     /**
-     * @brief Executes the given query with user's parameter selection
-     * @pre query must not have more than 1 parameter (?)
+     * @brief Returns the error that made the last run of the method fail
+     * @return The first error the method printed during its last run by executeSQL(MySQLConnection),
+     *         or null if it printed none
+     */
+    public Exception getFailure()
+    {
+        return failure;
+    }
+
+    /**
+     * @brief Prints an error that stops the method, and records it as the run's failure
+     * @param e The error
+     * @post The error will be printed to out; if it is the run's first, getFailure will return it
+     */
+    @Override
+    public void printError(Exception e)
+    {
+        if (failure == null)
+            failure = e;
+        out.println((e instanceof IOException ? "IOException: " : "SQLException: ") + e);
+    }
+
+    /**
+     * @brief Executes the method stored in method on the given connection
      * @param conn A database connection
-     * @param query A query to execute
-     * @param selection A value for a single parameter to use in the query; if
-     *        query does not use any parameters, pass null or an empty string ""
-     * @return A result set from the query
-     * @post The querey will have been executed
+     * @post The report registered under method will be executed, if there is one
      * @throws SQLException
      */
-    private ResultSet executeSQLQuery(Connection conn, String query, String selection)
+    private void executeSQL(Connection conn) throws SQLException
+    {
+        ReportRegistry.Report report = ReportRegistry.get(method);
+        if (report != null)
+            report.execute(this, conn);
+    }
+
+    /**
+     * @brief Checks if the method is running without prompts
+     * @return True if the method was given arguments to answer its prompts, or false otherwise
+     */
+    @Override
+    public boolean isUnattended()
+    {
+        return arguments != null;
+    }
+
+    /**
+     * @brief Checks if an argument was given to the method
+     * @param argument The argument name
+     * @return True if running without prompts and the argument was given, or false otherwise
+     */
+    @Override
+    public boolean hasArgument(String argument)
+    {
+        return arguments != null && arguments.containsKey(argument);
+    }
+
+    /**
+     * @brief Makes the menu that ran the method go back once the method returns
+     * @post executeSQL(MySQLConnection) will return true
+     */
+    @Override
+    public void goBack()
+    {
+        escape = true;
+    }
+
+    /**
+     * @brief Returns the name of the method
+     * @return The method name, e.g. "SQL#1"
+     */
+    @Override
+    public String getMethodName()
+    {
+        return method;
+    }
+
+    /**
+     * @brief Returns the stream the method's results are printed to
+     * @return The output stream
+     */
+    @Override
+    public PrintStream getOutput()
     {
+        return out;
+    }
+
+    /**
+     * @brief Sets the fetch size used by streaming queries
+     * @param rows The number of rows to fetch from the server at a time; STREAM_ROW_BY_ROW
+     *        streams one row at a time, a positive value fetches in batches of that size (the
+     *        connection parameters must include useCursorFetch=true), and 0 buffers the whole 
+     *        result on the client
+     */
+    public static void setFetchSize(int rows)
+    {
+        fetchSize = rows;
+    }
+
+    /**
+     * @brief Returns the fetch size used by streaming queries
+     * @return The fetch size
+     */
+    public static int getFetchSize()
+    {
+        return fetchSize;
+    }
+
+    /**
+     * @brief Sets how long report queries may run before they are cancelled
+     * @param seconds The timeout in seconds, or 0 to wait indefinitely
+     */
+    public static void setQueryTimeout(int seconds)
+    {
+        queryTimeout = Math.max(0, seconds);
+    }
+
+    /**
+     * @brief Sets whether the water usage reports read from UsageSnapshot
+     * @param enabled True to answer SQL#5, SQL#6 and SQL#7 from an in-memory copy of
+     *        Business_Used, or false to query the database each time
+     */
+    public static void setUseUsageSnapshot(boolean enabled)
+    {
+        useUsageSnapshot = enabled;
+    }
+
+    /**
+     * @brief Sets how many rows are shown at a time when user selects from a table
+     * @param rows The number of rows per page, or 0 to list every row at once
+     * @post With paging on, selection lists are read a page at a time by primary key, and
+     *       never held in memory as a whole
+     */
+    public static void setPageSize(int rows)
+    {
+        pageSize = Math.max(0, rows);
+    }
+
+    /**
+     * @brief Runs independent queries at the same time, each on its own connection
+     * @pre The queries must not depend on each other's results
+     * @param conn A database connection
+     * @param queries The queries to run, with their parameter values
+     * @return The results of the queries, fully read into memory, in the order the queries were given
+     * @post The first query will run on conn in this thread; each other query will run on a 
+     *       connection of its own borrowed from the pool, or, if the pool has no free connection,
+     *       on conn after the first; if a query fails, is interrupted, or the queries do not all 
+     *       finish within the query timeout, every query still running will be cancelled on the 
+     *       server, and every borrowed connection returned to the pool
+     * @throws SQLException if any query fails; SQLTimeoutException if the queries time out
+     */
+    private List<ResultSet> executeConcurrentQueries(Connection conn, Query... queries) throws SQLException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(queryTimeout);
+        List<Statement> running = new ArrayList<Statement>();
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        List<Future<ResultSet>> futures = new ArrayList<Future<ResultSet>>();
+        ResultSet[] results = new ResultSet[queries.length];
+        boolean completed = false;
         try
         {
-            PreparedStatement stmt = conn.prepareStatement(query, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-            ParameterMetaData pMeta = stmt.getParameterMetaData();
+            // hand every query but the first to another connection, while the pool has one free
+            for (int i = 1; i < queries.length; i++)
+            {
+                Connection other = pool == null ? null : pool.tryBorrowConn();
+                if (other == null)
+                {
+                    futures.add(null);
+                    continue;
+                }
 
-            int paramCount = pMeta.getParameterCount();
-            if (paramCount > 0)
-                stmt.setObject(1, selection);
-            
-            return stmt.executeQuery();
+                Query query = queries[i];
+                try
+                {
+                    futures.add(queryExecutor.submit(() ->
+                    {
+                        try
+                        {
+                            return executeBufferedQuery(other, query, method, running, cancelled);
+                        }
+                        finally
+                        {
+                            pool.returnConn(other);
+                        }
+                    }));
+                }
+                catch (RuntimeException e)
+                {
+                    pool.returnConn(other);
+                    throw e;
+                }
+            }
+
+            // run the first query, and any that did not get a connection, here on conn
+            results[0] = executeBufferedQuery(conn, queries[0], method, running, cancelled);
+            for (int i = 1; i < queries.length; i++)
+            {
+                if (futures.get(i - 1) == null)
+                    results[i] = executeBufferedQuery(conn, queries[i], method, running, cancelled);
+            }
+
+            // join the others in order
+            for (int i = 1; i < queries.length; i++)
+            {
+                Future<ResultSet> future = futures.get(i - 1);
+                if (future == null)
+                    continue;
+                if (queryTimeout > 0)
+                    results[i] = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                else
+                    results[i] = future.get();
+            }
+            completed = true;
+            return Arrays.asList(results);
         }
-        catch (SQLException e)
+        catch (ExecutionException e)
         {
-            System.out.println("SQLException: " + e);
-            return null;
+            if (e.getCause() instanceof SQLException)
+                throw (SQLException) e.getCause();
+            throw new SQLException("Report query failed", e.getCause());
+        }
+        catch (TimeoutException e)
+        {
+            throw new SQLTimeoutException("Report queries did not finish within " + queryTimeout + " s");
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for report queries", e);
+        }
+        finally
+        {
+            if (!completed)
+            {
+                // holding the lock keeps each statement's connection leased until it is cancelled
+                cancelled.set(true);
+                synchronized (running)
+                {
+                    for (Statement stmt : running)
+                    {
+                        try
+                        {
+                            stmt.cancel();
+                        }
+                        catch (SQLException e)
+                        {
+                            // the query has finished or its connection is gone either way
+                        }
+                    }
+                }
+            }
         }
     }
 
     /**
-     * @brief Formats data into readable text
-     * @param result A result set containing data to format
-     * @param col The column of the result set to format
-     * @return A string formatted in a genaraly more readable form, mainly numbers
-     * @post Strings will be return back as is, while integers will be formatted to 
-     *       include thousands comma separators, and doubles containing two decimals
+     * @brief Executes a query and reads its whole result into memory
+     * @param conn A database connection, used by this thread only
+     * @param query The query to run, with its parameter values
+     * @param report The name of the report running the query, for QueryMetrics
+     * @param running The statements currently executing, for cancellation
+     * @param cancelled Set once the queries have been cancelled
+     * @return A disconnected result set holding every row of the result
+     * @post The statement will be listed in running while it executes, and the query's
+     *       run recorded in QueryMetrics
+     * @throws SQLException if the query fails, times out, or was cancelled
      */
-    private String formatText(ResultSet result, int col)
+    private static ResultSet executeBufferedQuery(Connection conn, Query query, String report, List<Statement> running,
+                                                  AtomicBoolean cancelled) throws SQLException
     {
+        QueryMetrics.Execution execution = QueryMetrics.startQuery(conn, query.sql, query.params, report);
+        boolean failed = true;
         try
         {
-            String dataType = result.getObject(col).getClass().getSimpleName();
-            String text = result.getObject(col).toString();
+            StatementCache.CachedStatement cached = StatementCache.forConnection(conn).prepare(query.sql, ResultSet.TYPE_FORWARD_ONLY);
+            PreparedStatement stmt = cached.getStatement();
+            stmt.setFetchSize(fetchSize);
+            stmt.setQueryTimeout(queryTimeout);
+            for (int i = 0; i < cached.getParamCount(); i++)
+                stmt.setObject(i + 1, i < query.params.length ? query.params[i] : null);
 
-            switch(dataType)
+            synchronized (running)
             {
-                case "Integer":
-                case "int":
-                    int i = result.getInt(col);
-                    text = String.format("%,d", i);
-                    break;
-
-                case "Double":
-                case "double":
-                case "Float":
-                case "float":
-                    double d = result.getDouble(col);
-                    text = String.format("%,.2f", d);
-                    break;
-                
-                default:    // strings, dates, etc.
-                    break;
+                if (cancelled.get())
+                    throw new SQLException("Report query cancelled");
+                running.add(stmt);
+            }
+            try (ResultSet result = stmt.executeQuery())
+            {
+                execution.markFirstRow();
+                CachedRowSet rows = getRowSetFactory().createCachedRowSet();
+                rows.populate(result);
+                execution.addRows(rows.size());
+                failed = false;
+                return rows;
             }
-            return text;
+            finally
+            {
+                synchronized (running)
+                {
+                    running.remove(stmt);
+                }
+                stmt.setQueryTimeout(0);
+            }
+        }
+        finally
+        {
+            execution.finish(failed);
+        }
+    }
+
+    /**
+     * @brief Returns the factory for the disconnected result sets of executeBufferedQuery
+     * @return The shared RowSetFactory
+     * @throws SQLException
+     */
+    private static synchronized RowSetFactory getRowSetFactory() throws SQLException
+    {
+        if (rowSetFactory == null)
+            rowSetFactory = RowSetProvider.newFactory();
+        return rowSetFactory;
+    }
+
+    /**
+     * @brief Executes the given query with user's parameter selection on a forward-only cursor
+     * @pre query must not have more than 1 parameter (?); the result must be read in a single 
+     *      pass and closed before any other statement is run on conn
+     * @param conn A database connection
+     * @param query A query to execute
+     * @param selection A value for a single parameter to use in the query; if
+     *        query does not use any parameters, pass null or an empty string ""
+     * @return A forward-only, read-only result set, which the caller must close
+     * @post The query will have been executed with the configured fetch size, so rows are
+     *       streamed from the server instead of being buffered on the client
+     */
+    private ResultSet executeStreamingQuery(Connection conn, String query, String selection)
+    {
+        return executeSQLQuery(conn, query, true, selection);
+    }
+
+    /**
+     * @brief Executes the given query, streaming its result on a forward-only cursor
+     * @param conn A database connection
+     * @param query A query to execute
+     * @param params Values bound to the query's parameters (?) in order
+     * @return A result set from the query, which the caller must close, or null if the query failed
+     * @post See executeSQLQuery
+     */
+    @Override
+    public ResultSet executeQuery(Connection conn, String query, Object... params)
+    {
+        return executeSQLQuery(conn, query, true, params);
+    }
+
+    /**
+     * @brief Executes the given query with the given parameter values
+     * @param conn A database connection
+     * @param query A query to execute
+     * @param stream Specifies whether to stream the result on a forward-only cursor, or 
+     *        buffer it on a scrollable one
+     * @param params Values bound to the query's parameters (?) in order; parameters 
+     *        without a value are bound to null
+     * @return A result set from the query, which the caller must close
+     * @post The query's run will be recorded in QueryMetrics when the result set is closed
+     * @throws SQLException
+     */
+    private ResultSet executeSQLQuery(Connection conn, String query, boolean stream, Object... params)
+    {
+        QueryMetrics.Execution execution = QueryMetrics.startQuery(conn, query, params, method);
+        try
+        {
+            int type = stream ? ResultSet.TYPE_FORWARD_ONLY : ResultSet.TYPE_SCROLL_INSENSITIVE;
+            StatementCache.CachedStatement cached = StatementCache.forConnection(conn).prepare(query, type);
+            PreparedStatement stmt = cached.getStatement();
+            stmt.setFetchSize(stream ? fetchSize : 0);
+
+            for (int i = 0; i < cached.getParamCount(); i++)
+                stmt.setObject(i + 1, i < params.length ? params[i] : null);
+            
+            return QueryMetrics.track(stmt.executeQuery(), execution);
         }
         catch (SQLException e)
         {
-            System.out.println("SQLException: " + e);
+            execution.finish(true);
+            printError(e);
             return null;
         }
     }
 
     /**
      * @brief Prints the full contents of the given result set in a sinlge column
-     * @param result The result set to print
+     * @param result The result set to print, or null if its query failed
      * @post All rows and columns of the given result set will be printed in a single 
-     *       column, with each row separated by a border below
+     *       column, with each row separated by a border below; nothing is printed for null
      * @throws SQLException
      */
-    private void printFullResultSingleColumn(ResultSet result)
+    @Override
+    public void printFullResultSingleColumn(ResultSet result)
     {
+        if (result == null)
+            return;     // the query failed, and its error has been printed
+        long start = System.nanoTime();
         try
         {
-            ResultSetMetaData rMeta = result.getMetaData();
-    
-            // get standard width for labels
-            List<String> labels = new ArrayList<String>();
-            int numCols = rMeta.getColumnCount();
-            for (int col = 1; col <= numCols; col++)
-                labels.add(rMeta.getColumnLabel(col) + ": ");
-            int labelWidth = Menu.getMaxLength(labels);
-
-            while (result.next())
-            {
-                // print each row, column by column
-                for (int col = 1; col <= numCols; col++)
-                {
-                    String value = formatText(result, col);
-                    
-                    // pad label on right with spaces so that all labels are labelWidth
-                    String label = Menu.padTextRight(labels.get(col - 1), labelWidth);
-
-                    String line = label + value;
-                    int maxWidth = Menu.getScreenWidth();
-                    if (line.length() <= maxWidth)
-                        // entire line fits with screen
-                        System.out.println(line);
-                    else
-                    {
-                        // line is too long; print 1st line, then remaining lines with left padding
-                        int endIndex = maxWidth;
-                        String lineSeg = line;
-                        while (lineSeg.length() > labelWidth)
-                        {
-                            System.out.println(lineSeg.substring(0, endIndex));
-                            lineSeg = lineSeg.substring(endIndex, lineSeg.length());
-                            lineSeg = Menu.padTextLeft(lineSeg, labelWidth + lineSeg.length());
-                            endIndex = Math.min(maxWidth, lineSeg.length());
-                        }
-                    }
-                }
-                Menu.printBorder('-', 0, 0);
-            }
-            System.out.println();
+            getRenderer().printSingleColumn(result);
         }
         catch (SQLException e)
         {
-            System.out.println("SQLException: " + e);
+            printError(e);
         }
+        finally
+        {
+            // for a streamed result this includes reading the rows from the server
+            addRenderTime(start);
+        }
+    }
+
+    /**
+     * @brief Prints rows of text as left-aligned columns
+     * @param rows The rows to print, e.g. a header row followed by data rows
+     * @param widths The minimum width of each column
+     * @post rows will be printed by TableRenderer.printGrid, and the time taken recorded in QueryMetrics
+     */
+    @Override
+    public void printGrid(List<String[]> rows, int... widths)
+    {
+        long start = System.nanoTime();
+        getRenderer().printGrid(rows, widths);
+        addRenderTime(start);
+    }
+
+    /**
+     * @brief Adds the time since start to the rendering time of the running report
+     * @param start The System.nanoTime() at which rendering started
+     */
+    private void addRenderTime(long start)
+    {
+        if (reportRun != null)
+            reportRun.addRender(System.nanoTime() - start);
+    }
+
+    /**
+     * @brief Returns the renderer that prints tables to this method's output
+     * @return The TableRenderer, created on first use
+     */
+    private TableRenderer getRenderer()
+    {
+        if (renderer == null)
+            renderer = new TableRenderer(out);
+        return renderer;
     }
 
     /**
      * @brief Prompts user to select from a list of options
      * @param options The map from which options will be chosen
+     * @param argument The name of the argument that answers this prompt when running without prompts
      * @return The user's selection as a string
      * @post The contents of options will be printed out in a single column; user 
      *       will be  prompted to choose from  the displayed options; the value 
      *       corresponding to the key selected will be returned
+     * @throws IllegalArgumentException when running without prompts, if the argument is
+     *         missing or matches neither a value nor a key of options
      */
-    private String getUserSelection(Map<String, String> options)
+    @Override
+    public String getUserSelection(Map<String, String> options, String argument)
     {
+        if (arguments != null)
+        {
+            String selection = getArgument(argument);
+            for (String value : options.values())
+            {
+                if (value.equalsIgnoreCase(selection))
+                    selection = value;
+            }
+            if (!options.containsValue(selection))
+            {
+                if (!options.containsKey(selection))
+                    throw new IllegalArgumentException("Unknown " + argument + ": \"" + selection + "\"");
+                selection = options.get(selection);
+            }
+            out.println(argument + ": " + selection + "\n");
+            return selection;
+        }
+
         Menu.printOptions(options);
-        System.out.println();
+        out.println();
 
         // get user's selection from options
         String selection = Input.getString("Select an option", options.keySet());
         selection = options.get(selection);
-        System.out.println("You selected: " + selection + "\n");
+        out.println("You selected: " + selection + "\n");
         return selection;
     }
 
+    /**
+     * @brief Prompts user to select a row of a table by one of its columns
+     * @param conn A database connection
+     * @param table A database table
+     * @param key The table's primary key
+     * @param column The column to select by
+     * @param filter A condition rows must meet, or null for every row
+     * @param argument The name of the argument that answers this prompt when running without prompts
+     * @param backValue The option that goes back, or null to offer none
+     * @param tables The tables the rows are read from, table first
+     * @return The column value of the selected row, or backValue
+     * @post With paging on, rows will be listed a page at a time with Menu.selectFromPages;
+     *       otherwise every row will be listed at once, from ReferenceCache when possible
+     * @throws SQLException
+     */
+    @Override
+    public String getRowSelection(Connection conn, String table, String key, String column, String filter,
+                                  String argument, String backValue, String... tables) throws SQLException
+    {
+        if (pageSize > 0 && arguments == null)
+        {
+            try (KeysetPager pager = new KeysetPager(conn, table, key, column, filter, pageSize))
+            {
+                return Menu.selectFromPages(pager, backValue);
+            }
+        }
+
+        Map<String, String> options = new LinkedHashMap<String, String>(
+                getCachedOptions(conn, KeysetPager.getListQuery(table, key, column, filter), 1, tables));
+        if (backValue != null)
+            options.put("B", backValue);
+        return getUserSelection(options, argument);
+    }
+
+    /**
+     * @brief Returns the value of an argument given to a method running without prompts
+     * @param argument The argument name
+     * @return The argument's value
+     * @throws IllegalArgumentException if the argument was not given
+     */
+    private String getArgument(String argument)
+    {
+        String value = arguments.get(argument);
+        if (value == null)
+            throw new IllegalArgumentException(method + " requires the argument " + argument);
+        return value;
+    }
+
     /**
      * @brief Returns a Map of the given column of the given result set
-     * @param result A result set
+     * @param result A result set, or null if its query failed
      * @param column The column to create a map for
-     * @return A map of containing the data in column as strings
+     * @return A map of containing the data in column as strings, or null if result is
+     *         null or could not be read
      * @post A map of strings will be created with the data in column as values 
      *       and the enty number as keys
      * @throws SQLException
      */
     private Map<String, String> getOptionsMap(ResultSet result, int column)
     {
+        if (result == null)
+            return null;
         try
         {
             Map<String, String> options = new LinkedHashMap<String, String>();
@@ -227,11 +730,36 @@ public class SQLMethod
         }
         catch (SQLException e)
         {
-            System.out.println("SQLException: " + e);
+            printError(e);
             return null;
         }
     }
 
+    /**
+     * @brief Returns the options listed by a reference data query, from ReferenceCache when possible
+     * @param conn A database connection
+     * @param query A query listing the rows of reference tables
+     * @param column The column of the result to list
+     * @param tables The tables query reads from
+     * @return An unmodifiable map of the options, as created by getOptionsMap
+     * @post On a cache miss, the query will be run on conn and its options cached until
+     *       one of tables is changed
+     * @throws SQLException
+     */
+    private Map<String, String> getCachedOptions(Connection conn, String query, int column, String... tables) throws SQLException
+    {
+        return ReferenceCache.getOptions(column + ":" + query, () ->
+        {
+            try (ResultSet result = executeStreamingQuery(conn, query, null))
+            {
+                Map<String, String> options = getOptionsMap(result, column);
+                if (options == null)
+                    throw new SQLException("Could not read " + String.join(", ", tables));
+                return options;
+            }
+        }, tables);
+    }
+
     /**
      * @brief Displays detailed information about a user selected treatment facility
      * @param conn A database connection
@@ -239,15 +767,28 @@ public class SQLMethod
      *       and user will be prompted to select one. All details about the selected facility will be 
      *       printed to the screen
      */
-    private void executeSQL1(Connection conn)
+    void executeSQL1(Connection conn)
     {
-        String q1 = "select * from facility order by facility_id asc";
-        ResultSet result = executeSQLQuery(conn, q1, null);
-        String selection = getUserSelection(getOptionsMap(result, 2));
+        String selection;
 
-        String q2 = "select * from facility where facility_name = \"" + selection + "\"";
-        result = executeSQLQuery(conn, q2, selection);
-        printFullResultSingleColumn(result);
+        try
+        {
+            selection = getRowSelection(conn, "Facility", "Facility_ID", "Facility_Name", null, "facility", null, "Facility");
+        }
+        catch (SQLException e)
+        {
+            printError(e);
+            return;
+        }
+
+        try (ResultSet result = executeStreamingQuery(conn, FACILITY_DETAIL, selection))
+        {
+            printFullResultSingleColumn(result);
+        }
+        catch (SQLException e)
+        {
+            printError(e);
+        }
     }
 
     /**
@@ -259,35 +800,38 @@ public class SQLMethod
      *       has received in the past, followed by 2) a list of all the treatments the water source 
      *       is required to receive based on imposed water regulations
      */
-    private void executeSQL2(Connection conn)
+    void executeSQL2(Connection conn)
     {
-        String q1 = "select * from water_source order by water_source_id asc";
-        ResultSet result = executeSQLQuery(conn, q1, null);
-        String selection = getUserSelection(getOptionsMap(result, 2));
+        String selection;
 
-        String q2 = "SELECT DISTINCT t.Treatment_Number, t.Treatment_Description " +
-                    "FROM Water_Source AS w " +
-                    "JOIN Treatments_Performed AS tp ON w.Water_Source_ID = tp.Water_Source_ID " +
-                    "JOIN Treatment AS t ON tp.Treatment_Number = t.Treatment_Number "+
-                    "WHERE w.Location = ? " +
-                    "ORDER BY t.Treatment_Number ASC;";
+        try
+        {
+            selection = getRowSelection(conn, "Water_Source", "Water_Source_ID", "Location", null, "source", null, "Water_Source");
+        }
+        catch (SQLException e)
+        {
+            printError(e);
+            return;
+        }
 
-        result = executeSQLQuery(conn, q2, selection);
-        System.out.println("LIST OF TREATMENTS RECEIVED BY " + selection + "\n");
-        printFullResultSingleColumn(result);
+        // the two lists are independent, so fetch them at the same time
+        List<ResultSet> results;
+        try
+        {
+            results = executeConcurrentQueries(conn, new Query(TREATMENTS_RECEIVED, selection),
+                                               new Query(TREATMENTS_MANDATED, selection));
+        }
+        catch (SQLException e)
+        {
+            printError(e);
+            return;
+        }
 
-        String q3 = "SELECT DISTINCT t.Treatment_Number, t.Treatment_Description " +
-                    "FROM Water_Source AS w " +
-                    "JOIN Water_Source_Has_Regulation AS wr ON w.Water_Source_ID = wr.Water_Source_ID " +
-                    "JOIN Regulation AS r ON wr.Regulation_ID = r.Regulation_ID "+
-                    "JOIN Treatment_Has_Regulation AS tr ON r.Regulation_ID = tr.Regulation_ID " +
-                    "JOIN Treatment As t ON tr.Treatment_Number = t.Treatment_Number " +
-                    "WHERE w.Location = ? " +
-                    "ORDER BY t.Treatment_Number ASC";
+        out.println("LIST OF TREATMENTS RECEIVED BY " + selection + "\n");
+        printFullResultSingleColumn(results.get(0));
 
-        result = executeSQLQuery(conn, q3, selection);
-        System.out.println("LIST OF REGULATION MANDATED TREATMENTS FOR " + selection + "\n");
-        printFullResultSingleColumn(result);
+        out.println("LIST OF REGULATION MANDATED TREATMENTS FOR " + selection + "\n");
+        printFullResultSingleColumn(results.get(1));
     }
 
     /**
@@ -297,22 +841,33 @@ public class SQLMethod
      *       be prompted to select an option, for which detailed information 
      *       will be printed
      */
-    private void executeSQL3(Connection conn)
+    void executeSQL3(Connection conn)
     {
         String column = "Regulation_Name";
         String table = "Regulation";
 
         // print all values from the given table column for user to select from
-        String q1 = "SELECT " + column + " FROM " + table + ";";
-        ResultSet result = executeSQLQuery(conn, q1, null);
-        String selection = getUserSelection(getOptionsMap(result, 1));
+        String selection;
+        try
+        {
+            selection = getRowSelection(conn, table, "Regulation_ID", column, null, "regulation", null, table);
+        }
+        catch (SQLException e)
+        {
+            printError(e);
+            return;
+        }
 
         // retrieve the details from user's selection
-        String q2 = "SELECT * FROM " + table + " WHERE " + column + " = ?;";
-        result = executeSQLQuery(conn, q2, selection);
-
-        // display final results of query
-        printFullResultSingleColumn(result);
+        try (ResultSet result = executeStreamingQuery(conn, getDetailQuery(column, table), selection))
+        {
+            // display final results of query
+            printFullResultSingleColumn(result);
+        }
+        catch (SQLException e)
+        {
+            printError(e);
+        }
     }
 
     /**
@@ -321,172 +876,303 @@ public class SQLMethod
      * @param conn A database connection
      * @throws SQLException
      */
-    private void executeSQL4(Connection conn)
+    void executeSQL4(Connection conn)
     {
-        sql4: try {
+        try {
             //Step1: Allow users to choose from a list of regulated water sources
-            String query1 = "SELECT * FROM Water_Source " +
-                    "WHERE Water_Source_ID IN (SELECT DISTINCT Water_Source_ID FROM Water_Source_Has_Regulation) " +
-                    "ORDER BY Water_Source_ID ASC";
-            ResultSet waterSourceWithRegulations = executeSQLQuery(conn, query1, "");
-
-            System.out.println("The following water sources are regulated. Please select one to view compliance: ");
-            String userLocationSelection = getUserSelection(getOptionsMap(waterSourceWithRegulations, 2));
-
-            //Step 2: Find the treatment numbers that the source is required to have
-            String query2 = "SELECT DISTINCT Treatment_Number FROM Treatment_Has_Regulation WHERE Regulation_ID IN " +
-                    "(SELECT Regulation_ID FROM Water_Source_Has_Regulation WHERE Water_Source_ID = " +
-                    "(SELECT Water_Source_ID FROM Water_Source WHERE Location = '" +
-                    userLocationSelection + "')) ORDER BY Treatment_Number";
-            ResultSet treatmentsRequired = executeSQLQuery(conn, query2, "");
-            if(!treatmentsRequired.isBeforeFirst()) {
-                System.out.print("The Water Source does not have any associated regulations.");
-                break sql4;
-            }
-            System.out.print("The Water Source selected requires Treatment ID# ");
-            int numTreatmentsRequired = 0;
-            while (treatmentsRequired.next()){
-                System.out.print(" " + treatmentsRequired.getInt(1));
-                numTreatmentsRequired++;
-            }
-            System.out.println();
-
-//            String query3 = "SELECT Treatment_Number, Date_Treated FROM Treatments_Performed " +
-//                    "WHERE Water_Source_ID = " +
-//                    "(SELECT Water_Source_ID FROM Water_Source WHERE Location = '" +
-//                    userLocationSelection + "') AND Date_Treated >= (curdate() - 183)";
-            String query3 = "SELECT Treatment_Number, Date_Treated FROM Treatments_Performed " +
-                    "WHERE Water_Source_ID = " +
-                    "(SELECT Water_Source_ID FROM Water_Source WHERE Location = '" +
-                    userLocationSelection + "') AND Date_Treated >= DATE_SUB(NOW(),INTERVAL 183 DAY)";
-            ResultSet treatmentsReceived = executeSQLQuery(conn, query3, "");
-            int numTreatmentsReceived = 0;
-            if (!treatmentsReceived.isBeforeFirst()) {
-                System.out.println("This water source received no treatment within the last 6 months");
-            } else {
-                System.out.println("Within the last 6 months...");
-                while (treatmentsReceived.next()){
-                    System.out.println("Treatment ID # " + treatmentsReceived.getInt(1) +
-                            " was performed on " + treatmentsReceived.getDate(2));
-                    numTreatmentsReceived++;
-                }
+            out.println("The following water sources are regulated. Please select one to view compliance: ");
+            String userLocationSelection = getRowSelection(conn, "Water_Source", "Water_Source_ID", "Location",
+                    REGULATED_FILTER, "source", null,
+                    "Water_Source", "Water_Source_Has_Regulation");
+
+            //Step 2: Find the treatments that the source is required to have, and which of them it
+            // received; when each was last performed, and how often, comes from TreatmentIndex
+            ComplianceEngine.ComplianceRecord compliance = ComplianceEngine.evaluateSource(conn,
+                    userLocationSelection, ComplianceEngine.DEFAULT_WINDOW_DAYS);
+            if (compliance == null || compliance.getRequired() == 0) {
+                out.println("The Water Source does not have any associated regulations.");
+                Menu.printBorder(out, '-', 0, 1);
+                return;
+            }
+            out.print("The Water Source selected requires Treatment ID# ");
+            for (int treatment : compliance.getRequiredTreatments())
+                out.print(" " + treatment);
+            out.println();
+
+            //Step 3: List how often each required treatment was performed within the compliance window
+            out.println("Within the last 6 months...");
+            for (int treatment : compliance.getRequiredTreatments()) {
+                int count = TreatmentIndex.countInWindow(conn, compliance.getSourceId(), treatment,
+                        ComplianceEngine.DEFAULT_WINDOW_DAYS);
+                LocalDate last = TreatmentIndex.getLastTreated(conn, compliance.getSourceId(), treatment);
+                // the last date is the latest ever recorded, which may fall before the window
+                out.println("Treatment ID # " + treatment + (last == null ? " has never been performed" :
+                        " was performed " + count + " time(s); last performed on " + last));
             }
-            if (numTreatmentsReceived < numTreatmentsRequired){
-                System.out.println("SUMMARY: This water source DOES NOT meet regulations. Only " +
-                        numTreatmentsReceived + " out of the " + numTreatmentsRequired +
-                        " required treatments were administered.");
+
+            // repeated treatments and treatments that are not required do not count toward compliance
+            if (!compliance.isCompliant()){
+                out.println("SUMMARY: This water source DOES NOT meet regulations. Only " +
+                        compliance.getReceived() + " out of the " + compliance.getRequired() +
+                        " required treatments were administered. Missing Treatment ID# " + compliance.getMissing());
             } else {
-                System.out.println("SUMMARY: This water source DOES meet regulations. " +
-                        numTreatmentsReceived + " out of " + numTreatmentsRequired +
+                out.println("SUMMARY: This water source DOES meet regulations. " +
+                        compliance.getReceived() + " out of " + compliance.getRequired() +
                         " required treatments were successfully administered.");
             }
-            Menu.printBorder('-', 0, 1);
+            Menu.printBorder(out, '-', 0, 1);
         } catch (SQLException e)
         {
-            System.out.println("SQLException: " + e);
+            printError(e);
         }
     }
 
     /**
-     * @brief Displays the average water consumption and average water wasted per month for 
+     * @brief Prints the regulation compliance status of every regulated water source
+     * @param conn A database connection
+     * @post User will be prompted to choose which water sources to show and how to sort them; 
+     *       a table of required, received and missing treatments for each matching source 
+     *       will be printed to the screen
+     * @throws SQLException
+     */
+    void executeSQL13(Connection conn)
+    {
+        try
+        {
+            Map<String, String> filters = new LinkedHashMap<String, String>();
+            filters.put("1", "All Regulated Water Sources");
+            filters.put("2", "Compliant Water Sources");
+            filters.put("3", "Non-Compliant Water Sources");
+            String filter = getUserSelection(filters, "filter");
+
+            Map<String, String> orders = new LinkedHashMap<String, String>();
+            orders.put("1", "Water Source ID");
+            orders.put("2", "Location");
+            orders.put("3", "Most Missing Treatments");
+            String order = getUserSelection(orders, "order");
+
+            List<ComplianceEngine.ComplianceRecord> records = ComplianceEngine.evaluate(conn,
+                    ComplianceEngine.DEFAULT_WINDOW_DAYS,
+                    filter.equals(filters.get("2")) ? ComplianceEngine.COMPLIANT :
+                    filter.equals(filters.get("3")) ? ComplianceEngine.NON_COMPLIANT : ComplianceEngine.ALL,
+                    order.equals(orders.get("2")) ? ComplianceEngine.BY_LOCATION :
+                    order.equals(orders.get("3")) ? ComplianceEngine.BY_MISSING : ComplianceEngine.BY_SOURCE_ID);
+
+            out.println("REGULATION COMPLIANCE OF " + filter.toUpperCase() + " IN THE LAST 6 MONTHS");
+            Menu.printBorder(out, '-', 0, 0);
+            List<String[]> table = new ArrayList<String[]>();
+            table.add(new String[] { "ID", "Location", "Required", "Received", "Missing Treatment ID#", "Status" });
+            for (ComplianceEngine.ComplianceRecord r : records) {
+                table.add(new String[] { String.valueOf(r.getSourceId()), r.getLocation(), 
+                                         String.valueOf(r.getRequired()), String.valueOf(r.getReceived()),
+                                         r.getMissing().isEmpty() ? "-" : r.getMissing().toString(),
+                                         r.isCompliant() ? "Compliant" : "NOT Compliant" });
+            }
+            printGrid(table, 6, 40, 10, 10, 30, 15);
+            out.println(records.size() + " water source(s)");
+            Menu.printBorder(out, '-', 0, 1);
+        }
+        catch (SQLException e)
+        {
+            printError(e);
+        }
+    }
+
+    /**
+     * @brief Displays the total water consumption and total water wasted per month for 
      *        the given business type
      * @param conn A database connection
      * @param businessType The type of business to display data for
-     * @post The average water consumption per month and average water wasted per month for 
-     *       all businesses in the given business type will be printed on the screen; values 
-     *       will be displayed in millions of gallons 
+     * @post User will be prompted for a month, or a range of months, within the period that
+     *       usage has been reported for businessType; the total water consumption and total 
+     *       water wasted for all businesses in the given business type will be printed on the 
+     *       screen, one row per month for a range; values will be displayed in millions of gallons 
      * @throws SQLException
      */
     private void executeSQL56(Connection conn, String businessType)
     {
         try
         {   
-            java.sql.Date maxDateDefault = java.sql.Date.valueOf("2021-12-31"); //latest max date default
-            java.sql.Date minDate = java.sql.Date.valueOf("2021-12-31"); // oldest date that values have been reported
-            String date = "";
-            String query1 = "SELECT Usage_Record_Date " +
-                            "FROM Business as b JOIN Business_Used as u ON b.Business_ID = u.Business_ID " + 
-                            "WHERE Business_Type = '" + businessType + "'";
-            ResultSet resultSet1 = executeSQLQuery(conn, query1, "");
-
-            while (resultSet1.next())
+            // oldest and latest months that values have been reported
+            UsageSnapshot snapshot = useUsageSnapshot ? UsageSnapshot.get(conn) : null;
+            YearMonth minMonth = null;
+            YearMonth maxMonth = null;
+            if (snapshot != null)
             {
-                java.sql.Date reportDate = resultSet1.getDate(1); //date that values have been reported
-                if (reportDate.compareTo(minDate) < 0)
-                    minDate = reportDate;
+                YearMonth[] range = snapshot.getMonthRange(businessType);
+                if (range != null)
+                {
+                    minMonth = range[0];
+                    maxMonth = range[1];
+                }
             }
-            
-            boolean inValidFormat = true;
-            boolean inValidMonth = true;
-            boolean inValidDate = true;
-
-            
-            while (inValidFormat || inValidMonth || inValidDate) 
+            else
             {
-                System.out.println("Please choose date from 2020-10 to 2021-12");
-                date = Input.getString("Enter the year and month you want to see the report following the format (YYYY-MM)");
-                
-                // check valid format
-                if (date.length() == 7 && date.charAt(4) == '-') {
-                    inValidFormat = false;
-                } else {
-                    System.out.println("The date input does not follow the format. Please try again.\n");
-                    continue; 
+                try (ResultSet resultSet1 = executeSQLQuery(conn, USAGE_DATE_RANGE, true, businessType))
+                {
+                    if (resultSet1 == null)
+                        return;
+                    if (resultSet1.next() && resultSet1.getDate(1) != null)
+                    {
+                        minMonth = YearMonth.from(resultSet1.getDate(1).toLocalDate());
+                        maxMonth = YearMonth.from(resultSet1.getDate(2).toLocalDate());
+                    }
                 }
+            }
+            if (minMonth == null)
+            {
+                out.println("No water usage has been reported for " + businessType + " Businesses.");
+                Menu.printBorder(out, '-', 0, 1);
+                return;
+            }
 
-                //check the month if it's in the range (1-12)
-                if (Integer.parseInt(date.substring(5)) < 1 || Integer.parseInt(date.substring(5)) > 12) {
-                    System.out.println("The month input is not valid. Please try again.\n");
-                    continue; 
-                } else { 
-                    inValidMonth = false;
-                }
+            out.println("Please choose date from " + minMonth + " to " + maxMonth);
+            YearMonth startMonth = getMonthSelection("Enter the year and month you want to see the report following the format (YYYY-MM)", 
+                                                     minMonth, maxMonth, false, "month");
+            YearMonth endMonth = getMonthSelection("To report a range of months, enter the last month (YYYY-MM), or hit ENTER to skip", 
+                                                   startMonth, maxMonth, true, "to");
+            if (endMonth == null)
+                endMonth = startMonth;
+
+            java.sql.Date rangeStart = java.sql.Date.valueOf(startMonth.atDay(1));
+            java.sql.Date rangeEnd = java.sql.Date.valueOf(endMonth.plusMonths(1).atDay(1));
 
-                java.sql.Date userDate = java.sql.Date.valueOf(date + "-24");
-                // check if the date is valid in the report 
-                if (userDate.compareTo(minDate) < 0 || userDate.compareTo(maxDateDefault) > 0) 
-                    System.out.println("Data is only available between " + minDate.toString() + " and " + maxDateDefault + "\n");
-                else 
-                    inValidDate = false;
+            Map<YearMonth, double[]> totals = new TreeMap<YearMonth, double[]>();
+            if (snapshot != null)
+            {
+                UsageSnapshot.Filter filter = new UsageSnapshot.Filter(startMonth, endMonth, businessType,
+                                                                       UsageSnapshot.ANY, UsageSnapshot.ANY);
+                for (Map.Entry<YearMonth, double[]> month : snapshot.aggregateByMonth(filter).entrySet())
+                    totals.put(month.getKey(), new double[] { month.getValue()[1], month.getValue()[2] });
+            }
+            else
+            {
+                try (ResultSet resultSet = executeSQLQuery(conn, MONTHLY_USAGE_BY_TYPE, true, businessType, rangeStart, rangeEnd))
+                {
+                    if (resultSet == null)
+                        return;
+                    while (resultSet.next())
+                    {
+                        YearMonth month = YearMonth.of(resultSet.getInt(1), resultSet.getInt(2));
+                        totals.put(month, new double[] { resultSet.getDouble(3), resultSet.getDouble(4) });
+                    }
+                }
             }
 
-            String query2 = "SELECT Amount_Water_Consumed, Amount_Water_Wasted " +
-                            "FROM Business as b JOIN Business_Used as u ON b.Business_ID = u.Business_ID " + 
-                            "WHERE Business_Type = '" + businessType + "' AND Usage_Record_Date LIKE ? ";
-            ResultSet resultSet = executeSQLQuery(conn, query2, date + "%");
+            if (startMonth.equals(endMonth))
+            {
+                double[] total = totals.getOrDefault(startMonth, new double[2]);
 
-            double totalConsumed = 0;
-            double totalWasted = 0;
+                List<String> labels = new ArrayList<String>();
+                labels.add("Total amount of water consumed by " + businessType + " Businesses in millions of gallons: ");
+                labels.add("Total amount of water wasted by " + businessType + " Businesses in millions of gallons: ");
+                
+                int labelWidth = Menu.getMaxLength(labels);
 
-            while (resultSet.next())
+                out.println(Menu.padTextRight(labels.get(0), labelWidth) + String.format("%.3f", total[0]/1_000_000));
+                out.println(Menu.padTextRight(labels.get(1), labelWidth) + String.format("%.3f", total[1]/1_000_000));
+            }
+            else
             {
-                double valConsumed = resultSet.getDouble(1);
-                totalConsumed += valConsumed;
-                double valWasted = resultSet.getDouble(2);
-                totalWasted += valWasted;
+                out.println("WATER USAGE BY " + businessType.toUpperCase() + " BUSINESSES FROM " + startMonth + " TO " + endMonth);
+                out.println("Note: Water amounts are reported in millions of gallons (MG)");
+                Menu.printBorder(out, '-', 0, 0);
+                out.format("%-20s%-20s%-20s%n", "Year-Month", "Amt. Consumed (MG)", "Amt. Wasted (MG)");
+                for (YearMonth month = startMonth; !month.isAfter(endMonth); month = month.plusMonths(1))
+                {
+                    double[] total = totals.getOrDefault(month, new double[2]);
+                    out.format("%-20s%-20.3f%-20.3f%n", month, total[0]/1_000_000, total[1]/1_000_000);
+                }
             }
+            Menu.printBorder(out, '-', 0, 1);
+        }
+        catch (SQLException e)
+        {
+            printError(e);
+        }
+    }
 
-            List<String> labels = new ArrayList<String>();
-            labels.add("Total amount of water consumed by " + businessType + " Businesses in millions of gallons: ");
-            labels.add("Total amount of water wasted by " + businessType + " Businesses in millions of gallons: ");
-            
-            int labelWidth = Menu.getMaxLength(labels);
+    /**
+     * @brief Prompts user to enter a month within the given range
+     * @param prompt A message displayed to the user
+     * @param first The earliest month the user may enter
+     * @param last The latest month the user may enter
+     * @param optional Specifies whether the user may hit ENTER to skip
+     * @param argument The name of the argument that answers this prompt when running without prompts
+     * @return The month entered by the user, or null if optional and the user skipped
+     * @post User will be prompted again until a month in YYYY-MM format between first 
+     *       and last (inclusive) is entered
+     * @throws IllegalArgumentException when running without prompts, if a required argument is
+     *         missing, or the argument is not a month between first and last
+     */
+    @Override
+    public YearMonth getMonthSelection(String prompt, YearMonth first, YearMonth last, boolean optional, String argument)
+    {
+        if (arguments != null)
+        {
+            if (optional && !arguments.containsKey(argument))
+                return null;
 
-            System.out.println(Menu.padTextRight(labels.get(0), labelWidth) + String.format("%.3f", totalConsumed/1_000_000));
-            System.out.println(Menu.padTextRight(labels.get(1), labelWidth) + String.format("%.3f", totalWasted/1_000_000));
-            Menu.printBorder('-', 0, 1);
+            YearMonth month;
+            try
+            {
+                month = YearMonth.parse(getArgument(argument).trim());
+            }
+            catch (DateTimeParseException e)
+            {
+                throw new IllegalArgumentException(argument + " must be in YYYY-MM format");
+            }
+            if (month.isBefore(first) || month.isAfter(last))
+                throw new IllegalArgumentException(argument + " must be between " + first + " and " + last);
+            return month;
         }
-        catch (SQLException e)
+
+        while (true)
         {
-            System.out.println("SQLException: " + e);
+            String date = Input.getString(prompt).trim();
+            if (optional && date.equals(""))
+                return null;
+
+            YearMonth month;
+            try
+            {
+                month = YearMonth.parse(date);
+            }
+            catch (DateTimeParseException e)
+            {
+                out.println("The date input does not follow the format. Please try again.\n");
+                continue;
+            }
+
+            if (month.isBefore(first) || month.isAfter(last))
+                out.println("Data is only available between " + first + " and " + last + "\n");
+            else
+                return month;
         }
     }
 
+    /**
+     * @brief Prompts user for the name of a file to write
+     * @param defaultFile The file name used if user hits ENTER
+     * @param argument The name of the optional argument that answers this prompt when running
+     *        without prompts
+     * @return The file name entered, or defaultFile
+     */
+    @Override
+    public String getFileSelection(String defaultFile, String argument)
+    {
+        if (arguments != null)
+            return arguments.getOrDefault(argument, defaultFile);
+
+        String entered = Input.getString("Enter a file name [" + defaultFile + "]").trim();
+        return entered.isEmpty() ? defaultFile : entered;
+    }
+
     /**
      * @brief Displays the average water consumption and average water wasted per month for Industrial businesses
      * @param conn A database connection
      */
-    private void executeSQL5(Connection conn)
+    void executeSQL5(Connection conn)
     {
         executeSQL56(conn, "Industrial");
     }
@@ -495,7 +1181,7 @@ public class SQLMethod
      * @brief Displays the average water consumption and average water wasted per month for Agricultural businesses 
      * @param conn A database connection
      */
-    private void executeSQL6(Connection conn)
+    void executeSQL6(Connection conn)
     {
         executeSQL56(conn, "Agricultural");
     }
@@ -507,13 +1193,10 @@ public class SQLMethod
      * @post A report will be printed to terminal
      * @throws SQLException
      */
-    private void executeSQL7(Connection conn)
+    void executeSQL7(Connection conn)
     {
         try {
-            String query = "select Amount_Water_Consumed, Amount_Water_Wasted, Usage_Record_Date " +
-                    "from Business_Used where Usage_Record_Date >= DATE_SUB(NOW(),INTERVAL 2 YEAR) " +
-                    "order by year(Usage_Record_Date), month(Usage_Record_Date)";
-            ResultSet resultSet = executeSQLQuery(conn, query, "");
+            java.sql.Date firstMonth = java.sql.Date.valueOf(YearMonth.now().minusYears(2).atDay(1));
 
             // Create an ArrayList object where the keys are a string representing YYYY-MM and
             // the value is a 4-element array representing
@@ -521,61 +1204,54 @@ public class SQLMethod
             // that will make up individual rows of the report
             Map <String, double[]> report = new TreeMap<>();
 
-            //process data to calculate the average water consumption and average water wasted for all businesses
-            //int numRecords = 0; // numRecords = sum(numMonthlyRecords/business)
-            while (resultSet.next()) { //for each result tuple
-                LocalDate date = (resultSet.getDate(3)).toLocalDate();
-                String key = date.getYear() + "-";
-                if (date.getMonthValue() < 10) {
-                    key += "0";
+            if (useUsageSnapshot) {
+                UsageSnapshot.Filter filter = new UsageSnapshot.Filter(YearMonth.from(firstMonth.toLocalDate()), null,
+                                                                       null, UsageSnapshot.ANY, UsageSnapshot.ANY);
+                for (Map.Entry<YearMonth, double[]> month : UsageSnapshot.get(conn).aggregateByMonth(filter).entrySet()) {
+                    double[] total = month.getValue();
+                    report.put(month.getKey().toString(), new double[] {total[0], total[1]/Math.pow(10,6),
+                            total[2]/Math.pow(10,6), (total[1] + total[2])/Math.pow(10,6)});
                 }
-                key += date.getMonthValue();
-                double waterConsumed = resultSet.getDouble(1)/Math.pow(10,6);
-                double waterWasted = resultSet.getDouble(2)/Math.pow(10,6);
-                double waterNeedsTreatment = waterConsumed + waterWasted;
-                double[] thisRecord = {1.0, waterConsumed, waterWasted, waterNeedsTreatment};
-                //if key-value pair does exist
-                if (report.containsKey(key)) {
-                    double[] oldRecord = report.get(key);
-                    double[] newRecord = new double[4];
-                    for (int i = 0; i < 4; i++) {
-                        newRecord[i] = oldRecord[i] + thisRecord[i];
+            } else {
+                try (ResultSet resultSet = executeSQLQuery(conn, MONTHLY_USAGE_ROLLUP, true, firstMonth))
+                {
+                    if (resultSet == null)
+                        return;
+                    while (resultSet.next()) { //for each month
+                        String key = YearMonth.from(resultSet.getDate(1).toLocalDate()).toString();
+                        double[] thisRecord = {resultSet.getInt(2), resultSet.getDouble(3)/Math.pow(10,6),
+                                resultSet.getDouble(4)/Math.pow(10,6), resultSet.getDouble(5)/Math.pow(10,6)};
+                        report.put(key, thisRecord);
                     }
-                    report.put(key, newRecord);
-                } else {
-                    report.put(key, thisRecord);
                 }
             }
 
-            System.out.println("AVERAGE WATER USAGE BY BOTH AGRICULTURAL AND INDUSTRIAL BUSINESSES IN THE PAST TWO YEARS");
-            System.out.println("Note 1: Water amounts are reported in millions of gallons (MG)");
-            System.out.println("Note 2: The 'Num. Records' column represents the number of records " +
+            out.println("AVERAGE WATER USAGE BY BOTH AGRICULTURAL AND INDUSTRIAL BUSINESSES IN THE PAST TWO YEARS");
+            out.println("Note 1: Water amounts are reported in millions of gallons (MG)");
+            out.println("Note 2: The 'Num. Records' column represents the number of records " +
                     "used in the average calculations.");
-            Menu.printBorder('-', 0, 0);
+            Menu.printBorder(out, '-', 0, 0);
             DecimalFormat numFormat = new DecimalFormat("#.00");
-            final Object[][] table = new String[report.size() + 1][];
-            table[0] = new String[] { "Year-Month", "Num. Records", "Amt. Consumed (MG)", "Amt. Wasted (MG)",
-                    "Amt. Needing Treatment (MG)" };
-            int numRows = 1;
+            List<String[]> table = new ArrayList<String[]>(report.size() + 1);
+            table.add(new String[] { "Year-Month", "Num. Records", "Amt. Consumed (MG)", "Amt. Wasted (MG)",
+                    "Amt. Needing Treatment (MG)" });
             for (String thisKey: report.keySet()) {
                 double[] thisRecord = report.get(thisKey);
-                table[numRows] = new String[]{thisKey, numFormat.format(thisRecord[0]), numFormat.format(thisRecord[1]),
-                        numFormat.format(thisRecord[2]), numFormat.format(thisRecord[3])};
-                numRows++;
-            }
-            for (final Object[] row : table) {
-                System.out.format("%-20s%-20s%-20s%-20s%-20s%n", row);
+                table.add(new String[]{thisKey, numFormat.format(thisRecord[0]), numFormat.format(thisRecord[1]),
+                        numFormat.format(thisRecord[2]), numFormat.format(thisRecord[3])});
             }
-            Menu.printBorder('-', 0, 1);
+            printGrid(table, 20, 20, 20, 20, 20);
+            Menu.printBorder(out, '-', 0, 1);
         } catch (SQLException e)
         {
-            System.out.println("SQLException: " + e);
+            printError(e);
         }
     }
 
     /**
      * @brief Executes a user defined update to the database
      * @param conn A database connection
+     * @param key The table's primary key
      * @param column A table column
      * @param table A databse table
      * @post A list of options (rows) from the given table and column will be printed to 
@@ -584,55 +1260,59 @@ public class SQLMethod
      *       to the screen, followed by a list of the column names of the table; user will 
      *       be prompted to select from those columns; finally user will be prompted to 
      *       enter a new value for the selected column; if a valid entry, the database 
-     *       row and column will be updated
+     *       row and column will be updated, and the cached option lists of table invalidated
      * @throws SQLException
      */
-    private void executeSQLUpdate(Connection conn, String column, String table)
+    private void executeSQLUpdate(Connection conn, String key, String column, String table)
     {
         try
         {
             String backLabel = "B";
             String backValue = "Back to Menu";
 
-            // print all values from the given table column for user to select from
-            String q1 = "SELECT " + column + " FROM " + table + ";";
-            ResultSet result = executeSQLQuery(conn, q1, null);
-            Map<String, String> options = getOptionsMap(result, 1);
-
-            // add back as an option; if back is selected, exit method
-            options.put(backLabel, backValue);
-            String selection = getUserSelection(options);
+            // print all values from the given table column for user to select from, 
+            // with back as an option; if back is selected, exit method
+            String selection = getRowSelection(conn, table, key, column, null, "row", backValue, table);
 
             if (!selection.equalsIgnoreCase(backValue))
             {
                 // retrieve the details from user's selection
-                String q2 = "SELECT * FROM " + table + " WHERE " + column + " = ?;";
-                result = executeSQLQuery(conn, q2, selection);
-
-                // display final results of query
-                printFullResultSingleColumn(result);
+                try (ResultSet result = executeStreamingQuery(conn, getDetailQuery(column, table), selection))
+                {
+                    // display final results of query
+                    printFullResultSingleColumn(result);
+                }
 
                 // get column names to display for user
                 // add back as an option; if back is selected, exit method
-                Map<String, String> columns = getColumnList(conn.getMetaData(), table);
+                Map<String, String> columns = new LinkedHashMap<String, String>(getCachedColumnList(conn, table));
                 columns.put(backLabel, backValue);
                 String targetRow = selection;
-                String targetCol = getUserSelection(columns);
+                String targetCol = getUserSelection(columns, "column");
 
                 if (!targetCol.equalsIgnoreCase(backValue))
                 {
-                    String targetVal = Input.getString("Enter a new value for " + targetCol);
+                    String targetVal = arguments != null ? getArgument("value") :
+                                       Input.getString("Enter a new value for " + targetCol);
 
                     // prepare update statement and execute
-                    String update = "UPDATE " + table + " SET " + targetCol + " = ? WHERE " + column + " = ?;";
-                    PreparedStatement stmt = conn.prepareStatement(update);
-                    stmt.setObject(1, targetVal);
-                    stmt.setObject(2, targetRow);
-                    stmt.executeUpdate();
-
-                    System.out.println();
-                    System.out.println(targetCol + " for " + targetRow + " has been successfully updated.");
-                    Menu.printBorder('-', 0, 1);
+                    String update = "UPDATE " + table + " SET " + targetCol + " = ? WHERE " + column + " = ?";
+                    try
+                    {
+                        PreparedStatement stmt = StatementCache.forConnection(conn).prepare(update, ResultSet.TYPE_FORWARD_ONLY).getStatement();
+                        stmt.setObject(1, targetVal);
+                        stmt.setObject(2, targetRow);
+                        stmt.executeUpdate();
+                    }
+                    finally
+                    {
+                        // cached option lists of table may now be out of date
+                        ReferenceCache.invalidate(table);
+                    }
+
+                    out.println();
+                    out.println(targetCol + " for " + targetRow + " has been successfully updated.");
+                    Menu.printBorder(out, '-', 0, 1);
                 }
                 else
                     escape = true;
@@ -642,7 +1322,7 @@ public class SQLMethod
         }
         catch (SQLException e)
         {
-            System.out.println("SQLException: " + e);
+            printError(e);
         }
     }
     
@@ -650,36 +1330,57 @@ public class SQLMethod
      * @brief Provides a user interface for updating the database's Facilty table
      * @param conn A database connection
      */
-    private void executeSQL8(Connection conn)
+    void executeSQL8(Connection conn)
     {
-        executeSQLUpdate(conn, "Facility_Name", "Facility");
+        executeSQLUpdate(conn, "Facility_ID", "Facility_Name", "Facility");
     }
     
     /**
      * @brief Provides a user interface for updating the database's Water_Source table
      * @param conn A database connection
      */
-    private void executeSQL9(Connection conn)
+    void executeSQL9(Connection conn)
     {
-        executeSQLUpdate(conn, "Location", "Water_Source");
+        executeSQLUpdate(conn, "Water_Source_ID", "Location", "Water_Source");
     }
     
     /**
      * @brief Provides a user interface for updating the database's Business table
      * @param conn A database connection
      */
-    private void executeSQL10(Connection conn)
+    void executeSQL10(Connection conn)
     {
-        executeSQLUpdate(conn, "Business_Name", "Business");
+        executeSQLUpdate(conn, "Business_ID", "Business_Name", "Business");
     }
     
     /**
      * @brief Provides a user interface for updating the database's Regulation table
      * @param conn A database connection
      */
-    private void executeSQL11(Connection conn)
+    void executeSQL11(Connection conn)
+    {
+        executeSQLUpdate(conn, "Regulation_ID", "Regulation_Name", "Regulation");
+    }
+
+    /**
+     * @brief Returns the names of the tables in the database, read once and then kept in ReferenceCache
+     * @param conn A database connection
+     * @return An unmodifiable map of the table names, as created by getOptionsMap
+     * @throws SQLException if the tables could not be read
+     */
+    @Override
+    public Map<String, String> getCachedTableList(Connection conn) throws SQLException
     {
-        executeSQLUpdate(conn, "Regulation_Name", "Regulation");
+        return ReferenceCache.getOptions("tables", () ->
+        {
+            try (ResultSet result = conn.getMetaData().getTables(conn.getCatalog(), null, "%", new String[] { "TABLE" }))
+            {
+                Map<String, String> tables = getOptionsMap(result, 3);
+                if (tables == null)
+                    throw new SQLException("Could not read the tables of the database");
+                return tables;
+            }
+        });
     }
 
     /**
@@ -689,17 +1390,12 @@ public class SQLMethod
      * @post A report will be printed to terminal
      * @throws SQLException
      */
-    private void executeSQL12(Connection conn)
+    void executeSQL12(Connection conn)
     {
         try
         {
             //Step 1: Query all businesses opened in the last two years
-            String query = "select Business_Type, Start_Date " +
-                    "from Business " +
-                    "where Start_Date >= DATE_SUB(NOW(),INTERVAL 2 YEAR) " +
-                    "order by Start_Date asc";
-
-            ResultSet resultSet = executeSQLQuery(conn, query, "");
+            java.sql.Date twoYearsAgo = java.sql.Date.valueOf(LocalDate.now().minusYears(2));
 
             //Step 2a: Parse and put data into tree maps.
             // Key : value pairs indicate Year-Quarter and number of businesses
@@ -710,30 +1406,35 @@ public class SQLMethod
             int count = 0;
             boolean firstDate = true; //
             int firstYear = 0;
-            while (resultSet.next()) { //for each result tuple
-                //construct a key based on date and month
-                LocalDate date = (resultSet.getDate(2)).toLocalDate();
-                int year = date.getYear();
-                if (firstDate) {
-                    firstYear = year;
-                    firstDate = false;
-                }
-                int month = date.getMonthValue();
-                int quarter = (int) Math.ceil(month / 3.0);
-                key = String.valueOf(year) + "-Q" + String.valueOf(quarter);
-                count = count + 1;
-
-                if ((resultSet.getString(1)).equals("Industrial")){
-                    if (industrial.containsKey(key)){
-                        industrial.put(key, industrial.get(key) + 1);
-                    } else {
-                        industrial.put(key, 1);
+            try (ResultSet resultSet = executeSQLQuery(conn, BUSINESSES_OPENED, true, twoYearsAgo))
+            {
+                if (resultSet == null)
+                    return;
+                while (resultSet.next()) { //for each result tuple
+                    //construct a key based on date and month
+                    LocalDate date = (resultSet.getDate(2)).toLocalDate();
+                    int year = date.getYear();
+                    if (firstDate) {
+                        firstYear = year;
+                        firstDate = false;
                     }
-                } else if ((resultSet.getString(1)).equals("Agricultural")){
-                    if (agricultural.containsKey(key)){
-                        agricultural.put(key, agricultural.get(key) + 1);
-                    } else {
-                        agricultural.put(key, 1);
+                    int month = date.getMonthValue();
+                    int quarter = (int) Math.ceil(month / 3.0);
+                    key = String.valueOf(year) + "-Q" + String.valueOf(quarter);
+                    count = count + 1;
+
+                    if ((resultSet.getString(1)).equals("Industrial")){
+                        if (industrial.containsKey(key)){
+                            industrial.put(key, industrial.get(key) + 1);
+                        } else {
+                            industrial.put(key, 1);
+                        }
+                    } else if ((resultSet.getString(1)).equals("Agricultural")){
+                        if (agricultural.containsKey(key)){
+                            agricultural.put(key, agricultural.get(key) + 1);
+                        } else {
+                            agricultural.put(key, 1);
+                        }
                     }
                 }
             }
@@ -752,28 +1453,35 @@ public class SQLMethod
             }
 
             //Step 3: print data from tree maps
-            System.out.println("NUMBER OF NEW BUSINESSES OPENED EVERY QUARTER IN THE PAST TWO YEARS");
-            System.out.println("Q1 = Jan. - Mar.; Q2 = Apr. - Jun.; Q3 = Jul. - Sep.; Q4 = Oct. - Dec.");
-            Menu.printBorder('-', 0, 0);
-            final Object[][] table = new String[industrial.size() + 1][];
-            table[0] = new String[] { "Year-Quarter", "Industrial", "Agricultural" };
-            int numRows = 1;
+            out.println("NUMBER OF NEW BUSINESSES OPENED EVERY QUARTER IN THE PAST TWO YEARS");
+            out.println("Q1 = Jan. - Mar.; Q2 = Apr. - Jun.; Q3 = Jul. - Sep.; Q4 = Oct. - Dec.");
+            Menu.printBorder(out, '-', 0, 0);
+            List<String[]> table = new ArrayList<String[]>(industrial.size() + 1);
+            table.add(new String[] { "Year-Quarter", "Industrial", "Agricultural" });
             for (String thisKey: industrial.keySet()) {
-                table[numRows] = new String[]{thisKey, String.valueOf(industrial.get(thisKey)),
-                        String.valueOf(agricultural.get(thisKey))};
-                numRows++;
-            }
-            for (final Object[] row : table) {
-                System.out.format("%-15s%-15s%-15s%n", row);
+                table.add(new String[]{thisKey, String.valueOf(industrial.get(thisKey)),
+                        String.valueOf(agricultural.get(thisKey))});
             }
-            Menu.printBorder('-', 0, 1);
+            printGrid(table, 15, 15, 15);
+            Menu.printBorder(out, '-', 0, 1);
         }
         catch (SQLException e)
         {
-            System.out.println("SQLException: " + e);
+            printError(e);
         }
     }
 
+    /**
+     * @brief Returns the query that retrieves the full row(s) matching a column value
+     * @param column A table column
+     * @param table A database table
+     * @return A query selecting all columns of table where column equals a single parameter
+     */
+    static String getDetailQuery(String column, String table)
+    {
+        return "SELECT * FROM " + table + " WHERE " + column + " = ?";
+    }
+
     /**
      * @brief Creates a map containing the column names of the given table
      * @param meta A DatabaseMetaData object
@@ -789,16 +1497,39 @@ public class SQLMethod
         try
         {
             Map<String, String> columns = new LinkedHashMap<String, String>();
-            ResultSet result = meta.getColumns(null, null, table, null);
-            int i = 1;
-            while (result.next())
-                columns.put(String.valueOf(i++), result.getString("COLUMN_NAME"));
+            try (ResultSet result = meta.getColumns(null, null, table, null))
+            {
+                int i = 1;
+                while (result.next())
+                    columns.put(String.valueOf(i++), result.getString("COLUMN_NAME"));
+            }
             return columns;
         }
         catch (SQLException e)
         {
-            System.out.println("SQLException: " + e);
+            printError(e);
             return null;
         }
     }
+
+    /**
+     * @brief Returns the column names of the given table, read once and then kept in ReferenceCache
+     * @param conn A database connection
+     * @param table A database table name
+     * @return An unmodifiable map of the column names, as created by getColumnList
+     * @post The columns of a table only change with the schema, so the list is not invalidated 
+     *       by updates to table; it is reloaded only if the cache's time to live expires
+     * @throws SQLException if the columns could not be read
+     */
+    @Override
+    public Map<String, String> getCachedColumnList(Connection conn, String table) throws SQLException
+    {
+        return ReferenceCache.getOptions("columns:" + table, () ->
+        {
+            Map<String, String> columns = getColumnList(conn.getMetaData(), table);
+            if (columns == null)
+                throw new SQLException("Could not read the columns of " + table);
+            return columns;
+        });
+    }
 }
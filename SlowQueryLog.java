@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+import java.util.logging.Formatter;
+
+public class SlowQueryLog
+{
+    private static final String FILE_PATTERN = "slow-queries.%g.log";
+    private static final int FILE_LIMIT = 10 * 1024 * 1024;    // bytes per file before rotating
+    private static final int FILE_COUNT = 5;
+    private static final String NEW_LINE = System.lineSeparator();
+
+    private static final Logger logger = Logger.getLogger("dss.slowqueries");
+    private static volatile long threshold = 0;    // ns; 0 logs nothing
+    private static Handler handler;
+    private static boolean unavailable = false;
+
+    /**
+     * @brief Sets how long a query may run before it is logged
+     * @param millis The threshold in milliseconds, or 0 to log no queries
+     */
+    public static void setThreshold(long millis)
+    {
+        threshold = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+    }
+
+    /**
+     * @brief Checks if a query that took the given time should be logged
+     * @param nanos The elapsed time of a query, in nanoseconds
+     * @return True if logging is on and nanos is at least the threshold
+     */
+    public static boolean isSlow(long nanos)
+    {
+        long limit = threshold;
+        return limit > 0 && nanos >= limit;
+    }
+
+    /**
+     * @brief Logs a slow query together with its execution plan
+     * @param conn The connection the query ran on; it must have no open streaming result
+     * @param sql The query, with ? for its parameters
+     * @param params The values bound to the query's parameters
+     * @param report The name of the report that ran the query, or null
+     * @param nanos The elapsed time of the query, in nanoseconds
+     * @param failed Specifies whether the query failed; the plan of a failed query is not captured,
+     *        as its connection may still be reading the failed result
+     * @post An entry with the time, report, SQL, parameters, elapsed time and the output of
+     *       EXPLAIN FORMAT=JSON will be appended to slow-queries.0.log, which is rotated
+     *       (to slow-queries.1.log and so on) once it reaches FILE_LIMIT bytes
+     */
+    public static void record(Connection conn, String sql, Object[] params, String report, long nanos, boolean failed)
+    {
+        StringBuilder entry = new StringBuilder(1024);
+        entry.append(LocalDateTime.now().withNano(0)).append(" SLOW QUERY ")
+             .append(String.format("%.1f ms", nanos / 1e6))
+             .append(report != null ? " in " + report : "")
+             .append(failed ? " (failed)" : "").append(NEW_LINE);
+        entry.append("SQL: ").append(sql.replaceAll("\\s+", " ").trim()).append(NEW_LINE);
+        entry.append("Parameters: ").append(Arrays.toString(params)).append(NEW_LINE);
+        entry.append("Plan: ").append(failed ? "not captured" : explain(conn, sql, params)).append(NEW_LINE);
+        entry.append("-----").append(NEW_LINE);
+        write(entry.toString());
+    }
+
+    /**
+     * @brief Returns the execution plan of a query
+     * @param conn A database connection
+     * @param sql A query, with ? for its parameters
+     * @param params The values bound to the query's parameters
+     * @return The JSON plan from EXPLAIN FORMAT=JSON, or the reason it could not be read
+     */
+    private static String explain(Connection conn, String sql, Object[] params)
+    {
+        try (PreparedStatement stmt = conn.prepareStatement("EXPLAIN FORMAT=JSON " + sql))
+        {
+            int paramCount = stmt.getParameterMetaData().getParameterCount();
+            for (int i = 0; i < paramCount; i++)
+                stmt.setObject(i + 1, i < params.length ? params[i] : null);
+
+            StringBuilder plan = new StringBuilder();
+            try (ResultSet result = stmt.executeQuery())
+            {
+                while (result.next())
+                    plan.append(NEW_LINE).append(result.getString(1));
+            }
+            return plan.toString();
+        }
+        catch (SQLException e)
+        {
+            return "EXPLAIN failed: " + e.getMessage();
+        }
+    }
+
+    /**
+     * @brief Appends an entry to the log, opening the log file on first use
+     * @param entry The text of the entry
+     * @post If the log file cannot be opened, the reason will be printed once and no
+     *       further entries written
+     */
+    private static synchronized void write(String entry)
+    {
+        if (unavailable)
+            return;
+        if (handler == null)
+        {
+            try
+            {
+                handler = new FileHandler(FILE_PATTERN, FILE_LIMIT, FILE_COUNT, true);
+                handler.setFormatter(new Formatter()
+                {
+                    @Override
+                    public String format(LogRecord record)
+                    {
+                        return record.getMessage();
+                    }
+                });
+                logger.setUseParentHandlers(false);
+                logger.addHandler(handler);
+            }
+            catch (IOException e)
+            {
+                System.out.println("Slow query log unavailable: " + e.getMessage());
+                unavailable = true;
+                return;
+            }
+        }
+        logger.info(entry);
+    }
+}
@@ -0,0 +1,670 @@
+import java.io.IOException;
+import java.lang.reflect.*;
+import java.math.BigDecimal;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.sql.*;
+import java.util.*;
+import java.util.logging.Logger;
+
+public class SnapshotDriver implements Driver
+{
+    public static final String URL_PREFIX = "jdbc:dss-snapshot:";
+
+    private static final Map<Path, SnapshotFile> files = new HashMap<Path, SnapshotFile>();
+    private static final Map<Path, FileTime> modifiedTimes = new HashMap<Path, FileTime>();
+    private static boolean registered;
+
+    /**
+     * @brief Registers the driver with DriverManager, so snapshot URLs can be opened with
+     *        DriverManager.getConnection
+     * @post The driver will have been registered, once however often this is called
+     * @throws SQLException
+     */
+    public static synchronized void register() throws SQLException
+    {
+        if (!registered)
+        {
+            DriverManager.registerDriver(new SnapshotDriver());
+            registered = true;
+        }
+    }
+
+    /**
+     * @brief Opens a read-only connection to a snapshot file
+     * @param url jdbc:dss-snapshot: followed by the path of a file written by SnapshotFile.write
+     * @param info Ignored; a snapshot has no users
+     * @return A connection whose queries are answered by SnapshotQuery, or null if url is
+     *         not a snapshot URL
+     * @post The file will be mapped the first time any connection opens it, and mapped
+     *       again only if it has been replaced since
+     * @throws SQLException if the file cannot be opened
+     */
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException
+    {
+        if (!acceptsURL(url))
+            return null;
+        SnapshotFile file = getFile(Paths.get(url.substring(URL_PREFIX.length())));
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                                                   new ConnectionHandler(file, url));
+    }
+
+    /**
+     * @brief Returns the open snapshot of a file, opening it if it is new or has been replaced
+     * @param path The path of a snapshot file
+     * @return The snapshot
+     * @throws SQLException if the file cannot be opened
+     */
+    private static synchronized SnapshotFile getFile(Path path) throws SQLException
+    {
+        try
+        {
+            Path key = path.toAbsolutePath().normalize();
+            FileTime modified = Files.getLastModifiedTime(key);
+            SnapshotFile file = files.get(key);
+            if (file == null || !modified.equals(modifiedTimes.get(key)))
+            {
+                file = SnapshotFile.open(key);
+                files.put(key, file);
+                modifiedTimes.put(key, modified);
+            }
+            return file;
+        }
+        catch (IOException e)
+        {
+            throw new SQLException("Cannot open snapshot " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean acceptsURL(String url)
+    {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info)
+    {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion()
+    {
+        return SnapshotFile.VERSION;
+    }
+
+    @Override
+    public int getMinorVersion()
+    {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant()
+    {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException
+    {
+        throw new SQLFeatureNotSupportedException("The snapshot driver does not log");
+    }
+
+    /**
+     * @brief Answers the Object methods of a proxy, which the JDBC interfaces do not declare
+     * @return The result of the method, or null if it is not an Object method
+     */
+    private static Object invokeObjectMethod(Object proxy, Method method, Object[] args, String name)
+    {
+        switch (method.getName())
+        {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return name;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @brief Answers unwrap and isWrapperFor, exposing the SnapshotFile behind a proxy
+     * @return The result of the method, or null if it is neither
+     * @throws SQLException if unwrap is asked for an interface the proxy does not implement
+     */
+    private static Object invokeWrapperMethod(Object proxy, Method method, Object[] args, SnapshotFile file)
+            throws SQLException
+    {
+        if (!method.getName().equals("unwrap") && !method.getName().equals("isWrapperFor"))
+            return null;
+        Class<?> type = (Class<?>) args[0];
+        boolean wraps = type == SnapshotFile.class || type.isInstance(proxy);
+        if (method.getName().equals("isWrapperFor"))
+            return wraps;
+        if (!wraps)
+            throw new SQLException("Not a wrapper for " + type.getName());
+        return type == SnapshotFile.class ? file : proxy;
+    }
+
+    /**
+     * @brief Creates the exception thrown by methods a snapshot does not support
+     */
+    private static SQLFeatureNotSupportedException unsupported(Method method)
+    {
+        return new SQLFeatureNotSupportedException(method.getDeclaringClass().getSimpleName() + "." +
+                                                   method.getName() + " is not supported by a snapshot");
+    }
+
+    /**
+     * @brief Implements Connection over a snapshot; there is nothing to commit, as every
+     *        statement that is not a query is refused
+     */
+    private static class ConnectionHandler implements InvocationHandler
+    {
+        private final SnapshotFile file;
+        private final String url;
+        private boolean autoCommit = true;
+        private boolean closed;
+
+        private ConnectionHandler(SnapshotFile snapshot, String connectionUrl)
+        {
+            file = snapshot;
+            url = connectionUrl;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            Object value = invokeObjectMethod(proxy, method, args, url);
+            if (value == null)
+                value = invokeWrapperMethod(proxy, method, args, file);
+            if (value != null)
+                return value;
+
+            switch (method.getName())
+            {
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "isValid":
+                    return !closed;
+                default:
+                    break;
+            }
+            if (closed)
+                throw new SQLException("Connection is closed");
+
+            switch (method.getName())
+            {
+                case "prepareStatement":
+                    return newStatement((Connection) proxy, PreparedStatement.class, (String) args[0]);
+                case "createStatement":
+                    return newStatement((Connection) proxy, Statement.class, null);
+                case "getMetaData":
+                    return Proxy.newProxyInstance(DatabaseMetaData.class.getClassLoader(),
+                            new Class<?>[] { DatabaseMetaData.class }, new MetaDataHandler((Connection) proxy, file, url));
+                case "getCatalog":
+                    return file.getSchema();
+                case "getSchema":
+                case "getWarnings":
+                    return null;
+                case "getAutoCommit":
+                    return autoCommit;
+                case "setAutoCommit":
+                    autoCommit = (Boolean) args[0];
+                    return null;
+                case "isReadOnly":
+                    return true;
+                case "getTransactionIsolation":
+                    return Connection.TRANSACTION_SERIALIZABLE;
+                case "nativeSQL":
+                    return args[0];
+                case "commit":
+                case "rollback":
+                case "setReadOnly":
+                case "setTransactionIsolation":
+                case "clearWarnings":
+                    return null;
+                default:
+                    throw unsupported(method);
+            }
+        }
+
+        private Object newStatement(Connection conn, Class<?> type, String sql) throws SQLException
+        {
+            return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                                          new StatementHandler(conn, file, sql));
+        }
+    }
+
+    /**
+     * @brief Implements Statement and PreparedStatement; queries are parsed by SnapshotQuery
+     *        when prepared, and anything else fails when executed
+     */
+    private static class StatementHandler implements InvocationHandler
+    {
+        private final Connection conn;
+        private final SnapshotFile file;
+        private final String sql;
+        private final SnapshotQuery query;     // null for a Statement, or SQL that is not a query
+        private Object[] params;
+        private ResultSet current;
+        private int fetchSize;
+        private int maxRows;
+        private int queryTimeout;
+        private boolean closed;
+
+        private StatementHandler(Connection connection, SnapshotFile snapshot, String statement) throws SQLException
+        {
+            conn = connection;
+            file = snapshot;
+            sql = statement;
+            query = statement != null && isQuery(statement) ? SnapshotQuery.parse(snapshot, statement) : null;
+            params = new Object[query != null ? query.getParamCount() : 0];
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            Object value = invokeObjectMethod(proxy, method, args, sql != null ? sql : "Statement");
+            if (value == null)
+                value = invokeWrapperMethod(proxy, method, args, file);
+            if (value != null)
+                return value;
+
+            String name = method.getName();
+            switch (name)
+            {
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "cancel":
+                    return null;    // queries run in the caller's thread, and cannot be interrupted
+                default:
+                    break;
+            }
+            if (closed)
+                throw new SQLException("Statement is closed");
+
+            switch (name)
+            {
+                case "executeQuery":
+                    current = run(proxy, args == null ? query : SnapshotQuery.parse(file, (String) args[0]));
+                    return current;
+                case "execute":
+                    String statement = args == null ? sql : (String) args[0];
+                    if (!isQuery(statement))
+                        throw readOnly();
+                    current = run(proxy, args == null ? query : SnapshotQuery.parse(file, statement));
+                    return true;
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                case "executeBatch":
+                case "executeLargeBatch":
+                case "addBatch":
+                    throw readOnly();
+                case "getResultSet":
+                    return current;
+                case "getUpdateCount":
+                    return -1;
+                case "getMoreResults":
+                    return false;
+                case "getConnection":
+                    return conn;
+                case "getParameterMetaData":
+                    int count = params.length;
+                    return Proxy.newProxyInstance(ParameterMetaData.class.getClassLoader(),
+                            new Class<?>[] { ParameterMetaData.class }, (p, m, a) ->
+                            {
+                                if (m.getName().equals("getParameterCount"))
+                                    return count;
+                                Object result = invokeObjectMethod(p, m, a, "ParameterMetaData");
+                                if (result == null)
+                                    throw unsupported(m);
+                                return result;
+                            });
+                case "clearParameters":
+                    Arrays.fill(params, null);
+                    return null;
+                case "setFetchSize":
+                    fetchSize = (Integer) args[0];
+                    return null;
+                case "getFetchSize":
+                    return fetchSize;
+                case "setMaxRows":
+                    maxRows = (Integer) args[0];
+                    return null;
+                case "getMaxRows":
+                    return maxRows;
+                case "setQueryTimeout":
+                    queryTimeout = (Integer) args[0];
+                    return null;
+                case "getQueryTimeout":
+                    return queryTimeout;
+                case "getWarnings":
+                    return null;
+                case "clearWarnings":
+                case "setEscapeProcessing":
+                case "setPoolable":
+                    return null;
+                default:
+                    break;
+            }
+
+            // setInt, setString, setDate, setObject, setNull, ... bind a parameter
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer)
+            {
+                int index = (Integer) args[0];
+                if (index < 1 || index > params.length)
+                    throw new SQLException("Parameter index out of range: " + index);
+                params[index - 1] = name.equals("setNull") ? null : args[1];
+                return null;
+            }
+            throw unsupported(method);
+        }
+
+        /**
+         * @brief Runs a query and wraps its result as a ResultSet
+         */
+        private ResultSet run(Object proxy, SnapshotQuery snapshotQuery) throws SQLException
+        {
+            if (snapshotQuery == null)
+                throw readOnly();
+            SnapshotQuery.Result result = snapshotQuery.execute(params);
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                                                      new ResultSetHandler((Statement) proxy, file, result, maxRows));
+        }
+
+        private static boolean isQuery(String statement)
+        {
+            return statement.trim().regionMatches(true, 0, "SELECT", 0, 6);
+        }
+
+        private static SQLException readOnly()
+        {
+            return new SQLNonTransientException("The snapshot is read-only");
+        }
+    }
+
+    /**
+     * @brief Implements a forward-only, read-only ResultSet over a SnapshotQuery.Result
+     */
+    private static class ResultSetHandler implements InvocationHandler
+    {
+        private final Statement stmt;
+        private final SnapshotFile file;
+        private final SnapshotQuery.Result result;
+        private final int maxRows;
+        private boolean wasNull;
+        private boolean closed;
+
+        private ResultSetHandler(Statement statement, SnapshotFile snapshot, SnapshotQuery.Result rows, int max)
+        {
+            stmt = statement;
+            file = snapshot;
+            result = rows;
+            maxRows = max;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            Object value = invokeObjectMethod(proxy, method, args, "ResultSet");
+            if (value == null)
+                value = invokeWrapperMethod(proxy, method, args, file);
+            if (value != null)
+                return value;
+
+            String name = method.getName();
+            switch (name)
+            {
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                default:
+                    break;
+            }
+            if (closed)
+                throw new SQLException("ResultSet is closed");
+
+            switch (name)
+            {
+                case "next":
+                    return (maxRows <= 0 || result.getRow() < maxRows) && result.next();
+                case "wasNull":
+                    return wasNull;
+                case "getMetaData":
+                    return result.getMetaData();
+                case "findColumn":
+                    return findColumn((String) args[0]);
+                case "getRow":
+                    return result.getRow();
+                case "getStatement":
+                    return stmt;
+                case "getType":
+                    return ResultSet.TYPE_FORWARD_ONLY;
+                case "getConcurrency":
+                    return ResultSet.CONCUR_READ_ONLY;
+                case "getFetchSize":
+                    return 0;
+                case "getWarnings":
+                    return null;
+                case "setFetchSize":
+                case "clearWarnings":
+                    return null;
+                default:
+                    break;
+            }
+
+            if (!name.startsWith("get") || args == null || args.length == 0)
+                throw unsupported(method);
+            int col = args[0] instanceof String ? findColumn((String) args[0]) : (Integer) args[0];
+            if (col < 1 || col > result.getMetaData().getColumnCount())
+                throw new SQLException("Column index out of range: " + col);
+            Object data = result.getObject(col);
+            wasNull = data == null;
+            return convert(method, name, data, args);
+        }
+
+        /**
+         * @brief Converts a value to the type a getter returns, as MySQL's driver would
+         */
+        private static Object convert(Method method, String name, Object data, Object[] args) throws SQLException
+        {
+            switch (name)
+            {
+                case "getObject":
+                    if (args.length == 2 && args[1] instanceof Class && data != null && !((Class<?>) args[1]).isInstance(data))
+                        throw unsupported(method);
+                    return data;
+                case "getString":
+                case "getNString":
+                    if (data instanceof Timestamp)
+                        return data.toString().replaceFirst("\\.0$", "");
+                    return data == null ? null : data.toString();
+                case "getDate":
+                    if (data instanceof Timestamp)
+                        return new java.sql.Date(((Timestamp) data).getTime());
+                    return data == null || data instanceof java.sql.Date ? data : java.sql.Date.valueOf(data.toString());
+                case "getTimestamp":
+                    if (data instanceof java.sql.Date)
+                        return Timestamp.valueOf(((java.sql.Date) data).toLocalDate().atStartOfDay());
+                    return data == null || data instanceof Timestamp ? data : Timestamp.valueOf(data.toString());
+                case "getBigDecimal":
+                    return data == null ? null : new BigDecimal(data.toString());
+                default:
+                    break;
+            }
+
+            // the numeric getters return 0 for null
+            Class<?> type = method.getReturnType();
+            if (type == boolean.class)
+                return data != null && (data instanceof Number ? ((Number) data).doubleValue() != 0 :
+                                        data.toString().equals("1") || data.toString().equalsIgnoreCase("true"));
+            double number;
+            try
+            {
+                number = data == null ? 0 : data instanceof Number ? ((Number) data).doubleValue() :
+                         Double.parseDouble(data.toString());
+            }
+            catch (NumberFormatException e)
+            {
+                throw new SQLDataException("Cannot convert " + data + " to a number", e);
+            }
+            if (type == int.class)
+                return data instanceof Number ? ((Number) data).intValue() : (int) number;
+            if (type == long.class)
+                return data instanceof Number ? ((Number) data).longValue() : (long) number;
+            if (type == double.class)
+                return number;
+            if (type == float.class)
+                return (float) number;
+            if (type == short.class)
+                return (short) number;
+            if (type == byte.class)
+                return (byte) number;
+            throw unsupported(method);
+        }
+
+        /**
+         * @brief Finds a column of the result by its label, ignoring case
+         */
+        private int findColumn(String label) throws SQLException
+        {
+            ResultSetMetaData meta = result.getMetaData();
+            for (int col = 1; col <= meta.getColumnCount(); col++)
+            {
+                if (meta.getColumnLabel(col).equalsIgnoreCase(label))
+                    return col;
+            }
+            throw new SQLException("Column '" + label + "' not found");
+        }
+    }
+
+    /**
+     * @brief Implements the parts of DatabaseMetaData the DSS uses: listing tables and columns
+     */
+    private static class MetaDataHandler implements InvocationHandler
+    {
+        private final Connection conn;
+        private final SnapshotFile file;
+        private final String url;
+
+        private MetaDataHandler(Connection connection, SnapshotFile snapshot, String connectionUrl)
+        {
+            conn = connection;
+            file = snapshot;
+            url = connectionUrl;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            Object value = invokeObjectMethod(proxy, method, args, url);
+            if (value == null)
+                value = invokeWrapperMethod(proxy, method, args, file);
+            if (value != null)
+                return value;
+
+            switch (method.getName())
+            {
+                case "getTables":
+                    return getTables((String) args[2]);
+                case "getColumns":
+                    return getColumns((String) args[2], (String) args[3]);
+                case "getConnection":
+                    return conn;
+                case "getURL":
+                    return url;
+                case "getUserName":
+                    return "";
+                case "isReadOnly":
+                    return true;
+                case "getDatabaseProductName":
+                    return "DSS Snapshot";
+                case "getDatabaseProductVersion":
+                case "getDriverVersion":
+                    return String.valueOf(SnapshotFile.VERSION);
+                case "getDriverName":
+                    return SnapshotDriver.class.getName();
+                default:
+                    throw unsupported(method);
+            }
+        }
+
+        /**
+         * @brief Lists the tables, in the form of DatabaseMetaData.getTables
+         */
+        private ResultSet getTables(String tablePattern) throws SQLException
+        {
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for (SnapshotFile.Table table : file.getTables())
+            {
+                if (matches(table.getName(), tablePattern))
+                    rows.add(new Object[] { file.getSchema(), null, table.getName(), "TABLE", "" });
+            }
+            return toResultSet(SnapshotQuery.Result.of(
+                    new String[] { "TABLE_CAT", "TABLE_SCHEM", "TABLE_NAME", "TABLE_TYPE", "REMARKS" },
+                    new int[] { Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR }, rows));
+        }
+
+        /**
+         * @brief Lists the columns of the tables, in the form of DatabaseMetaData.getColumns
+         */
+        private ResultSet getColumns(String tablePattern, String columnPattern) throws SQLException
+        {
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for (SnapshotFile.Table table : file.getTables())
+            {
+                if (!matches(table.getName(), tablePattern))
+                    continue;
+                int position = 1;
+                for (SnapshotFile.Column column : table.getColumns())
+                {
+                    if (matches(column.getName(), columnPattern))
+                        rows.add(new Object[] { file.getSchema(), null, table.getName(), column.getName(),
+                                                column.getType().getSqlType(), column.getTypeName(), position,
+                                                column.isNullable() ? "YES" : "NO" });
+                    position++;
+                }
+            }
+            return toResultSet(SnapshotQuery.Result.of(
+                    new String[] { "TABLE_CAT", "TABLE_SCHEM", "TABLE_NAME", "COLUMN_NAME", "DATA_TYPE",
+                                   "TYPE_NAME", "ORDINAL_POSITION", "IS_NULLABLE" },
+                    new int[] { Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.INTEGER,
+                                Types.VARCHAR, Types.INTEGER, Types.VARCHAR }, rows));
+        }
+
+        private ResultSet toResultSet(SnapshotQuery.Result result)
+        {
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                                                      new ResultSetHandler(null, file, result, 0));
+        }
+
+        /**
+         * @brief Matches a name against a metadata pattern, where % is any string and _ any
+         *        character; null matches every name
+         */
+        private static boolean matches(String name, String pattern)
+        {
+            if (pattern == null)
+                return true;
+            StringBuilder regex = new StringBuilder();
+            for (char c : pattern.toCharArray())
+                regex.append(c == '%' ? ".*" : c == '_' ? "." : java.util.regex.Pattern.quote(String.valueOf(c)));
+            return java.util.regex.Pattern.compile(regex.toString(), java.util.regex.Pattern.CASE_INSENSITIVE)
+                    .matcher(name).matches();
+        }
+    }
+}
@@ -0,0 +1,870 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+
+public class SnapshotFile
+{
+    public static final int VERSION = 1;
+    public static final String EXTENSION = ".snapshot";
+
+    private static final byte[] MAGIC = "DSSSNAP\0".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_SIZE = 32;         // magic, version, flags, directory offset and length
+    private static final int SEGMENT_SHIFT = 30;       // values are mapped in segments of 1 GB
+    private static final int BUFFER_SIZE = 1 << 16;    // bytes buffered per column while writing
+    private static final String[] SKIPPED_TABLES = { "Change_Log" };    // only meaningful on a live server
+
+    private final Path path;
+    private final String schema;
+    private final long createdMillis;
+    private final List<Table> tables;
+
+    /**
+     * @brief How the values of a column are stored, each a fixed number of bytes wide
+     */
+    public enum Type
+    {
+        INT32(4, Types.INTEGER),
+        INT64(8, Types.BIGINT),
+        FLOAT64(8, Types.DOUBLE),
+        DATE(4, Types.DATE),               // days since 1970-01-01
+        TIMESTAMP(8, Types.TIMESTAMP),     // milliseconds since 1970-01-01 00:00, ignoring time zones
+        STRING(4, Types.VARCHAR);          // index into the column's dictionary
+
+        private final int width;
+        private final int sqlType;
+
+        Type(int bytes, int jdbcType)
+        {
+            width = bytes;
+            sqlType = jdbcType;
+        }
+
+        /**
+         * @brief Returns the JDBC type that values of this type are read as
+         * @return A java.sql.Types constant
+         */
+        public int getSqlType()
+        {
+            return sqlType;
+        }
+
+        /**
+         * @brief Checks whether values of this type are compared as whole numbers
+         * @return True for INT32, INT64, DATE and TIMESTAMP
+         */
+        public boolean isIntegral()
+        {
+            return this != FLOAT64 && this != STRING;
+        }
+
+        /**
+         * @brief Returns the storage type for a JDBC column type
+         * @param jdbcType A java.sql.Types constant
+         * @return The type the column's values will be stored as
+         */
+        private static Type forSqlType(int jdbcType)
+        {
+            switch (jdbcType)
+            {
+                case Types.BIT:
+                case Types.BOOLEAN:
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                    return INT32;
+
+                case Types.BIGINT:
+                    return INT64;
+
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                    return FLOAT64;
+
+                case Types.DATE:
+                    return DATE;
+
+                case Types.TIMESTAMP:
+                case Types.TIMESTAMP_WITH_TIMEZONE:
+                    return TIMESTAMP;
+
+                default:
+                    return STRING;
+            }
+        }
+    }
+
+    /**
+     * @brief A table of the snapshot
+     */
+    public static class Table
+    {
+        private final String name;
+        private final int size;
+        private final List<Column> columns;
+
+        private Table(String tableName, int rows, List<Column> columnList)
+        {
+            name = tableName;
+            size = rows;
+            columns = Collections.unmodifiableList(columnList);
+        }
+
+        /**
+         * @brief Returns the name of the table
+         * @return The table name, as in the database
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @brief Returns the number of rows in the table
+         * @return The row count
+         */
+        public int size()
+        {
+            return size;
+        }
+
+        /**
+         * @brief Returns the columns of the table
+         * @return An unmodifiable list of the columns, in the order of the database table
+         */
+        public List<Column> getColumns()
+        {
+            return columns;
+        }
+
+        /**
+         * @brief Finds a column by name, ignoring case as MySQL does
+         * @param columnName A column name
+         * @return The column, or null if the table has no such column
+         */
+        public Column getColumn(String columnName)
+        {
+            for (Column column : columns)
+            {
+                if (column.name.equalsIgnoreCase(columnName))
+                    return column;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @brief A column of a snapshot table, read directly from the mapped file
+     */
+    public static class Column
+    {
+        private final String name;
+        private final String typeName;
+        private final Type type;
+        private final int size;
+        private final ByteBuffer nulls;          // one bit per row, set if null; null if the column has no nulls
+        private final ByteBuffer[] values;       // fixed-width values, in segments of 1 << SEGMENT_SHIFT bytes
+        private final int dictionarySize;
+        private final ByteBuffer dictionaryOffsets;
+        private final ByteBuffer dictionaryBytes;
+        private final String[] decoded;          // dictionary entries, decoded on first use
+
+        private Column(String columnName, String sourceType, Type storage, int rows, ByteBuffer nullBits,
+                       ByteBuffer[] valueSegments, int entries, ByteBuffer offsets, ByteBuffer bytes)
+        {
+            name = columnName;
+            typeName = sourceType;
+            type = storage;
+            size = rows;
+            nulls = nullBits;
+            values = valueSegments;
+            dictionarySize = entries;
+            dictionaryOffsets = offsets;
+            dictionaryBytes = bytes;
+            decoded = new String[entries];
+        }
+
+        /**
+         * @brief Returns the name of the column
+         * @return The column name, as in the database
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @brief Returns the type of the column in the database the snapshot was taken from
+         * @return The database type name, e.g. VARCHAR
+         */
+        public String getTypeName()
+        {
+            return typeName;
+        }
+
+        /**
+         * @brief Returns how the column's values are stored
+         * @return The storage type
+         */
+        public Type getType()
+        {
+            return type;
+        }
+
+        /**
+         * @brief Checks whether the column holds any nulls
+         * @return True if some row may be null, as declared by the database
+         */
+        public boolean isNullable()
+        {
+            return nulls != null;
+        }
+
+        /**
+         * @brief Checks whether the value of a row is null
+         * @param row A row number, from 0
+         * @return True if the value is null
+         */
+        public boolean isNull(int row)
+        {
+            return nulls != null && (nulls.get(row >>> 3) & (1 << (row & 7))) != 0;
+        }
+
+        /**
+         * @brief Returns a value as a whole number
+         * @pre The column is of an integral type, and the row is not null
+         * @param row A row number, from 0
+         * @return The value; an epoch day for DATE, or epoch milliseconds for TIMESTAMP
+         */
+        public long getLong(int row)
+        {
+            long at = (long) row * type.width;
+            ByteBuffer segment = values[(int) (at >>> SEGMENT_SHIFT)];
+            int offset = (int) (at & ((1 << SEGMENT_SHIFT) - 1));
+            return type.width == 4 ? segment.getInt(offset) : segment.getLong(offset);
+        }
+
+        /**
+         * @brief Returns a value as a floating point number
+         * @pre The column is not of the STRING type, and the row is not null
+         * @param row A row number, from 0
+         * @return The value
+         */
+        public double getDouble(int row)
+        {
+            if (type != Type.FLOAT64)
+                return getLong(row);
+            long at = (long) row * type.width;
+            return values[(int) (at >>> SEGMENT_SHIFT)].getDouble((int) (at & ((1 << SEGMENT_SHIFT) - 1)));
+        }
+
+        /**
+         * @brief Returns the dictionary code of a STRING value
+         * @param row A row number, from 0
+         * @return The index of the value in the column's dictionary
+         */
+        public int getCode(int row)
+        {
+            return (int) getLong(row);
+        }
+
+        /**
+         * @brief Returns the number of distinct values of a STRING column
+         * @return The dictionary size
+         */
+        public int getDictionarySize()
+        {
+            return dictionarySize;
+        }
+
+        /**
+         * @brief Returns an entry of a STRING column's dictionary
+         * @param code A dictionary code, from 0
+         * @return The string value
+         */
+        public String getDictionaryValue(int code)
+        {
+            String value = decoded[code];
+            if (value == null)
+            {
+                int start = dictionaryOffsets.getInt(code * 4);
+                byte[] bytes = new byte[dictionaryOffsets.getInt(code * 4 + 4) - start];
+                dictionaryBytes.get(start, bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+                decoded[code] = value;
+            }
+            return value;
+        }
+
+        /**
+         * @brief Returns a value as a string
+         * @param row A row number, from 0
+         * @return The value as MySQL would format it, or null
+         */
+        public String getString(int row)
+        {
+            if (isNull(row))
+                return null;
+            switch (type)
+            {
+                case STRING:
+                    return getDictionaryValue(getCode(row));
+                case FLOAT64:
+                    return String.valueOf(getDouble(row));
+                case DATE:
+                    return LocalDate.ofEpochDay(getLong(row)).toString();
+                case TIMESTAMP:
+                    return Timestamp.valueOf(toDateTime(getLong(row))).toString().replaceFirst("\\.0$", "");
+                default:
+                    return String.valueOf(getLong(row));
+            }
+        }
+
+        /**
+         * @brief Returns a value as the Java object JDBC would return for its type
+         * @param row A row number, from 0, or -1 for the null row of an outer join
+         * @return An Integer, Long, Double, java.sql.Date, Timestamp or String, or null
+         */
+        public Object getObject(int row)
+        {
+            if (row < 0 || isNull(row))
+                return null;
+            switch (type)
+            {
+                case INT32:
+                    return (int) getLong(row);
+                case INT64:
+                    return getLong(row);
+                case FLOAT64:
+                    return getDouble(row);
+                case DATE:
+                    return java.sql.Date.valueOf(LocalDate.ofEpochDay(getLong(row)));
+                case TIMESTAMP:
+                    return Timestamp.valueOf(toDateTime(getLong(row)));
+                default:
+                    return getDictionaryValue(getCode(row));
+            }
+        }
+
+        /**
+         * @brief Returns the number of rows in the column
+         * @return The row count
+         */
+        public int size()
+        {
+            return size;
+        }
+    }
+
+    private SnapshotFile(Path file, String schemaName, long created, List<Table> tableList)
+    {
+        path = file;
+        schema = schemaName;
+        createdMillis = created;
+        tables = Collections.unmodifiableList(tableList);
+    }
+
+    /**
+     * @brief Opens a snapshot file read-only
+     * @param file A file written by write
+     * @return The snapshot
+     * @post Every column will have been mapped into memory, but no values read; pages of the
+     *       file are only read from disk when first used, so opening takes milliseconds
+     *       whatever the size of the file
+     * @throws IOException if the file cannot be read, or is not a snapshot of a known version
+     */
+    public static SnapshotFile open(Path file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            if (channel.size() < HEADER_SIZE)
+                throw new IOException(file + " is not a DSS snapshot");
+            ByteBuffer header = read(channel, 0, HEADER_SIZE);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new IOException(file + " is not a DSS snapshot");
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException(file + " is a version " + version + " snapshot; version " + VERSION + " is supported");
+            header.getInt();    // flags, reserved
+            long directoryOffset = header.getLong();
+            long directoryLength = header.getLong();
+
+            DataInputStream directory = new DataInputStream(new ByteArrayInputStream(
+                    read(channel, directoryOffset, directoryLength).array()));
+            String schemaName = directory.readUTF();
+            long created = directory.readLong();
+            int tableCount = directory.readInt();
+            List<Table> tableList = new ArrayList<Table>(tableCount);
+            for (int t = 0; t < tableCount; t++)
+            {
+                String tableName = directory.readUTF();
+                int rows = directory.readInt();
+                int columnCount = directory.readInt();
+                List<Column> columns = new ArrayList<Column>(columnCount);
+                for (int c = 0; c < columnCount; c++)
+                {
+                    String columnName = directory.readUTF();
+                    String typeName = directory.readUTF();
+                    Type type = Type.values()[directory.readByte()];
+                    long nullsOffset = directory.readLong();
+                    long valuesOffset = directory.readLong();
+                    int entries = directory.readInt();
+                    long offsetsOffset = directory.readLong();
+                    long bytesOffset = directory.readLong();
+                    int bytesLength = directory.readInt();
+
+                    long valuesLength = (long) rows * type.width;
+                    ByteBuffer[] segments = new ByteBuffer[(int) ((valuesLength >>> SEGMENT_SHIFT) + 1)];
+                    for (int s = 0; s < segments.length; s++)
+                    {
+                        long start = (long) s << SEGMENT_SHIFT;
+                        segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, valuesOffset + start,
+                                                  Math.min(1L << SEGMENT_SHIFT, valuesLength - start));
+                    }
+                    columns.add(new Column(columnName, typeName, type, rows,
+                            nullsOffset < 0 ? null : channel.map(FileChannel.MapMode.READ_ONLY, nullsOffset, (rows + 7) / 8),
+                            segments, entries,
+                            type != Type.STRING ? null :
+                                    channel.map(FileChannel.MapMode.READ_ONLY, offsetsOffset, (entries + 1) * 4L),
+                            type != Type.STRING ? null :
+                                    channel.map(FileChannel.MapMode.READ_ONLY, bytesOffset, bytesLength)));
+                }
+                tableList.add(new Table(tableName, rows, columns));
+            }
+            return new SnapshotFile(file, schemaName, created, tableList);
+        }
+    }
+
+    /**
+     * @brief Reads a region of a file into a heap buffer
+     * @param channel An open file
+     * @param offset The first byte to read
+     * @param length The number of bytes to read
+     * @return A buffer backed by an array holding the region
+     * @throws IOException if the file ends before the region does
+     */
+    private static ByteBuffer read(FileChannel channel, long offset, long length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, offset + buffer.position()) < 0)
+                throw new IOException("Snapshot file is truncated");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @brief Returns the file the snapshot was opened from
+     * @return The path of the file
+     */
+    public Path getPath()
+    {
+        return path;
+    }
+
+    /**
+     * @brief Returns the schema the snapshot was taken of
+     * @return The schema name, e.g. water_treatment2
+     */
+    public String getSchema()
+    {
+        return schema;
+    }
+
+    /**
+     * @brief Returns when the snapshot was taken
+     * @return The time the snapshot's transaction started, in milliseconds since the epoch
+     */
+    public long getCreatedMillis()
+    {
+        return createdMillis;
+    }
+
+    /**
+     * @brief Returns the tables of the snapshot
+     * @return An unmodifiable list of the tables
+     */
+    public List<Table> getTables()
+    {
+        return tables;
+    }
+
+    /**
+     * @brief Finds a table by name, ignoring case
+     * @param tableName A table name
+     * @return The table, or null if the snapshot has no such table
+     */
+    public Table getTable(String tableName)
+    {
+        for (Table table : tables)
+        {
+            if (table.name.equalsIgnoreCase(tableName))
+                return table;
+        }
+        return null;
+    }
+
+    /**
+     * @brief Copies every table of a database into a snapshot file
+     * @param conn A database connection, which must not be used by anyone else until this returns
+     * @param file The file to write; an existing file is replaced
+     * @return The number of rows written
+     * @post The tables will have been read in a single REPEATABLE READ transaction, so the
+     *       snapshot is consistent, and written to a temporary file that is then moved to file;
+     *       readers that have the old file open keep seeing the old snapshot. The connection's
+     *       auto-commit and isolation level will be restored
+     * @throws SQLException if the database cannot be read
+     * @throws IOException if the file cannot be written
+     */
+    public static long write(Connection conn, Path file) throws SQLException, IOException
+    {
+        if (conn.isWrapperFor(SnapshotFile.class))
+            throw new SQLException("The connection is already reading a snapshot");
+
+        boolean autoCommit = conn.getAutoCommit();
+        int isolation = conn.getTransactionIsolation();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long rows = 0;
+        try
+        {
+            conn.setAutoCommit(false);
+            conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING))
+            {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream directory = new DataOutputStream(bytes);
+                directory.writeUTF(conn.getCatalog() != null ? conn.getCatalog() : "");
+                directory.writeLong(System.currentTimeMillis());
+
+                List<String> tableNames = getTableNames(conn);
+                directory.writeInt(tableNames.size());
+                long end = HEADER_SIZE;
+                for (String table : tableNames)
+                {
+                    TableWriter writer = new TableWriter(channel, end);
+                    end = writer.write(conn, table, directory);
+                    rows += writer.rows;
+                }
+                directory.flush();
+
+                channel.write(ByteBuffer.wrap(bytes.toByteArray()), end);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.put(MAGIC).putInt(VERSION).putInt(0).putLong(end).putLong(bytes.size()).flip();
+                channel.write(header, 0);
+                channel.force(true);
+            }
+            conn.commit();
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return rows;
+        }
+        finally
+        {
+            if (!conn.getAutoCommit())
+                conn.rollback();
+            conn.setTransactionIsolation(isolation);
+            conn.setAutoCommit(autoCommit);
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @brief Lists the tables to copy into a snapshot
+     * @param conn A database connection
+     * @return The names of every table of the connection's schema but SKIPPED_TABLES and
+     *         those of the information schema, which some databases list too
+     * @throws SQLException
+     */
+    private static List<String> getTableNames(Connection conn) throws SQLException
+    {
+        List<String> names = new ArrayList<String>();
+        try (ResultSet result = conn.getMetaData().getTables(conn.getCatalog(), null, "%", new String[] { "TABLE" }))
+        {
+            while (result.next())
+            {
+                String name = result.getString(3);
+                boolean skipped = "INFORMATION_SCHEMA".equalsIgnoreCase(result.getString(2));
+                for (String skip : SKIPPED_TABLES)
+                    skipped |= skip.equalsIgnoreCase(name);
+                if (!skipped)
+                    names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @brief Writes the columns of one table, reading the table once, row by row
+     */
+    private static class TableWriter
+    {
+        private final FileChannel channel;
+        private long end;           // the end of the file written so far
+        private int rows;
+
+        private TableWriter(FileChannel file, long start)
+        {
+            channel = file;
+            end = start;
+        }
+
+        /**
+         * @brief Copies a table into the file
+         * @param conn A database connection, in the snapshot's transaction
+         * @param table The table to copy
+         * @param directory The snapshot directory, to which the table's entry is added
+         * @return The end of the file after the table
+         * @throws SQLException
+         * @throws IOException
+         */
+        private long write(Connection conn, String table, DataOutputStream directory) throws SQLException, IOException
+        {
+            // the count fixes where each column starts, so every column is written in one pass
+            long count;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet result = stmt.executeQuery("SELECT COUNT(*) FROM " + table))
+            {
+                result.next();
+                count = result.getLong(1);
+            }
+            if (count > Integer.MAX_VALUE)
+                throw new SQLException(table + " has too many rows for a snapshot");
+
+            try (Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY))
+            {
+                stmt.setFetchSize(SQLMethod.getFetchSize());
+                try (ResultSet result = stmt.executeQuery("SELECT * FROM " + table))
+                {
+                    ResultSetMetaData meta = result.getMetaData();
+                    ColumnWriter[] columns = new ColumnWriter[meta.getColumnCount()];
+                    for (int c = 0; c < columns.length; c++)
+                    {
+                        boolean nullable = meta.isNullable(c + 1) != ResultSetMetaData.columnNoNulls;
+                        columns[c] = new ColumnWriter(channel, meta.getColumnName(c + 1), meta.getColumnTypeName(c + 1),
+                                                      Type.forSqlType(meta.getColumnType(c + 1)), nullable, end, (int) count);
+                        end = columns[c].end;
+                    }
+
+                    while (result.next())
+                    {
+                        if (rows == count)
+                            throw new SQLException(table + " changed while the snapshot was taken");
+                        for (int c = 0; c < columns.length; c++)
+                            columns[c].append(result, c + 1, rows);
+                        rows++;
+                    }
+                    if (rows != count)
+                        throw new SQLException(table + " changed while the snapshot was taken");
+
+                    directory.writeUTF(table);
+                    directory.writeInt(rows);
+                    directory.writeInt(columns.length);
+                    for (ColumnWriter column : columns)
+                        end = column.finish(end, directory);
+                }
+            }
+            return end;
+        }
+    }
+
+    /**
+     * @brief Buffers the values of one column and writes them to their place in the file
+     */
+    private static class ColumnWriter
+    {
+        private final FileChannel channel;
+        private final String name;
+        private final String typeName;
+        private final Type type;
+        private final long nullsOffset;
+        private final long valuesOffset;
+        private final long end;
+        private final ByteBuffer values = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ByteBuffer nulls;
+        private long valuesWritten;
+        private long nullsWritten;
+        private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        private final ByteArrayOutputStream dictionaryBytes = new ByteArrayOutputStream();
+        private final List<Integer> dictionaryOffsets = new ArrayList<Integer>();
+
+        private ColumnWriter(FileChannel file, String columnName, String sourceType, Type storage, boolean nullable,
+                             long start, int rows)
+        {
+            channel = file;
+            name = columnName;
+            typeName = sourceType;
+            type = storage;
+            nullsOffset = nullable ? start : -1;
+            nulls = nullable ? ByteBuffer.allocate(BUFFER_SIZE) : null;
+            valuesOffset = align(nullable ? start + (rows + 7) / 8 : start);
+            end = align(valuesOffset + (long) rows * type.width);
+        }
+
+        /**
+         * @brief Adds the value of the current row
+         * @param result A result set positioned on the row
+         * @param col The column's index in result
+         * @param row The row number, from 0
+         * @throws SQLException
+         * @throws IOException
+         */
+        private void append(ResultSet result, int col, int row) throws SQLException, IOException
+        {
+            long value = 0;
+            double real = 0;
+            switch (type)
+            {
+                case INT32:
+                case INT64:
+                    value = result.getLong(col);
+                    break;
+                case FLOAT64:
+                    real = result.getDouble(col);
+                    break;
+                case DATE:
+                    java.sql.Date date = result.getDate(col);
+                    value = date == null ? 0 : date.toLocalDate().toEpochDay();
+                    break;
+                case TIMESTAMP:
+                    Timestamp time = result.getTimestamp(col);
+                    value = time == null ? 0 : time.toLocalDateTime().toInstant(ZoneOffset.UTC).toEpochMilli();
+                    break;
+                default:
+                    String text = result.getString(col);
+                    value = text == null ? 0 : encode(text);
+                    break;
+            }
+            boolean isNull = result.wasNull();
+
+            if (nulls != null)
+            {
+                if ((row & 7) == 0)
+                {
+                    if (!nulls.hasRemaining())
+                        nullsWritten += flush(nulls, nullsOffset + nullsWritten);
+                    nulls.put((byte) 0);
+                }
+                if (isNull)
+                    nulls.put(nulls.position() - 1, (byte) (nulls.get(nulls.position() - 1) | (1 << (row & 7))));
+            }
+            else if (isNull)
+                throw new SQLException(name + " is declared NOT NULL but holds a null");
+
+            if (values.remaining() < type.width)
+                valuesWritten += flush(values, valuesOffset + valuesWritten);
+            if (type == Type.FLOAT64)
+                values.putDouble(real);
+            else if (type.width == 4)
+                values.putInt((int) value);
+            else
+                values.putLong(value);
+        }
+
+        /**
+         * @brief Returns the dictionary code of a string, adding it to the dictionary if new
+         * @param text A string value
+         * @return Its code
+         * @throws SQLException if the dictionary outgrows what a column may hold
+         */
+        private int encode(String text) throws SQLException
+        {
+            Integer code = dictionary.get(text);
+            if (code == null)
+            {
+                code = dictionary.size();
+                dictionary.put(text, code);
+                dictionaryOffsets.add(dictionaryBytes.size());
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                if (dictionaryBytes.size() + (long) bytes.length > Integer.MAX_VALUE - 8)
+                    throw new SQLException("The distinct values of " + name + " are too large for a snapshot");
+                dictionaryBytes.write(bytes, 0, bytes.length);
+            }
+            return code;
+        }
+
+        /**
+         * @brief Writes what remains buffered, then the dictionary, and the column's directory entry
+         * @param start The end of the file so far, where the dictionary is written
+         * @param directory The snapshot directory
+         * @return The end of the file after the dictionary
+         * @throws IOException
+         */
+        private long finish(long start, DataOutputStream directory) throws IOException
+        {
+            flush(values, valuesOffset + valuesWritten);
+            if (nulls != null)
+                flush(nulls, nullsOffset + nullsWritten);
+
+            long offsetsOffset = -1;
+            long bytesOffset = -1;
+            if (type == Type.STRING)
+            {
+                ByteBuffer offsets = ByteBuffer.allocate((dictionaryOffsets.size() + 1) * 4);
+                for (int offset : dictionaryOffsets)
+                    offsets.putInt(offset);
+                offsets.putInt(dictionaryBytes.size());
+                offsetsOffset = start;
+                bytesOffset = align(offsetsOffset + offsets.capacity());
+                flush(offsets, offsetsOffset);
+                ByteBuffer bytes = ByteBuffer.wrap(dictionaryBytes.toByteArray());
+                flush(bytes.position(bytes.limit()), bytesOffset);
+                start = align(bytesOffset + dictionaryBytes.size());
+            }
+
+            directory.writeUTF(name);
+            directory.writeUTF(typeName);
+            directory.writeByte(type.ordinal());
+            directory.writeLong(nullsOffset);
+            directory.writeLong(valuesOffset);
+            directory.writeInt(dictionary.size());
+            directory.writeLong(offsetsOffset);
+            directory.writeLong(bytesOffset);
+            directory.writeInt(dictionaryBytes.size());
+            return Math.max(start, end);
+        }
+
+        /**
+         * @brief Writes a buffer to the file and empties it
+         * @param buffer The buffer, in put mode
+         * @param position Where in the file to write it
+         * @return The number of bytes written
+         * @throws IOException
+         */
+        private long flush(ByteBuffer buffer, long position) throws IOException
+        {
+            buffer.flip();
+            int length = buffer.remaining();
+            while (buffer.hasRemaining())
+                channel.write(buffer, position + length - buffer.remaining());
+            buffer.clear();
+            return length;
+        }
+    }
+
+    /**
+     * @brief Rounds a file position up to a multiple of 8, so every column starts aligned
+     */
+    private static long align(long position)
+    {
+        return (position + 7) & ~7L;
+    }
+
+    /**
+     * @brief Converts a stored TIMESTAMP value back to a date and time
+     */
+    private static LocalDateTime toDateTime(long millis)
+    {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+    }
+}
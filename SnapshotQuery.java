@@ -0,0 +1,932 @@
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.function.*;
+import java.util.regex.*;
+import javax.sql.rowset.RowSetMetaDataImpl;
+
+public class SnapshotQuery
+{
+    // identifiers may be qualified by a table alias; strings are single-quoted, with '' for a quote
+    private static final Pattern TOKEN = Pattern.compile(
+            "\\s*(\\?|'(?:[^']|'')*'|[A-Za-z_]\\w*(?:\\.(?:[A-Za-z_]\\w*|\\*))?|\\d+(?:\\.\\d+)?|>=|<=|<>|!=|[=<>(),*])");
+    private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+            "SELECT", "DISTINCT", "FROM", "AS", "JOIN", "LEFT", "OUTER", "INNER", "ON", "WHERE", "AND",
+            "ORDER", "BY", "ASC", "DESC", "LIMIT", "IN", "GROUP", "HAVING", "OR", "NOT", "UNION"));
+
+    private final SnapshotFile file;
+    private final List<Source> sources = new ArrayList<Source>();
+    private final List<Ref> items = new ArrayList<Ref>();
+    private final List<Condition> conditions = new ArrayList<Condition>();
+    private final List<Ref> orders = new ArrayList<Ref>();
+    private final List<Boolean> descending = new ArrayList<Boolean>();
+    private boolean distinct;
+    private int limit = -1;
+    private int paramCount;
+
+    /**
+     * @brief A table in the FROM clause, and how it is joined to the tables before it
+     */
+    private static class Source
+    {
+        private final SnapshotFile.Table table;
+        private final String alias;
+        private final boolean outer;
+        private Ref joinColumn;         // this table's side of the ON condition
+        private Ref joinedTo;           // the other side, in an earlier table
+
+        private Source(SnapshotFile.Table sourceTable, String sourceAlias, boolean leftJoin)
+        {
+            table = sourceTable;
+            alias = sourceAlias;
+            outer = leftJoin;
+        }
+    }
+
+    /**
+     * @brief A column of one of the tables in the FROM clause
+     */
+    private static class Ref
+    {
+        private final int source;
+        private final SnapshotFile.Column column;
+
+        private Ref(int sourceIndex, SnapshotFile.Column sourceColumn)
+        {
+            source = sourceIndex;
+            column = sourceColumn;
+        }
+    }
+
+    /**
+     * @brief A condition of the WHERE clause: a column compared to a parameter or literal,
+     *        or a column IN a single-column subquery
+     */
+    private static class Condition
+    {
+        private Ref ref;
+        private String operator;
+        private int param = -1;
+        private Object literal;
+        private SnapshotQuery subquery;
+
+        /**
+         * @brief Turns the condition into a test of a row of its table
+         * @param params The values of the query's parameters
+         * @return A predicate that is true of the row numbers that meet the condition
+         * @throws SQLException if a value cannot be compared to the column
+         */
+        private IntPredicate compile(Object[] params) throws SQLException
+        {
+            SnapshotFile.Column column = ref.column;
+            if (subquery != null)
+            {
+                long[] keys = subquery.collectKeys(params);
+                return row -> !column.isNull(row) && Arrays.binarySearch(keys, column.getLong(row)) >= 0;
+            }
+
+            Object value = param < 0 ? literal : param < params.length ? params[param] : null;
+            if (value == null)
+                return row -> false;    // a comparison with null is never true
+
+            IntPredicate outcome = getOutcome(operator);
+            switch (column.getType())
+            {
+                case STRING:
+                    String target = value.toString();
+                    if (operator.equals("=") || operator.equals("<>") || operator.equals("!="))
+                    {
+                        // compare each distinct value once, ignoring case as MySQL's collation does
+                        BitSet equal = new BitSet(column.getDictionarySize());
+                        for (int code = 0; code < column.getDictionarySize(); code++)
+                            equal.set(code, column.getDictionaryValue(code).equalsIgnoreCase(target));
+                        boolean wanted = operator.equals("=");
+                        return row -> !column.isNull(row) && equal.get(column.getCode(row)) == wanted;
+                    }
+                    return row -> !column.isNull(row) &&
+                            outcome.test(column.getDictionaryValue(column.getCode(row)).compareToIgnoreCase(target));
+
+                case FLOAT64:
+                    double real = toDouble(value);
+                    return row -> !column.isNull(row) && outcome.test(Double.compare(column.getDouble(row), real));
+
+                default:
+                    long whole = toLong(column.getType(), value);
+                    return row -> !column.isNull(row) && outcome.test(Long.compare(column.getLong(row), whole));
+            }
+        }
+    }
+
+    /**
+     * @brief The rows of a query result, read one at a time like a forward-only ResultSet
+     */
+    public abstract static class Result
+    {
+        private final ResultSetMetaData metaData;
+        private int row;
+
+        protected Result(ResultSetMetaData columns)
+        {
+            metaData = columns;
+        }
+
+        /**
+         * @brief Returns the columns of the result
+         * @return The result's metadata
+         */
+        public ResultSetMetaData getMetaData()
+        {
+            return metaData;
+        }
+
+        /**
+         * @brief Moves to the next row
+         * @return True if there is a next row, or false after the last
+         */
+        public boolean next()
+        {
+            if (!advance())
+                return false;
+            row++;
+            return true;
+        }
+
+        /**
+         * @brief Returns the number of the current row
+         * @return The row number, from 1; 0 before the first row
+         */
+        public int getRow()
+        {
+            return row;
+        }
+
+        /**
+         * @brief Returns a value of the current row
+         * @param column The column number, from 1
+         * @return The value, as the Java object JDBC returns for its type, or null
+         */
+        public abstract Object getObject(int column);
+
+        /**
+         * @brief Moves to the next row
+         * @return True if there is a next row
+         */
+        protected abstract boolean advance();
+
+        /**
+         * @brief Creates a result from rows held in memory
+         * @param labels The column names
+         * @param types The java.sql.Types of the columns
+         * @param rows The rows, each holding one value per column
+         * @return The result
+         * @throws SQLException
+         */
+        public static Result of(String[] labels, int[] types, List<Object[]> rows) throws SQLException
+        {
+            RowSetMetaDataImpl meta = new RowSetMetaDataImpl();
+            meta.setColumnCount(labels.length);
+            for (int col = 1; col <= labels.length; col++)
+            {
+                meta.setColumnName(col, labels[col - 1]);
+                meta.setColumnLabel(col, labels[col - 1]);
+                meta.setColumnType(col, types[col - 1]);
+                meta.setNullable(col, ResultSetMetaData.columnNullable);
+            }
+            Iterator<Object[]> iterator = rows.iterator();
+            return new Result(meta)
+            {
+                private Object[] current;
+
+                @Override
+                public Object getObject(int column)
+                {
+                    return current[column - 1];
+                }
+
+                @Override
+                protected boolean advance()
+                {
+                    current = iterator.hasNext() ? iterator.next() : null;
+                    return current != null;
+                }
+            };
+        }
+    }
+
+    /**
+     * @brief Rows of the joined tables, each one row number per table; -1 stands for
+     *        the missing row of an outer join
+     */
+    private static class Tuples
+    {
+        private final int width;
+        private int[] rows;
+        private int size;
+
+        private Tuples(int tables, int capacity)
+        {
+            width = tables;
+            rows = new int[Math.max(1, capacity) * tables];
+        }
+
+        private void add(Tuples from, int tuple, int row)
+        {
+            if ((size + 1) * width > rows.length)
+                rows = Arrays.copyOf(rows, Math.max(rows.length * 2, (size + 1) * width));
+            if (from != null)
+                System.arraycopy(from.rows, tuple * from.width, rows, size * width, from.width);
+            rows[size * width + width - 1] = row;
+            size++;
+        }
+
+        private int get(int tuple, int source)
+        {
+            return rows[tuple * width + source];
+        }
+    }
+
+    private SnapshotQuery(SnapshotFile snapshot)
+    {
+        file = snapshot;
+    }
+
+    /**
+     * @brief Parses a query to run against a snapshot
+     * @param snapshot The snapshot to query
+     * @param sql A SELECT of columns from one table, or from tables joined on equal integer
+     *        columns, with an optional WHERE clause of comparisons to parameters or literals
+     *        joined by AND, ORDER BY and LIMIT; the report queries of SQLMethod have this form
+     * @return The parsed query
+     * @throws SQLSyntaxErrorException if a table or column does not exist
+     * @throws SQLFeatureNotSupportedException if the query uses anything else, e.g. functions,
+     *         GROUP BY or OR, which only the database supports
+     */
+    public static SnapshotQuery parse(SnapshotFile snapshot, String sql) throws SQLException
+    {
+        List<String> tokens = new ArrayList<String>();
+        Matcher matcher = TOKEN.matcher(sql);
+        int at = 0;
+        while (matcher.find(at) && matcher.start() == at)
+        {
+            tokens.add(matcher.group(1));
+            at = matcher.end();
+        }
+        if (!sql.substring(at).trim().isEmpty())
+            throw unsupported(sql);
+
+        Parser parser = new Parser(snapshot, sql, tokens);
+        SnapshotQuery query = parser.parseSelect();
+        if (parser.next < tokens.size())
+            throw unsupported(sql);
+        query.paramCount = parser.params;
+        return query;
+    }
+
+    /**
+     * @brief Returns the number of parameters (?) in the query
+     * @return The parameter count
+     */
+    public int getParamCount()
+    {
+        return paramCount;
+    }
+
+    /**
+     * @brief Runs the query
+     * @param params The values of the query's parameters, in order
+     * @return The rows of the result; when the query reads a single table without DISTINCT
+     *         or ORDER BY they are read as the result is, otherwise they are found up front
+     * @throws SQLException if a parameter value cannot be compared to its column
+     */
+    public Result execute(Object[] params) throws SQLException
+    {
+        IntPredicate[] filters = new IntPredicate[sources.size()];
+        for (Condition condition : conditions)
+        {
+            IntPredicate test = condition.compile(params);
+            int source = condition.ref.source;
+            filters[source] = filters[source] == null ? test : filters[source].and(test);
+        }
+
+        if (sources.size() == 1 && orders.isEmpty() && !distinct)
+            return scan(sources.get(0).table, filters[0]);
+
+        Tuples tuples = new Tuples(1, 1024);
+        SnapshotFile.Table first = sources.get(0).table;
+        for (int row = 0; row < first.size(); row++)
+        {
+            if (filters[0] == null || filters[0].test(row))
+                tuples.add(null, 0, row);
+        }
+        for (int s = 1; s < sources.size(); s++)
+            tuples = join(tuples, sources.get(s), filters[s]);
+        if (distinct)
+            tuples = removeDuplicates(tuples);
+        int[] order = sort(tuples);
+        int count = limit >= 0 ? Math.min(limit, order.length) : order.length;
+
+        Tuples result = tuples;
+        return new Result(getMetaData())
+        {
+            private int position = -1;
+
+            @Override
+            public Object getObject(int column)
+            {
+                Ref item = items.get(column - 1);
+                return item.column.getObject(result.get(order[position], item.source));
+            }
+
+            @Override
+            protected boolean advance()
+            {
+                return ++position < count;
+            }
+        };
+    }
+
+    /**
+     * @brief Reads the rows of a single table that pass a filter, as the result is read
+     */
+    private Result scan(SnapshotFile.Table table, IntPredicate filter) throws SQLException
+    {
+        return new Result(getMetaData())
+        {
+            private int row = -1;
+            private int returned;
+
+            @Override
+            public Object getObject(int column)
+            {
+                return items.get(column - 1).column.getObject(row);
+            }
+
+            @Override
+            protected boolean advance()
+            {
+                if (limit >= 0 && returned >= limit)
+                    return false;
+                do
+                    row++;
+                while (row < table.size() && filter != null && !filter.test(row));
+                if (row >= table.size())
+                    return false;
+                returned++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @brief Joins the next table to the tuples found so far, on equal integer columns
+     * @param tuples The tuples of the tables before source
+     * @param source The table to join
+     * @param filter The conditions on source's own columns, or null
+     * @return The joined tuples; for an outer join, tuples without a match are kept with
+     *         row -1 for source, unless the WHERE clause tests source's columns
+     */
+    private Tuples join(Tuples tuples, Source source, IntPredicate filter)
+    {
+        // the tuples are few next to the rows of the joined table, so they are indexed by key
+        // and the table scanned once
+        long[] keys = new long[tuples.size];
+        int keyCount = 0;
+        for (int t = 0; t < tuples.size; t++)
+        {
+            int row = tuples.get(t, source.joinedTo.source);
+            if (row >= 0 && !source.joinedTo.column.isNull(row))
+                keys[keyCount++] = source.joinedTo.column.getLong(row);
+        }
+        Arrays.sort(keys, 0, keyCount);
+        int distinctKeys = 0;
+        for (int k = 0; k < keyCount; k++)
+        {
+            if (k == 0 || keys[k] != keys[k - 1])
+                keys[distinctKeys++] = keys[k];
+        }
+        keys = Arrays.copyOf(keys, distinctKeys);
+
+        // the tuples of each key, grouped by key in the order of keys
+        int[] starts = new int[distinctKeys + 1];
+        int[] slots = new int[tuples.size];
+        for (int t = 0; t < tuples.size; t++)
+        {
+            int row = tuples.get(t, source.joinedTo.source);
+            slots[t] = row < 0 || source.joinedTo.column.isNull(row) ? -1 :
+                    Arrays.binarySearch(keys, source.joinedTo.column.getLong(row));
+            if (slots[t] >= 0)
+                starts[slots[t] + 1]++;
+        }
+        for (int k = 0; k < distinctKeys; k++)
+            starts[k + 1] += starts[k];
+        int[] grouped = new int[starts[distinctKeys]];
+        int[] filled = Arrays.copyOf(starts, distinctKeys);
+        for (int t = 0; t < tuples.size; t++)
+        {
+            if (slots[t] >= 0)
+                grouped[filled[slots[t]]++] = t;
+        }
+
+        Tuples joined = new Tuples(tuples.width + 1, tuples.size);
+        boolean[] matched = new boolean[tuples.size];
+        SnapshotFile.Column column = source.joinColumn.column;
+        if (distinctKeys > 0)
+        {
+            for (int row = 0; row < source.table.size(); row++)
+            {
+                if (column.isNull(row) || (filter != null && !filter.test(row)))
+                    continue;
+                int slot = Arrays.binarySearch(keys, column.getLong(row));
+                if (slot < 0)
+                    continue;
+                for (int g = starts[slot]; g < starts[slot + 1]; g++)
+                {
+                    joined.add(tuples, grouped[g], row);
+                    matched[grouped[g]] = true;
+                }
+            }
+        }
+        if (source.outer && filter == null)
+        {
+            for (int t = 0; t < tuples.size; t++)
+            {
+                if (!matched[t])
+                    joined.add(tuples, t, -1);
+            }
+        }
+        return joined;
+    }
+
+    /**
+     * @brief Keeps the first tuple of each distinct combination of selected values
+     */
+    private Tuples removeDuplicates(Tuples tuples)
+    {
+        Set<List<Object>> seen = new HashSet<List<Object>>();
+        Tuples unique = new Tuples(tuples.width, tuples.size);
+        for (int t = 0; t < tuples.size; t++)
+        {
+            List<Object> values = new ArrayList<Object>(items.size());
+            for (Ref item : items)
+                values.add(item.column.getObject(tuples.get(t, item.source)));
+            if (seen.add(values))
+            {
+                System.arraycopy(tuples.rows, t * tuples.width, unique.rows, unique.size * tuples.width, tuples.width);
+                unique.size++;
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * @brief Orders the tuples by the ORDER BY clause
+     * @return The tuple numbers in order; nulls sort first, as in MySQL
+     */
+    private int[] sort(Tuples tuples)
+    {
+        int[] order = new int[tuples.size];
+        if (orders.isEmpty())
+        {
+            for (int t = 0; t < order.length; t++)
+                order[t] = t;
+            return order;
+        }
+
+        Ref key = orders.get(0);
+        if (orders.size() == 1 && key.column.getType().isIntegral() && key.column.getType() != SnapshotFile.Type.INT64
+                && key.column.getType() != SnapshotFile.Type.TIMESTAMP)
+        {
+            // 32-bit keys: sort each key together with its tuple number as one long
+            boolean reverse = descending.get(0);
+            long[] packed = new long[tuples.size];
+            for (int t = 0; t < packed.length; t++)
+            {
+                int row = tuples.get(t, key.source);
+                int value = row < 0 || key.column.isNull(row) ? Integer.MIN_VALUE : (int) key.column.getLong(row);
+                packed[t] = ((long) (reverse ? ~value : value) << 32) | t;
+            }
+            Arrays.parallelSort(packed);
+            for (int t = 0; t < order.length; t++)
+                order[t] = (int) packed[t];
+            return order;
+        }
+
+        Integer[] boxed = new Integer[tuples.size];
+        for (int t = 0; t < boxed.length; t++)
+            boxed[t] = t;
+        Arrays.sort(boxed, (a, b) ->
+        {
+            for (int i = 0; i < orders.size(); i++)
+            {
+                Ref ref = orders.get(i);
+                int cmp = compare(ref.column, tuples.get(a, ref.source), tuples.get(b, ref.source));
+                if (cmp != 0)
+                    return descending.get(i) ? -cmp : cmp;
+            }
+            return 0;
+        });
+        for (int t = 0; t < order.length; t++)
+            order[t] = boxed[t];
+        return order;
+    }
+
+    /**
+     * @brief Compares the values of two rows of a column
+     * @return A negative number, zero or a positive number as the first value is less
+     *         than, equal to or greater than the second; null is less than any value
+     */
+    private static int compare(SnapshotFile.Column column, int a, int b)
+    {
+        boolean aNull = a < 0 || column.isNull(a);
+        boolean bNull = b < 0 || column.isNull(b);
+        if (aNull || bNull)
+            return Boolean.compare(!aNull, !bNull);
+        switch (column.getType())
+        {
+            case STRING:
+                return column.getDictionaryValue(column.getCode(a))
+                        .compareToIgnoreCase(column.getDictionaryValue(column.getCode(b)));
+            case FLOAT64:
+                return Double.compare(column.getDouble(a), column.getDouble(b));
+            default:
+                return Long.compare(column.getLong(a), column.getLong(b));
+        }
+    }
+
+    /**
+     * @brief Runs the query, as the subquery of an IN condition
+     * @param params The values of the parameters of the enclosing query
+     * @return The distinct values of the query's single integer column, sorted
+     * @throws SQLException
+     */
+    private long[] collectKeys(Object[] params) throws SQLException
+    {
+        Result result = execute(params);
+        long[] keys = new long[64];
+        int count = 0;
+        while (result.next())
+        {
+            Object value = result.getObject(1);
+            if (value == null)
+                continue;
+            if (count == keys.length)
+                keys = Arrays.copyOf(keys, count * 2);
+            keys[count++] = toLong(items.get(0).column.getType(), value);
+        }
+        return Arrays.stream(keys, 0, count).sorted().distinct().toArray();
+    }
+
+    /**
+     * @brief Describes the selected columns
+     * @return The metadata of the query's results
+     * @throws SQLException
+     */
+    private ResultSetMetaData getMetaData() throws SQLException
+    {
+        RowSetMetaDataImpl meta = new RowSetMetaDataImpl();
+        meta.setColumnCount(items.size());
+        for (int col = 1; col <= items.size(); col++)
+        {
+            Ref item = items.get(col - 1);
+            SnapshotFile.Type type = item.column.getType();
+            meta.setColumnName(col, item.column.getName());
+            meta.setColumnLabel(col, item.column.getName());
+            meta.setColumnType(col, type.getSqlType());
+            meta.setColumnTypeName(col, item.column.getTypeName());
+            meta.setTableName(col, sources.get(item.source).table.getName());
+            meta.setCatalogName(col, file.getSchema());
+            meta.setNullable(col, item.column.isNullable() || sources.get(item.source).outer ?
+                    ResultSetMetaData.columnNullable : ResultSetMetaData.columnNoNulls);
+            meta.setSigned(col, type != SnapshotFile.Type.STRING);
+        }
+        return meta;
+    }
+
+    /**
+     * @brief Converts a parameter or literal to the stored form of an integral column
+     * @param type The column's storage type
+     * @param value A Number, date, time or String
+     * @return The value as the column stores it
+     * @throws SQLException if the value cannot be converted
+     */
+    static long toLong(SnapshotFile.Type type, Object value) throws SQLException
+    {
+        try
+        {
+            if (type == SnapshotFile.Type.DATE || type == SnapshotFile.Type.TIMESTAMP)
+            {
+                LocalDateTime time;
+                if (value instanceof Timestamp)
+                    time = ((Timestamp) value).toLocalDateTime();
+                else if (value instanceof java.sql.Date)
+                    time = ((java.sql.Date) value).toLocalDate().atStartOfDay();
+                else if (value instanceof LocalDate)
+                    time = ((LocalDate) value).atStartOfDay();
+                else if (value instanceof LocalDateTime)
+                    time = (LocalDateTime) value;
+                else if (value instanceof java.util.Date)
+                    time = new Timestamp(((java.util.Date) value).getTime()).toLocalDateTime();
+                else if (value.toString().trim().length() > 10)
+                    time = Timestamp.valueOf(value.toString().trim()).toLocalDateTime();
+                else
+                    time = LocalDate.parse(value.toString().trim()).atStartOfDay();
+                return type == SnapshotFile.Type.DATE ? time.toLocalDate().toEpochDay() :
+                        time.toInstant(ZoneOffset.UTC).toEpochMilli();
+            }
+            if (value instanceof Number)
+                return ((Number) value).longValue();
+            if (value instanceof Boolean)
+                return (Boolean) value ? 1 : 0;
+            return Long.parseLong(value.toString().trim());
+        }
+        catch (RuntimeException e)
+        {
+            throw new SQLDataException("Cannot compare " + value + " to a " + type + " column", e);
+        }
+    }
+
+    /**
+     * @brief Converts a parameter or literal to a double, for a FLOAT64 column
+     */
+    private static double toDouble(Object value) throws SQLException
+    {
+        try
+        {
+            return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString().trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new SQLDataException("Cannot compare " + value + " to a number", e);
+        }
+    }
+
+    /**
+     * @brief Returns the test of a comparison's outcome for an operator
+     * @param operator One of = <> != < <= > >=
+     * @return A predicate of the result of a compare method
+     */
+    private static IntPredicate getOutcome(String operator)
+    {
+        switch (operator)
+        {
+            case "=":  return cmp -> cmp == 0;
+            case "<":  return cmp -> cmp < 0;
+            case "<=": return cmp -> cmp <= 0;
+            case ">":  return cmp -> cmp > 0;
+            case ">=": return cmp -> cmp >= 0;
+            default:   return cmp -> cmp != 0;
+        }
+    }
+
+    /**
+     * @brief Creates the exception for SQL that a snapshot cannot run
+     */
+    private static SQLFeatureNotSupportedException unsupported(String sql)
+    {
+        return new SQLFeatureNotSupportedException("Not supported by a snapshot: " + sql.replaceAll("\\s+", " ").trim());
+    }
+
+    /**
+     * @brief Reads a query from its tokens, resolving tables and columns against the snapshot
+     */
+    private static class Parser
+    {
+        private final SnapshotFile file;
+        private final String sql;
+        private final List<String> tokens;
+        private int next;
+        private int params;
+
+        private Parser(SnapshotFile snapshot, String query, List<String> queryTokens)
+        {
+            file = snapshot;
+            sql = query;
+            tokens = queryTokens;
+        }
+
+        /**
+         * @brief Reads a SELECT, which may be a subquery
+         */
+        private SnapshotQuery parseSelect() throws SQLException
+        {
+            SnapshotQuery query = new SnapshotQuery(file);
+            expect("SELECT");
+            query.distinct = accept("DISTINCT");
+            List<String> names = new ArrayList<String>();
+            do
+                names.add(take());
+            while (accept(","));
+
+            expect("FROM");
+            query.sources.add(new Source(getTable(take()), readAlias(), false));
+            while (true)
+            {
+                boolean outer = accept("LEFT");
+                if (outer)
+                    accept("OUTER");
+                else
+                    accept("INNER");
+                if (!accept("JOIN"))
+                {
+                    if (outer)
+                        throw unsupported(sql);
+                    break;
+                }
+                Source source = new Source(getTable(take()), readAlias(), outer);
+                query.sources.add(source);
+                expect("ON");
+                Ref a = resolve(query, take());
+                expect("=");
+                Ref b = resolve(query, take());
+                int last = query.sources.size() - 1;
+                if (a.source == last && b.source < last)
+                {
+                    source.joinColumn = a;
+                    source.joinedTo = b;
+                }
+                else if (b.source == last && a.source < last)
+                {
+                    source.joinColumn = b;
+                    source.joinedTo = a;
+                }
+                else
+                    throw unsupported(sql);
+                if (!a.column.getType().isIntegral() || !b.column.getType().isIntegral())
+                    throw unsupported(sql);
+            }
+
+            for (String name : names)
+            {
+                if (name.equals("*") || name.endsWith(".*"))
+                {
+                    for (int s = 0; s < query.sources.size(); s++)
+                    {
+                        Source source = query.sources.get(s);
+                        if (name.equals("*") || name.equalsIgnoreCase(source.alias + ".*"))
+                        {
+                            for (SnapshotFile.Column column : source.table.getColumns())
+                                query.items.add(new Ref(s, column));
+                        }
+                    }
+                }
+                else
+                    query.items.add(resolve(query, name));
+            }
+
+            if (accept("WHERE"))
+                parseConditions(query);
+            if (accept("ORDER"))
+            {
+                expect("BY");
+                do
+                {
+                    String name = take();
+                    if (name.matches("\\d+"))
+                    {
+                        int position = Integer.parseInt(name);
+                        if (position < 1 || position > query.items.size())
+                            throw unsupported(sql);
+                        query.orders.add(query.items.get(position - 1));
+                    }
+                    else
+                        query.orders.add(resolve(query, name));
+                    query.descending.add(accept("DESC"));
+                    if (!query.descending.get(query.descending.size() - 1))
+                        accept("ASC");
+                }
+                while (accept(","));
+            }
+            if (accept("LIMIT"))
+            {
+                String count = take();
+                if (!count.matches("\\d+"))
+                    throw unsupported(sql);
+                query.limit = Integer.parseInt(count);
+            }
+            return query;
+        }
+
+        /**
+         * @brief Reads conditions joined by AND, some of which may be in parentheses
+         */
+        private void parseConditions(SnapshotQuery query) throws SQLException
+        {
+            do
+            {
+                if (accept("("))
+                {
+                    parseConditions(query);
+                    expect(")");
+                    continue;
+                }
+
+                Condition condition = new Condition();
+                condition.ref = resolve(query, take());
+                if (accept("IN"))
+                {
+                    expect("(");
+                    condition.subquery = parseSelect();
+                    expect(")");
+                    if (condition.subquery.items.size() != 1 || !condition.ref.column.getType().isIntegral()
+                            || !condition.subquery.items.get(0).column.getType().isIntegral())
+                        throw unsupported(sql);
+                }
+                else
+                {
+                    condition.operator = take();
+                    if (!condition.operator.matches("=|<>|!=|<|<=|>|>="))
+                        throw unsupported(sql);
+                    String operand = take();
+                    if (operand.equals("?"))
+                        condition.param = params++;
+                    else if (operand.startsWith("'"))
+                        condition.literal = operand.substring(1, operand.length() - 1).replace("''", "'");
+                    else if (operand.matches("\\d+"))
+                        condition.literal = Long.parseLong(operand);
+                    else if (operand.matches("\\d+\\.\\d+"))
+                        condition.literal = Double.parseDouble(operand);
+                    else
+                        throw unsupported(sql);     // e.g. a comparison of two columns
+                }
+                query.conditions.add(condition);
+            }
+            while (accept("AND"));
+        }
+
+        /**
+         * @brief Finds a column of one of the query's tables by its name, which may be qualified
+         */
+        private Ref resolve(SnapshotQuery query, String name) throws SQLException
+        {
+            if (KEYWORDS.contains(name.toUpperCase()) || !Character.isLetter(name.charAt(0)) || peek("("))
+                throw unsupported(sql);
+            int dot = name.indexOf('.');
+            String qualifier = dot < 0 ? null : name.substring(0, dot);
+            String columnName = name.substring(dot + 1);
+            for (int s = 0; s < query.sources.size(); s++)
+            {
+                Source source = query.sources.get(s);
+                if (qualifier != null && !qualifier.equalsIgnoreCase(source.alias))
+                    continue;
+                SnapshotFile.Column column = source.table.getColumn(columnName);
+                if (column != null)
+                    return new Ref(s, column);
+            }
+            throw new SQLSyntaxErrorException("Unknown column '" + name + "'");
+        }
+
+        /**
+         * @brief Finds a table of the snapshot by name
+         */
+        private SnapshotFile.Table getTable(String name) throws SQLException
+        {
+            if (KEYWORDS.contains(name.toUpperCase()) || name.equals("("))
+                throw unsupported(sql);
+            SnapshotFile.Table table = file.getTable(name);
+            if (table == null)
+                throw new SQLSyntaxErrorException("Table '" + file.getSchema() + "." + name + "' doesn't exist");
+            return table;
+        }
+
+        /**
+         * @brief Reads the alias that may follow a table name
+         * @return The alias, or the table name itself if there is none
+         */
+        private String readAlias() throws SQLException
+        {
+            String table = tokens.get(next - 1);
+            if (accept("AS"))
+                return take();
+            if (next < tokens.size() && Character.isLetter(tokens.get(next).charAt(0))
+                    && !KEYWORDS.contains(tokens.get(next).toUpperCase()))
+                return take();
+            return table;
+        }
+
+        private boolean peek(String token)
+        {
+            return next < tokens.size() && tokens.get(next).equalsIgnoreCase(token);
+        }
+
+        private boolean accept(String token)
+        {
+            if (!peek(token))
+                return false;
+            next++;
+            return true;
+        }
+
+        private void expect(String token) throws SQLException
+        {
+            if (!accept(token))
+                throw unsupported(sql);
+        }
+
+        private String take() throws SQLException
+        {
+            if (next >= tokens.size())
+                throw unsupported(sql);
+            return tokens.get(next++);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class StatementCache
+{
+    private static final int DEFAULT_CAPACITY = 32;
+    private static final Map<Connection, StatementCache> caches = new ConcurrentHashMap<Connection, StatementCache>();
+    private static final AtomicLong totalHits = new AtomicLong();
+    private static final AtomicLong totalMisses = new AtomicLong();
+    private static final AtomicLong totalEvictions = new AtomicLong();
+    private static volatile int capacity = DEFAULT_CAPACITY;
+
+    private final Connection conn;
+    private final Map<String, CachedStatement> statements;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @brief A prepared statement together with its parameter count, so that the
+     *        parameter metadata only has to be read once per statement
+     */
+    public static class CachedStatement
+    {
+        private final PreparedStatement stmt;
+        private final int paramCount;
+
+        private CachedStatement(PreparedStatement statement, int parameterCount)
+        {
+            stmt = statement;
+            paramCount = parameterCount;
+        }
+
+        /**
+         * @brief Returns the cached prepared statement
+         * @return The prepared statement
+         */
+        public PreparedStatement getStatement()
+        {
+            return stmt;
+        }
+
+        /**
+         * @brief Returns the number of parameters (?) in the statement
+         * @return The parameter count
+         */
+        public int getParamCount()
+        {
+            return paramCount;
+        }
+    }
+
+    /**
+     * @brief Creates an empty statement cache for the given connection
+     * @param connection The connection that statements will be prepared on
+     */
+    private StatementCache(Connection connection)
+    {
+        conn = connection;
+        statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest)
+            {
+                if (size() <= capacity)
+                    return false;
+
+                closeQuietly(eldest.getValue());
+                evictions++;
+                totalEvictions.incrementAndGet();
+                return true;
+            }
+        };
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /**
+     * @brief Returns the statement cache belonging to the given connection
+     * @param conn A database connection
+     * @return The connection's statement cache, created on first use
+     */
+    public static StatementCache forConnection(Connection conn)
+    {
+        return caches.computeIfAbsent(conn, StatementCache::new);
+    }
+
+    /**
+     * @brief Closes and forgets every cached statement of the given connection
+     * @param conn A database connection that is about to be closed
+     * @post All statements cached for conn will be closed
+     */
+    public static void release(Connection conn)
+    {
+        StatementCache cache = caches.remove(conn);
+        if (cache != null)
+            cache.clear();
+    }
+
+    /**
+     * @brief Sets the number of statements kept per connection
+     * @param size The maximum number of cached statements per connection
+     * @post Caches will evict their least recently used statements once they
+     *       grow beyond size
+     */
+    public static void setCapacity(int size)
+    {
+        capacity = Math.max(1, size);
+    }
+
+    /**
+     * @brief Returns a prepared statement for the given query, preparing it on a cache miss
+     * @param sql The query text
+     * @param resultSetType A ResultSet type constant, e.g. ResultSet.TYPE_FORWARD_ONLY
+     * @return The cached statement for sql with the given result set type
+     * @post On a miss, the statement will be prepared, its parameter count read, and
+     *       the least recently used statement evicted if the cache is full
+     * @throws SQLException
+     */
+    public synchronized CachedStatement prepare(String sql, int resultSetType) throws SQLException
+    {
+        String key = resultSetType + ":" + sql;
+        CachedStatement cached = statements.get(key);
+        if (cached != null && !cached.stmt.isClosed())
+        {
+            hits++;
+            totalHits.incrementAndGet();
+            cached.stmt.clearParameters();
+            return cached;
+        }
+
+        misses++;
+        totalMisses.incrementAndGet();
+        PreparedStatement stmt = conn.prepareStatement(sql, resultSetType, ResultSet.CONCUR_READ_ONLY);
+        try
+        {
+            cached = new CachedStatement(stmt, stmt.getParameterMetaData().getParameterCount());
+        }
+        catch (SQLException e)
+        {
+            stmt.close();
+            throw e;
+        }
+        statements.put(key, cached);
+        return cached;
+    }
+
+    /**
+     * @brief Closes every statement in this cache
+     * @post The cache will be empty
+     */
+    public synchronized void clear()
+    {
+        for (CachedStatement cached : statements.values())
+            closeQuietly(cached);
+        statements.clear();
+    }
+
+    /**
+     * @brief Closes a cached statement, ignoring errors from an already broken connection
+     * @param cached The statement to close
+     */
+    private static void closeQuietly(CachedStatement cached)
+    {
+        try
+        {
+            cached.stmt.close();
+        }
+        catch (SQLException e)
+        {
+            // statement is unusable either way
+        }
+    }
+
+    /**
+     * @brief Returns the number of statements currently cached
+     * @return The cache size
+     */
+    public synchronized int size()
+    {
+        return statements.size();
+    }
+
+    /**
+     * @brief Returns the number of lookups answered from this cache
+     * @return The hit count
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * @brief Returns the number of lookups that had to prepare a new statement
+     * @return The miss count
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * @brief Returns the number of statements evicted from this cache
+     * @return The eviction count
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * @brief Returns the number of cache hits across all connections
+     * @return The total hit count
+     */
+    public static long getTotalHits()
+    {
+        return totalHits.get();
+    }
+
+    /**
+     * @brief Returns the number of cache misses across all connections
+     * @return The total miss count
+     */
+    public static long getTotalMisses()
+    {
+        return totalMisses.get();
+    }
+
+    /**
+     * @brief Returns the number of evictions across all connections
+     * @return The total eviction count
+     */
+    public static long getTotalEvictions()
+    {
+        return totalEvictions.get();
+    }
+}
@@ -0,0 +1,662 @@
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class StatisticsEngine
+{
+    private static final int CHUNK_SIZE = 1 << 16;          // rows reduced by each leaf task, at least
+    private static final int MAX_GROUPS = 1 << 20;          // widest range of keys a column can be grouped by
+    private static final String LOAD_TREATMENTS =
+            "SELECT Facility_ID, Water_Source_ID, Treatment_Number, Date_Treated, Quantity_Treated " +
+            "FROM Treatments_Performed";
+
+    private static Dataset treatments;   // null until first used, or after invalidate()
+
+    /**
+     * @brief The columns records can be grouped by
+     */
+    public enum GroupBy
+    {
+        BUSINESS("Business"),
+        SOURCE("Water Source"),
+        FACILITY("Facility"),
+        TYPE("Type"),
+        MONTH("Month");
+
+        private final String label;
+
+        GroupBy(String name)
+        {
+            label = name;
+        }
+
+        /**
+         * @brief Returns the name of the column, as shown to the user
+         * @return The name, e.g. "Water Source"
+         */
+        public String getLabel()
+        {
+            return label;
+        }
+    }
+
+    /**
+     * @brief Count, sum, mean, variance, minimum, maximum and exact percentiles of a set of
+     *        values, which can be added one at a time or merged with those of another set;
+     *        not safe for use by several threads at once
+     */
+    public static class Statistics
+    {
+        private static final double[] EMPTY = new double[0];
+        private static final int SORT_SIZE = 16;    // ranges this short are sorted rather than partitioned
+        private static final int SEGMENT_SIZE = 1 << 12;   // arrays this long are shared by merge, not copied
+        // percentiles join the values into one array, so a set can have no more than the
+        // largest array a JVM allows; the other statistics are not limited
+        public static final int MAX_PERCENTILE_VALUES = Integer.MAX_VALUE - 8;
+
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        // mean and sum of squared differences from it of the first `moments` values; the
+        // rest of buffer is folded in when they are read, as that needs no division per value
+        private long moments;
+        private double mean;
+        private double squares;
+        // the values themselves, for exact percentiles: arrays taken over from merged
+        // Statistics, which are only read, the array being filled by add(), and once a
+        // percentile has been read, every value joined in one array of this set's own
+        private final List<double[]> segments = new ArrayList<double[]>();
+        private double[] buffer = EMPTY;
+        private int buffered;
+        private int folded;              // values of buffer included in moments
+        private double[] joined;
+        private boolean sorted;          // joined is in ascending order
+
+        /**
+         * @brief Adds one value
+         * @param value The value
+         */
+        public void add(double value)
+        {
+            count++;
+            sum += value;
+            if (value < min)
+                min = value;
+            if (value > max)
+                max = value;
+
+            if (joined != null)
+                split();
+            if (buffered == buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(16, buffered * 2));
+            buffer[buffered++] = value;
+        }
+
+        /**
+         * @brief Adds every value of another set
+         * @param other The statistics of the other set; its values are unchanged, and it may still be used
+         * @post This will describe the values of both sets, as if each had been added to it;
+         *       the values of other are shared with it rather than copied
+         */
+        public void merge(Statistics other)
+        {
+            if (other.count == 0)
+                return;
+            other.fold();
+            fold();
+            combine(other.moments, other.mean, other.squares);
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+
+            if (joined != null)
+                split();
+            if (other.joined != null)
+                share(other.joined, other.joined.length);
+            for (double[] segment : other.segments)
+                share(segment, segment.length);
+            share(other.buffer, other.buffered);
+            folded = buffered;      // the moments already include other's values
+        }
+
+        /**
+         * @brief Takes over the values of another set's array
+         * @param values The array, which is not changed
+         * @param length The number of values it holds
+         * @post A large array will be added to the segments as it is; a short one is copied
+         *       into buffer, so that merging many small sets does not leave many tiny segments
+         */
+        private void share(double[] values, int length)
+        {
+            if (length >= SEGMENT_SIZE && length == values.length)
+                segments.add(values);
+            else if (length >= SEGMENT_SIZE)
+                segments.add(Arrays.copyOf(values, length));
+            else if (length > 0)
+            {
+                if (buffered + length > buffer.length)
+                    buffer = Arrays.copyOf(buffer, Math.max(buffered + length, Math.max(16, buffered * 2)));
+                System.arraycopy(values, 0, buffer, buffered, length);
+                buffered += length;
+            }
+        }
+
+        /**
+         * @brief Includes the values added since the last call in the mean and squares
+         * @post The new values will have been folded in by taking their own mean and sum of
+         *       squares in two passes, and combining those with the rest as Chan et al. do
+         */
+        private void fold()
+        {
+            int n = buffered - folded;
+            if (n == 0)
+                return;
+            double total = 0;
+            for (int i = folded; i < buffered; i++)
+                total += buffer[i];
+            double newMean = total / n;
+            double newSquares = 0;
+            for (int i = folded; i < buffered; i++)
+                newSquares += (buffer[i] - newMean) * (buffer[i] - newMean);
+            combine(n, newMean, newSquares);
+            folded = buffered;
+        }
+
+        /**
+         * @brief Combines the mean and squares with those of other values
+         * @param n The number of other values
+         * @param otherMean Their mean
+         * @param otherSquares Their sum of squared differences from otherMean
+         */
+        private void combine(long n, double otherMean, double otherSquares)
+        {
+            if (n == 0)
+                return;
+            long total = moments + n;
+            double delta = otherMean - mean;
+            mean += delta * n / total;
+            squares += otherSquares + delta * delta * ((double) moments * n / total);
+            moments = total;
+        }
+
+        /**
+         * @brief Makes the joined array one segment among others again, before values are added
+         */
+        private void split()
+        {
+            segments.add(joined);
+            joined = null;
+            sorted = false;
+        }
+
+        /**
+         * @brief Returns every value in one array
+         * @return An array of this set's own, which percentiles are selected from in place
+         * @post The mean and squares will include every value, and the segments will have
+         *       been copied into the joined array, which later calls return until a value is added
+         * @throws IllegalStateException if there are more than MAX_PERCENTILE_VALUES values
+         */
+        private double[] join()
+        {
+            fold();
+            if (joined == null)
+            {
+                if (count > MAX_PERCENTILE_VALUES)
+                    throw new IllegalStateException("Percentiles need at most " + MAX_PERCENTILE_VALUES +
+                                                    " values, not " + count);
+                joined = new double[(int) count];
+                int at = 0;
+                for (double[] segment : segments)
+                {
+                    System.arraycopy(segment, 0, joined, at, segment.length);
+                    at += segment.length;
+                }
+                System.arraycopy(buffer, 0, joined, at, buffered);
+                segments.clear();
+                buffer = EMPTY;
+                buffered = 0;
+                folded = 0;
+                sorted = joined.length <= 1;
+            }
+            return joined;
+        }
+
+        /**
+         * @brief Returns the number of values
+         * @return The count
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * @brief Returns the sum of the values
+         * @return The sum, or 0 if there are no values
+         */
+        public double getSum()
+        {
+            return sum;
+        }
+
+        /**
+         * @brief Returns the mean of the values
+         * @return The mean, or NaN if there are no values
+         */
+        public double getMean()
+        {
+            fold();
+            return count == 0 ? Double.NaN : mean;
+        }
+
+        /**
+         * @brief Returns the variance of the values
+         * @return The population variance, as VAR_POP computes it, or NaN if there are no values
+         */
+        public double getVariance()
+        {
+            fold();
+            return count == 0 ? Double.NaN : squares / count;
+        }
+
+        /**
+         * @brief Returns the standard deviation of the values
+         * @return The population standard deviation, as STDDEV_POP computes it, or NaN if there are no values
+         */
+        public double getStandardDeviation()
+        {
+            return Math.sqrt(getVariance());
+        }
+
+        /**
+         * @brief Returns the smallest value
+         * @return The minimum, or NaN if there are no values
+         */
+        public double getMin()
+        {
+            return count == 0 ? Double.NaN : min;
+        }
+
+        /**
+         * @brief Returns the largest value
+         * @return The maximum, or NaN if there are no values
+         */
+        public double getMax()
+        {
+            return count == 0 ? Double.NaN : max;
+        }
+
+        /**
+         * @brief Returns the value below which the given fraction of the values fall
+         * @param fraction A fraction between 0 and 1, e.g. 0.5 for the median
+         * @return The smallest value that at least fraction of the values are less than or
+         *         equal to (the nearest-rank percentile), or NaN if there are no values
+         * @post The values will have been partially ordered around the percentile by
+         *       quickselect, which takes time in proportion to their number rather than sorting them
+         * @throws IllegalStateException if there are more than MAX_PERCENTILE_VALUES values
+         */
+        public double getPercentile(double fraction)
+        {
+            if (count == 0)
+                return Double.NaN;
+            double[] values = join();
+            int rank = (int) Math.min(count, Math.max(1, (long) Math.ceil(fraction * count)));
+            if (!sorted)
+                select(values, rank - 1);
+            return values[rank - 1];
+        }
+
+        /**
+         * @brief Moves the k-th smallest value to index k, smaller values before it and larger after it
+         * @param values The values, reordered in place
+         * @param k An index of values
+         */
+        private static void select(double[] values, int k)
+        {
+            int low = 0;
+            int high = values.length - 1;
+            while (high - low >= SORT_SIZE)
+            {
+                int middle = (low + high) >>> 1;
+                double a = values[low];
+                double b = values[middle];
+                double c = values[high];
+                double pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));    // median of three
+
+                int i = low;
+                int j = high;
+                while (i <= j)
+                {
+                    while (values[i] < pivot)
+                        i++;
+                    while (values[j] > pivot)
+                        j--;
+                    if (i <= j)
+                    {
+                        double swap = values[i];
+                        values[i++] = values[j];
+                        values[j--] = swap;
+                    }
+                }
+                // values[low..j] <= pivot <= values[i..high], and any between equal pivot
+                if (k <= j)
+                    high = j;
+                else if (k >= i)
+                    low = i;
+                else
+                    return;
+            }
+            Arrays.sort(values, low, high + 1);
+        }
+    }
+
+    /**
+     * @brief Records held in memory as column arrays, one element per record, which can be
+     *        grouped by any of their key columns and described by any of their measures
+     */
+    public static class Dataset
+    {
+        private final int size;
+        private final int[][] keys;           // by GroupBy ordinal; null where records cannot be grouped so
+        private final int[] firstKeys;        // smallest key of each column
+        private final int[] lastKeys;         // largest key of each column
+        private final String typeLabel;
+        private final Map<String, double[]> measures;
+
+        /**
+         * @brief Creates a Dataset over existing column arrays, without copying them
+         * @param rows The number of records; the arrays may be longer
+         * @param keyColumns A key column for each GroupBy that applies to the records; the
+         *        MONTH column holds months since year 0, i.e. year * 12 + month - 1
+         * @param type The name of the TYPE column, e.g. "Business Type"
+         * @param measureColumns The measures, by name, in the order they are offered
+         * @post A key column whose values span more than MAX_GROUPS will not be offered for grouping
+         * @throws IllegalArgumentException if keyColumns lacks MONTH
+         */
+        public Dataset(int rows, Map<GroupBy, int[]> keyColumns, String type, Map<String, double[]> measureColumns)
+        {
+            if (!keyColumns.containsKey(GroupBy.MONTH))
+                throw new IllegalArgumentException("A dataset needs a MONTH column");
+            size = rows;
+            typeLabel = type;
+            measures = new LinkedHashMap<String, double[]>(measureColumns);
+            keys = new int[GroupBy.values().length][];
+            firstKeys = new int[keys.length];
+            lastKeys = new int[keys.length];
+            for (Map.Entry<GroupBy, int[]> column : keyColumns.entrySet())
+            {
+                int[] values = column.getValue();
+                int first = Integer.MAX_VALUE;
+                int last = Integer.MIN_VALUE;
+                for (int row = 0; row < rows; row++)
+                {
+                    first = Math.min(first, values[row]);
+                    last = Math.max(last, values[row]);
+                }
+                int at = column.getKey().ordinal();
+                firstKeys[at] = first;
+                lastKeys[at] = last;
+                if ((long) last - first < MAX_GROUPS || column.getKey() == GroupBy.MONTH)
+                    keys[at] = values;
+            }
+        }
+
+        /**
+         * @brief Returns the number of records
+         * @return The record count
+         */
+        public int size()
+        {
+            return size;
+        }
+
+        /**
+         * @brief Returns the columns the records can be grouped by
+         * @return The columns, in GroupBy order
+         */
+        public List<GroupBy> getGroups()
+        {
+            List<GroupBy> groups = new ArrayList<GroupBy>();
+            for (GroupBy by : GroupBy.values())
+            {
+                if (keys[by.ordinal()] != null)
+                    groups.add(by);
+            }
+            return groups;
+        }
+
+        /**
+         * @brief Returns the name of a column, as shown to the user
+         * @param by A column
+         * @return The dataset's name for the TYPE column, or the column's label
+         */
+        public String getGroupLabel(GroupBy by)
+        {
+            return by == GroupBy.TYPE ? typeLabel : by.getLabel();
+        }
+
+        /**
+         * @brief Returns the names of the measures
+         * @return The measure names, in the order given
+         */
+        public List<String> getMeasures()
+        {
+            return new ArrayList<String>(measures.keySet());
+        }
+
+        /**
+         * @brief Returns the first and last months of the records
+         * @return A 2-element array [first, last], or null if there are no records
+         */
+        public YearMonth[] getMonthRange()
+        {
+            int at = GroupBy.MONTH.ordinal();
+            return size == 0 ? null : new YearMonth[] { toYearMonth(firstKeys[at]), toYearMonth(lastKeys[at]) };
+        }
+
+        /**
+         * @brief Computes the statistics of a measure for each group of records
+         * @param by The column to group by
+         * @param measure The name of the measure
+         * @param firstMonth The first month to include, or null for the earliest
+         * @param lastMonth The last month to include, or null for the latest
+         * @return A map from each key with records in the months, in order, to the statistics
+         *         of its records; MONTH keys are months since year 0 (see toYearMonth)
+         * @post The records will have been split into chunks reduced in parallel on the common
+         *       fork/join pool, whose statistics are merged pairwise, and the values of every
+         *       group joined into one array, also in parallel, ready for its percentiles
+         * @throws IllegalArgumentException if the records cannot be grouped by by, or have no such measure
+         */
+        public SortedMap<Integer, Statistics> describe(GroupBy by, String measure, YearMonth firstMonth,
+                                                       YearMonth lastMonth)
+        {
+            int[] column = keys[by.ordinal()];
+            double[] values = measures.get(measure);
+            if (column == null || values == null)
+                throw new IllegalArgumentException("Cannot describe " + measure + " by " + getGroupLabel(by));
+
+            SortedMap<Integer, Statistics> groups = new TreeMap<Integer, Statistics>();
+            if (size == 0)
+                return groups;
+            int base = firstKeys[by.ordinal()];
+            Reduction reduction = new Reduction(column, keys[GroupBy.MONTH.ordinal()], values, base,
+                                                lastKeys[by.ordinal()] - base + 1,
+                                                firstMonth != null ? toMonth(firstMonth) : Integer.MIN_VALUE,
+                                                lastMonth != null ? toMonth(lastMonth) : Integer.MAX_VALUE,
+                                                0, size);
+            Statistics[] reduced = ForkJoinPool.commonPool().invoke(reduction);
+            for (int group = 0; group < reduced.length; group++)
+            {
+                if (reduced[group] != null)
+                    groups.put(base + group, reduced[group]);
+            }
+            groups.values().parallelStream().forEach(Statistics::join);
+            return groups;
+        }
+    }
+
+    /**
+     * @brief Reduces a range of records to the statistics of each group, splitting it in two
+     *        until the pieces are small enough to reduce directly
+     */
+    private static class Reduction extends RecursiveTask<Statistics[]>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] keys;
+        private final int[] months;
+        private final double[] values;
+        private final int base;          // the smallest key; keys are stored at key - base
+        private final int groups;
+        private final int firstMonth;
+        private final int lastMonth;
+        private final int from;
+        private final int to;
+
+        private Reduction(int[] keyColumn, int[] monthColumn, double[] valueColumn, int firstKey, int span,
+                          int first, int last, int fromRow, int toRow)
+        {
+            keys = keyColumn;
+            months = monthColumn;
+            values = valueColumn;
+            base = firstKey;
+            groups = span;
+            firstMonth = first;
+            lastMonth = last;
+            from = fromRow;
+            to = toRow;
+        }
+
+        /**
+         * @brief Returns the statistics of each group
+         * @return An array indexed by key - base, with null for keys that have no records
+         */
+        @Override
+        protected Statistics[] compute()
+        {
+            // a leaf allocates an element per group, so it reads 64 rows per group at least
+            if (to - from <= Math.max(CHUNK_SIZE, groups * 64L))
+            {
+                Statistics[] reduced = new Statistics[groups];
+                for (int row = from; row < to; row++)
+                {
+                    if (months[row] < firstMonth || months[row] > lastMonth)
+                        continue;
+                    int group = keys[row] - base;
+                    if (reduced[group] == null)
+                        reduced[group] = new Statistics();
+                    reduced[group].add(values[row]);
+                }
+                return reduced;
+            }
+
+            int middle = (from + to) >>> 1;
+            Reduction left = new Reduction(keys, months, values, base, groups, firstMonth, lastMonth, from, middle);
+            left.fork();
+            Statistics[] right = new Reduction(keys, months, values, base, groups, firstMonth, lastMonth,
+                                               middle, to).compute();
+            Statistics[] reduced = left.join();
+            for (int group = 0; group < groups; group++)
+            {
+                if (reduced[group] == null)
+                    reduced[group] = right[group];
+                else if (right[group] != null)
+                    reduced[group].merge(right[group]);
+            }
+            return reduced;
+        }
+    }
+
+    /**
+     * @brief Returns every Treatments_Performed record, loading them on first use or after
+     *        they were invalidated
+     * @param conn A database connection
+     * @return The records, grouped by FACILITY, SOURCE, TYPE (Treatment_Number) or MONTH,
+     *         with Quantity_Treated as their measure
+     * @throws SQLException
+     */
+    public static synchronized Dataset getTreatments(Connection conn) throws SQLException
+    {
+        if (treatments == null)
+            treatments = loadTreatments(conn);
+        return treatments;
+    }
+
+    /**
+     * @brief Discards the loaded Treatments_Performed records
+     * @post The records will be reloaded from the database on their next use
+     */
+    public static synchronized void invalidate()
+    {
+        treatments = null;
+    }
+
+    /**
+     * @brief Reads every Treatments_Performed record into column arrays
+     * @param conn A database connection
+     * @return The new dataset
+     * @throws SQLException
+     */
+    private static Dataset loadTreatments(Connection conn) throws SQLException
+    {
+        int capacity = 1 << 16;
+        int[] facilities = new int[capacity];
+        int[] sources = new int[capacity];
+        int[] treatmentNumbers = new int[capacity];
+        int[] months = new int[capacity];
+        double[] quantities = new double[capacity];
+        int rows = 0;
+
+        try (Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY))
+        {
+            stmt.setFetchSize(SQLMethod.getFetchSize());
+            try (ResultSet result = stmt.executeQuery(LOAD_TREATMENTS))
+            {
+                while (result.next())
+                {
+                    if (rows == capacity)
+                    {
+                        capacity *= 2;
+                        facilities = Arrays.copyOf(facilities, capacity);
+                        sources = Arrays.copyOf(sources, capacity);
+                        treatmentNumbers = Arrays.copyOf(treatmentNumbers, capacity);
+                        months = Arrays.copyOf(months, capacity);
+                        quantities = Arrays.copyOf(quantities, capacity);
+                    }
+                    facilities[rows] = result.getInt(1);
+                    sources[rows] = result.getInt(2);
+                    treatmentNumbers[rows] = result.getInt(3);
+                    months[rows] = toMonth(YearMonth.from(result.getDate(4).toLocalDate()));
+                    quantities[rows] = result.getDouble(5);
+                    rows++;
+                }
+            }
+        }
+
+        Map<GroupBy, int[]> keys = new EnumMap<GroupBy, int[]>(GroupBy.class);
+        keys.put(GroupBy.FACILITY, facilities);
+        keys.put(GroupBy.SOURCE, sources);
+        keys.put(GroupBy.TYPE, treatmentNumbers);
+        keys.put(GroupBy.MONTH, months);
+        return new Dataset(rows, keys, "Treatment", Collections.singletonMap("Quantity Treated", quantities));
+    }
+
+    /**
+     * @brief Converts a month to the number of months since year 0, as MONTH keys hold them
+     */
+    public static int toMonth(YearMonth month)
+    {
+        return month.getYear() * 12 + month.getMonthValue() - 1;
+    }
+
+    /**
+     * @brief Converts a MONTH key back to a YearMonth
+     */
+    public static YearMonth toYearMonth(int month)
+    {
+        return YearMonth.of(Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1);
+    }
+}
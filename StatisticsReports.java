@@ -0,0 +1,201 @@
+import java.io.PrintStream;
+import java.sql.*;
+import java.time.YearMonth;
+import java.util.*;
+
+public class StatisticsReports implements ReportRegistry.Provider
+{
+    // names of the groups of the statistics reports, by key; the last element is the table read
+    private static final Map<StatisticsEngine.GroupBy, String[]> GROUP_LABELS =
+            new EnumMap<StatisticsEngine.GroupBy, String[]>(StatisticsEngine.GroupBy.class);
+    private static final String[] TREATMENT_LABELS =
+            { "SELECT Treatment_Number, Treatment_Description FROM Treatment", "Treatment" };
+
+    static
+    {
+        GROUP_LABELS.put(StatisticsEngine.GroupBy.BUSINESS,
+                         new String[] { "SELECT Business_ID, Business_Name FROM Business", "Business" });
+        GROUP_LABELS.put(StatisticsEngine.GroupBy.SOURCE,
+                         new String[] { "SELECT Water_Source_ID, Location FROM Water_Source", "Water_Source" });
+        GROUP_LABELS.put(StatisticsEngine.GroupBy.FACILITY,
+                         new String[] { "SELECT Facility_ID, Facility_Name FROM Facility", "Facility" });
+    }
+
+    /**
+     * @brief Registers Usage Statistics and Treatment Statistics
+     * @post SQL#19 and SQL#20 will be registered as runnable unattended
+     */
+    @Override
+    public void registerReports()
+    {
+        ReportRegistry.register("SQL#19", true, StatisticsReports::printUsageStatistics);
+        ReportRegistry.register("SQL#20", true, StatisticsReports::printTreatmentStatistics);
+    }
+
+    /**
+     * @brief Prints descriptive statistics of the water usage records
+     * @param context The report's context
+     * @param conn A database connection
+     * @post User will be prompted for a column to group by, an amount, and a month or range
+     *       of months; see printStatistics. The records are read from UsageSnapshot, which
+     *       is loaded on first use
+     */
+    private static void printUsageStatistics(ReportContext context, Connection conn)
+    {
+        try
+        {
+            UsageSnapshot snapshot = UsageSnapshot.get(conn);
+            Map<String, String> types = new HashMap<String, String>();
+            List<String> names = snapshot.getBusinessTypes();
+            for (int code = 0; code < names.size(); code++)
+                types.put(String.valueOf(code), names.get(code));
+            printStatistics(context, conn, snapshot.getDataset(), "WATER USAGE", types);
+        }
+        catch (SQLException e)
+        {
+            context.printError(e);
+        }
+    }
+
+    /**
+     * @brief Prints descriptive statistics of the treatments performed
+     * @param context The report's context
+     * @param conn A database connection
+     * @post User will be prompted for a column to group by and a month or range of months;
+     *       see printStatistics. The records are loaded by StatisticsEngine on first use
+     */
+    private static void printTreatmentStatistics(ReportContext context, Connection conn)
+    {
+        try
+        {
+            printStatistics(context, conn, StatisticsEngine.getTreatments(conn), "TREATMENT",
+                            getCachedLabels(context, conn, TREATMENT_LABELS));
+        }
+        catch (SQLException e)
+        {
+            context.printError(e);
+        }
+    }
+
+    /**
+     * @brief Prints the count, sum, mean, standard deviation, minimum, median, 95th
+     *        percentile and maximum of a measure for each group of records
+     * @param context The report's context
+     * @param conn A database connection
+     * @param data The records
+     * @param title The name of the records, as printed in the report's heading
+     * @param types The names of the TYPE keys, by key
+     * @post User will be prompted for a column to group by, a measure if the records have
+     *       more than one, and a month or range of months; the statistics will be computed
+     *       by StatisticsEngine and printed one group per line, followed by those of every
+     *       group together, which are merged from the groups' statistics
+     * @throws SQLException
+     */
+    private static void printStatistics(ReportContext context, Connection conn, StatisticsEngine.Dataset data,
+                                        String title, Map<String, String> types) throws SQLException
+    {
+        PrintStream out = context.getOutput();
+        YearMonth[] range = data.getMonthRange();
+        if (range == null)
+        {
+            out.println("No records have been reported.");
+            Menu.printBorder(out, '-', 0, 1);
+            return;
+        }
+
+        Map<String, String> groups = new LinkedHashMap<String, String>();
+        for (StatisticsEngine.GroupBy group : data.getGroups())
+            groups.put(String.valueOf(groups.size() + 1), data.getGroupLabel(group));
+        String label = context.getUserSelection(groups, "by");
+        StatisticsEngine.GroupBy by = data.getGroups().get(new ArrayList<String>(groups.values()).indexOf(label));
+
+        String measure = data.getMeasures().get(0);
+        if (data.getMeasures().size() > 1)
+        {
+            Map<String, String> measures = new LinkedHashMap<String, String>();
+            for (String name : data.getMeasures())
+                measures.put(String.valueOf(measures.size() + 1), name);
+            measure = context.getUserSelection(measures, "measure");
+        }
+
+        out.println("Please choose date from " + range[0] + " to " + range[1]);
+        YearMonth startMonth = context.getMonthSelection("Enter the first month (YYYY-MM)", range[0], range[1],
+                                                         false, "month");
+        YearMonth endMonth = context.getMonthSelection("Enter the last month (YYYY-MM), or hit ENTER for " + range[1],
+                                                       startMonth, range[1], true, "to");
+        if (endMonth == null)
+            endMonth = range[1];
+
+        long start = System.nanoTime();
+        SortedMap<Integer, StatisticsEngine.Statistics> statistics = data.describe(by, measure, startMonth, endMonth);
+        StatisticsEngine.Statistics all = new StatisticsEngine.Statistics();
+        for (StatisticsEngine.Statistics group : statistics.values())
+            all.merge(group);
+        all.getPercentile(0.5);    // joins the values of every group, so that is timed too
+        double millis = (System.nanoTime() - start) / 1e6;
+
+        Map<String, String> names = by == StatisticsEngine.GroupBy.TYPE ? types
+                : by == StatisticsEngine.GroupBy.MONTH ? Collections.<String, String>emptyMap()
+                : getCachedLabels(context, conn, GROUP_LABELS.get(by));
+
+        out.println(title + " STATISTICS OF " + measure.toUpperCase() + " BY " + label.toUpperCase() +
+                    ", " + startMonth + " TO " + endMonth);
+        Menu.printBorder(out, '-', 0, 0);
+        List<String[]> table = new ArrayList<String[]>();
+        table.add(new String[] { label, "Count", "Sum", "Mean", "Std. Dev.", "Min", "Median", "95th Pct.", "Max" });
+        for (Map.Entry<Integer, StatisticsEngine.Statistics> group : statistics.entrySet())
+        {
+            String key = by == StatisticsEngine.GroupBy.MONTH
+                    ? StatisticsEngine.toYearMonth(group.getKey()).toString()
+                    : names.getOrDefault(String.valueOf(group.getKey()), String.valueOf(group.getKey()));
+            table.add(getStatisticsRow(key, group.getValue()));
+        }
+        table.add(getStatisticsRow("All", all));
+        context.printGrid(table, 30, 12, 18, 14, 14, 14, 14, 14, 14);
+        out.printf("%,d records in %,d groups described in %.1f ms%n", all.getCount(), statistics.size(), millis);
+        Menu.printBorder(out, '-', 0, 1);
+    }
+
+    /**
+     * @brief Formats the statistics of one group as a row of the statistics reports
+     * @param group The group's name
+     * @param statistics The group's statistics
+     * @return The row's values
+     */
+    private static String[] getStatisticsRow(String group, StatisticsEngine.Statistics statistics)
+    {
+        return new String[] { group, String.format("%,d", statistics.getCount()),
+                              String.format("%,.2f", statistics.getSum()),
+                              String.format("%,.2f", statistics.getMean()),
+                              String.format("%,.2f", statistics.getStandardDeviation()),
+                              String.format("%,.2f", statistics.getMin()),
+                              String.format("%,.2f", statistics.getPercentile(0.5)),
+                              String.format("%,.2f", statistics.getPercentile(0.95)),
+                              String.format("%,.2f", statistics.getMax()) };
+    }
+
+    /**
+     * @brief Returns the names of a table's rows by key, read once and then kept in ReferenceCache
+     * @param context The report's context
+     * @param conn A database connection
+     * @param labels A query listing each key and its name, followed by the table it reads
+     * @return An unmodifiable map from each key, as a string, to its name
+     * @throws SQLException
+     */
+    private static Map<String, String> getCachedLabels(ReportContext context, Connection conn, String[] labels)
+            throws SQLException
+    {
+        return ReferenceCache.getOptions("labels:" + labels[0], () ->
+        {
+            Map<String, String> names = new HashMap<String, String>();
+            try (ResultSet result = context.executeQuery(conn, labels[0]))
+            {
+                if (result == null)
+                    throw new SQLException("Could not read " + labels[1]);
+                while (result.next())
+                    names.put(result.getString(1), result.getString(2));
+            }
+            return names;
+        }, labels[1]);
+    }
+}
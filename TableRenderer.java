@@ -0,0 +1,240 @@
+import java.io.*;
+import java.math.*;
+import java.sql.*;
+import java.text.*;
+import java.util.*;
+
+public class TableRenderer
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String NULL_TEXT = "NULL";
+    private static final String NEW_LINE = System.lineSeparator();
+
+    private final PrintWriter writer;
+    private final StringBuilder line;
+    private final DecimalFormat decimalFormat;
+    private final StringBuffer decimalBuffer;
+    private final FieldPosition decimalPosition;
+    private final char groupingSeparator;
+    private final char[] digits;
+    private final String border;
+
+    /**
+     * @brief Appends the value of one column of the current row to a line
+     */
+    private interface CellFormatter
+    {
+        void append(ResultSet result, int col, StringBuilder line) throws SQLException;
+    }
+
+    /**
+     * @brief Creates a renderer that prints to the given stream
+     * @param out The stream to print to
+     * @post Output will be buffered, and written to out at the end of each print method
+     */
+    public TableRenderer(PrintStream out)
+    {
+        writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out), BUFFER_SIZE));
+        line = new StringBuilder(256);
+
+        // the same output as String.format("%,.2f") and String.format("%,d"), without parsing a format per cell
+        decimalFormat = new DecimalFormat("#,##0.00");
+        decimalFormat.setRoundingMode(RoundingMode.HALF_UP);
+        decimalBuffer = new StringBuffer(32);
+        decimalPosition = new FieldPosition(0);
+        groupingSeparator = decimalFormat.getDecimalFormatSymbols().getGroupingSeparator();
+        digits = new char[32];
+
+        char[] dashes = new char[Menu.getScreenWidth()];
+        Arrays.fill(dashes, '-');
+        border = new String(dashes);
+    }
+
+    /**
+     * @brief Prints the full contents of the given result set in a single column
+     * @param result The result set to print
+     * @post All rows and columns of result will be printed in a single column, one
+     *       "label: value" line per column; integers will include thousands separators,
+     *       doubles two decimals, and lines wider than the screen will be wrapped and
+     *       indented to the value; each row will be followed by a border
+     * @throws SQLException
+     */
+    public void printSingleColumn(ResultSet result) throws SQLException
+    {
+        ResultSetMetaData rMeta = result.getMetaData();
+        int numCols = rMeta.getColumnCount();
+        CellFormatter[] formatters = getFormatters(rMeta);
+
+        // pad labels on right with spaces so that all labels are labelWidth
+        String[] labels = new String[numCols + 1];
+        int labelWidth = 0;
+        for (int col = 1; col <= numCols; col++)
+        {
+            labels[col] = rMeta.getColumnLabel(col) + ": ";
+            labelWidth = Math.max(labelWidth, labels[col].length());
+        }
+        for (int col = 1; col <= numCols; col++)
+            labels[col] = Menu.padTextRight(labels[col], labelWidth);
+
+        int maxWidth = Menu.getScreenWidth();
+        while (result.next())
+        {
+            for (int col = 1; col <= numCols; col++)
+            {
+                line.setLength(0);
+                line.append(labels[col]);
+                formatters[col].append(result, col, line);
+                writeWrapped(labelWidth, maxWidth);
+            }
+            writer.write(border);
+            writer.write(NEW_LINE);
+        }
+        writer.write(NEW_LINE);
+        writer.flush();
+    }
+
+    /**
+     * @brief Prints rows of text as left-aligned columns
+     * @param rows The rows to print, e.g. a header row followed by data rows
+     * @param widths The minimum width of each column; a value longer than its column
+     *        is printed in full, as with String.format("%-20s")
+     * @post Each row will be printed on its own line, with each value padded on the right
+     *       to the width of its column
+     */
+    public void printGrid(List<String[]> rows, int... widths)
+    {
+        for (String[] row : rows)
+        {
+            line.setLength(0);
+            for (int col = 0; col < row.length; col++)
+            {
+                int start = line.length();
+                line.append(row[col]);
+                int width = col < widths.length ? widths[col] : 0;
+                for (int pad = line.length() - start; pad < width; pad++)
+                    line.append(' ');
+            }
+            writer.append(line);
+            writer.write(NEW_LINE);
+        }
+        writer.flush();
+    }
+
+    /**
+     * @brief Chooses a formatter for each column of a result, once per result
+     * @param rMeta The metadata of a result set
+     * @return The formatters, indexed by column number
+     * @throws SQLException
+     */
+    private CellFormatter[] getFormatters(ResultSetMetaData rMeta) throws SQLException
+    {
+        int numCols = rMeta.getColumnCount();
+        CellFormatter[] formatters = new CellFormatter[numCols + 1];
+        for (int col = 1; col <= numCols; col++)
+        {
+            switch (rMeta.getColumnClassName(col))
+            {
+                case "java.lang.Integer":
+                    formatters[col] = this::appendInteger;
+                    break;
+
+                case "java.lang.Double":
+                case "java.lang.Float":
+                    formatters[col] = this::appendDecimal;
+                    break;
+
+                default:    // strings, dates, etc.
+                    formatters[col] = TableRenderer::appendObject;
+                    break;
+            }
+        }
+        return formatters;
+    }
+
+    /**
+     * @brief Appends an integer with thousands separators
+     */
+    private void appendInteger(ResultSet result, int col, StringBuilder line) throws SQLException
+    {
+        long value = result.getInt(col);
+        if (result.wasNull())
+        {
+            line.append(NULL_TEXT);
+            return;
+        }
+
+        // fill digits from the right, with a separator before every third digit
+        int pos = digits.length;
+        long rest = Math.abs(value);
+        int count = 0;
+        do
+        {
+            if (count > 0 && count % 3 == 0)
+                digits[--pos] = groupingSeparator;
+            digits[--pos] = (char) ('0' + rest % 10);
+            rest /= 10;
+            count++;
+        }
+        while (rest > 0);
+
+        if (value < 0)
+            line.append('-');
+        line.append(digits, pos, digits.length - pos);
+    }
+
+    /**
+     * @brief Appends a floating point number with thousands separators and two decimals
+     */
+    private void appendDecimal(ResultSet result, int col, StringBuilder line) throws SQLException
+    {
+        double value = result.getDouble(col);
+        if (result.wasNull())
+        {
+            line.append(NULL_TEXT);
+            return;
+        }
+        if (Double.isNaN(value) || Double.isInfinite(value))
+        {
+            line.append(value);
+            return;
+        }
+
+        // round the shortest decimal form of value, as String.format does, not its exact binary value
+        decimalBuffer.setLength(0);
+        decimalFormat.format(BigDecimal.valueOf(value), decimalBuffer, decimalPosition);
+        line.append(decimalBuffer);
+    }
+
+    /**
+     * @brief Appends any other value as its string form
+     */
+    private static void appendObject(ResultSet result, int col, StringBuilder line) throws SQLException
+    {
+        Object value = result.getObject(col);
+        line.append(value == null ? NULL_TEXT : value.toString());
+    }
+
+    /**
+     * @brief Writes the current line, wrapped to the screen width
+     * @param indent The width of the label; continuation lines are indented by this much
+     * @param maxWidth The screen width
+     * @post The first maxWidth characters of line will be written on one line, and the
+     *       rest on following lines, each indented by indent
+     */
+    private void writeWrapped(int indent, int maxWidth)
+    {
+        int length = line.length();
+        int end = Math.min(length, maxWidth);
+        writer.append(line, 0, end);
+        writer.write(NEW_LINE);
+
+        int chunk = Math.max(1, maxWidth - indent);
+        for (int pos = end; pos < length; pos += chunk)
+        {
+            for (int i = 0; i < indent; i++)
+                writer.write(' ');
+            writer.append(line, pos, Math.min(length, pos + chunk));
+            writer.write(NEW_LINE);
+        }
+    }
+}
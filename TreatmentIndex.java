@@ -0,0 +1,459 @@
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class TreatmentIndex
+{
+    // treatments older than this are only counted by Last_Treated and Treatment_Count;
+    // window counts are available for windows up to this many days long
+    public static final int HORIZON_DAYS = 366;
+
+    private static final String REBUILD =
+            "INSERT INTO Treatment_Last_Performed " +
+            "(Water_Source_ID, Treatment_Number, Last_Treated, Treatment_Count) " +
+            "SELECT Water_Source_ID, Treatment_Number, MAX(Date_Treated), COUNT(*) " +
+            "FROM Treatments_Performed GROUP BY Water_Source_ID, Treatment_Number";
+
+    // REBUILD for a single pair; parameters are its Water_Source_ID and Treatment_Number
+    private static final String REBUILD_PAIR = REBUILD.replace("GROUP BY",
+            "WHERE Water_Source_ID = ? AND Treatment_Number = ? GROUP BY");
+
+    private static final String SELECT_PAIR =
+            "SELECT Last_Treated, Treatment_Count FROM Treatment_Last_Performed " +
+            "WHERE Water_Source_ID = ? AND Treatment_Number = ?";
+
+    private static final String SELECT_PAIR_RECENT =
+            "SELECT Date_Treated FROM Treatments_Performed " +
+            "WHERE Water_Source_ID = ? AND Treatment_Number = ? AND Date_Treated >= ? ORDER BY Date_Treated";
+
+    private static final String SELECT_SUMMARY =
+            "SELECT Water_Source_ID, Treatment_Number, Last_Treated, Treatment_Count " +
+            "FROM Treatment_Last_Performed";
+
+    // uses idx_treatments_source_date
+    private static final String SELECT_RECENT =
+            "SELECT Water_Source_ID, Treatment_Number, Date_Treated FROM Treatments_Performed " +
+            "WHERE Date_Treated >= ? ORDER BY Date_Treated";
+
+    private static final int[] NO_DAYS = new int[0];
+
+    private static ScheduledExecutorService reconciler;
+    private static Table table;      // null until first used, or after invalidate()
+
+    /**
+     * @brief An open-addressing map from a (Water_Source_ID, Treatment_Number) pair to the
+     *        most recent treatment date, the number of treatments, and the dates of the
+     *        treatments within the horizon, all held as primitives
+     */
+    private static class Table
+    {
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private long[] keys;
+        private int[] lastDays;      // epoch days
+        private int[] counts;
+        private int[][] recentDays;  // epoch days in ascending order
+        private int size;
+
+        private Table(int expected)
+        {
+            int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            lastDays = new int[capacity];
+            counts = new int[capacity];
+            recentDays = new int[capacity][];
+        }
+
+        /**
+         * @brief Returns the slot holding key, or the empty slot where it would be inserted
+         */
+        private int find(long key)
+        {
+            int mask = keys.length - 1;
+            int slot = (int) (key ^ (key >>> 29) ^ (key >>> 47)) * 0x9E3779B9 & mask;
+            while (keys[slot] != EMPTY && keys[slot] != key)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        /**
+         * @brief Returns the slot holding key, inserting an empty entry for it if needed
+         */
+        private int slotFor(long key)
+        {
+            if ((size + 1) * 2 > keys.length)
+                grow();
+            int slot = find(key);
+            if (keys[slot] == EMPTY)
+            {
+                keys[slot] = key;
+                lastDays[slot] = Integer.MIN_VALUE;
+                recentDays[slot] = NO_DAYS;
+                size++;
+            }
+            return slot;
+        }
+
+        /**
+         * @brief Doubles the capacity of the table, keeping every entry
+         */
+        private void grow()
+        {
+            long[] oldKeys = keys;
+            int[] oldLast = lastDays;
+            int[] oldCounts = counts;
+            int[][] oldRecent = recentDays;
+            keys = new long[oldKeys.length * 2];
+            Arrays.fill(keys, EMPTY);
+            lastDays = new int[keys.length];
+            counts = new int[keys.length];
+            recentDays = new int[keys.length][];
+            for (int i = 0; i < oldKeys.length; i++)
+            {
+                if (oldKeys[i] == EMPTY)
+                    continue;
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                lastDays[slot] = oldLast[i];
+                counts[slot] = oldCounts[i];
+                recentDays[slot] = oldRecent[i];
+            }
+        }
+    }
+
+    /**
+     * @brief Returns the date a treatment was last performed on a water source
+     * @param conn A database connection, used to load the index on first use
+     * @param sourceId A Water_Source_ID
+     * @param treatment A Treatment_Number
+     * @return The most recent Date_Treated, or null if the treatment was never performed on the source
+     * @throws SQLException
+     */
+    public static LocalDate getLastTreated(Connection conn, int sourceId, int treatment) throws SQLException
+    {
+        Table index = getTable(conn);
+        synchronized (TreatmentIndex.class)
+        {
+            int slot = index.find(toKey(sourceId, treatment));
+            return index.keys[slot] == Table.EMPTY || index.counts[slot] == 0 ? null
+                 : LocalDate.ofEpochDay(index.lastDays[slot]);
+        }
+    }
+
+    /**
+     * @brief Checks if a treatment was performed on a water source within a window
+     * @param conn A database connection, used to load the index on first use
+     * @param sourceId A Water_Source_ID
+     * @param treatment A Treatment_Number
+     * @param windowStart The first day of the window
+     * @return True if the treatment was last performed on or after windowStart
+     * @throws SQLException
+     */
+    public static boolean wasTreatedSince(Connection conn, int sourceId, int treatment, LocalDate windowStart)
+            throws SQLException
+    {
+        LocalDate last = getLastTreated(conn, sourceId, treatment);
+        return last != null && !last.isBefore(windowStart);
+    }
+
+    /**
+     * @brief Returns how many times a treatment was performed on a water source within a window
+     * @param conn A database connection, used to load the index on first use
+     * @param sourceId A Water_Source_ID
+     * @param treatment A Treatment_Number
+     * @param windowDays The number of days back to count, at most HORIZON_DAYS
+     * @return The number of treatments dated from windowDays ago up to today (or later)
+     * @throws SQLException
+     * @throws IllegalArgumentException if windowDays is greater than HORIZON_DAYS
+     */
+    public static int countInWindow(Connection conn, int sourceId, int treatment, int windowDays) throws SQLException
+    {
+        if (windowDays > HORIZON_DAYS)
+            throw new IllegalArgumentException("Window of " + windowDays + " days is longer than " + HORIZON_DAYS);
+
+        int start = (int) LocalDate.now().minusDays(windowDays).toEpochDay();
+        Table index = getTable(conn);
+        synchronized (TreatmentIndex.class)
+        {
+            int slot = index.find(toKey(sourceId, treatment));
+            if (index.keys[slot] == Table.EMPTY)
+                return 0;
+            int[] days = index.recentDays[slot];
+            int at = Arrays.binarySearch(days, start);
+            if (at < 0)
+                at = -at - 1;
+            else
+                while (at > 0 && days[at - 1] == start)
+                    at--;
+            return days.length - at;
+        }
+    }
+
+    /**
+     * @brief Returns how many times a treatment has ever been performed on a water source
+     * @param conn A database connection, used to load the index on first use
+     * @param sourceId A Water_Source_ID
+     * @param treatment A Treatment_Number
+     * @return The Treatment_Count of the pair, or 0 if it was never performed
+     * @throws SQLException
+     */
+    public static int getTreatmentCount(Connection conn, int sourceId, int treatment) throws SQLException
+    {
+        Table index = getTable(conn);
+        synchronized (TreatmentIndex.class)
+        {
+            int slot = index.find(toKey(sourceId, treatment));
+            return index.keys[slot] == Table.EMPTY ? 0 : index.counts[slot];
+        }
+    }
+
+    /**
+     * @brief Rebuilds the summary table from Treatments_Performed and reloads the index
+     * @param conn A database connection
+     * @post Treatment_Last_Performed will exactly match the current contents of
+     *       Treatments_Performed, including changes change capture does not see, such as
+     *       bulk loads and cascaded deletes; the in-memory index will be reloaded from it
+     * @throws SQLException
+     */
+    public static void reconcile(Connection conn) throws SQLException
+    {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement())
+        {
+            stmt.executeUpdate("DELETE FROM Treatment_Last_Performed");
+            stmt.executeUpdate(REBUILD);
+            conn.commit();
+        }
+        catch (SQLException | RuntimeException e)
+        {
+            conn.rollback();
+            throw e;
+        }
+        finally
+        {
+            conn.setAutoCommit(autoCommit);
+        }
+        Table index = load(conn);
+        synchronized (TreatmentIndex.class)
+        {
+            table = index;
+        }
+    }
+
+    /**
+     * @brief Rebuilds the summary rows of the given pairs from Treatments_Performed and
+     *        updates them in the index
+     * @param conn A database connection
+     * @param pairs The (Water_Source_ID, Treatment_Number) pairs to rebuild
+     * @post The pairs' rows in Treatment_Last_Performed will exactly match Treatments_Performed,
+     *       or be removed if the pair has no treatments, in a single transaction; if the index
+     *       is loaded, the pairs will be updated in it without reloading the rest
+     * @throws SQLException
+     */
+    public static void reconcileTreatments(Connection conn, Collection<int[]> pairs) throws SQLException
+    {
+        int horizon = (int) LocalDate.now().minusDays(HORIZON_DAYS).toEpochDay();
+        List<int[][]> rebuilt = new ArrayList<int[][]>();
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (PreparedStatement delete = conn.prepareStatement(
+                     "DELETE FROM Treatment_Last_Performed WHERE Water_Source_ID = ? AND Treatment_Number = ?");
+             PreparedStatement rebuild = conn.prepareStatement(REBUILD_PAIR);
+             PreparedStatement summary = conn.prepareStatement(SELECT_PAIR);
+             PreparedStatement recent = conn.prepareStatement(SELECT_PAIR_RECENT))
+        {
+            for (int[] pair : pairs)
+            {
+                for (PreparedStatement stmt : new PreparedStatement[] { delete, rebuild, summary, recent })
+                {
+                    stmt.setInt(1, pair[0]);
+                    stmt.setInt(2, pair[1]);
+                }
+                delete.executeUpdate();
+                rebuild.executeUpdate();
+
+                // { pair, { last day, count }, recent days }
+                int[][] entry = { pair, { Integer.MIN_VALUE, 0 }, NO_DAYS };
+                try (ResultSet result = summary.executeQuery())
+                {
+                    if (result.next())
+                        entry[1] = new int[] { (int) result.getDate(1).toLocalDate().toEpochDay(), result.getInt(2) };
+                }
+                recent.setDate(3, java.sql.Date.valueOf(LocalDate.ofEpochDay(horizon)));
+                List<Integer> days = new ArrayList<Integer>();
+                try (ResultSet result = recent.executeQuery())
+                {
+                    while (result.next())
+                        days.add((int) result.getDate(1).toLocalDate().toEpochDay());
+                }
+                entry[2] = days.stream().mapToInt(Integer::intValue).toArray();
+                rebuilt.add(entry);
+            }
+            conn.commit();
+        }
+        catch (SQLException | RuntimeException e)
+        {
+            conn.rollback();
+            throw e;
+        }
+        finally
+        {
+            conn.setAutoCommit(autoCommit);
+        }
+
+        synchronized (TreatmentIndex.class)
+        {
+            if (table == null)
+                return;
+            for (int[][] entry : rebuilt)
+            {
+                int slot = table.slotFor(toKey(entry[0][0], entry[0][1]));
+                table.lastDays[slot] = entry[1][0];
+                table.counts[slot] = entry[1][1];
+                table.recentDays[slot] = entry[2];
+            }
+        }
+    }
+
+    /**
+     * @brief Drops the in-memory index
+     * @post The index will be reloaded from Treatment_Last_Performed on its next use
+     */
+    public static synchronized void invalidate()
+    {
+        table = null;
+    }
+
+    /**
+     * @brief Starts a background job that periodically reconciles the index
+     * @param mySQL A pool of database connections
+     * @param periodMinutes The number of minutes between reconciliations
+     * @post Every periodMinutes, a connection will be borrowed from mySQL and used to
+     *       reconcile the index; any previously started job will be stopped
+     */
+    public static synchronized void startReconciliation(MySQLConnection mySQL, long periodMinutes)
+    {
+        stopReconciliation();
+        reconciler = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread t = new Thread(r, "treatment-index-reconciler");
+            t.setDaemon(true);
+            return t;
+        });
+        reconciler.scheduleWithFixedDelay(() ->
+        {
+            Connection conn = null;
+            try
+            {
+                conn = mySQL.borrowConn();
+                reconcile(conn);
+            }
+            catch (SQLException e)
+            {
+                System.out.println("SQLException: " + e);
+            }
+            finally
+            {
+                mySQL.returnConn(conn);
+            }
+        }, periodMinutes, periodMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @brief Stops the background reconciliation job, if one is running
+     */
+    public static synchronized void stopReconciliation()
+    {
+        if (reconciler != null)
+        {
+            reconciler.shutdownNow();
+            reconciler = null;
+        }
+    }
+
+    /**
+     * @brief Returns the in-memory index, loading it on first use
+     * @param conn A database connection
+     * @return The current index
+     * @throws SQLException
+     */
+    private static Table getTable(Connection conn) throws SQLException
+    {
+        synchronized (TreatmentIndex.class)
+        {
+            if (table != null)
+                return table;
+        }
+        // loaded outside the lock so lookups by other threads are not held up by the database
+        Table index = load(conn);
+        synchronized (TreatmentIndex.class)
+        {
+            if (table == null)
+                table = index;
+            return table;
+        }
+    }
+
+    /**
+     * @brief Reads the summary table, and the treatments within the horizon, into a new index
+     * @param conn A database connection
+     * @return The loaded index
+     * @throws SQLException
+     */
+    private static Table load(Connection conn) throws SQLException
+    {
+        LocalDate horizon = LocalDate.now().minusDays(HORIZON_DAYS);
+        List<long[]> rows = new ArrayList<long[]>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet result = stmt.executeQuery(SELECT_SUMMARY))
+        {
+            while (result.next())
+                rows.add(new long[] { toKey(result.getInt(1), result.getInt(2)),
+                                      result.getDate(3).toLocalDate().toEpochDay(), result.getInt(4) });
+        }
+
+        Table index = new Table(rows.size());
+        for (long[] row : rows)
+        {
+            int slot = index.slotFor(row[0]);
+            index.lastDays[slot] = (int) row[1];
+            index.counts[slot] = (int) row[2];
+        }
+
+        // dates arrive in ascending order, so each is appended to the end of its list
+        Map<Long, List<Integer>> recent = new HashMap<Long, List<Integer>>();
+        try (PreparedStatement stmt = conn.prepareStatement(SELECT_RECENT))
+        {
+            stmt.setDate(1, java.sql.Date.valueOf(horizon));
+            try (ResultSet result = stmt.executeQuery())
+            {
+                while (result.next())
+                    recent.computeIfAbsent(toKey(result.getInt(1), result.getInt(2)), k -> new ArrayList<Integer>())
+                          .add((int) result.getDate(3).toLocalDate().toEpochDay());
+            }
+        }
+        for (Map.Entry<Long, List<Integer>> entry : recent.entrySet())
+        {
+            int slot = index.slotFor(entry.getKey());
+            int[] days = new int[entry.getValue().size()];
+            for (int i = 0; i < days.length; i++)
+                days[i] = entry.getValue().get(i);
+            index.recentDays[slot] = days;
+            // rows written since the summary table was last reconciled
+            index.lastDays[slot] = Math.max(index.lastDays[slot], days[days.length - 1]);
+            index.counts[slot] = Math.max(index.counts[slot], days.length);
+        }
+        return index;
+    }
+
+    /**
+     * @brief Packs a (Water_Source_ID, Treatment_Number) pair into a single map key
+     */
+    private static long toKey(int sourceId, int treatment)
+    {
+        return ((long) sourceId << 32) | (treatment & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,497 @@
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+
+public class UsageForecast
+{
+    public static final int CONSUMED = 0;     // measure indexes of a Projection
+    public static final int WASTED = 1;
+    public static final int SEASON = 12;      // months in a seasonal cycle
+
+    // smoothing of the level, trend and seasonal terms; the trend must not exceed the level's,
+    // nor the seasonal the level's complement
+    private static final double ALPHA = 0.3;
+    private static final double BETA = 0.05;
+    private static final double GAMMA = 0.2;
+    private static final double Z_95 = 1.959964;    // standard normal quantile of a 95% interval
+    private static final int MAX_READ_BACK = 1000;  // inserted records read back per poll; more rebuild instead
+    // months a series keeps open for records, counting back from its latest; a record for an
+    // earlier month, e.g. one reported late, can only be added by rebuilding
+    private static final int OPEN_MONTHS = 3;
+
+    private static final String SELECT_RECORD =
+            "SELECT Amount_Water_Consumed, Amount_Water_Wasted FROM Business_Used " +
+            "WHERE Business_ID = ? AND Water_Source_ID = ? AND Usage_Record_Date = ?";
+
+    private static UsageForecast current;   // null until first used, or after invalidate()
+
+    private final Map<Integer, Series> businesses = new HashMap<Integer, Series>();
+    private final Map<Integer, Series> sources = new HashMap<Integer, Series>();
+    // the latest Usage_Record_Date applied (epoch day) by (Business_ID, Water_Source_ID)
+    private final Map<Long, Integer> lastDays = new HashMap<Long, Integer>();
+    private int lastMonth = Integer.MIN_VALUE;    // latest month of any record, as months since year 0
+    private long records;
+
+    /**
+     * @brief Additive Holt-Winters smoothing of one monthly measure, in error correction form,
+     *        holding a level, a trend and a term per month of the season
+     */
+    private static class Smoother
+    {
+        private double level;          // during the first season, the sum of the values
+        private double trend;
+        private final double[] seasonal = new double[SEASON];   // during the first season, the values
+        private int months;
+        private double squaredErrors;  // of the one-step forecasts made since the first season
+        private int errors;
+
+        /**
+         * @brief Passes one month's value to the model
+         * @param value The month's total
+         * @param month The month, as months since year 0; each call must be for the month after the last
+         * @post In the first season the values are only stored; at its end the level will be
+         *       their mean, and each seasonal term the month's difference from it. After that,
+         *       the one-step forecast error will be recorded, and corrects each term
+         */
+        private void update(double value, int month)
+        {
+            int season = Math.floorMod(month, SEASON);
+            if (months < SEASON)
+            {
+                seasonal[season] = value;
+                level += value;
+                if (++months == SEASON)
+                {
+                    level /= SEASON;
+                    for (int i = 0; i < SEASON; i++)
+                        seasonal[i] -= level;
+                }
+                return;
+            }
+
+            double error = value - (level + trend + seasonal[season]);
+            squaredErrors += error * error;
+            errors++;
+            level += trend + ALPHA * error;
+            trend += BETA * error;
+            seasonal[season] += GAMMA * error;
+            months++;
+        }
+
+        /**
+         * @brief Forecasts a future month
+         * @param month The last month passed to update
+         * @param steps How many months after it to forecast, from 1
+         * @return A 3-element array [forecast, lower, upper bound of the 95% prediction interval],
+         *         or null if no month has been passed to update
+         * @post Before a full season has been seen, the forecast will be the mean so far and
+         *       the interval its spread; after, the interval widens with steps by the error
+         *       variance of the ETS(A,A,A) model
+         */
+        private double[] forecast(int month, int steps)
+        {
+            if (months == 0)
+                return null;
+            if (months < SEASON)
+            {
+                double mean = level / months;
+                double squares = 0;
+                for (int i = 0; i < months; i++)
+                {
+                    double value = seasonal[Math.floorMod(month - i, SEASON)];
+                    squares += (value - mean) * (value - mean);
+                }
+                double spread = Z_95 * Math.sqrt(squares / months * (1 + 1.0 / months));
+                return new double[] { mean, mean - spread, mean + spread };
+            }
+
+            double value = level + steps * trend + seasonal[Math.floorMod(month + steps, SEASON)];
+            double variance = 0;
+            if (errors > 0)
+                variance = squaredErrors / errors;
+            else
+            {
+                for (double term : seasonal)
+                    variance += term * term / SEASON;
+            }
+            double factor = 1;
+            for (int j = 1; j < steps; j++)
+            {
+                double c = ALPHA + BETA * j + (j % SEASON == 0 ? GAMMA : 0);
+                factor += c * c;
+            }
+            double spread = Z_95 * Math.sqrt(variance * factor);
+            return new double[] { value, value - spread, value + spread };
+        }
+
+        /**
+         * @brief Returns the root mean square of the one-step forecast errors
+         * @return The error, or NaN if no forecast has been checked yet
+         */
+        private double getError()
+        {
+            return errors == 0 ? Double.NaN : Math.sqrt(squaredErrors / errors);
+        }
+
+        /**
+         * @brief Returns a copy of the model, which can be updated without changing this one
+         */
+        private Smoother copy()
+        {
+            Smoother copy = new Smoother();
+            copy.level = level;
+            copy.trend = trend;
+            System.arraycopy(seasonal, 0, copy.seasonal, 0, SEASON);
+            copy.months = months;
+            copy.squaredErrors = squaredErrors;
+            copy.errors = errors;
+            return copy;
+        }
+    }
+
+    /**
+     * @brief The monthly usage of one business or water source: the totals of the latest
+     *        months, which may still receive records, and a model of the months before them
+     */
+    private static class Series
+    {
+        private int openMonth = Integer.MIN_VALUE;   // the earliest month kept open; none until the first record
+        private final double[][] open = new double[OPEN_MONTHS][2];   // by month modulo OPEN_MONTHS, then measure
+        private final Smoother[] smoothers = { new Smoother(), new Smoother() };
+
+        /**
+         * @brief Adds one usage record
+         * @pre month must not be before openMonth
+         * @post Months more than OPEN_MONTHS - 1 before the record's will have been passed to
+         *       the models, in order, those without records as 0, and the record added to its
+         *       month's totals
+         */
+        private void add(int month, double consumed, double wasted)
+        {
+            if (openMonth == Integer.MIN_VALUE)
+                openMonth = month;
+            close(month - OPEN_MONTHS + 1);
+            double[] totals = open[Math.floorMod(month, OPEN_MONTHS)];
+            totals[CONSUMED] += consumed;
+            totals[WASTED] += wasted;
+        }
+
+        /**
+         * @brief Passes every month before the given one to the models
+         * @param month The month from which totals are kept open
+         */
+        private void close(int month)
+        {
+            while (openMonth < month)
+            {
+                double[] totals = open[Math.floorMod(openMonth, OPEN_MONTHS)];
+                for (int measure = 0; measure < smoothers.length; measure++)
+                {
+                    smoothers[measure].update(totals[measure], openMonth);
+                    totals[measure] = 0;
+                }
+                openMonth++;
+            }
+        }
+
+        /**
+         * @brief Returns a copy of the series, which can be updated without changing this one
+         */
+        private Series copy()
+        {
+            Series copy = new Series();
+            copy.openMonth = openMonth;
+            for (int i = 0; i < OPEN_MONTHS; i++)
+                System.arraycopy(open[i], 0, copy.open[i], 0, open[i].length);
+            for (int measure = 0; measure < smoothers.length; measure++)
+                copy.smoothers[measure] = smoothers[measure].copy();
+            return copy;
+        }
+    }
+
+    /**
+     * @brief The forecast water usage of one month
+     */
+    public static class Projection
+    {
+        private final YearMonth month;
+        private final double[][] values;    // by measure: forecast, lower and upper bound
+
+        private Projection(YearMonth projectedMonth, double[][] measures)
+        {
+            month = projectedMonth;
+            values = measures;
+        }
+
+        /**
+         * @brief Returns the month forecast
+         * @return The month
+         */
+        public YearMonth getMonth()
+        {
+            return month;
+        }
+
+        /**
+         * @brief Returns the forecast of a measure
+         * @param measure CONSUMED or WASTED
+         * @return The forecast total, in gallons, never below 0
+         */
+        public double getValue(int measure)
+        {
+            return values[measure][0];
+        }
+
+        /**
+         * @brief Returns the lower bound of the 95% prediction interval of a measure
+         * @param measure CONSUMED or WASTED
+         * @return The lower bound, in gallons, never below 0
+         */
+        public double getLow(int measure)
+        {
+            return values[measure][1];
+        }
+
+        /**
+         * @brief Returns the upper bound of the 95% prediction interval of a measure
+         * @param measure CONSUMED or WASTED
+         * @return The upper bound, in gallons
+         */
+        public double getHigh(int measure)
+        {
+            return values[measure][2];
+        }
+    }
+
+    /**
+     * @brief Returns the current models, building them on first use or after they were invalidated
+     * @param conn A database connection
+     * @return The models
+     * @throws SQLException
+     */
+    public static synchronized UsageForecast get(Connection conn) throws SQLException
+    {
+        if (current == null)
+        {
+            UsageForecast forecast = new UsageForecast();
+            UsageSnapshot.get(conn).forEach(forecast::add);
+            current = forecast;
+        }
+        return current;
+    }
+
+    /**
+     * @brief Discards the current models
+     * @post The models will be rebuilt from the usage history on their next use
+     */
+    public static synchronized void invalidate()
+    {
+        current = null;
+    }
+
+    /**
+     * @brief Updates the models with newly inserted usage records
+     * @param conn A database connection
+     * @param inserted The primary keys of the records, as [Business_ID, Water_Source_ID,
+     *        Usage_Record_Date] strings, in the order they were inserted
+     * @post If the models have been built, each record still in Business_Used will have been
+     *       read back and added to them in constant time. Records dated before a month the
+     *       models have already passed cannot be added that way, so if there are any, or more
+     *       than MAX_READ_BACK records, the models will be invalidated instead
+     * @throws SQLException
+     */
+    public static synchronized void apply(Connection conn, List<String[]> inserted) throws SQLException
+    {
+        if (current == null || inserted.isEmpty())
+            return;
+        if (inserted.size() > MAX_READ_BACK)
+        {
+            current = null;
+            return;
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(SELECT_RECORD))
+        {
+            for (String[] key : inserted)
+            {
+                int businessId = Integer.parseInt(key[0]);
+                int sourceId = Integer.parseInt(key[1]);
+                LocalDate date = LocalDate.parse(key[2]);
+                stmt.setInt(1, businessId);
+                stmt.setInt(2, sourceId);
+                stmt.setDate(3, java.sql.Date.valueOf(date));
+                try (ResultSet result = stmt.executeQuery())
+                {
+                    // a record deleted since is logged as a delete too, which invalidates the models
+                    if (result.next() && !current.add(businessId, sourceId, (int) date.toEpochDay(),
+                                                      result.getDouble(1), result.getDouble(2)))
+                    {
+                        current = null;
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Adds one usage record to the models of its business and water source
+     * @param businessId The record's Business_ID
+     * @param sourceId The record's Water_Source_ID
+     * @param day The record's Usage_Record_Date, as an epoch day
+     * @param consumed The record's Amount_Water_Consumed
+     * @param wasted The record's Amount_Water_Wasted
+     * @return False if the record is dated before a month already passed to either model,
+     *         or before a record already added for the same business and source, so it
+     *         could not be added; true otherwise
+     * @post The record will have been added in constant time, unless months went by without
+     *       records; a record dated the same day as the last added for its business and
+     *       source was already added, and is skipped
+     */
+    private synchronized boolean add(int businessId, int sourceId, int day, double consumed, double wasted)
+    {
+        long pair = ((long) businessId << 32) | (sourceId & 0xFFFFFFFFL);
+        Integer last = lastDays.get(pair);
+        if (last != null && day <= last)
+            return day == last;
+
+        LocalDate date = LocalDate.ofEpochDay(day);
+        int month = date.getYear() * 12 + date.getMonthValue() - 1;
+        Series business = businesses.computeIfAbsent(businessId, id -> new Series());
+        Series source = sources.computeIfAbsent(sourceId, id -> new Series());
+        if (month < business.openMonth || month < source.openMonth)
+            return false;
+
+        lastDays.put(pair, day);
+        business.add(month, consumed, wasted);
+        source.add(month, consumed, wasted);
+        lastMonth = Math.max(lastMonth, month);
+        records++;
+        return true;
+    }
+
+    /**
+     * @brief Returns the number of usage records the models were built from
+     * @return The record count
+     */
+    public synchronized long getRecordCount()
+    {
+        return records;
+    }
+
+    /**
+     * @brief Returns the last month that forecasts start after
+     * @return The latest month of any usage record, or the month before it if that is the
+     *         current month or later, as its records may not all be in yet; null if there are
+     *         no records
+     */
+    public synchronized YearMonth getOrigin()
+    {
+        return lastMonth == Integer.MIN_VALUE ? null : toYearMonth(getOriginMonth());
+    }
+
+    /**
+     * @brief Forecasts the water usage of a business
+     * @param businessId A Business_ID
+     * @param months The number of months to forecast
+     * @return A projection for each month after getOrigin(), or an empty list if the business
+     *         has no usage up to getOrigin()
+     */
+    public synchronized List<Projection> forecastBusiness(int businessId, int months)
+    {
+        return forecast(businesses.get(businessId), months);
+    }
+
+    /**
+     * @brief Forecasts the water usage from a water source
+     * @param sourceId A Water_Source_ID
+     * @param months The number of months to forecast
+     * @return A projection for each month after getOrigin(), or an empty list if the source
+     *         has no usage up to getOrigin()
+     */
+    public synchronized List<Projection> forecastSource(int sourceId, int months)
+    {
+        return forecast(sources.get(sourceId), months);
+    }
+
+    /**
+     * @brief Returns the root mean square of a business's one-step forecast errors
+     * @param businessId A Business_ID
+     * @return A 2-element array [consumed, wasted], with NaN where there is too little history
+     */
+    public synchronized double[] getBusinessError(int businessId)
+    {
+        return getError(businesses.get(businessId));
+    }
+
+    /**
+     * @brief Returns the root mean square of a water source's one-step forecast errors
+     * @param sourceId A Water_Source_ID
+     * @return A 2-element array [consumed, wasted], with NaN where there is too little history
+     */
+    public synchronized double[] getSourceError(int sourceId)
+    {
+        return getError(sources.get(sourceId));
+    }
+
+    /**
+     * @brief Forecasts one series
+     * @param series The series, or null
+     * @param months The number of months to forecast
+     * @return The projections; the series itself is not changed, as its months up to the
+     *         origin are passed to a copy of its models
+     */
+    private List<Projection> forecast(Series series, int months)
+    {
+        List<Projection> projections = new ArrayList<Projection>();
+        int origin = getOriginMonth();
+        if (series == null)
+            return projections;
+
+        // months after the origin may not all be in yet, so they stay out of the copy's models
+        Series closed = series.copy();
+        closed.close(origin + 1);
+        if (closed.smoothers[CONSUMED].months == 0)
+            return projections;
+        for (int step = 1; step <= months; step++)
+        {
+            double[][] values = new double[closed.smoothers.length][];
+            for (int measure = 0; measure < values.length; measure++)
+            {
+                values[measure] = closed.smoothers[measure].forecast(origin, step);
+                values[measure][0] = Math.max(0, values[measure][0]);
+                values[measure][1] = Math.max(0, values[measure][1]);
+                values[measure][2] = Math.max(0, values[measure][2]);
+            }
+            projections.add(new Projection(toYearMonth(origin + step), values));
+        }
+        return projections;
+    }
+
+    /**
+     * @brief Returns the root mean square one-step error of each model of a series
+     */
+    private static double[] getError(Series series)
+    {
+        if (series == null)
+            return new double[] { Double.NaN, Double.NaN };
+        return new double[] { series.smoothers[CONSUMED].getError(), series.smoothers[WASTED].getError() };
+    }
+
+    /**
+     * @brief Returns getOrigin() as months since year 0
+     */
+    private int getOriginMonth()
+    {
+        YearMonth now = YearMonth.now();
+        int thisMonth = now.getYear() * 12 + now.getMonthValue() - 1;
+        return lastMonth >= thisMonth ? lastMonth - 1 : lastMonth;
+    }
+
+    /**
+     * @brief Converts a month number back to a YearMonth
+     */
+    private static YearMonth toYearMonth(int month)
+    {
+        return YearMonth.of(Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1);
+    }
+}
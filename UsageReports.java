@@ -0,0 +1,185 @@
+import java.io.PrintStream;
+import java.sql.*;
+import java.time.YearMonth;
+import java.util.*;
+
+public class UsageReports implements ReportRegistry.Provider
+{
+    static final String SOURCE_ID = "SELECT Water_Source_ID FROM Water_Source WHERE Location = ?";
+    static final String BUSINESS_ID = "SELECT Business_ID FROM Business WHERE Business_Name = ?";
+
+    /**
+     * @brief Registers Usage by Type and Source and Usage Forecast
+     * @post SQL#17 and SQL#21 will be registered as runnable unattended
+     */
+    @Override
+    public void registerReports()
+    {
+        ReportRegistry.register("SQL#17", true, UsageReports::printUsage);
+        ReportRegistry.register("SQL#21", true, UsageReports::printForecast);
+    }
+
+    /**
+     * @brief Prints the monthly water usage of any combination of business type and water source
+     * @param context The report's context
+     * @param conn A database connection
+     * @post User will be prompted for a business type, a water source and a month or range of
+     *       months; the number of usage records and the water consumed and wasted in each month
+     *       will be printed, in millions of gallons, followed by the totals. The usage is read
+     *       from UsageSnapshot, which is loaded on first use
+     */
+    private static void printUsage(ReportContext context, Connection conn)
+    {
+        PrintStream out = context.getOutput();
+        try
+        {
+            UsageSnapshot snapshot = UsageSnapshot.get(conn);
+
+            Map<String, String> types = new LinkedHashMap<String, String>();
+            types.put("1", "All Business Types");
+            for (String type : snapshot.getBusinessTypes())
+                types.put(String.valueOf(types.size() + 1), type);
+            String type = context.getUserSelection(types, "type");
+            String businessType = type.equals(types.get("1")) ? null : type;
+
+            String allSources = "All Water Sources";
+            String location = context.getRowSelection(conn, "Water_Source", "Water_Source_ID", "Location", null,
+                                                      "source", allSources, "Water_Source");
+            int sourceId = UsageSnapshot.ANY;
+            if (!location.equals(allSources))
+            {
+                try (ResultSet result = context.executeQuery(conn, SOURCE_ID, location))
+                {
+                    if (result == null)
+                        return;
+                    if (result.next())
+                        sourceId = result.getInt(1);
+                }
+            }
+
+            YearMonth[] range = snapshot.getMonthRange(businessType);
+            if (range == null)
+            {
+                out.println("No water usage has been reported for " + type + ".");
+                Menu.printBorder(out, '-', 0, 1);
+                return;
+            }
+            out.println("Please choose date from " + range[0] + " to " + range[1]);
+            YearMonth startMonth = context.getMonthSelection("Enter the first month (YYYY-MM)", range[0], range[1],
+                                                             false, "month");
+            YearMonth endMonth = context.getMonthSelection("Enter the last month (YYYY-MM), or hit ENTER for " + range[1],
+                                                           startMonth, range[1], true, "to");
+            if (endMonth == null)
+                endMonth = range[1];
+
+            Map<YearMonth, double[]> totals = snapshot.aggregateByMonth(
+                    new UsageSnapshot.Filter(startMonth, endMonth, businessType, sourceId, UsageSnapshot.ANY));
+
+            out.println("WATER USAGE OF " + type.toUpperCase() + " FROM " + location.toUpperCase() +
+                        ", " + startMonth + " TO " + endMonth);
+            out.println("Note: Water amounts are reported in millions of gallons (MG)");
+            Menu.printBorder(out, '-', 0, 0);
+            List<String[]> table = new ArrayList<String[]>();
+            table.add(new String[] { "Year-Month", "Num. Records", "Amt. Consumed (MG)", "Amt. Wasted (MG)" });
+            double[] sum = new double[3];
+            for (YearMonth month = startMonth; !month.isAfter(endMonth); month = month.plusMonths(1))
+            {
+                double[] total = totals.getOrDefault(month, new double[3]);
+                table.add(new String[] { month.toString(), String.format("%.0f", total[0]),
+                                         String.format("%.3f", total[1] / 1_000_000),
+                                         String.format("%.3f", total[2] / 1_000_000) });
+                for (int i = 0; i < 3; i++)
+                    sum[i] += total[i];
+            }
+            table.add(new String[] { "Total", String.format("%.0f", sum[0]), String.format("%.3f", sum[1] / 1_000_000),
+                                     String.format("%.3f", sum[2] / 1_000_000) });
+            context.printGrid(table, 20, 20, 20, 20);
+            Menu.printBorder(out, '-', 0, 1);
+        }
+        catch (SQLException e)
+        {
+            context.printError(e);
+        }
+    }
+
+    /**
+     * @brief Forecasts the monthly water usage of a business or a water source
+     * @param context The report's context
+     * @param conn A database connection
+     * @post User will be prompted to forecast a business or a water source, to select one,
+     *       and for how many months; the water consumed and wasted forecast for each month
+     *       after the last month with usage records will be printed, in millions of gallons,
+     *       with 95% prediction intervals, followed by the error of the model's forecasts one
+     *       month ahead. The forecasts are made by UsageForecast, whose models are built
+     *       from UsageSnapshot on first use and then updated as usage is recorded
+     */
+    private static void printForecast(ReportContext context, Connection conn)
+    {
+        PrintStream out = context.getOutput();
+        try
+        {
+            Map<String, String> kinds = new LinkedHashMap<String, String>();
+            kinds.put("1", "Business");
+            kinds.put("2", "Water Source");
+            boolean bySource = context.getUserSelection(kinds, "for").equals(kinds.get("2"));
+
+            String name;
+            int id = -1;
+            if (bySource)
+                name = context.getRowSelection(conn, "Water_Source", "Water_Source_ID", "Location", null, "source",
+                                               null, "Water_Source");
+            else
+                name = context.getRowSelection(conn, "Business", "Business_ID", "Business_Name", null, "business",
+                                               null, "Business");
+            try (ResultSet result = context.executeQuery(conn, bySource ? SOURCE_ID : BUSINESS_ID, name))
+            {
+                if (result == null)
+                    return;
+                if (result.next())
+                    id = result.getInt(1);
+            }
+
+            Map<String, String> horizons = new LinkedHashMap<String, String>();
+            for (String months : new String[] { "3", "6", "12", "24" })
+                horizons.put(String.valueOf(horizons.size() + 1), months);
+            out.println("How many months ahead?");
+            int months = Integer.parseInt(context.getUserSelection(horizons, "months"));
+
+            UsageForecast forecast = UsageForecast.get(conn);
+            List<UsageForecast.Projection> projections = bySource ? forecast.forecastSource(id, months)
+                                                                  : forecast.forecastBusiness(id, months);
+            if (projections.isEmpty())
+            {
+                out.println("No water usage has been reported for " + name + ".");
+                Menu.printBorder(out, '-', 0, 1);
+                return;
+            }
+
+            out.println("WATER USAGE FORECAST OF " + name.toUpperCase() + ", " + projections.get(0).getMonth() +
+                        " TO " + projections.get(projections.size() - 1).getMonth());
+            out.println("Note: Water amounts are reported in millions of gallons (MG), with 95% prediction intervals");
+            Menu.printBorder(out, '-', 0, 0);
+            List<String[]> table = new ArrayList<String[]>();
+            table.add(new String[] { "Year-Month", "Consumed (MG)", "Interval", "Wasted (MG)", "Interval" });
+            for (UsageForecast.Projection projection : projections)
+            {
+                table.add(new String[] { projection.getMonth().toString(),
+                        String.format("%.3f", projection.getValue(UsageForecast.CONSUMED) / 1_000_000),
+                        String.format("%.3f - %.3f", projection.getLow(UsageForecast.CONSUMED) / 1_000_000,
+                                      projection.getHigh(UsageForecast.CONSUMED) / 1_000_000),
+                        String.format("%.3f", projection.getValue(UsageForecast.WASTED) / 1_000_000),
+                        String.format("%.3f - %.3f", projection.getLow(UsageForecast.WASTED) / 1_000_000,
+                                      projection.getHigh(UsageForecast.WASTED) / 1_000_000) });
+            }
+            context.printGrid(table, 14, 16, 22, 16, 22);
+            double[] error = bySource ? forecast.getSourceError(id) : forecast.getBusinessError(id);
+            out.printf("One month ahead, the model has been off by %.3f MG consumed and %.3f MG wasted (RMS)%n",
+                       error[UsageForecast.CONSUMED] / 1_000_000, error[UsageForecast.WASTED] / 1_000_000);
+            Menu.printBorder(out, '-', 0, 1);
+        }
+        catch (SQLException e)
+        {
+            context.printError(e);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class UsageRollup
+{
+    private static final String REBUILD =
+            "INSERT INTO Business_Usage_Monthly " +
+            "(Usage_Month, Record_Count, Total_Consumed, Total_Wasted, Total_Needing_Treatment) " +
+            "SELECT DATE_FORMAT(Usage_Record_Date, '%Y-%m-01'), COUNT(*), " +
+            "SUM(Amount_Water_Consumed), SUM(Amount_Water_Wasted), " +
+            "SUM(Amount_Water_Consumed + Amount_Water_Wasted) " +
+            "FROM Business_Used GROUP BY DATE_FORMAT(Usage_Record_Date, '%Y-%m-01')";
+
+    // REBUILD for a single month; parameters are its first day and the first day of the next month
+    private static final String REBUILD_MONTH =
+            "INSERT INTO Business_Usage_Monthly " +
+            "(Usage_Month, Record_Count, Total_Consumed, Total_Wasted, Total_Needing_Treatment) " +
+            "SELECT ?, COUNT(*), SUM(Amount_Water_Consumed), SUM(Amount_Water_Wasted), " +
+            "SUM(Amount_Water_Consumed + Amount_Water_Wasted) " +
+            "FROM Business_Used WHERE Usage_Record_Date >= ? AND Usage_Record_Date < ? HAVING COUNT(*) > 0";
+
+    private static ScheduledExecutorService reconciler;
+
+    /**
+     * @brief Rebuilds the monthly rollup from Business_Used
+     * @param conn A database connection
+     * @post Business_Usage_Monthly will exactly match the current contents of Business_Used,
+     *       including changes change capture does not see, such as cascaded deletes
+     * @throws SQLException
+     */
+    public static void reconcile(Connection conn) throws SQLException
+    {
+        inTransaction(conn, () ->
+        {
+            try (Statement stmt = conn.createStatement())
+            {
+                stmt.executeUpdate("DELETE FROM Business_Usage_Monthly");
+                stmt.executeUpdate(REBUILD);
+            }
+        });
+    }
+
+    /**
+     * @brief Rebuilds the given months of the rollup from Business_Used
+     * @param conn A database connection
+     * @param months Any date in each month to rebuild
+     * @post The rows of those months in Business_Usage_Monthly will exactly match Business_Used,
+     *       or be removed if the month has no usage, in a single transaction
+     * @throws SQLException
+     */
+    public static void reconcileMonths(Connection conn, Collection<LocalDate> months) throws SQLException
+    {
+        inTransaction(conn, () ->
+        {
+            try (PreparedStatement delete = conn.prepareStatement("DELETE FROM Business_Usage_Monthly WHERE Usage_Month = ?");
+                 PreparedStatement rebuild = conn.prepareStatement(REBUILD_MONTH))
+            {
+                for (LocalDate date : months)
+                {
+                    java.sql.Date month = java.sql.Date.valueOf(date.withDayOfMonth(1));
+                    delete.setDate(1, month);
+                    delete.executeUpdate();
+
+                    rebuild.setDate(1, month);
+                    rebuild.setDate(2, month);
+                    rebuild.setDate(3, java.sql.Date.valueOf(date.withDayOfMonth(1).plusMonths(1)));
+                    rebuild.executeUpdate();
+                }
+            }
+        });
+    }
+
+    /**
+     * @brief Starts a background job that periodically reconciles the monthly rollup
+     * @param mySQL A pool of database connections
+     * @param periodMinutes The number of minutes between reconciliations
+     * @post Every periodMinutes, a connection will be borrowed from mySQL and used to
+     *       reconcile the rollup; any previously started job will be stopped
+     */
+    public static synchronized void startReconciliation(MySQLConnection mySQL, long periodMinutes)
+    {
+        stopReconciliation();
+        reconciler = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread t = new Thread(r, "usage-rollup-reconciler");
+            t.setDaemon(true);
+            return t;
+        });
+        reconciler.scheduleWithFixedDelay(() ->
+        {
+            Connection conn = null;
+            try
+            {
+                conn = mySQL.borrowConn();
+                reconcile(conn);
+            }
+            catch (SQLException e)
+            {
+                System.out.println("SQLException: " + e);
+            }
+            finally
+            {
+                mySQL.returnConn(conn);
+            }
+        }, periodMinutes, periodMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @brief Stops the background reconciliation job, if one is running
+     */
+    public static synchronized void stopReconciliation()
+    {
+        if (reconciler != null)
+        {
+            reconciler.shutdownNow();
+            reconciler = null;
+        }
+    }
+
+    /**
+     * @brief A unit of work run inside a transaction
+     */
+    private interface SQLWork
+    {
+        void run() throws SQLException;
+    }
+
+    /**
+     * @brief Runs the given work in a single transaction on conn
+     * @param conn A database connection
+     * @param work The statements to run
+     * @post The work will be committed if it completes, or rolled back if it throws;
+     *       the connection's auto-commit setting will be restored either way
+     * @throws SQLException
+     */
+    private static void inTransaction(Connection conn, SQLWork work) throws SQLException
+    {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try
+        {
+            work.run();
+            conn.commit();
+        }
+        catch (SQLException | RuntimeException e)
+        {
+            conn.rollback();
+            throw e;
+        }
+        finally
+        {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+}
@@ -0,0 +1,490 @@
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.stream.*;
+
+public class UsageSnapshot
+{
+    public static final int ANY = -1;      // matches every source or business in a Filter
+
+    private static final int CHUNK_SIZE = 1 << 16;    // rows aggregated by each parallel task
+    // idx_business_used_date holds the primary key too, so it covers this query in date order
+    private static final String LOAD =
+            "SELECT u.Business_ID, u.Water_Source_ID, u.Usage_Record_Date, " +
+            "u.Amount_Water_Consumed, u.Amount_Water_Wasted, b.Business_Type " +
+            "FROM Business_Used AS u JOIN Business AS b ON b.Business_ID = u.Business_ID " +
+            "ORDER BY u.Usage_Record_Date";
+
+    private static UsageSnapshot current;   // null until first used, or after invalidate()
+
+    // one element per Business_Used row, in Usage_Record_Date order
+    private final int size;
+    private final int[] businessIds;
+    private final int[] sourceIds;
+    private final int[] days;         // epoch days
+    private final int[] months;       // months since year 0, i.e. year * 12 + month - 1
+    private final double[] consumed;
+    private final double[] wasted;
+    private final byte[] types;       // index into typeNames
+    private final String[] typeNames;
+    private final int[] firstMonths;  // by type code; Integer.MAX_VALUE if the type has no rows
+    private final int[] lastMonths;
+    private final long loadMillis;
+    private StatisticsEngine.Dataset dataset;   // built by getDataset on first use
+
+    /**
+     * @brief Receives the usage records of the snapshot one at a time
+     */
+    public interface Visitor
+    {
+        void visit(int businessId, int sourceId, int day, double consumed, double wasted);
+    }
+
+    /**
+     * @brief Selects the usage records to aggregate
+     */
+    public static class Filter
+    {
+        private final YearMonth first;
+        private final YearMonth last;
+        private final String type;
+        private final int sourceId;
+        private final int businessId;
+
+        /**
+         * @brief Creates a Filter
+         * @param firstMonth The first month to include, or null for the earliest
+         * @param lastMonth The last month to include, or null for the latest
+         * @param businessType The Business_Type to include, or null for every type
+         * @param source The Water_Source_ID to include, or ANY
+         * @param business The Business_ID to include, or ANY
+         */
+        public Filter(YearMonth firstMonth, YearMonth lastMonth, String businessType, int source, int business)
+        {
+            first = firstMonth;
+            last = lastMonth;
+            type = businessType;
+            sourceId = source;
+            businessId = business;
+        }
+    }
+
+    private UsageSnapshot(int rows, int[] businesses, int[] sources, int[] dates, double[] amountsConsumed,
+                          double[] amountsWasted, byte[] typeCodes, String[] names, long millis)
+    {
+        size = rows;
+        businessIds = businesses;
+        sourceIds = sources;
+        days = dates;
+        consumed = amountsConsumed;
+        wasted = amountsWasted;
+        types = typeCodes;
+        typeNames = names;
+        loadMillis = millis;
+
+        months = new int[rows];
+        firstMonths = new int[names.length];
+        lastMonths = new int[names.length];
+        Arrays.fill(firstMonths, Integer.MAX_VALUE);
+        Arrays.fill(lastMonths, Integer.MIN_VALUE);
+        for (int i = 0; i < rows; i++)
+        {
+            LocalDate date = LocalDate.ofEpochDay(dates[i]);
+            months[i] = date.getYear() * 12 + date.getMonthValue() - 1;
+            firstMonths[typeCodes[i]] = Math.min(firstMonths[typeCodes[i]], months[i]);
+            lastMonths[typeCodes[i]] = Math.max(lastMonths[typeCodes[i]], months[i]);
+        }
+    }
+
+    /**
+     * @brief Returns the current snapshot, loading it on first use or after it was invalidated
+     * @param conn A database connection
+     * @return The snapshot
+     * @throws SQLException
+     */
+    public static synchronized UsageSnapshot get(Connection conn) throws SQLException
+    {
+        if (current == null)
+            current = load(conn);
+        return current;
+    }
+
+    /**
+     * @brief Discards the current snapshot
+     * @post The snapshot will be reloaded from the database on its next use
+     */
+    public static synchronized void invalidate()
+    {
+        current = null;
+    }
+
+    /**
+     * @brief Reads every Business_Used record, with its business type, into column arrays
+     * @param conn A database connection, or a connection to a snapshot file, whose
+     *        columns are read directly
+     * @return The new snapshot
+     * @throws SQLException
+     */
+    private static UsageSnapshot load(Connection conn) throws SQLException
+    {
+        if (conn.isWrapperFor(SnapshotFile.class))
+            return load(conn.unwrap(SnapshotFile.class));
+
+        long start = System.nanoTime();
+        int capacity = 1 << 16;
+        int[] businesses = new int[capacity];
+        int[] sources = new int[capacity];
+        int[] dates = new int[capacity];
+        double[] amountsConsumed = new double[capacity];
+        double[] amountsWasted = new double[capacity];
+        byte[] typeCodes = new byte[capacity];
+        Map<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+        int rows = 0;
+
+        try (Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY))
+        {
+            stmt.setFetchSize(SQLMethod.getFetchSize());
+            try (ResultSet result = stmt.executeQuery(LOAD))
+            {
+                while (result.next())
+                {
+                    if (rows == capacity)
+                    {
+                        capacity *= 2;
+                        businesses = Arrays.copyOf(businesses, capacity);
+                        sources = Arrays.copyOf(sources, capacity);
+                        dates = Arrays.copyOf(dates, capacity);
+                        amountsConsumed = Arrays.copyOf(amountsConsumed, capacity);
+                        amountsWasted = Arrays.copyOf(amountsWasted, capacity);
+                        typeCodes = Arrays.copyOf(typeCodes, capacity);
+                    }
+                    businesses[rows] = result.getInt(1);
+                    sources[rows] = result.getInt(2);
+                    dates[rows] = (int) result.getDate(3).toLocalDate().toEpochDay();
+                    amountsConsumed[rows] = result.getDouble(4);
+                    amountsWasted[rows] = result.getDouble(5);
+
+                    String type = result.getString(6);
+                    Integer code = dictionary.get(type);
+                    if (code == null)
+                    {
+                        if (dictionary.size() > Byte.MAX_VALUE)
+                            throw new SQLException("More than " + (Byte.MAX_VALUE + 1) + " business types");
+                        code = dictionary.size();
+                        dictionary.put(type, code);
+                    }
+                    typeCodes[rows] = code.byteValue();
+                    rows++;
+                }
+            }
+        }
+
+        return new UsageSnapshot(rows, businesses, sources, dates, amountsConsumed, amountsWasted, typeCodes,
+                                 dictionary.keySet().toArray(new String[0]),
+                                 (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * @brief Builds the column arrays straight from the mapped columns of a snapshot file
+     * @param file A snapshot file holding Business_Used and Business
+     * @return The new snapshot
+     * @post The rows will have been put in Usage_Record_Date order by a counting sort on the
+     *       day, without a query; as with LOAD, records of businesses that do not exist are
+     *       left out
+     * @throws SQLException if the file lacks either table or one of their columns
+     */
+    private static UsageSnapshot load(SnapshotFile file) throws SQLException
+    {
+        long start = System.nanoTime();
+        SnapshotFile.Column[] business = getColumns(file, "Business", "Business_ID", "Business_Type");
+        SnapshotFile.Column[] usage = getColumns(file, "Business_Used", "Business_ID", "Water_Source_ID",
+                "Usage_Record_Date", "Amount_Water_Consumed", "Amount_Water_Wasted");
+
+        // type code by Business_ID, in an array indexed by ID as IDs are assigned in sequence
+        Map<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+        long maxId = -1;
+        for (int row = 0; row < business[0].size(); row++)
+            maxId = Math.max(maxId, business[0].getLong(row));
+        if (maxId > 16L * business[0].size() + 1024)
+            throw new SQLException("Business_ID values are too sparse to index");
+        byte[] typeById = new byte[(int) maxId + 1];
+        Arrays.fill(typeById, (byte) -1);
+        for (int row = 0; row < business[0].size(); row++)
+        {
+            String type = business[1].getString(row);
+            Integer code = dictionary.get(type);
+            if (code == null)
+            {
+                if (dictionary.size() > Byte.MAX_VALUE)
+                    throw new SQLException("More than " + (Byte.MAX_VALUE + 1) + " business types");
+                code = dictionary.size();
+                dictionary.put(type, code);
+            }
+            if (business[0].getLong(row) >= 0)
+                typeById[(int) business[0].getLong(row)] = code.byteValue();
+        }
+
+        // count the records of each day, then place each record after those of earlier days
+        int size = usage[0].size();
+        int firstDay = Integer.MAX_VALUE;
+        int lastDay = Integer.MIN_VALUE;
+        for (int row = 0; row < size; row++)
+        {
+            firstDay = Math.min(firstDay, (int) usage[2].getLong(row));
+            lastDay = Math.max(lastDay, (int) usage[2].getLong(row));
+        }
+        int[] positions = new int[size == 0 ? 1 : lastDay - firstDay + 2];
+        int rows = 0;
+        for (int row = 0; row < size; row++)
+        {
+            long id = usage[0].getLong(row);
+            if (id >= 0 && id < typeById.length && typeById[(int) id] >= 0)
+            {
+                positions[(int) usage[2].getLong(row) - firstDay + 1]++;
+                rows++;
+            }
+        }
+        for (int day = 1; day < positions.length; day++)
+            positions[day] += positions[day - 1];
+
+        int[] businesses = new int[rows];
+        int[] sources = new int[rows];
+        int[] dates = new int[rows];
+        double[] amountsConsumed = new double[rows];
+        double[] amountsWasted = new double[rows];
+        byte[] typeCodes = new byte[rows];
+        for (int row = 0; row < size; row++)
+        {
+            long id = usage[0].getLong(row);
+            if (id < 0 || id >= typeById.length || typeById[(int) id] < 0)
+                continue;
+            int day = (int) usage[2].getLong(row);
+            int at = positions[day - firstDay]++;
+            businesses[at] = (int) id;
+            sources[at] = (int) usage[1].getLong(row);
+            dates[at] = day;
+            amountsConsumed[at] = usage[3].getDouble(row);
+            amountsWasted[at] = usage[4].getDouble(row);
+            typeCodes[at] = typeById[(int) id];
+        }
+
+        return new UsageSnapshot(rows, businesses, sources, dates, amountsConsumed, amountsWasted, typeCodes,
+                                 dictionary.keySet().toArray(new String[0]),
+                                 (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * @brief Finds columns of a snapshot file table
+     * @param file A snapshot file
+     * @param table The table name
+     * @param names The column names
+     * @return The columns, in the order named
+     * @throws SQLException if the table or a column is missing
+     */
+    private static SnapshotFile.Column[] getColumns(SnapshotFile file, String table, String... names)
+            throws SQLException
+    {
+        SnapshotFile.Table found = file.getTable(table);
+        if (found == null)
+            throw new SQLException("The snapshot has no " + table + " table");
+        SnapshotFile.Column[] columns = new SnapshotFile.Column[names.length];
+        for (int i = 0; i < names.length; i++)
+        {
+            columns[i] = found.getColumn(names[i]);
+            if (columns[i] == null)
+                throw new SQLException("The snapshot has no " + table + "." + names[i] + " column");
+        }
+        return columns;
+    }
+
+    /**
+     * @brief Returns the number of usage records in the snapshot
+     * @return The row count
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @brief Returns how long the snapshot took to load
+     * @return The load time in milliseconds
+     */
+    public long getLoadMillis()
+    {
+        return loadMillis;
+    }
+
+    /**
+     * @brief Returns the business types in the snapshot
+     * @return The Business_Type values, in the order first seen
+     */
+    public List<String> getBusinessTypes()
+    {
+        return Collections.unmodifiableList(Arrays.asList(typeNames));
+    }
+
+    /**
+     * @brief Returns the first and last months that usage was reported for a business type
+     * @param type A Business_Type, or null for every type
+     * @return A 2-element array [first, last], or null if no usage was reported
+     */
+    public YearMonth[] getMonthRange(String type)
+    {
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        for (int code = 0; code < typeNames.length; code++)
+        {
+            if (type == null || typeNames[code].equals(type))
+            {
+                first = Math.min(first, firstMonths[code]);
+                last = Math.max(last, lastMonths[code]);
+            }
+        }
+        return first > last ? null : new YearMonth[] { toYearMonth(first), toYearMonth(last) };
+    }
+
+    /**
+     * @brief Passes every usage record to a visitor
+     * @param visitor Receives the Business_ID, Water_Source_ID, Usage_Record_Date (as an epoch
+     *        day) and amounts consumed and wasted of each record
+     * @post The records will have been visited in Usage_Record_Date order, in this thread
+     */
+    public void forEach(Visitor visitor)
+    {
+        for (int i = 0; i < size; i++)
+            visitor.visit(businessIds[i], sourceIds[i], days[i], consumed[i], wasted[i]);
+    }
+
+    /**
+     * @brief Returns the usage records as a dataset for StatisticsEngine
+     * @return A dataset over the snapshot's arrays, grouped by BUSINESS, SOURCE, TYPE
+     *         (Business_Type, whose keys index getBusinessTypes()) or MONTH, with the amounts
+     *         consumed and wasted as its measures
+     * @post On first use, the type codes will have been widened to an int array, the one
+     *       column the dataset does not share with the snapshot
+     */
+    public synchronized StatisticsEngine.Dataset getDataset()
+    {
+        if (dataset == null)
+        {
+            int[] typeCodes = new int[size];
+            for (int i = 0; i < size; i++)
+                typeCodes[i] = types[i];
+            Map<StatisticsEngine.GroupBy, int[]> keys =
+                    new EnumMap<StatisticsEngine.GroupBy, int[]>(StatisticsEngine.GroupBy.class);
+            keys.put(StatisticsEngine.GroupBy.BUSINESS, businessIds);
+            keys.put(StatisticsEngine.GroupBy.SOURCE, sourceIds);
+            keys.put(StatisticsEngine.GroupBy.TYPE, typeCodes);
+            keys.put(StatisticsEngine.GroupBy.MONTH, months);
+            Map<String, double[]> measures = new LinkedHashMap<String, double[]>();
+            measures.put("Amount Consumed", consumed);
+            measures.put("Amount Wasted", wasted);
+            dataset = new StatisticsEngine.Dataset(size, keys, "Business Type", measures);
+        }
+        return dataset;
+    }
+
+    /**
+     * @brief Totals the usage records that pass a filter, by month
+     * @param filter Selects the records to total
+     * @return A map from each month with matching records, in order, to a 3-element array
+     *         [number of records, total consumed, total wasted]
+     * @post Only the rows within the filter's months will be read, split into chunks that
+     *       are totalled in parallel on the common fork/join pool
+     */
+    public SortedMap<YearMonth, double[]> aggregateByMonth(Filter filter)
+    {
+        SortedMap<YearMonth, double[]> totals = new TreeMap<YearMonth, double[]>();
+        int type = ANY;
+        if (filter.type != null)
+        {
+            type = Arrays.asList(typeNames).indexOf(filter.type);
+            if (type < 0)
+                return totals;
+        }
+
+        int from = filter.first != null ? lowerBound((int) filter.first.atDay(1).toEpochDay()) : 0;
+        int to = filter.last != null ? lowerBound((int) filter.last.plusMonths(1).atDay(1).toEpochDay()) : size;
+        if (from >= to)
+            return totals;
+
+        int baseMonth = months[from];
+        int span = months[to - 1] - baseMonth + 1;
+        int typeCode = type;
+        double[] sums = IntStream.range(0, (to - from + CHUNK_SIZE - 1) / CHUNK_SIZE)
+                .parallel()
+                .mapToObj(chunk -> sumChunk(from + chunk * CHUNK_SIZE, Math.min(to, from + (chunk + 1) * CHUNK_SIZE),
+                                            baseMonth, span, typeCode, filter.sourceId, filter.businessId))
+                .reduce(UsageSnapshot::merge)
+                .get();
+
+        for (int m = 0; m < span; m++)
+        {
+            if (sums[m * 3] > 0)
+                totals.put(toYearMonth(baseMonth + m), Arrays.copyOfRange(sums, m * 3, m * 3 + 3));
+        }
+        return totals;
+    }
+
+    /**
+     * @brief Totals the matching rows of one chunk by month
+     * @return An array of 3 sums (count, consumed, wasted) per month from baseMonth
+     */
+    private double[] sumChunk(int from, int to, int baseMonth, int span, int type, int sourceId, int businessId)
+    {
+        double[] sums = new double[span * 3];
+        for (int i = from; i < to; i++)
+        {
+            if ((type == ANY || types[i] == type)
+                    && (sourceId == ANY || sourceIds[i] == sourceId)
+                    && (businessId == ANY || businessIds[i] == businessId))
+            {
+                int at = (months[i] - baseMonth) * 3;
+                sums[at]++;
+                sums[at + 1] += consumed[i];
+                sums[at + 2] += wasted[i];
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * @brief Adds the sums of one chunk to another
+     * @return a, holding the sums of both
+     */
+    private static double[] merge(double[] a, double[] b)
+    {
+        for (int i = 0; i < a.length; i++)
+            a[i] += b[i];
+        return a;
+    }
+
+    /**
+     * @brief Returns the first row on or after the given day
+     * @param day An epoch day
+     * @return The index of the first row dated day or later, or size if there is none
+     */
+    private int lowerBound(int day)
+    {
+        int low = 0;
+        int high = size;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (days[mid] < day)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * @brief Converts a month number back to a YearMonth
+     */
+    private static YearMonth toYearMonth(int month)
+    {
+        return YearMonth.of(Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1);
+    }
+}
@@ -0,0 +1,341 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ReportWorkload implements AutoCloseable
+{
+    private static final String[] BUSINESS_TYPES = { "Industrial", "Agricultural" };
+    private static final int MONTHS_OF_USAGE = 36;
+    private static final int TREATMENT_TYPES = 12;
+    private static final int TREATMENTS_PER_SOURCE = 24;
+    private static final int BATCH_SIZE = 1_000;
+
+    private final Connection conn;
+    private final Path home;
+    private final Map<String, Callable<Object>> workloads;
+
+    /**
+     * @brief Creates an in-memory stand-in for the water_treatment2 database and the report workloads
+     * @param scale The scale factor of the generated data; scale 1 holds 30 facilities, 40 water
+     *        sources, 100 businesses and 3,600 usage records, and every table grows linearly with scale
+     * @post An H2 database in MySQL mode will be created from the CREATE TABLE statements in
+     *       water_treatment2.sql and filled with generated data
+     * @throws Exception if the schema file cannot be read or the database cannot be built
+     */
+    public ReportWorkload(int scale) throws Exception
+    {
+        home = findHome();
+        conn = DriverManager.getConnection("jdbc:h2:mem:dss" + scale + "_" + System.nanoTime() +
+                                           ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE");
+        createSchema();
+        seed(scale);
+        workloads = createWorkloads();
+    }
+
+    /**
+     * @brief Returns the benchmarked workloads, keyed by name
+     * @return A map from "SQL#1" ... "SQL#13", "render" and "menus" to a task that runs it once
+     */
+    public Map<String, Callable<Object>> getWorkloads()
+    {
+        return workloads;
+    }
+
+    /**
+     * @brief Closes the stand-in database
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException
+    {
+        StatementCache.release(conn);
+        conn.close();
+    }
+
+    /**
+     * @brief Locates the directory containing Menus.txt and water_treatment2.sql
+     * @return The dss.home system property if set, otherwise the current or parent directory
+     */
+    private static Path findHome()
+    {
+        String property = System.getProperty("dss.home");
+        if (property != null)
+            return Paths.get(property);
+
+        Path current = Paths.get("").toAbsolutePath();
+        return Files.exists(current.resolve("Menus.txt")) ? current : current.getParent();
+    }
+
+    /**
+     * @brief Creates the tables declared in water_treatment2.sql
+     * @post Every CREATE TABLE statement in the script will have been run; schema-level
+     *       statements and data will have been skipped
+     * @throws IOException
+     * @throws SQLException
+     */
+    private void createSchema() throws IOException, SQLException
+    {
+        String script = new String(Files.readAllBytes(home.resolve("water_treatment2.sql")), StandardCharsets.UTF_8);
+        try (Statement stmt = conn.createStatement())
+        {
+            for (String sql : script.replaceAll("(?m)^\\s*--.*$", "").split(";"))
+            {
+                if (sql.trim().toLowerCase().startsWith("create table"))
+                    stmt.execute(sql);
+            }
+        }
+    }
+
+    /**
+     * @brief Fills the stand-in database with generated data at the given scale
+     * @param scale The scale factor
+     * @post All report tables, the Business_Usage_Monthly rollup and the treatment index
+     *       will hold consistent data
+     * @throws SQLException
+     */
+    private void seed(int scale) throws SQLException
+    {
+        Random random = new Random(42);
+        LocalDate today = LocalDate.now();
+        int facilities = 30 * scale;
+        int sources = 40 * scale;
+        int regulations = 8 * scale;
+        int businesses = 100 * scale;
+
+        conn.setAutoCommit(false);
+        insert("INSERT INTO Facility VALUES (?, ?, ?, ?, ?, ?)", facilities, (stmt, i) ->
+        {
+            stmt.setInt(1, i);
+            stmt.setString(2, "Facility " + i);
+            stmt.setString(3, i + " Main Street, Olympia, WA 98501");
+            stmt.setString(4, "Contact " + i);
+            stmt.setString(5, "360-555-" + String.format("%04d", i % 10_000));
+            stmt.setDouble(6, random.nextInt(5_000_000));
+        });
+        insert("INSERT INTO Water_Source VALUES (?, ?, ?)", sources, (stmt, i) ->
+        {
+            stmt.setInt(1, i);
+            stmt.setString(2, "Source " + i);
+            stmt.setString(3, i % 5 == 0 ? "Substandard" : "Good");
+        });
+        insert("INSERT INTO Treatment VALUES (?, ?)", TREATMENT_TYPES, (stmt, i) ->
+        {
+            stmt.setInt(1, i);
+            stmt.setString(2, "Treatment process " + i);
+        });
+        insert("INSERT INTO Regulation VALUES (?, ?, ?, ?)", regulations, (stmt, i) ->
+        {
+            stmt.setInt(1, i);
+            stmt.setString(2, "Regulation " + i);
+            stmt.setDate(3, java.sql.Date.valueOf(today.minusYears(5).plusDays(i)));
+            stmt.setString(4, "Requirements of regulation " + i);
+        });
+        insert("INSERT INTO Business VALUES (?, ?, ?, ?, ?, ?)", businesses, (stmt, i) ->
+        {
+            stmt.setInt(1, i);
+            stmt.setString(2, BUSINESS_TYPES[i % 2]);
+            stmt.setString(3, "Business " + i);
+            stmt.setString(4, i + " Industrial Way, Tacoma, WA 98402");
+            stmt.setString(5, "Owner " + i);
+            stmt.setDate(6, java.sql.Date.valueOf(today.minusDays(random.nextInt(4 * 365))));
+        });
+
+        // one reading per business per month, rolled up as it is generated
+        Map<LocalDate, double[]> rollup = new TreeMap<LocalDate, double[]>();
+        insert("INSERT INTO Business_Used VALUES (?, ?, ?, ?, ?)", businesses * MONTHS_OF_USAGE, (stmt, i) ->
+        {
+            int business = (i - 1) / MONTHS_OF_USAGE + 1;
+            LocalDate date = today.minusMonths((i - 1) % MONTHS_OF_USAGE).withDayOfMonth(1 + business % 28);
+            double consumed = 100_000 + random.nextInt(2_000_000);
+            double wasted = random.nextInt(200_000);
+
+            stmt.setInt(1, business);
+            stmt.setInt(2, business % sources + 1);
+            stmt.setDate(3, java.sql.Date.valueOf(date));
+            stmt.setDouble(4, consumed);
+            stmt.setDouble(5, wasted);
+
+            double[] month = rollup.computeIfAbsent(date.withDayOfMonth(1), k -> new double[3]);
+            month[0]++;
+            month[1] += consumed;
+            month[2] += wasted;
+        });
+        List<Map.Entry<LocalDate, double[]>> months = new ArrayList<Map.Entry<LocalDate, double[]>>(rollup.entrySet());
+        insert("INSERT INTO Business_Usage_Monthly VALUES (?, ?, ?, ?, ?)", months.size(), (stmt, i) ->
+        {
+            Map.Entry<LocalDate, double[]> month = months.get(i - 1);
+            stmt.setDate(1, java.sql.Date.valueOf(month.getKey()));
+            stmt.setInt(2, (int) month.getValue()[0]);
+            stmt.setDouble(3, month.getValue()[1]);
+            stmt.setDouble(4, month.getValue()[2]);
+            stmt.setDouble(5, month.getValue()[1] + month.getValue()[2]);
+        });
+
+        // roughly monthly treatments over the last two years
+        insert("INSERT INTO Treatments_Performed VALUES (?, ?, ?, ?, ?, ?)", sources * TREATMENTS_PER_SOURCE, (stmt, i) ->
+        {
+            int source = (i - 1) / TREATMENTS_PER_SOURCE + 1;
+            int k = (i - 1) % TREATMENTS_PER_SOURCE;
+            stmt.setInt(1, source % facilities + 1);
+            stmt.setInt(2, source);
+            stmt.setInt(3, (source + k) % TREATMENT_TYPES + 1);
+            stmt.setDate(4, java.sql.Date.valueOf(today.minusDays(k * 30L + source % 30)));
+            stmt.setDouble(5, random.nextInt(5_000_000));
+            stmt.setString(6, "Successful");
+        });
+
+        // each source has two regulations, and each regulation requires three treatments
+        insert("INSERT INTO Water_Source_Has_Regulation VALUES (?, ?)", sources * 2, (stmt, i) ->
+        {
+            int source = (i - 1) / 2 + 1;
+            stmt.setInt(1, source);
+            stmt.setInt(2, (source + (i % 2) * (regulations / 2)) % regulations + 1);
+        });
+        insert("INSERT INTO Treatment_Has_Regulation VALUES (?, ?)", regulations * 3, (stmt, i) ->
+        {
+            int regulation = (i - 1) / 3 + 1;
+            stmt.setInt(1, (regulation * 3 + i % 3) % TREATMENT_TYPES + 1);
+            stmt.setInt(2, regulation);
+        });
+        conn.commit();
+        TreatmentIndex.reconcile(conn);
+    }
+
+    /**
+     * @brief Sets the parameters of one generated row
+     */
+    private interface RowGenerator
+    {
+        void setRow(PreparedStatement stmt, int row) throws SQLException;
+    }
+
+    /**
+     * @brief Inserts generated rows in batches
+     * @param sql An INSERT statement
+     * @param rows The number of rows to insert
+     * @param generator Sets the parameters of row 1 through rows
+     * @throws SQLException
+     */
+    private void insert(String sql, int rows, RowGenerator generator) throws SQLException
+    {
+        try (PreparedStatement stmt = conn.prepareStatement(sql))
+        {
+            for (int i = 1; i <= rows; i++)
+            {
+                generator.setRow(stmt, i);
+                stmt.addBatch();
+                if (i % BATCH_SIZE == 0)
+                    stmt.executeBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    /**
+     * @brief Builds a task for every report query path, the result renderer, and the menu loader
+     * @return The workloads, keyed by name
+     */
+    private Map<String, Callable<Object>> createWorkloads()
+    {
+        LocalDate today = LocalDate.now();
+        java.sql.Date yearStart = java.sql.Date.valueOf(YearMonth.now().minusMonths(11).atDay(1));
+        java.sql.Date nextMonth = java.sql.Date.valueOf(YearMonth.now().plusMonths(1).atDay(1));
+        SQLMethod renderer = new SQLMethod("render", null, new PrintStream(OutputStream.nullOutputStream()));
+        String menus = home.resolve("Menus.txt").toString();
+
+        Map<String, Callable<Object>> map = new LinkedHashMap<String, Callable<Object>>();
+        map.put("SQL#1", () -> query(SQLMethod.FACILITY_LIST)
+                             + query(SQLMethod.FACILITY_DETAIL, "Facility 1"));
+        map.put("SQL#2", () -> query(SQLMethod.WATER_SOURCE_LIST)
+                             + query(SQLMethod.TREATMENTS_RECEIVED, "Source 1")
+                             + query(SQLMethod.TREATMENTS_MANDATED, "Source 1"));
+        map.put("SQL#3", () -> query(SQLMethod.REGULATION_LIST)
+                             + query(SQLMethod.getDetailQuery("Regulation_Name", "Regulation"), "Regulation 1"));
+        map.put("SQL#4", () -> query(SQLMethod.REGULATED_SOURCES)
+                             + ComplianceEngine.evaluateSource(conn, "Source 1", ComplianceEngine.DEFAULT_WINDOW_DAYS).getReceived()
+                             + TreatmentIndex.countInWindow(conn, 1, 1, ComplianceEngine.DEFAULT_WINDOW_DAYS));
+        map.put("SQL#5", () -> query(SQLMethod.USAGE_DATE_RANGE, "Industrial")
+                             + query(SQLMethod.MONTHLY_USAGE_BY_TYPE, "Industrial", yearStart, nextMonth));
+        map.put("SQL#6", () -> query(SQLMethod.USAGE_DATE_RANGE, "Agricultural")
+                             + query(SQLMethod.MONTHLY_USAGE_BY_TYPE, "Agricultural", yearStart, nextMonth));
+        map.put("SQL#7", () -> query(SQLMethod.MONTHLY_USAGE_ROLLUP,
+                                     java.sql.Date.valueOf(YearMonth.now().minusYears(2).atDay(1))));
+        map.put("SQL#8", () -> updateScreen("Facility", "Facility_ID", "Facility_Name", "Facility 1"));
+        map.put("SQL#9", () -> updateScreen("Water_Source", "Water_Source_ID", "Location", "Source 1"));
+        map.put("SQL#10", () -> updateScreen("Business", "Business_ID", "Business_Name", "Business 1"));
+        map.put("SQL#11", () -> updateScreen("Regulation", "Regulation_ID", "Regulation_Name", "Regulation 1"));
+        map.put("SQL#12", () -> query(SQLMethod.BUSINESSES_OPENED, java.sql.Date.valueOf(today.minusYears(2))));
+        map.put("SQL#13", () -> ComplianceEngine.evaluate(conn, ComplianceEngine.DEFAULT_WINDOW_DAYS,
+                                                          ComplianceEngine.ALL, ComplianceEngine.BY_MISSING).size());
+        map.put("render", () ->
+        {
+            try (ResultSet result = execute("SELECT * FROM Business"))
+            {
+                renderer.printFullResultSingleColumn(result);
+            }
+            return renderer;
+        });
+        map.put("menus", () -> Menu.getMenusFromFile(menus));
+        return map;
+    }
+
+    /**
+     * @brief Runs the queries behind an update screen (SQL#8 - SQL#11), without the update itself
+     * @return The number of rows read
+     * @throws SQLException
+     */
+    private long updateScreen(String table, String key, String column, String selection) throws SQLException
+    {
+        long rows = query(KeysetPager.getListQuery(table, key, column, null))
+                  + query(SQLMethod.getDetailQuery(column, table), selection);
+        try (ResultSet result = conn.getMetaData().getColumns(null, null, table.toLowerCase(), null))
+        {
+            while (result.next())
+                rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * @brief Runs a query through the connection's StatementCache and reads every column of every row
+     * @param sql A report query
+     * @param params The query's parameter values
+     * @return The number of rows read
+     * @throws SQLException
+     */
+    private long query(String sql, Object... params) throws SQLException
+    {
+        long rows = 0;
+        try (ResultSet result = execute(sql, params))
+        {
+            int columns = result.getMetaData().getColumnCount();
+            while (result.next())
+            {
+                for (int col = 1; col <= columns; col++)
+                    result.getObject(col);
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @brief Executes a query on a cached, forward-only statement, as SQLMethod does
+     * @param sql A query
+     * @param params The query's parameter values
+     * @return The result set, which the caller must close
+     * @throws SQLException
+     */
+    private ResultSet execute(String sql, Object... params) throws SQLException
+    {
+        StatementCache.CachedStatement cached = StatementCache.forConnection(conn).prepare(sql, ResultSet.TYPE_FORWARD_ONLY);
+        PreparedStatement stmt = cached.getStatement();
+        for (int i = 0; i < cached.getParamCount(); i++)
+            stmt.setObject(i + 1, i < params.length ? params[i] : null);
+        return stmt.executeQuery();
+    }
+}
@@ -0,0 +1,55 @@
+package dss.benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * @brief Measures the terminal rendering path and menu loading
+ *
+ * render runs SQLMethod.printFullResultSingleColumn (and so TableRenderer.printSingleColumn) over
+ * the whole Business table, printing to a discarded stream; menus parses Menus.txt with
+ * Menu.getMenusFromFile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark
+{
+    @Param({ "1", "10" })
+    public int scale;
+
+    private Workloads workloads;
+    private Callable<Object> render;
+    private Callable<Object> menus;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        workloads = Workloads.open(scale);
+        render = workloads.get("render");
+        menus = workloads.get("menus");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        workloads.close();
+    }
+
+    @Benchmark
+    public Object printFullResultSingleColumn() throws Exception
+    {
+        return render.call();
+    }
+
+    @Benchmark
+    public Object getMenusFromFile() throws Exception
+    {
+        return menus.call();
+    }
+}
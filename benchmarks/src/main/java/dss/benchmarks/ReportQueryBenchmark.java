@@ -0,0 +1,50 @@
+package dss.benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * @brief Measures the database work behind each SQLMethod report
+ *
+ * Each invocation runs every query a report issues, with representative selections and
+ * without the interactive prompts, against a stand-in database of the given scale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportQueryBenchmark
+{
+    @Param({ "1", "10" })
+    public int scale;
+
+    @Param({ "SQL#1", "SQL#2", "SQL#3", "SQL#4", "SQL#5", "SQL#6", "SQL#7",
+             "SQL#8", "SQL#9", "SQL#10", "SQL#11", "SQL#12", "SQL#13" })
+    public String report;
+
+    private Workloads workloads;
+    private Callable<Object> task;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        workloads = Workloads.open(scale);
+        task = workloads.get(report);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        workloads.close();
+    }
+
+    @Benchmark
+    public Object query() throws Exception
+    {
+        return task.call();
+    }
+}
@@ -0,0 +1,55 @@
+package dss.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * @brief Opens the report workloads of a ReportWorkload stand-in database
+ *
+ * The DSS classes live in the default package, which a named package cannot import, and
+ * JMH does not accept benchmarks in the default package; the workloads are therefore built
+ * by the default-package ReportWorkload class and looked up here once, at setup time.
+ */
+final class Workloads implements AutoCloseable
+{
+    private final AutoCloseable workload;
+    private final Map<String, Callable<Object>> tasks;
+
+    @SuppressWarnings("unchecked")
+    private Workloads(Object reportWorkload) throws ReflectiveOperationException
+    {
+        workload = (AutoCloseable) reportWorkload;
+        tasks = (Map<String, Callable<Object>>) reportWorkload.getClass().getMethod("getWorkloads").invoke(reportWorkload);
+    }
+
+    /**
+     * @brief Builds a stand-in database at the given scale and returns its workloads
+     * @param scale The scale factor of the generated data
+     * @return The workloads
+     * @throws ReflectiveOperationException if the database cannot be built
+     */
+    static Workloads open(int scale) throws ReflectiveOperationException
+    {
+        return new Workloads(Class.forName("ReportWorkload").getConstructor(int.class).newInstance(scale));
+    }
+
+    /**
+     * @brief Returns the task for the named workload
+     * @param name A workload name, e.g. "SQL#7", "render" or "menus"
+     * @return The task
+     * @throws IllegalArgumentException if there is no such workload
+     */
+    Callable<Object> get(String name)
+    {
+        Callable<Object> task = tasks.get(name);
+        if (task == null)
+            throw new IllegalArgumentException("Unknown workload: " + name);
+        return task;
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        workload.close();
+    }
+}
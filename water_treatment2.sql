@@ -110,6 +110,26 @@ create table if not exists Investment
     on delete cascade on update cascade
 );
 
+-- Monthly totals of Business_Used, maintained by UsageRollup.java
+create table if not exists Business_Usage_Monthly
+(
+	Usage_Month date not null primary key,
+    Record_Count int not null,
+    Total_Consumed double not null,
+    Total_Wasted double not null,
+    Total_Needing_Treatment double not null
+);
+
+-- Most recent treatment per water source and treatment, maintained by TreatmentIndex.java
+create table if not exists Treatment_Last_Performed
+(
+	Water_Source_ID int not null,
+    Treatment_Number int not null,
+    Last_Treated date not null,
+    Treatment_Count int not null,
+    primary key (Water_Source_ID, Treatment_Number)
+);
+
 INSERT INTO Water_Source VALUES (1, 'Columbia River', 'Substandard');
 INSERT INTO Water_Source VALUES (2, 'Cowlitz River', 'Good');
 INSERT INTO Water_Source VALUES (3, 'Entiat River', 'Extraordinary');
@@ -664,7 +684,20 @@ INSERT INTO Treatments_Performed VALUES (1, 37, 10, '2021-01-01', 3874516, 'Succ
 INSERT INTO Treatments_Performed VALUES (1, 38, 10, '2021-09-05', 4171133, 'Successful');
 INSERT INTO Treatments_Performed VALUES (1, 39, 10, '2021-09-05', 4171135, 'Successful');
 
+-- Build the monthly usage rollup from the data loaded above
+INSERT INTO Business_Usage_Monthly
+SELECT DATE_FORMAT(Usage_Record_Date, '%Y-%m-01'), COUNT(*), SUM(Amount_Water_Consumed),
+       SUM(Amount_Water_Wasted), SUM(Amount_Water_Consumed + Amount_Water_Wasted)
+FROM Business_Used GROUP BY DATE_FORMAT(Usage_Record_Date, '%Y-%m-01');
+
+-- Build the treatment index from the data loaded above
+INSERT INTO Treatment_Last_Performed
+SELECT Water_Source_ID, Treatment_Number, MAX(Date_Treated), COUNT(*)
+FROM Treatments_Performed GROUP BY Water_Source_ID, Treatment_Number;
+
 
+-- drop table Treatment_Last_Performed;
+-- drop table Business_Usage_Monthly;
 -- drop table Investment;
 -- drop table Treatment_Has_Regulation;
 -- drop table Water_Source_Has_Regulation;